@@ -0,0 +1,100 @@
+package com.example.helloand.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.helloand.EntityStore;
+import com.example.helloand.ObjectFactory;
+import com.example.helloand.ObjectFactory.BaseObject;
+
+/**
+ * The per-frame walk over all entities, for 1k, 10k and 100k entities.
+ * The object benchmarks iterate a list of BaseObjects the way the game
+ * did before the EntityStore, as a baseline for the column benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntityIterationBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int mEntityCount;
+
+    private EntityStore mStore;
+    private List<BaseObject> mObjects;
+
+    @Setup
+    public void setUp(){
+        ObjectFactory.setEntityStore(null);
+        mStore = new EntityStore(mEntityCount);
+        mObjects = new ArrayList<BaseObject>(mEntityCount);
+        for(int i = 0; i < mEntityCount; i++){
+            final boolean large = i % 2 == 0;
+            mStore.add(large ? EntityStore.TYPE_LARGE_OBJECT : EntityStore.TYPE_SMALL_OBJECT, i, i);
+            mObjects.add(large ? ObjectFactory.createLargeObject(i, i) : ObjectFactory.createSmallObject(i, i));
+        }
+    }
+
+    @Benchmark
+    public int translateColumns(){
+        mStore.translateAll(1, -1);
+        return mStore.getModificationCount();
+    }
+
+    @Benchmark
+    public int countAliveColumns(){
+        return mStore.countAlive(EntityStore.TYPE_LARGE_OBJECT);
+    }
+
+    // Read every position, as a renderer building its vertex buffer does
+    @Benchmark
+    public long sumPositionColumns(){
+        final int[] x = mStore.getXColumn();
+        final int[] y = mStore.getYColumn();
+        final boolean[] alive = mStore.getAliveColumn();
+        long sum = 0;
+        for(int i = 0, size = mStore.size(); i < size; i++){
+            if(alive[i]){
+                sum += x[i] + y[i];
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int translateObjects(){
+        final List<BaseObject> objects = mObjects;
+        for(int i = 0, size = objects.size(); i < size; i++){
+            final BaseObject object = objects.get(i);
+            object.set(object.getX() + 1, object.getY() - 1);
+        }
+        return objects.size();
+    }
+
+    @Benchmark
+    public long sumPositionObjects(){
+        final List<BaseObject> objects = mObjects;
+        long sum = 0;
+        for(int i = 0, size = objects.size(); i < size; i++){
+            final BaseObject object = objects.get(i);
+            sum += object.getX() + object.getY();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.helloand.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.helloand.GameManager;
+
+/**
+ * GameManager counter updates under 1, 4 and 16 contending threads.
+ *
+ * The increment benchmarks hit the atomic counters directly. The queue
+ * groups pair the producers with one thread draining the event queue, the
+ * way collision callbacks and the update thread share it in the game.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GameManagerBenchmark {
+
+    private GameManager mGameManager;
+
+    @Setup
+    public void setUp(){
+        mGameManager = GameManager.getInstance();
+        mGameManager.resetGame();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void incrementScore1(){
+        mGameManager.incrementScore(1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void incrementScore4(){
+        mGameManager.incrementScore(1);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void incrementScore16(){
+        mGameManager.incrementScore(1);
+    }
+
+    @Benchmark
+    @Group("queueScore1")
+    @GroupThreads(1)
+    public void queueScore1(){
+        mGameManager.queueScore(1);
+    }
+
+    @Benchmark
+    @Group("queueScore1")
+    @GroupThreads(1)
+    public int drainEvents1(){
+        return mGameManager.drainEvents();
+    }
+
+    @Benchmark
+    @Group("queueScore4")
+    @GroupThreads(4)
+    public void queueScore4(){
+        mGameManager.queueScore(1);
+    }
+
+    @Benchmark
+    @Group("queueScore4")
+    @GroupThreads(1)
+    public int drainEvents4(){
+        return mGameManager.drainEvents();
+    }
+
+    @Benchmark
+    @Group("queueScore16")
+    @GroupThreads(16)
+    public void queueScore16(){
+        mGameManager.queueScore(1);
+    }
+
+    @Benchmark
+    @Group("queueScore16")
+    @GroupThreads(1)
+    public int drainEvents16(){
+        return mGameManager.drainEvents();
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.helloand.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.example.helloand.PreferenceStore;
+
+/**
+ * A PreferenceStore kept in a HashMap, standing in for SharedPreferences
+ * so the benchmarks measure our code rather than the disk.
+ */
+public class InMemoryPreferenceStore implements PreferenceStore {
+
+    private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+    @Override
+    public synchronized int getInt(final String pKey, final int pDefaultValue){
+        final Object value = mValues.get(pKey);
+        return value instanceof Integer ? (Integer) value : pDefaultValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(final String pKey, final boolean pDefaultValue){
+        final Object value = mValues.get(pKey);
+        return value instanceof Boolean ? (Boolean) value : pDefaultValue;
+    }
+
+    @Override
+    public synchronized void write(final Map<String, Object> pValues){
+        mValues.putAll(pValues);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.helloand.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.helloand.EntityStore;
+import com.example.helloand.ObjectFactory;
+import com.example.helloand.ObjectFactory.BaseObject.LargeObject;
+import com.example.helloand.ObjectFactory.BaseObject.SmallObject;
+
+/**
+ * Entity creation through ObjectFactory. Run with -prof gc to see the
+ * allocation rate next to the throughput: the create benchmarks allocate
+ * an object per call, the pooled ones should allocate nothing at all.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectFactoryBenchmark {
+
+    private int mX;
+
+    @Setup
+    public void setUp(){
+        ObjectFactory.setEntityStore(null);
+        ObjectFactory.getLargeObjectPool().prewarm(ObjectFactory.DEFAULT_HIGH_WATER_MARK);
+        ObjectFactory.getSmallObjectPool().prewarm(ObjectFactory.DEFAULT_HIGH_WATER_MARK);
+    }
+
+    @Benchmark
+    public LargeObject createLargeObject(){
+        return ObjectFactory.createLargeObject(mX++, 0);
+    }
+
+    @Benchmark
+    public SmallObject createSmallObject(){
+        return ObjectFactory.createSmallObject(mX++, 0);
+    }
+
+    @Benchmark
+    public int obtainAndRecycleLargeObject(){
+        final LargeObject object = ObjectFactory.obtainLargeObject(mX++, 0);
+        final int x = object.getX();
+        ObjectFactory.recycle(object);
+        return x;
+    }
+
+    @Benchmark
+    public int obtainAndRecycleSmallObject(){
+        final SmallObject object = ObjectFactory.obtainSmallObject(mX++, 0);
+        final int x = object.getX();
+        ObjectFactory.recycle(object);
+        return x;
+    }
+
+    // Pooled objects backed by an EntityStore, as the game runs them
+    @State(Scope.Thread)
+    public static class StoreState {
+        EntityStore mStore;
+
+        @Setup
+        public void setUp(){
+            mStore = new EntityStore();
+            ObjectFactory.setEntityStore(mStore);
+            ObjectFactory.getLargeObjectPool().prewarm(ObjectFactory.DEFAULT_HIGH_WATER_MARK);
+        }
+    }
+
+    @Benchmark
+    public int obtainAndRecycleBoundLargeObject(final StoreState pState){
+        final LargeObject object = ObjectFactory.obtainLargeObject(mX++, 0);
+        final int x = object.getX();
+        ObjectFactory.recycle(object);
+        return x;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.helloand.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.helloand.EntityStore;
+import com.example.helloand.GameManager;
+import com.example.helloand.SaveGame;
+import com.example.helloand.StateSnapshotter;
+import com.example.helloand.WriteBehindWriter;
+
+/**
+ * Save/load round trips. The preference round trip runs the
+ * WriteBehindWriter that UserData uses against an in-memory store; the
+ * save game round trip writes and reads back a SaveGame file. The delta
+ * snapshot appends the one GameManager counter that changed to a
+ * StateSnapshotter log, compacting it every DEFAULT_MAX_LOG_RECORDS.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistenceBenchmark {
+
+    private static final String LEVEL_KEY = "unlockedLevels";
+    private static final String SOUND_KEY = "soundKey";
+
+    // long enough that only our explicit flushes write anything
+    private static final long FLUSH_INTERVAL_MILLIS = 60 * 1000;
+
+    private InMemoryPreferenceStore mPreferenceStore;
+    private WriteBehindWriter mWriter;
+    private int mLevel;
+
+    @Setup
+    public void setUp(){
+        mPreferenceStore = new InMemoryPreferenceStore();
+        mWriter = new WriteBehindWriter(mPreferenceStore, FLUSH_INTERVAL_MILLIS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mWriter.shutdown();
+    }
+
+    @Benchmark
+    public int preferencesRoundTrip() throws IOException {
+        mWriter.putInt(LEVEL_KEY, ++mLevel);
+        mWriter.putBoolean(SOUND_KEY, (mLevel & 1) == 0);
+        mWriter.flush();
+        return mPreferenceStore.getInt(LEVEL_KEY, 1);
+    }
+
+    // Many changes between two flushes, as while playing a level
+    @Benchmark
+    public int coalescedPreferencesRoundTrip() throws IOException {
+        for(int i = 0; i < 16; i++){
+            mWriter.putInt(LEVEL_KEY, ++mLevel);
+        }
+        mWriter.flush();
+        return mPreferenceStore.getInt(LEVEL_KEY, 1);
+    }
+
+    // A save file holding a number of entities
+    @State(Scope.Thread)
+    public static class SaveGameState {
+        @Param({ "100", "10000" })
+        public int mEntityCount;
+
+        File mFile;
+        EntityStore mEntities;
+        EntityStore mLoadedEntities;
+        int[] mLevelScores;
+
+        @Setup
+        public void setUp() throws IOException {
+            mFile = File.createTempFile("benchmark", ".sav");
+            mEntities = new EntityStore(mEntityCount);
+            for(int i = 0; i < mEntityCount; i++){
+                mEntities.add(i % 2 == 0 ? EntityStore.TYPE_LARGE_OBJECT : EntityStore.TYPE_SMALL_OBJECT, i, -i);
+            }
+            mLoadedEntities = new EntityStore(mEntityCount);
+            mLevelScores = new int[] { 100, 250, 400, 75 };
+        }
+
+        @TearDown
+        public void tearDown(){
+            if(!mFile.delete()){
+                mFile.deleteOnExit();
+            }
+        }
+    }
+
+    @Benchmark
+    public int saveGameRoundTrip(final SaveGameState pState) throws IOException {
+        SaveGame.write(pState.mFile, GameManager.getInstance(), pState.mEntities, pState.mLevelScores);
+        final SaveGame saveGame = SaveGame.open(pState.mFile);
+        saveGame.readGameManager(GameManager.getInstance());
+        saveGame.readEntities(pState.mLoadedEntities);
+        return saveGame.readLevelScores().length + pState.mLoadedEntities.size();
+    }
+
+    // A snapshotter of the GameManager, writing to temporary files
+    @State(Scope.Thread)
+    public static class SnapshotState {
+        File mBaseFile;
+        File mLogFile;
+        StateSnapshotter mSnapshotter;
+
+        @Setup
+        public void setUp() throws IOException {
+            mBaseFile = File.createTempFile("benchmark", ".base");
+            mLogFile = File.createTempFile("benchmark", ".log");
+            mBaseFile.delete();
+            mSnapshotter = new StateSnapshotter(mBaseFile, mLogFile);
+            mSnapshotter.addSource(1, GameManager.getInstance());
+            mSnapshotter.restore();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            mSnapshotter.close();
+            mBaseFile.delete();
+            mLogFile.delete();
+        }
+    }
+
+    @Benchmark
+    public int deltaSnapshot(final SnapshotState pState) throws IOException {
+        GameManager.getInstance().incrementScore(1);
+        return pState.mSnapshotter.snapshot();
+    }
+}
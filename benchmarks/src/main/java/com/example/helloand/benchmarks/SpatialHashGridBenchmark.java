@@ -0,0 +1,82 @@
+package com.example.helloand.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.helloand.EntityStore;
+import com.example.helloand.SpatialHashGrid;
+
+/**
+ * Broad-phase pair generation with SpatialHashGrid. The world grows with
+ * the entity count, keeping the density of one 800x480 screen holding 1000
+ * entities, so the time per operation should grow about linearly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpatialHashGridBenchmark {
+
+    private static final int RADIUS = 4;
+
+    @Param({ "1000", "10000", "50000" })
+    public int mEntityCount;
+
+    private EntityStore mStore;
+    private SpatialHashGrid mGrid;
+    private int mDirection = 1;
+    private final PairCounter mPairCounter = new PairCounter();
+
+    @Setup
+    public void setUp(){
+        final double scale = Math.sqrt(mEntityCount / 1000.0);
+        final int width = (int) (800 * scale);
+        final int height = (int) (480 * scale);
+        final Random random = new Random(1);
+        mStore = new EntityStore(mEntityCount);
+        for(int i = 0; i < mEntityCount; i++){
+            mStore.add(EntityStore.TYPE_SMALL_OBJECT, random.nextInt(width), random.nextInt(height));
+        }
+        mGrid = new SpatialHashGrid(width, height, 2 * RADIUS);
+        mGrid.update(mStore);
+    }
+
+    // Move everything a little, then sync the grid, as every step does
+    @Benchmark
+    public int update(){
+        mDirection = -mDirection;
+        mStore.translateAll(mDirection, 0);
+        mGrid.update(mStore);
+        return mGrid.size();
+    }
+
+    @Benchmark
+    public int queryPairs(){
+        mPairCounter.mCount = 0;
+        mGrid.queryPairs(RADIUS, mPairCounter);
+        return mPairCounter.mCount;
+    }
+
+    private static class PairCounter implements SpatialHashGrid.PairVisitor {
+        int mCount;
+
+        @Override
+        public void onPair(final int pHandleA, final int pHandleB){
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.helloand.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.helloand.SlabAllocator;
+
+/**
+ * Filling a sprite batch's vertices for one frame, the way the GL thread
+ * does before an upload. The heap benchmark writes quads into a float[]
+ * and copies the whole array into a native buffer, like AndEngine's
+ * HighPerformance buffers; the slab benchmark writes them straight into a
+ * SlabAllocator block, like SlabSpriteBatchVertexBufferObject. The churn
+ * benchmark allocates and frees a chunk batch's block, as streaming does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VertexBufferBenchmark {
+
+    // as in SpriteBatch: 6 vertices of x, y, color, u, v per quad
+    private static final int SPRITE_SIZE = 30;
+    private static final int CHUNK_BATCH_BYTES = 256 * SPRITE_SIZE * 4;
+
+    @Param({ "256", "1024", "4096" })
+    public int mSpriteCount;
+
+    private float[] mHeapData;
+    private FloatBuffer mHeapUploadBuffer;
+    private SlabAllocator mAllocator;
+    private FloatBuffer mSlabData;
+
+    @Setup
+    public void setUp(){
+        mHeapData = new float[mSpriteCount * SPRITE_SIZE];
+        mHeapUploadBuffer = ByteBuffer.allocateDirect(mHeapData.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mAllocator = new SlabAllocator("benchmark", 256 * 1024);
+        mSlabData = mAllocator.allocate(mHeapData.length * 4).getBuffer().asFloatBuffer();
+    }
+
+    @Benchmark
+    public FloatBuffer heapWriteAndCopy(){
+        final float[] data = mHeapData;
+        for(int i = 0; i < mSpriteCount; i++){
+            final int offset = i * SPRITE_SIZE;
+            for(int j = 0; j < SPRITE_SIZE; j++){
+                data[offset + j] = i + j;
+            }
+        }
+        final FloatBuffer upload = mHeapUploadBuffer;
+        upload.position(0);
+        upload.put(data);
+        upload.position(0);
+        return upload;
+    }
+
+    @Benchmark
+    public FloatBuffer slabWrite(){
+        final FloatBuffer data = mSlabData;
+        for(int i = 0; i < mSpriteCount; i++){
+            final int offset = i * SPRITE_SIZE;
+            for(int j = 0; j < SPRITE_SIZE; j++){
+                data.put(offset + j, i + j);
+            }
+        }
+        return data;
+    }
+
+    @Benchmark
+    public int slabChurn(){
+        final SlabAllocator.Block block = mAllocator.allocate(CHUNK_BATCH_BYTES);
+        final int bytes = block.getRequestedBytes();
+        mAllocator.free(block);
+        return bytes;
+    }
+}
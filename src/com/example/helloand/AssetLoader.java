@@ -0,0 +1,174 @@
+package com.example.helloand;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AssetLoader runs asset decoding on the IoExecutor's asset threads.
+ * Requests are served by priority, so whatever the first frame needs is
+ * decoded before assets that can stream in later. Requests of equal
+ * priority run in the order they were made: every request wakes a runner
+ * on the executor, which runs whichever requests come first until none
+ * are left. Requests never wait for room in the executor's queue: when it
+ * is full, the runners already queued serve the new request as well.
+ *
+ * Every request returns a Future and may also be given a Callback, which
+ * is called on the worker thread once the asset is decoded. Anything that
+ * has to happen on the GL or update thread should be posted from there.
+ */
+public class AssetLoader {
+
+    // assets required before the first frame can be drawn
+    public static final int PRIORITY_FIRST_FRAME = 0;
+    // assets required soon after the game starts
+    public static final int PRIORITY_GAMEPLAY = 1;
+    // everything else, e.g. music
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private final IoExecutor mExecutor;
+
+    // requests not started yet, by priority
+    private final PriorityBlockingQueue<LoadTask<?>> mPending = new PriorityBlockingQueue<LoadTask<?>>();
+
+    // used to keep requests of equal priority in order
+    private final AtomicLong mSequence = new AtomicLong();
+
+    // progress counters
+    private final AtomicInteger mRequestedCount = new AtomicInteger();
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+    private final AtomicInteger mFailedCount = new AtomicInteger();
+
+    public AssetLoader(){
+        this(IoExecutor.getInstance());
+    }
+
+    public AssetLoader(final IoExecutor pExecutor){
+        this.mExecutor = pExecutor;
+    }
+
+    /* Queue a load, returning a Future for its result. Never blocks, so it
+     * may be called from the update thread and from callbacks alike.
+     */
+    public <T> Future<T> load(final Callable<T> pLoader, final int pPriority, final Callback<T> pCallback){
+        final LoadTask<T> task = new LoadTask<T>(pLoader, pPriority, mSequence.getAndIncrement(), pCallback);
+        mRequestedCount.incrementAndGet();
+        mPending.add(task);
+        mExecutor.trySubmit(IoExecutor.CATEGORY_ASSET, mRunNext);
+        return task;
+    }
+
+    /* Queued once per request, runs the most urgent requests waiting until
+     * there are none. A request whose runner did not fit into the queue is
+     * served by one of the runners that did.
+     */
+    private final Runnable mRunNext = new Runnable() {
+        @Override
+        public void run() {
+            LoadTask<?> task;
+            while((task = mPending.poll()) != null){
+                task.run();
+            }
+        }
+    };
+
+    public <T> Future<T> load(final Callable<T> pLoader, final int pPriority){
+        return load(pLoader, pPriority, null);
+    }
+
+    public int getRequestedCount(){
+        return mRequestedCount.get();
+    }
+
+    // loads that have finished, successfully or not
+    public int getCompletedCount(){
+        return mCompletedCount.get();
+    }
+
+    public int getFailedCount(){
+        return mFailedCount.get();
+    }
+
+    // The fraction of requested loads that have finished, from 0 to 1
+    public float getProgress(){
+        final int requested = mRequestedCount.get();
+        return requested == 0 ? 1f : (float) mCompletedCount.get() / requested;
+    }
+
+    public boolean isIdle(){
+        return mCompletedCount.get() == mRequestedCount.get();
+    }
+
+    // Drop every load that has not started yet, their callbacks are told they failed
+    public void shutdown(){
+        LoadTask<?> task;
+        while((task = mPending.poll()) != null){
+            task.cancel(false);
+        }
+    }
+
+    public interface Callback<T> {
+        // called on the worker thread once the asset has been loaded
+        void onLoaded(T pAsset);
+
+        void onLoadFailed(Throwable pThrowable);
+    }
+
+    private class LoadTask<T> extends FutureTask<T> implements Comparable<LoadTask<?>> {
+
+        private final int mPriority;
+        private final long mOrder;
+        private final Callback<T> mCallback;
+
+        LoadTask(final Callable<T> pLoader, final int pPriority, final long pOrder, final Callback<T> pCallback){
+            super(pLoader);
+            this.mPriority = pPriority;
+            this.mOrder = pOrder;
+            this.mCallback = pCallback;
+        }
+
+        @Override
+        public int compareTo(final LoadTask<?> pOther){
+            if(mPriority != pOther.mPriority){
+                return mPriority < pOther.mPriority ? -1 : 1;
+            }
+            return mOrder < pOther.mOrder ? -1 : (mOrder == pOther.mOrder ? 0 : 1);
+        }
+
+        @Override
+        public void run(){
+            final long start = Profiler.start();
+            super.run();
+            Profiler.end(Profiler.PHASE_ASSET_LOAD, start);
+        }
+
+        @Override
+        protected void done(){
+            T asset = null;
+            Throwable failure = null;
+            try {
+                asset = get();
+            } catch(ExecutionException e){
+                failure = e.getCause();
+            } catch(Throwable t){
+                // cancelled or interrupted
+                failure = t;
+            }
+            if(failure != null){
+                mFailedCount.incrementAndGet();
+            }
+            mCompletedCount.incrementAndGet();
+            if(mCallback != null){
+                if(failure == null){
+                    mCallback.onLoaded(asset);
+                } else {
+                    mCallback.onLoadFailed(failure);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.helloand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AtlasManifest describes pre-packed atlas pages: the image of every page
+ * and where each original image ended up on it. It is written by the
+ * offline AtlasPacker and read by ResourceManager, so the runtime needs no
+ * hand-maintained texture coordinates.
+ *
+ * <pre>
+ * magic (int) | version (short) | page count (short)
+ * page:   image path (UTF) | width (short) | height (short) | opaque (boolean)
+ * region count (short)
+ * region: name (UTF) | page (short) | x | y | width | height (short each)
+ * </pre>
+ */
+public class AtlasManifest {
+
+    public static final int MAGIC = 0x4841544C; // "HATL"
+    public static final short VERSION = 1;
+
+    private final List<Page> mPages = new ArrayList<Page>();
+    private final List<Region> mRegions = new ArrayList<Region>();
+
+    public List<Page> getPages(){
+        return mPages;
+    }
+
+    public List<Region> getRegions(){
+        return mRegions;
+    }
+
+    public Page addPage(final String pImagePath, final int pWidth, final int pHeight, final boolean pOpaque){
+        final Page page = new Page(mPages.size(), pImagePath, pWidth, pHeight, pOpaque);
+        mPages.add(page);
+        return page;
+    }
+
+    public Region addRegion(final String pName, final int pPage, final int pX, final int pY, final int pWidth, final int pHeight){
+        final Region region = new Region(pName, pPage, pX, pY, pWidth, pHeight);
+        mRegions.add(region);
+        return region;
+    }
+
+    // Find a region by the file name of the image it was packed from
+    public Region getRegion(final String pName){
+        for(int i = 0; i < mRegions.size(); i++){
+            final Region region = mRegions.get(i);
+            if(region.mName.equals(pName)){
+                return region;
+            }
+        }
+        return null;
+    }
+
+    public static AtlasManifest read(final InputStream pInputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(pInputStream);
+        if(in.readInt() != MAGIC){
+            throw new IOException("Not an atlas manifest");
+        }
+        final short version = in.readShort();
+        if(version > VERSION){
+            throw new IOException("Unsupported atlas manifest version " + version);
+        }
+        final AtlasManifest manifest = new AtlasManifest();
+        final int pageCount = in.readUnsignedShort();
+        for(int i = 0; i < pageCount; i++){
+            manifest.addPage(in.readUTF(), in.readUnsignedShort(), in.readUnsignedShort(), in.readBoolean());
+        }
+        final int regionCount = in.readUnsignedShort();
+        for(int i = 0; i < regionCount; i++){
+            final String name = in.readUTF();
+            final int page = in.readUnsignedShort();
+            if(page >= pageCount){
+                throw new IOException("Region " + name + " refers to missing page " + page);
+            }
+            manifest.addRegion(name, page, in.readUnsignedShort(), in.readUnsignedShort(),
+                    in.readUnsignedShort(), in.readUnsignedShort());
+        }
+        return manifest;
+    }
+
+    public void write(final OutputStream pOutputStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(pOutputStream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(mPages.size());
+        for(final Page page : mPages){
+            out.writeUTF(page.mImagePath);
+            out.writeShort(page.mWidth);
+            out.writeShort(page.mHeight);
+            out.writeBoolean(page.mOpaque);
+        }
+        out.writeShort(mRegions.size());
+        for(final Region region : mRegions){
+            out.writeUTF(region.mName);
+            out.writeShort(region.mPage);
+            out.writeShort(region.mX);
+            out.writeShort(region.mY);
+            out.writeShort(region.mWidth);
+            out.writeShort(region.mHeight);
+        }
+        out.flush();
+    }
+
+    public static class Page {
+        public final int mIndex;
+        // asset path of the page image, relative to assets/
+        public final String mImagePath;
+        public final int mWidth;
+        public final int mHeight;
+        // true if no packed image has transparent pixels
+        public final boolean mOpaque;
+
+        Page(final int pIndex, final String pImagePath, final int pWidth, final int pHeight, final boolean pOpaque){
+            this.mIndex = pIndex;
+            this.mImagePath = pImagePath;
+            this.mWidth = pWidth;
+            this.mHeight = pHeight;
+            this.mOpaque = pOpaque;
+        }
+    }
+
+    public static class Region {
+        public final String mName;
+        public final int mPage;
+        public final int mX;
+        public final int mY;
+        public final int mWidth;
+        public final int mHeight;
+
+        Region(final String pName, final int pPage, final int pX, final int pY, final int pWidth, final int pHeight){
+            this.mName = pName;
+            this.mPage = pPage;
+            this.mX = pX;
+            this.mY = pY;
+            this.mWidth = pWidth;
+            this.mHeight = pHeight;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.helloand;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.andengine.opengl.texture.atlas.bitmap.source.IBitmapTextureAtlasSource;
+import org.andengine.opengl.texture.atlas.source.BaseTextureAtlasSource;
+import org.andengine.util.debug.Debug;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * A texture atlas source for an asset that has already been decoded on a
+ * worker thread. When the atlas is uploaded on the GL thread, the decoded
+ * bitmap is handed over as is, so no decoding happens during the upload.
+ *
+ * The atlas recycles the bitmap after uploading it, so the bitmap is only
+ * handed out once. Should the texture need reloading (e.g. after the GL
+ * context was lost), the asset is simply decoded again.
+ */
+public class DecodedBitmapTextureAtlasSource extends BaseTextureAtlasSource implements IBitmapTextureAtlasSource {
+
+    private final AssetManager mAssetManager;
+    private final String mAssetPath;
+    private Bitmap mBitmap;
+
+    public DecodedBitmapTextureAtlasSource(final AssetManager pAssetManager, final String pAssetPath,
+            final Bitmap pBitmap, final int pTextureX, final int pTextureY) {
+        super(pTextureX, pTextureY, pBitmap.getWidth(), pBitmap.getHeight());
+        this.mAssetManager = pAssetManager;
+        this.mAssetPath = pAssetPath;
+        this.mBitmap = pBitmap;
+    }
+
+    private DecodedBitmapTextureAtlasSource(final AssetManager pAssetManager, final String pAssetPath,
+            final int pTextureX, final int pTextureY, final int pTextureWidth, final int pTextureHeight) {
+        super(pTextureX, pTextureY, pTextureWidth, pTextureHeight);
+        this.mAssetManager = pAssetManager;
+        this.mAssetPath = pAssetPath;
+    }
+
+    /* Decode an asset into a bitmap of the given config. This is the part
+     * of loading that is moved off the GL thread.
+     */
+    public static Bitmap decode(final AssetManager pAssetManager, final String pAssetPath,
+            final Bitmap.Config pBitmapConfig) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = pBitmapConfig;
+        final InputStream in = pAssetManager.open(pAssetPath);
+        try {
+            final Bitmap bitmap = BitmapFactory.decodeStream(in, null, options);
+            if(bitmap == null){
+                throw new IOException("Failed to decode " + pAssetPath);
+            }
+            return bitmap;
+        } finally {
+            in.close();
+        }
+    }
+
+    public String getAssetPath() {
+        return mAssetPath;
+    }
+
+    @Override
+    public synchronized Bitmap onLoadBitmap(final Bitmap.Config pBitmapConfig) {
+        final Bitmap bitmap = mBitmap;
+        mBitmap = null;
+        if(bitmap != null && !bitmap.isRecycled() && bitmap.getConfig() == pBitmapConfig){
+            return bitmap;
+        }
+        if(bitmap != null && !bitmap.isRecycled()){
+            bitmap.recycle();
+        }
+        try {
+            return decode(mAssetManager, mAssetPath, pBitmapConfig);
+        } catch(IOException e){
+            Debug.e("Failed loading Bitmap in " + this.getClass().getSimpleName() + ". AssetPath: " + mAssetPath, e);
+            return null;
+        }
+    }
+
+    @Override
+    public DecodedBitmapTextureAtlasSource deepCopy() {
+        return new DecodedBitmapTextureAtlasSource(mAssetManager, mAssetPath,
+                mTextureX, mTextureY, mTextureWidth, mTextureHeight);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "(" + mAssetPath + ")";
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.helloand;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.andengine.entity.sprite.batch.DynamicSpriteBatch;
+import org.andengine.entity.sprite.batch.SpriteBatch;
+import org.andengine.entity.sprite.batch.vbo.HighPerformanceSpriteBatchVertexBufferObject;
+import org.andengine.entity.sprite.batch.vbo.ISpriteBatchVertexBufferObject;
+import org.andengine.opengl.texture.ITexture;
+import org.andengine.opengl.texture.region.ITextureRegion;
+import org.andengine.opengl.vbo.DrawType;
+import org.andengine.opengl.vbo.VertexBufferObjectManager;
+import org.andengine.util.debug.Debug;
+
+/**
+ * EntityBatch draws every EntityStore entity whose texture lives on one
+ * atlas with a single draw call. Instead of one Sprite per entity, the
+ * entities' quads are written into one dynamic vertex buffer, which is
+ * only rebuilt and re-uploaded when the store has changed since the last
+ * frame.
+ *
+ * With an EntityCuller, entities outside the camera's viewport are left
+ * out of the buffer, which is then also rebuilt whenever the set of
+ * visible entities changes.
+ *
+ * With a SlabAllocator, the vertices are written straight into a block of
+ * its native memory rather than into a float[] which is copied over before
+ * every upload.
+ *
+ * The capacity is fixed when the batch is created. Entities beyond it
+ * are not drawn; they are counted, logged the first time it happens and
+ * show up in the Profiler's report.
+ */
+public class EntityBatch extends DynamicSpriteBatch implements Profiler.MetricsSource {
+
+    private final EntityStore mEntityStore;
+
+    // texture region per entity type, null for types drawn by another batch
+    private final ITextureRegion[] mTypeRegions;
+
+    // leaves out entities outside the viewport, may be null
+    private final EntityCuller mCuller;
+
+    private int mDrawnModificationCount = -1;
+    private int mDrawnVisibilityGeneration = -1;
+    private int mDrawnCount;
+
+    // entities left out for lack of capacity, in the last rebuild and at most
+    private int mOverflowCount;
+    private int mMaxOverflowCount;
+    private long mOverflowRebuildCount;
+
+    public EntityBatch(final ITexture pTexture, final int pCapacity, final EntityStore pEntityStore,
+            final ITextureRegion[] pTypeRegions, final EntityCuller pCuller, final SlabAllocator pAllocator,
+            final VertexBufferObjectManager pVertexBufferObjectManager) {
+        super(pTexture, pCapacity, createVertexBufferObject(pAllocator, pCapacity, pVertexBufferObjectManager));
+        this.mEntityStore = pEntityStore;
+        this.mTypeRegions = pTypeRegions;
+        this.mCuller = pCuller;
+    }
+
+    /* Create one batch per atlas. pRegions holds the region to draw for each
+     * type in pTypes; types whose regions share a texture share a batch.
+     * pCuller may be null to draw every entity, pAllocator null to keep the
+     * vertices on the Java heap.
+     */
+    public static List<EntityBatch> create(final EntityStore pEntityStore, final int[] pTypes,
+            final ITextureRegion[] pRegions, final EntityCuller pCuller, final SlabAllocator pAllocator,
+            final int pCapacity, final VertexBufferObjectManager pVertexBufferObjectManager) {
+        int maxType = 0;
+        for(int i = 0; i < pTypes.length; i++){
+            maxType = Math.max(maxType, pTypes[i]);
+        }
+        final List<ITexture> textures = new ArrayList<ITexture>();
+        final List<EntityBatch> batches = new ArrayList<EntityBatch>();
+        for(int i = 0; i < pRegions.length; i++){
+            final ITexture texture = pRegions[i].getTexture();
+            if(textures.contains(texture)){
+                continue;
+            }
+            final ITextureRegion[] typeRegions = new ITextureRegion[maxType + 1];
+            for(int j = i; j < pRegions.length; j++){
+                if(pRegions[j].getTexture() == texture){
+                    typeRegions[pTypes[j]] = pRegions[j];
+                }
+            }
+            textures.add(texture);
+            batches.add(new EntityBatch(texture, pCapacity, pEntityStore, typeRegions, pCuller, pAllocator,
+                    pVertexBufferObjectManager));
+        }
+        return batches;
+    }
+
+    private static ISpriteBatchVertexBufferObject createVertexBufferObject(final SlabAllocator pAllocator,
+            final int pCapacity, final VertexBufferObjectManager pVertexBufferObjectManager) {
+        if(pAllocator == null){
+            return new HighPerformanceSpriteBatchVertexBufferObject(pVertexBufferObjectManager,
+                    pCapacity * SpriteBatch.SPRITE_SIZE, DrawType.DYNAMIC, true,
+                    SpriteBatch.VERTEXBUFFEROBJECTATTRIBUTES_DEFAULT);
+        }
+        return new SlabSpriteBatchVertexBufferObject(pAllocator, pVertexBufferObjectManager,
+                pCapacity * SpriteBatch.SPRITE_SIZE, DrawType.DYNAMIC);
+    }
+
+    // the number of entities submitted with the last rebuild
+    public int getDrawnCount() {
+        return mDrawnCount;
+    }
+
+    // the number of entities the last rebuild had no room for
+    public int getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    /* Called on the GL thread before drawing. Returning false keeps the
+     * vertex buffer from the last frame without uploading anything.
+     */
+    @Override
+    protected boolean onUpdateSpriteBatch() {
+        final EntityStore store = mEntityStore;
+        final EntityCuller culler = mCuller;
+        final int modificationCount = store.getModificationCount();
+        final int visibilityGeneration = culler == null ? 0 : culler.getVisibilityGeneration();
+        if(modificationCount == mDrawnModificationCount && visibilityGeneration == mDrawnVisibilityGeneration){
+            return false;
+        }
+        mDrawnModificationCount = modificationCount;
+        mDrawnVisibilityGeneration = visibilityGeneration;
+
+        // the update thread may grow the columns meanwhile, so stay within the arrays we read
+        final int[] x = store.getXColumn();
+        final int[] y = store.getYColumn();
+        final int[] type = store.getTypeColumn();
+        final boolean[] alive = store.getAliveColumn();
+        final int size = Math.min(store.size(), Math.min(x.length, alive.length));
+        final ITextureRegion[] typeRegions = mTypeRegions;
+
+        int drawn = 0;
+        int overflow = 0;
+        for(int i = 0; i < size; i++){
+            final int entityType = type[i];
+            if(!alive[i] || entityType < 0 || entityType >= typeRegions.length
+                    || (culler != null && !culler.isVisible(i))){
+                continue;
+            }
+            final ITextureRegion region = typeRegions[entityType];
+            if(region == null){
+                continue;
+            }
+            if(drawn < mCapacity){
+                drawWithoutChecks(region, x[i], y[i], region.getWidth(), region.getHeight(), 1, 1, 1, 1);
+                drawn++;
+            } else {
+                overflow++;
+            }
+        }
+        mDrawnCount = drawn;
+        mOverflowCount = overflow;
+        if(overflow > 0){
+            if(mOverflowRebuildCount++ == 0){
+                Debug.w("EntityBatch of " + mCapacity + " left out " + overflow + " entities");
+            }
+            mMaxOverflowCount = Math.max(mMaxOverflowCount, overflow);
+        }
+        return true;
+    }
+
+    @Override
+    public void onReport(final PrintWriter pOut) {
+        pOut.println("entity batch: " + mDrawnCount + " of " + mCapacity + " drawn, " + mOverflowCount
+                + " left out; " + mOverflowRebuildCount + " rebuilds overflowed, by up to " + mMaxOverflowCount);
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.helloand;
+
+import java.io.PrintWriter;
+
+/**
+ * EntityCuller sorts the entities of an EntityStore by how far they are
+ * from the camera's viewport, once per tick, so the rest of the game can
+ * leave out work for entities nobody sees:
+ *
+ * <pre>
+ * STATE_VISIBLE    the bounding box overlaps the viewport; drawn and updated
+ * STATE_NEAR       off screen; not drawn, still updated every tick
+ * STATE_THROTTLED  farther than the throttle distance; updated every n-th tick
+ * STATE_ASLEEP     farther than the sleep distance; not updated at all
+ * </pre>
+ *
+ * Every entity type has a bounding box of its own, anchored at the
+ * entity's position the way EntityBatch draws it. Distances are measured
+ * from the box to the viewport along the axis where they are farthest
+ * apart, in world units. Each of the policies can be switched off; by
+ * default only drawing is culled.
+ *
+ * Like the EntityStore, a culler belongs to the update thread. Update
+ * stage workers ask shouldUpdate while the stage runs, after update(),
+ * and the GL thread asks isVisible the way EntityBatch reads the store's
+ * columns, without locking.
+ *
+ * The counters of the last tick, and how many entities were culled per
+ * tick so far, show up in the Profiler's report.
+ */
+public class EntityCuller implements Profiler.MetricsSource {
+
+    public static final int STATE_VISIBLE = 0;
+    public static final int STATE_NEAR = 1;
+    public static final int STATE_THROTTLED = 2;
+    public static final int STATE_ASLEEP = 3;
+
+    // used as a distance, switches a policy off
+    public static final int DISABLED = Integer.MAX_VALUE;
+
+    private final EntityStore mEntities;
+
+    // bounding box size per entity type
+    private int[] mTypeWidths = new int[0];
+    private int[] mTypeHeights = new int[0];
+
+    // the policies
+    private boolean mDrawCulling = true;
+    private int mThrottleDistance = DISABLED;
+    private int mThrottleInterval = 1;
+    private int mSleepDistance = DISABLED;
+
+    // state per dense entity index, as of the last update
+    private byte[] mStates = new byte[0];
+    private int mStateCount;
+    private long mTick;
+
+    // bumped whenever an entity became visible or stopped being visible
+    private volatile int mVisibilityGeneration;
+
+    // the counters of the last tick
+    private int mVisibleCount;
+    private int mNearCount;
+    private int mThrottledCount;
+    private int mAsleepCount;
+
+    // entities not drawn per tick
+    private final Histogram mCulledPerTick = new Histogram();
+
+    public EntityCuller(final EntityStore pEntities){
+        this.mEntities = pEntities;
+    }
+
+    public void setTypeSize(final int pType, final int pWidth, final int pHeight){
+        if(pType >= mTypeWidths.length){
+            mTypeWidths = copyOf(mTypeWidths, pType + 1);
+            mTypeHeights = copyOf(mTypeHeights, pType + 1);
+        }
+        mTypeWidths[pType] = pWidth;
+        mTypeHeights[pType] = pHeight;
+    }
+
+    // Whether entities outside the viewport are left out of drawing
+    public void setDrawCulling(final boolean pDrawCulling){
+        mDrawCulling = pDrawCulling;
+        mVisibilityGeneration++;
+    }
+
+    /* Entities farther than pDistance from the viewport are only updated
+     * every pInterval ticks, each on a tick of its own so the updates
+     * spread out evenly. DISABLED switches throttling off.
+     */
+    public void setThrottle(final int pDistance, final int pInterval){
+        if(pInterval < 1){
+            throw new IllegalArgumentException("pInterval must be >= 1");
+        }
+        mThrottleDistance = pDistance;
+        mThrottleInterval = pInterval;
+    }
+
+    public int getThrottleInterval(){
+        return mThrottleInterval;
+    }
+
+    // Entities farther than pDistance are not updated at all; DISABLED switches sleeping off
+    public void setSleepDistance(final int pDistance){
+        mSleepDistance = pDistance;
+    }
+
+    /* Classify every entity against the viewport. Called once per tick on
+     * the update thread, before anything asks shouldUpdate or isVisible.
+     */
+    public void update(final float pXMin, final float pYMin, final float pXMax, final float pYMax){
+        final EntityStore entities = mEntities;
+        final int size = entities.size();
+        if(size > mStates.length){
+            final byte[] states = new byte[Math.max(size, mStates.length * 2)];
+            System.arraycopy(mStates, 0, states, 0, mStateCount);
+            mStates = states;
+        }
+        final byte[] states = mStates;
+        final int[] x = entities.getXColumn();
+        final int[] y = entities.getYColumn();
+        final int[] type = entities.getTypeColumn();
+        final int[] typeWidths = mTypeWidths;
+        final int[] typeHeights = mTypeHeights;
+        final int throttleDistance = mThrottleDistance;
+        final int sleepDistance = mSleepDistance;
+
+        boolean visibilityChanged = size != mStateCount;
+        int visible = 0;
+        int near = 0;
+        int throttled = 0;
+        int asleep = 0;
+        for(int i = 0; i < size; i++){
+            final int entityType = type[i];
+            final boolean known = entityType >= 0 && entityType < typeWidths.length;
+            final float left = x[i];
+            final float top = y[i];
+            final float right = left + (known ? typeWidths[entityType] : 0);
+            final float bottom = top + (known ? typeHeights[entityType] : 0);
+
+            // how far the box is outside the viewport, 0 if it overlaps
+            final float distance = Math.max(Math.max(pXMin - right, left - pXMax), Math.max(pYMin - bottom, top - pYMax));
+            final byte state;
+            if(distance <= 0){
+                state = STATE_VISIBLE;
+                visible++;
+            } else if(distance > sleepDistance){
+                state = STATE_ASLEEP;
+                asleep++;
+            } else if(distance > throttleDistance){
+                state = STATE_THROTTLED;
+                throttled++;
+            } else {
+                state = STATE_NEAR;
+                near++;
+            }
+            if(!visibilityChanged && (states[i] == STATE_VISIBLE) != (state == STATE_VISIBLE)){
+                visibilityChanged = true;
+            }
+            states[i] = state;
+        }
+        mStateCount = size;
+        mVisibleCount = visible;
+        mNearCount = near;
+        mThrottledCount = throttled;
+        mAsleepCount = asleep;
+        mTick++;
+        if(visibilityChanged){
+            mVisibilityGeneration++;
+        }
+        if(mDrawCulling){
+            mCulledPerTick.record(size - visible);
+        }
+    }
+
+    // Whether the entity at dense index pIndex should be drawn
+    public boolean isVisible(final int pIndex){
+        final byte[] states = mStates;
+        return !mDrawCulling || pIndex >= Math.min(mStateCount, states.length) || states[pIndex] == STATE_VISIBLE;
+    }
+
+    /* Whether the entity at dense index pIndex should be updated this
+     * tick. Entities added since the last update are always updated.
+     */
+    public boolean shouldUpdate(final int pIndex){
+        if(pIndex >= mStateCount){
+            return true;
+        }
+        switch(mStates[pIndex]){
+        case STATE_ASLEEP:
+            return false;
+        case STATE_THROTTLED:
+            // the handle staggers throttled entities across the interval
+            return (mEntities.getHandleAt(pIndex) + mTick) % mThrottleInterval == 0;
+        default:
+            return true;
+        }
+    }
+
+    public int getState(final int pIndex){
+        final byte[] states = mStates;
+        return pIndex < Math.min(mStateCount, states.length) ? states[pIndex] : STATE_VISIBLE;
+    }
+
+    /* Changes whenever the set of drawn entities may have changed, so a
+     * renderer can keep its vertices while it stays the same.
+     */
+    public int getVisibilityGeneration(){
+        return mVisibilityGeneration;
+    }
+
+    public int getVisibleCount(){
+        return mVisibleCount;
+    }
+
+    // entities left out of drawing in the last tick
+    public int getCulledCount(){
+        return mDrawCulling ? mStateCount - mVisibleCount : 0;
+    }
+
+    public int getThrottledCount(){
+        return mThrottledCount;
+    }
+
+    public int getAsleepCount(){
+        return mAsleepCount;
+    }
+
+    public Histogram getCulledPerTick(){
+        return mCulledPerTick;
+    }
+
+    @Override
+    public void onReport(final PrintWriter pOut){
+        pOut.println("culling: visible " + mVisibleCount + ", near " + mNearCount + ", throttled " + mThrottledCount
+                + ", asleep " + mAsleepCount);
+        pOut.println("culled per tick: avg " + mCulledPerTick.getMean() + ", p50 " + mCulledPerTick.getPercentile(0.50)
+                + ", max " + mCulledPerTick.getMax());
+    }
+
+    private static int[] copyOf(final int[] pArray, final int pLength){
+        final int[] copy = new int[pLength];
+        System.arraycopy(pArray, 0, copy, 0, pArray.length);
+        return copy;
+    }
+}
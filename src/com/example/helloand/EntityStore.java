@@ -0,0 +1,296 @@
+package com.example.helloand;
+
+/**
+ * EntityStore keeps entity data as a structure of arrays. Every
+ * attribute lives in its own primitive column, and live entities are
+ * packed densely at the front of each column, so per-frame updates can
+ * walk them in a tight loop without touching individual objects.
+ *
+ * Entities are referred to by integer handles which stay valid for the
+ * entity's whole life, even though removal moves the last entity into
+ * the freed slot (swap-remove) to keep the columns dense. Handles of
+ * removed entities are reused, so objects acting as views onto an entity
+ * (see ObjectFactory) are added along with it, and are detached before
+ * remove, removeDead or clear take their entity away.
+ *
+ * Adding and removing entities is synchronized on the store; reads and
+ * writes of the columns are not, and belong to the update thread.
+ */
+public class EntityStore {
+
+    // An object viewing one entity, told when the store removes the entity
+    public interface View {
+        // called once, before the entity is removed, while its data can still be read
+        void onRemoved(EntityStore pStore, int pHandle);
+    }
+
+    // entity types stored in the type column
+    public static final int TYPE_LARGE_OBJECT = 1;
+    public static final int TYPE_SMALL_OBJECT = 2;
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    // handle to dense index mapping value for handles not in use
+    private static final int NO_INDEX = -1;
+
+    /* The dense columns. Index i of each column describes the same entity,
+     * and only the first mSize entries are in use.
+     */
+    private int[] mX;
+    private int[] mY;
+    private int[] mType;
+    private boolean[] mAlive;
+    private int[] mHandles;
+
+    // handle -> dense index
+    private int[] mIndices;
+
+    // handle -> the view added with the entity, if any
+    private View[] mViews;
+
+    // handles released by remove(), reused before new ones are issued
+    private int[] mFreeHandles;
+    private int mFreeHandleCount;
+    private int mNextHandle;
+
+    private int mSize;
+
+    /* Bumped by every change made through the store's methods, so
+     * renderers can tell whether anything moved since they last looked.
+     * Code writing to the columns directly must call markModified().
+     */
+    private volatile int mModificationCount;
+
+    public EntityStore(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EntityStore(final int pCapacity){
+        final int capacity = Math.max(1, pCapacity);
+        mX = new int[capacity];
+        mY = new int[capacity];
+        mType = new int[capacity];
+        mAlive = new boolean[capacity];
+        mHandles = new int[capacity];
+        mIndices = new int[capacity];
+        mViews = new View[capacity];
+        mFreeHandles = new int[capacity];
+    }
+
+    // Add an entity and return its handle. New entities start alive.
+    public int add(final int pType, final int pX, final int pY){
+        return add(pType, pX, pY, null);
+    }
+
+    // Add an entity viewed by pView, which is detached before the entity is removed
+    public synchronized int add(final int pType, final int pX, final int pY, final View pView){
+        if(mSize == mX.length){
+            grow();
+        }
+        final int handle;
+        if(mFreeHandleCount > 0){
+            handle = mFreeHandles[--mFreeHandleCount];
+        } else {
+            handle = mNextHandle++;
+        }
+        final int index = mSize++;
+        mX[index] = pX;
+        mY[index] = pY;
+        mType[index] = pType;
+        mAlive[index] = true;
+        mHandles[index] = handle;
+        mIndices[handle] = index;
+        mViews[handle] = pView;
+        mModificationCount++;
+        return handle;
+    }
+
+    /* Remove an entity by moving the last entity into its slot. Only the
+     * moved entity's handle mapping changes, so handles stay stable. Its
+     * view, if any, is detached first, even when the view removes itself.
+     */
+    public synchronized void remove(final int pHandle){
+        detachView(pHandle);
+        final int index = indexOf(pHandle);
+        final int last = --mSize;
+        if(index != last){
+            mX[index] = mX[last];
+            mY[index] = mY[last];
+            mType[index] = mType[last];
+            mAlive[index] = mAlive[last];
+            final int movedHandle = mHandles[last];
+            mHandles[index] = movedHandle;
+            mIndices[movedHandle] = index;
+        }
+        mIndices[pHandle] = NO_INDEX;
+        mFreeHandles[mFreeHandleCount++] = pHandle;
+        mModificationCount++;
+    }
+
+    /* Remove every entity whose alive flag has been cleared. Walking from
+     * the back means each swap-remove only ever pulls in an entity that
+     * has already been checked.
+     */
+    public synchronized int removeDead(){
+        int removed = 0;
+        for(int i = mSize - 1; i >= 0; i--){
+            if(!mAlive[i]){
+                remove(mHandles[i]);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /* Remove every entity. Their handles go back onto the free list like
+     * removed ones, so handles issued before are never confused with the
+     * ones issued next.
+     */
+    public synchronized void clear(){
+        for(int i = 0; i < mSize; i++){
+            final int handle = mHandles[i];
+            detachView(handle);
+            mIndices[handle] = NO_INDEX;
+            mFreeHandles[mFreeHandleCount++] = handle;
+        }
+        mSize = 0;
+        mModificationCount++;
+    }
+
+    // The view is forgotten before it is told, so it may remove its entity again
+    private void detachView(final int pHandle){
+        final View view = mViews[pHandle];
+        if(view != null){
+            mViews[pHandle] = null;
+            view.onRemoved(this, pHandle);
+        }
+    }
+
+    // the number of entities currently stored
+    public int size(){
+        return mSize;
+    }
+
+    public boolean contains(final int pHandle){
+        return pHandle >= 0 && pHandle < mNextHandle && mIndices[pHandle] != NO_INDEX;
+    }
+
+    // dense index of the entity, valid until the next removal
+    public int indexOf(final int pHandle){
+        if(!contains(pHandle)){
+            throw new IllegalArgumentException("Unknown entity handle: " + pHandle);
+        }
+        return mIndices[pHandle];
+    }
+
+    public int getHandleAt(final int pIndex){
+        return mHandles[pIndex];
+    }
+
+    public int getX(final int pHandle){
+        return mX[indexOf(pHandle)];
+    }
+
+    public int getY(final int pHandle){
+        return mY[indexOf(pHandle)];
+    }
+
+    public int getType(final int pHandle){
+        return mType[indexOf(pHandle)];
+    }
+
+    public boolean isAlive(final int pHandle){
+        return mAlive[indexOf(pHandle)];
+    }
+
+    public void set(final int pHandle, final int pX, final int pY){
+        final int index = indexOf(pHandle);
+        mX[index] = pX;
+        mY[index] = pY;
+        mModificationCount++;
+    }
+
+    public void setAlive(final int pHandle, final boolean pAlive){
+        mAlive[indexOf(pHandle)] = pAlive;
+        mModificationCount++;
+    }
+
+    public int getModificationCount(){
+        return mModificationCount;
+    }
+
+    // Call after writing to the columns directly
+    public void markModified(){
+        mModificationCount++;
+    }
+
+    /* Direct access to the columns for bulk loops. Only indices below
+     * size() are meaningful, and the arrays are replaced when the store
+     * grows, so they should be fetched again every frame.
+     */
+    public int[] getXColumn(){
+        return mX;
+    }
+
+    public int[] getYColumn(){
+        return mY;
+    }
+
+    public int[] getTypeColumn(){
+        return mType;
+    }
+
+    public boolean[] getAliveColumn(){
+        return mAlive;
+    }
+
+    // Move every live entity by the same offset
+    public void translateAll(final int pDeltaX, final int pDeltaY){
+        final int[] x = mX;
+        final int[] y = mY;
+        final boolean[] alive = mAlive;
+        for(int i = 0, size = mSize; i < size; i++){
+            if(alive[i]){
+                x[i] += pDeltaX;
+                y[i] += pDeltaY;
+            }
+        }
+        mModificationCount++;
+    }
+
+    // count live entities of one type, e.g. the remaining enemies
+    public int countAlive(final int pType){
+        final int[] type = mType;
+        final boolean[] alive = mAlive;
+        int count = 0;
+        for(int i = 0, size = mSize; i < size; i++){
+            if(alive[i] && type[i] == pType){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Double every column. This is the only place the store allocates.
+    private void grow(){
+        final int capacity = mX.length * 2;
+        mX = copyOf(mX, capacity);
+        mY = copyOf(mY, capacity);
+        mType = copyOf(mType, capacity);
+        mHandles = copyOf(mHandles, capacity);
+        mIndices = copyOf(mIndices, capacity);
+        mFreeHandles = copyOf(mFreeHandles, capacity);
+        final View[] views = new View[capacity];
+        System.arraycopy(mViews, 0, views, 0, mViews.length);
+        mViews = views;
+        final boolean[] alive = new boolean[capacity];
+        System.arraycopy(mAlive, 0, alive, 0, mAlive.length);
+        mAlive = alive;
+    }
+
+    private static int[] copyOf(final int[] pArray, final int pLength){
+        final int[] copy = new int[pLength];
+        System.arraycopy(pArray, 0, copy, 0, pArray.length);
+        return copy;
+    }
+}
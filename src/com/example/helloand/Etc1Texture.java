@@ -0,0 +1,119 @@
+package com.example.helloand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.andengine.opengl.texture.PixelFormat;
+import org.andengine.opengl.texture.Texture;
+import org.andengine.opengl.texture.TextureManager;
+import org.andengine.opengl.texture.TextureOptions;
+import org.andengine.opengl.util.GLState;
+
+import android.content.res.AssetManager;
+import android.opengl.ETC1;
+import android.opengl.GLES20;
+
+/**
+ * Etc1Texture is a texture read from a PKM asset. The compressed blocks
+ * are read on a worker thread by create() and handed to the GPU as they
+ * are, so nothing is decoded, neither on the CPU nor into a Bitmap, and
+ * the upload is a quarter of the size of an RGB_565 one.
+ *
+ * The blocks are dropped after the upload. Should the texture need
+ * reloading (e.g. after the GL context was lost), the asset is simply
+ * read again.
+ *
+ * Every OpenGL ES 2.0 device supports ETC1, but ETC1 has no alpha
+ * channel, so it only suits opaque images.
+ */
+public class Etc1Texture extends Texture {
+
+    private final AssetManager mAssetManager;
+    private final String mAssetPath;
+    private final PkmHeader mHeader;
+    private ByteBuffer mData;
+
+    private Etc1Texture(final TextureManager pTextureManager, final AssetManager pAssetManager, final String pAssetPath,
+            final PkmHeader pHeader, final ByteBuffer pData, final TextureOptions pTextureOptions) {
+        // the pixel format only matters to AndEngine's own bookkeeping
+        super(pTextureManager, PixelFormat.RGB_565, pTextureOptions, null);
+        this.mAssetManager = pAssetManager;
+        this.mAssetPath = pAssetPath;
+        this.mHeader = pHeader;
+        this.mData = pData;
+    }
+
+    /* Read a PKM asset into a texture which still has to be loaded. This
+     * is the part of loading that is moved off the GL thread.
+     */
+    public static Etc1Texture create(final TextureManager pTextureManager, final AssetManager pAssetManager,
+            final String pAssetPath, final TextureOptions pTextureOptions) throws IOException {
+        final InputStream in = pAssetManager.open(pAssetPath);
+        try {
+            final PkmHeader header = PkmHeader.read(in);
+            return new Etc1Texture(pTextureManager, pAssetManager, pAssetPath, header,
+                    readData(in, header, pAssetPath), pTextureOptions);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return mHeader.getEncodedWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeader.getEncodedHeight();
+    }
+
+    // the size of the texture in GPU memory
+    public int getDataSize() {
+        return mHeader.getDataSize();
+    }
+
+    public String getAssetPath() {
+        return mAssetPath;
+    }
+
+    @Override
+    protected synchronized void writeTextureToHardware(final GLState pGLState) throws IOException {
+        ByteBuffer data = mData;
+        mData = null;
+        if(data == null){
+            final InputStream in = mAssetManager.open(mAssetPath);
+            try {
+                data = readData(in, PkmHeader.read(in), mAssetPath);
+            } finally {
+                in.close();
+            }
+        }
+        GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES,
+                getWidth(), getHeight(), 0, data.capacity(), data);
+    }
+
+    // Read the blocks following the header into a direct buffer for the upload
+    private static ByteBuffer readData(final InputStream pInputStream, final PkmHeader pHeader,
+            final String pAssetPath) throws IOException {
+        final int size = pHeader.getDataSize();
+        final ByteBuffer data = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        final byte[] buffer = new byte[Math.min(size, 8192)];
+        while(data.hasRemaining()){
+            final int read = pInputStream.read(buffer, 0, Math.min(buffer.length, data.remaining()));
+            if(read < 0){
+                throw new IOException("Truncated ETC1 data in " + pAssetPath);
+            }
+            data.put(buffer, 0, read);
+        }
+        data.position(0);
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "(" + mAssetPath + ")";
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.helloand;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A PreferenceStore kept in a properties file. It has no Android
+ * dependencies, which makes it the store of choice for JVM tests,
+ * benchmarks and headless tooling.
+ */
+public class FilePreferenceStore implements PreferenceStore {
+
+    private final File mFile;
+    private final Properties mProperties = new Properties();
+
+    public FilePreferenceStore(final File pFile) throws IOException {
+        this.mFile = pFile;
+        if(pFile.exists()){
+            final InputStream in = new FileInputStream(pFile);
+            try {
+                mProperties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized int getInt(final String pKey, final int pDefaultValue){
+        final String value = mProperties.getProperty(pKey);
+        return value == null ? pDefaultValue : Integer.parseInt(value);
+    }
+
+    @Override
+    public synchronized boolean getBoolean(final String pKey, final boolean pDefaultValue){
+        final String value = mProperties.getProperty(pKey);
+        return value == null ? pDefaultValue : Boolean.parseBoolean(value);
+    }
+
+    /* The whole file is written to a temporary file first and then renamed
+     * over the old one, so a crash mid-write never leaves a torn file.
+     */
+    @Override
+    public synchronized void write(final Map<String, Object> pValues) throws IOException {
+        for(final Map.Entry<String, Object> entry : pValues.entrySet()){
+            mProperties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(temp);
+        try {
+            mProperties.store(out, null);
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(mFile)){
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+}
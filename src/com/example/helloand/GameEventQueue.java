@@ -0,0 +1,125 @@
+package com.example.helloand;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * GameEventQueue is a bounded, lock-free ring buffer of game events.
+ * Any number of threads (collision callbacks, physics) may offer events,
+ * while a single thread (the update thread) drains them.
+ *
+ * Events are packed into a long: the event type in the upper 32 bits and
+ * a signed delta in the lower 32 bits, so queueing never allocates.
+ */
+public class GameEventQueue {
+
+    public static final int TYPE_SCORE = 1;
+    public static final int TYPE_BIRD_COUNT = 2;
+    public static final int TYPE_ENEMY_COUNT = 3;
+
+    /* Every slot carries a sequence number telling producers and the
+     * consumer whose turn it is. A slot at position p is free for the
+     * producer claiming p when its sequence equals p, and holds a
+     * published event for the consumer when its sequence equals p + 1.
+     */
+    private final AtomicLongArray mSequences;
+    private final long[] mEvents;
+    private final int mMask;
+
+    // next position to be claimed by a producer
+    private final AtomicLong mTail = new AtomicLong();
+
+    // next position to be read, only touched by the consumer thread
+    private long mHead;
+
+    // The capacity is rounded up to a power of two
+    public GameEventQueue(final int pCapacity){
+        int capacity = 1;
+        while(capacity < pCapacity){
+            capacity <<= 1;
+        }
+        mMask = capacity - 1;
+        mEvents = new long[capacity];
+        mSequences = new AtomicLongArray(capacity);
+        for(int i = 0; i < capacity; i++){
+            mSequences.set(i, i);
+        }
+    }
+
+    public static long pack(final int pType, final int pDelta){
+        return ((long) pType << 32) | (pDelta & 0xFFFFFFFFL);
+    }
+
+    public static int getType(final long pEvent){
+        return (int) (pEvent >>> 32);
+    }
+
+    public static int getDelta(final long pEvent){
+        return (int) pEvent;
+    }
+
+    // Queue an event, returning false when the buffer is full
+    public boolean offer(final int pType, final int pDelta){
+        final long event = pack(pType, pDelta);
+        long position = mTail.get();
+        while(true){
+            final int slot = (int) (position & mMask);
+            final long difference = mSequences.get(slot) - position;
+            if(difference == 0){
+                if(mTail.compareAndSet(position, position + 1)){
+                    mEvents[slot] = event;
+                    // publishing the sequence makes the event visible to the consumer
+                    mSequences.set(slot, position + 1);
+                    return true;
+                }
+                position = mTail.get();
+            } else if(difference < 0){
+                // the consumer has not yet freed this slot, so we are full
+                return false;
+            } else {
+                // another producer claimed this position first
+                position = mTail.get();
+            }
+        }
+    }
+
+    /* Remove and hand every published event to the consumer. This must only
+     * be called from one thread at a time.
+     */
+    public int drain(final Consumer pConsumer){
+        int drained = 0;
+        while(true){
+            final int slot = (int) (mHead & mMask);
+            if(mSequences.get(slot) != mHead + 1){
+                return drained;
+            }
+            final long event = mEvents[slot];
+            // hand the slot back to producers one lap later
+            mSequences.set(slot, mHead + mMask + 1);
+            mHead++;
+            pConsumer.onEvent(getType(event), getDelta(event));
+            drained++;
+        }
+    }
+
+    /* Drop every published event, e.g. when the game they belong to is
+     * reset. Like drain, this must only be called by the consuming thread.
+     */
+    public int clear(){
+        return drain(DISCARD);
+    }
+
+    private static final Consumer DISCARD = new Consumer() {
+        @Override
+        public void onEvent(final int pType, final int pDelta){
+        }
+    };
+
+    public int getCapacity(){
+        return mMask + 1;
+    }
+
+    public interface Consumer {
+        void onEvent(int pType, int pDelta);
+    }
+}
@@ -0,0 +1,486 @@
+package com.example.helloand;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * GameJournal records every change to a GameManager's counters, so the
+ * state at any tick can be rebuilt later, e.g. to replay a game or to
+ * find the tick at which two runs stopped agreeing.
+ *
+ * Every change is one long in an append-only ring:
+ *
+ * <pre>
+ * type (4 bits) | tick (28 bits) | value (32 bits, signed)
+ * </pre>
+ *
+ * Delta events (GameEventQueue.TYPE_SCORE, TYPE_BIRD_COUNT and
+ * TYPE_ENEMY_COUNT) add their value to a counter, TYPE_SET_* events
+ * replace it and TYPE_RESET puts back the initial values. The tick
+ * field wraps after 2^28 ticks (about 51 days at 60 Hz), which replay
+ * accounts for as long as no 2^28 ticks pass without a single event.
+ *
+ * With a spill file, the events are also appended to it by an IoExecutor
+ * save task, in chunks of SPILL_CHUNK_EVENTS, once half the ring is
+ * waiting. Appending never touches the file: should the ring ever fill up
+ * with events not yet written, the journal gives up on the file and
+ * carries on as a ring, as it does if closed. The file starts with MAGIC
+ * and VERSION, followed by the events, 8 big-endian bytes each.
+ *
+ * Without a spill file, the ring keeps the latest events only, and replay
+ * starts from the oldest reset or restore still in it.
+ */
+public class GameJournal implements Profiler.MetricsSource {
+
+    public static final int MAGIC = 0x484A524E; // "HJRN"
+    public static final int VERSION = 1;
+
+    public static final int TYPE_SET_SCORE = 4;
+    public static final int TYPE_SET_BIRD_COUNT = 5;
+    public static final int TYPE_SET_ENEMY_COUNT = 6;
+    public static final int TYPE_RESET = 7;
+
+    public static final int EVENT_BYTES = 8;
+
+    // events written to the spill file per write call
+    public static final int SPILL_CHUNK_EVENTS = 4096;
+
+    private static final int TICK_BITS = 28;
+    private static final long TICK_MASK = (1L << TICK_BITS) - 1;
+    private static final int HEADER_BYTES = 8;
+
+    private final long[] mEvents;
+    private final int mMask;
+
+    // guarded by this
+    private long mPosition;
+    private long mTick;
+    private long mSpilledPosition;
+    private boolean mSpillScheduled;
+    private boolean mSpillOverrun;
+    private boolean mClosed;
+
+    // only touched while holding mSpillLock
+    private final Object mSpillLock = new Object();
+    private final File mSpillFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mSpillBuffer;
+    private final IoExecutor mSpillExecutor;
+
+    // statistics, guarded by this
+    private long mSpillCount;
+    private long mFailedSpillCount;
+
+    // A journal of the latest pCapacity events, kept in memory only
+    public GameJournal(final int pCapacity){
+        this.mEvents = new long[roundUp(pCapacity)];
+        this.mMask = mEvents.length - 1;
+        this.mSpillFile = null;
+        this.mChannel = null;
+        this.mSpillBuffer = null;
+        this.mSpillExecutor = null;
+    }
+
+    /* A journal spilling its events to pSpillFile. Whatever the file held
+     * before is replaced.
+     */
+    public GameJournal(final int pCapacity, final File pSpillFile) throws IOException {
+        this(pCapacity, pSpillFile, IoExecutor.getInstance());
+    }
+
+    public GameJournal(final int pCapacity, final File pSpillFile, final IoExecutor pSpillExecutor)
+            throws IOException {
+        this.mEvents = new long[Math.max(roundUp(pCapacity), 2 * SPILL_CHUNK_EVENTS)];
+        this.mMask = mEvents.length - 1;
+        this.mSpillFile = pSpillFile;
+        this.mChannel = new RandomAccessFile(pSpillFile, "rw").getChannel();
+        this.mChannel.truncate(0);
+        this.mSpillBuffer = ByteBuffer.allocateDirect(SPILL_CHUNK_EVENTS * EVENT_BYTES);
+        mSpillBuffer.putInt(MAGIC).putInt(VERSION).flip();
+        while(mSpillBuffer.hasRemaining()){
+            mChannel.write(mSpillBuffer);
+        }
+        this.mSpillExecutor = pSpillExecutor;
+    }
+
+    public static long pack(final int pType, final long pTick, final int pValue){
+        return ((long) pType << 60) | ((pTick & TICK_MASK) << 32) | (pValue & 0xFFFFFFFFL);
+    }
+
+    public static int getType(final long pEvent){
+        return (int) (pEvent >>> 60);
+    }
+
+    // the tick modulo 2^28
+    public static int getTickBits(final long pEvent){
+        return (int) ((pEvent >>> 32) & TICK_MASK);
+    }
+
+    public static int getValue(final long pEvent){
+        return (int) pEvent;
+    }
+
+    public File getSpillFile(){
+        return mSpillFile;
+    }
+
+    // Called once per tick, events appended from now on belong to the next one
+    public synchronized void advanceTick(){
+        mTick++;
+    }
+
+    public synchronized long getTick(){
+        return mTick;
+    }
+
+    // events appended so far
+    public synchronized long getEventCount(){
+        return mPosition;
+    }
+
+    /* Never waits for the spill file: appending only writes the ring, and
+     * the spill task is queued without blocking. Should the ring fill up
+     * with events the task has not written yet, the file can no longer
+     * hold the whole history, so spilling stops for good and the ring
+     * carries on with the latest events, like a journal without a file.
+     */
+    public void append(final int pType, final int pValue){
+        synchronized(this){
+            if(isSpilling() && mPosition - mSpilledPosition >= mEvents.length){
+                mSpillOverrun = true;
+            }
+            mEvents[(int) (mPosition & mMask)] = pack(pType, mTick, pValue);
+            mPosition++;
+            if(!isSpilling() || mSpillScheduled || mPosition - mSpilledPosition < mEvents.length / 2){
+                return;
+            }
+            mSpillScheduled = true;
+        }
+        // the spill task needs this monitor, so it is queued only after leaving it
+        submitSpill();
+    }
+
+    // guarded by this
+    private boolean isSpilling(){
+        return mChannel != null && !mSpillOverrun && !mClosed;
+    }
+
+    /* Write every event not yet in the spill file, on the calling thread.
+     * Does nothing without a spill file.
+     */
+    public void spill() throws IOException {
+        if(mChannel == null){
+            return;
+        }
+        synchronized(mSpillLock){
+            final ByteBuffer buffer = mSpillBuffer;
+            while(true){
+                final long from;
+                final long to;
+                synchronized(this){
+                    mSpillScheduled = false;
+                    from = mSpilledPosition;
+                    to = Math.min(mPosition, from + SPILL_CHUNK_EVENTS);
+                    // once spilling stopped, the ring may have overwritten what the file misses
+                    if(from == to || !isSpilling()){
+                        return;
+                    }
+                    // the events stay in the ring until mSpilledPosition moves past them
+                    buffer.clear();
+                    for(long position = from; position < to; position++){
+                        buffer.putLong(mEvents[(int) (position & mMask)]);
+                    }
+                }
+                buffer.flip();
+                try {
+                    while(buffer.hasRemaining()){
+                        mChannel.write(buffer, HEADER_BYTES + from * EVENT_BYTES + buffer.position());
+                    }
+                } catch(IOException e){
+                    synchronized(this){
+                        mFailedSpillCount++;
+                    }
+                    throw e;
+                }
+                synchronized(this){
+                    if(mSpillOverrun){
+                        // the ring overran the events while they were written, the file is incomplete anyway
+                        return;
+                    }
+                    mSpilledPosition = to;
+                    mSpillCount++;
+                }
+            }
+        }
+    }
+
+    // Ask for whatever is waiting to be spilled in the background now, without waiting
+    public void requestSpill(){
+        if(mSpillExecutor != null){
+            synchronized(this){
+                if(mSpillScheduled){
+                    return;
+                }
+                mSpillScheduled = true;
+            }
+            submitSpill();
+        }
+    }
+
+    /* Queue the spill task without blocking. Should the save queue be full
+     * the request is dropped, and the next append past the threshold asks
+     * again.
+     */
+    private void submitSpill(){
+        if(mSpillExecutor.trySubmit(IoExecutor.CATEGORY_SAVE, mSpillTask) == null){
+            synchronized(this){
+                mSpillScheduled = false;
+            }
+        }
+    }
+
+    /* Spill whatever is left and close the file. Events appended later
+     * are kept in the ring only.
+     */
+    public void close() throws IOException {
+        if(mChannel == null){
+            return;
+        }
+        synchronized(mSpillLock){
+            try {
+                spill();
+            } finally {
+                synchronized(this){
+                    mClosed = true;
+                }
+                mChannel.close();
+            }
+        }
+    }
+
+    private final Runnable mSpillTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                spill();
+            } catch(IOException e){
+                // counted in the report; the events stay in the ring and are retried with the next spill
+            }
+        }
+    };
+
+    /* Rebuild the counters as they were at the end of pTick and restore
+     * them into pTarget, which should not journal itself. Spilled events
+     * are read back from the file, the rest come from the ring.
+     */
+    public void replay(final long pTick, final GameManager pTarget) throws IOException {
+        final long spilled;
+        final long[] retained;
+        final boolean complete;
+        synchronized(this){
+            spilled = mSpilledPosition;
+            final long oldest = Math.max(spilled, mPosition - mEvents.length);
+            complete = oldest == spilled;
+            retained = new long[(int) (mPosition - oldest)];
+            for(int i = 0; i < retained.length; i++){
+                retained[i] = mEvents[(int) ((oldest + i) & mMask)];
+            }
+        }
+        final Replay replay = new Replay(pTick);
+        if(spilled > 0){
+            final InputStream in = new BufferedInputStream(new FileInputStream(mSpillFile),
+                    SPILL_CHUNK_EVENTS * EVENT_BYTES);
+            try {
+                replay.readFile(in, spilled);
+            } finally {
+                in.close();
+            }
+        }
+        int start = 0;
+        if(!complete){
+            // the oldest events are gone, so start from the first reset or restore still here
+            while(start < retained.length
+                    && !(isBase(getType(retained[start])) && isReplayableFrom(retained, start))){
+                start++;
+            }
+            if(start == retained.length || replay.tickOf(retained[start]) > pTick){
+                throw new IllegalStateException("The game journal no longer holds tick " + pTick);
+            }
+        }
+        for(int i = start; i < retained.length && replay.apply(retained[i]); i++){
+            // apply stops at the first event past pTick
+        }
+        replay.restore(pTarget);
+    }
+
+    /* Rebuild the counters at the end of pTick from a spill file, e.g. one
+     * pulled off a device, and restore them into pTarget.
+     */
+    public static void replay(final File pSpillFile, final long pTick, final GameManager pTarget) throws IOException {
+        final Replay replay = new Replay(pTick);
+        final InputStream in = new BufferedInputStream(new FileInputStream(pSpillFile), SPILL_CHUNK_EVENTS * EVENT_BYTES);
+        try {
+            replay.readFile(in, Long.MAX_VALUE);
+        } finally {
+            in.close();
+        }
+        replay.restore(pTarget);
+    }
+
+    private static boolean isBase(final int pType){
+        return pType == TYPE_RESET || pType == TYPE_SET_SCORE || pType == TYPE_SET_BIRD_COUNT
+                || pType == TYPE_SET_ENEMY_COUNT;
+    }
+
+    /* Whether replaying from pStart arrives at every counter: each one must
+     * be reset or set before the first delta to it.
+     */
+    private static boolean isReplayableFrom(final long[] pEvents, final int pStart){
+        int known = 0;
+        for(int i = pStart; i < pEvents.length && known != 7; i++){
+            final int type = getType(pEvents[i]);
+            switch(type){
+            case TYPE_RESET:
+                known = 7;
+                break;
+            case TYPE_SET_SCORE:
+                known |= 1;
+                break;
+            case TYPE_SET_BIRD_COUNT:
+                known |= 2;
+                break;
+            case TYPE_SET_ENEMY_COUNT:
+                known |= 4;
+                break;
+            case GameEventQueue.TYPE_SCORE:
+                if((known & 1) == 0) return false;
+                break;
+            case GameEventQueue.TYPE_BIRD_COUNT:
+                if((known & 2) == 0) return false;
+                break;
+            default:
+                if((known & 4) == 0) return false;
+                break;
+            }
+        }
+        return known == 7;
+    }
+
+    @Override
+    public synchronized void onReport(final PrintWriter pOut){
+        pOut.println("journal: " + mPosition + " events, tick " + mTick + ", spilled " + mSpilledPosition
+                + " in " + mSpillCount + " writes, failed " + mFailedSpillCount
+                + (mSpillOverrun ? ", spilling stopped: ring overrun" : ""));
+    }
+
+    private static int roundUp(final int pCapacity){
+        int capacity = 1;
+        while(capacity < pCapacity){
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Applies events in order up to a tick, widening their 28 bit ticks as it goes
+    private static class Replay {
+        final long mUntilTick;
+        boolean mDone;
+        int mScore;
+        int mBirdCount;
+        int mEnemyCount;
+        long mTick;
+
+        Replay(final long pUntilTick){
+            mUntilTick = pUntilTick;
+            reset();
+        }
+
+        void reset(){
+            mScore = GameManager.INITIAL_SCORE;
+            mBirdCount = GameManager.INITIAL_BIRD_COUNT;
+            mEnemyCount = GameManager.INITIAL_ENEMY_COUNT;
+        }
+
+        // The full tick of an event following the ones seen so far
+        long tickOf(final long pEvent){
+            final long tick = (mTick & ~TICK_MASK) | getTickBits(pEvent);
+            return tick < mTick ? tick + (1L << TICK_BITS) : tick;
+        }
+
+        // Returns false once the event lies past the tick being rebuilt
+        boolean apply(final long pEvent){
+            if(mDone){
+                return false;
+            }
+            final long tick = tickOf(pEvent);
+            if(tick > mUntilTick){
+                mDone = true;
+                return false;
+            }
+            mTick = tick;
+            final int value = getValue(pEvent);
+            switch(getType(pEvent)){
+            case GameEventQueue.TYPE_SCORE:
+                mScore += value;
+                break;
+            case GameEventQueue.TYPE_BIRD_COUNT:
+                mBirdCount += value;
+                break;
+            case GameEventQueue.TYPE_ENEMY_COUNT:
+                mEnemyCount += value;
+                break;
+            case TYPE_SET_SCORE:
+                mScore = value;
+                break;
+            case TYPE_SET_BIRD_COUNT:
+                mBirdCount = value;
+                break;
+            case TYPE_SET_ENEMY_COUNT:
+                mEnemyCount = value;
+                break;
+            case TYPE_RESET:
+                reset();
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal event type: " + getType(pEvent));
+            }
+            return true;
+        }
+
+        // Apply up to pCount events from a spill file
+        void readFile(final InputStream pInputStream, final long pCount) throws IOException {
+            final DataInputStream in = new DataInputStream(pInputStream);
+            if(in.readInt() != MAGIC){
+                throw new IOException("Not a game journal");
+            }
+            final int version = in.readInt();
+            if(version != VERSION){
+                throw new IOException("Unsupported game journal version: " + version);
+            }
+            for(long i = 0; i < pCount; i++){
+                final long event;
+                try {
+                    event = in.readLong();
+                } catch(EOFException e){
+                    return;
+                }
+                if(!apply(event)){
+                    return;
+                }
+            }
+        }
+
+        void restore(final GameManager pTarget){
+            pTarget.restore(mScore, mBirdCount, mEnemyCount);
+        }
+    }
+}
@@ -1,76 +1,314 @@
 package com.example.helloand;
 
-public class GameManager {
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-    /* Since this class is a singleton, we must declare an instance
-     * of this class within itself. The singleton will be instantiated
-     * a single time during the course of an application's full life-cycle
-     */
-    private static GameManager INSTANCE;
+public class GameManager implements StateSnapshotter.Source {
+
+    // the counters as StateSnapshotter fields
+    public static final int FIELD_SCORE = 0;
+    public static final int FIELD_BIRD_COUNT = 1;
+    public static final int FIELD_ENEMY_COUNT = 2;
+    private static final int FIELD_COUNT = 3;
 
-    private static final int INITIAL_SCORE = 0;
-    private static final int INITIAL_BIRD_COUNT = 3;
-    private static final int INITIAL_ENEMY_COUNT = 5;
+    // GameJournal replays resets with these
+    static final int INITIAL_SCORE = 0;
+    static final int INITIAL_BIRD_COUNT = 3;
+    static final int INITIAL_ENEMY_COUNT = 5;
+
+    // how many queued events the batch API can hold between two ticks
+    private static final int EVENT_QUEUE_CAPACITY = 1024;
 
     /* The game manager should keep track of certain data involved in
      * our game. This particular game manager holds data for score, bird
-     * counts and enemy counts.
+     * counts and enemy counts. The counters are atomic because they may be
+     * changed from the update thread as well as from collision callbacks.
+     */
+    private final AtomicInteger mCurrentScore = new AtomicInteger();
+    private final AtomicInteger mBirdCount = new AtomicInteger();
+    private final AtomicInteger mEnemyCount = new AtomicInteger();
+
+    // bumped with every change of a counter, so snapshots only write what changed
+    private final AtomicLongArray mFieldVersions = new AtomicLongArray(FIELD_COUNT);
+
+    /* Collision handlers may queue their changes instead of applying them.
+     * The update thread then drains the queue once per tick.
+     */
+    private final GameEventQueue mEventQueue = new GameEventQueue(EVENT_QUEUE_CAPACITY);
+    private final EventAccumulator mEventAccumulator = new EventAccumulator();
+
+    // records every change to the counters, may be null
+    private volatile GameJournal mJournal;
+
+    /* With a journal attached, every change is applied and journaled while
+     * holding this lock, so the journal has them in the order they were
+     * applied. Without one the counters are changed lock-free.
      */
-    private int mCurrentScore;
-    private int mBirdCount;
-    private int mEnemyCount;
+    private final Object mJournalLock = new Object();
 
     // The constructor does not do anything for this singleton
     GameManager(){
     }
 
+    /* Since this class is a singleton, we must declare an instance
+     * of this class. The holder class is only loaded the first time
+     * getInstance is called, and class loading guarantees the instance is
+     * created exactly once and safely published to every thread.
+     */
+    private static class InstanceHolder {
+        static final GameManager INSTANCE = new GameManager();
+    }
+
     /* For a singleton class, we must have some method which provides
      * access to the class instance. getInstance is a static method,
      * which means we can access it globally (within other classes).
-     * If the GameManager has not yet been instantiated, we create a 
-     * new one.
      */
     public static GameManager getInstance(){
-        if(INSTANCE == null){
-            INSTANCE = new GameManager();
+        return InstanceHolder.INSTANCE;
+    }
+
+    /* Record every change to the counters from now on, or stop recording
+     * with null. The journal starts with the current counters, so replays
+     * do not depend on what happened before. drainEvents marks the end of
+     * each tick in the journal. Call it from the thread changing the
+     * counters (the update thread in the game), since a change made by
+     * another thread while the journal is attached may be missed.
+     */
+    public void setJournal(final GameJournal pJournal){
+        synchronized(mJournalLock){
+            if(pJournal != null){
+                journalCounters(pJournal, getCurrentScore(), getBirdCount(), getEnemyCount());
+            }
+            this.mJournal = pJournal;
         }
-        return INSTANCE;
+    }
+
+    public GameJournal getJournal(){
+        return this.mJournal;
     }
 
     // get the current score
     public int getCurrentScore(){
-        return this.mCurrentScore;
+        return this.mCurrentScore.get();
     }
 
     // get the bird count
     public int getBirdCount(){
-        return this.mBirdCount;
+        return this.mBirdCount.get();
     }
 
     // get the enemy count
     public int getEnemyCount(){
-        return this.mEnemyCount;
+        return this.mEnemyCount.get();
     }
 
- // increase the current score, most likely when an enemy is destroyed
+    // increase the current score, most likely when an enemy is destroyed
     public void incrementScore(int pIncrementBy){
-        mCurrentScore += pIncrementBy;
+        add(FIELD_SCORE, GameEventQueue.TYPE_SCORE, pIncrementBy);
     }
 
     // Any time a bird is launched, we decrement our bird count
     public void decrementBirdCount(){
-        mBirdCount -= 1;
+        add(FIELD_BIRD_COUNT, GameEventQueue.TYPE_BIRD_COUNT, -1);
     }
 
     // Any time an enemy is hit/destroyed, we decrement the enemy count
     public void decrementEnemyCount(){
-        mEnemyCount -= 1;
+        add(FIELD_ENEMY_COUNT, GameEventQueue.TYPE_ENEMY_COUNT, -1);
+    }
+
+    private void add(final int pField, final int pType, final int pDelta){
+        final GameJournal journal = mJournal;
+        if(journal == null){
+            counterOf(pField).addAndGet(pDelta);
+            mFieldVersions.incrementAndGet(pField);
+            return;
+        }
+        synchronized(mJournalLock){
+            counterOf(pField).addAndGet(pDelta);
+            mFieldVersions.incrementAndGet(pField);
+            journal.append(pType, pDelta);
+        }
+    }
+
+    /* The queue methods are the batched counterparts of the methods above,
+     * meant for hot paths such as collision callbacks. Nothing is lost if
+     * the queue happens to be full, the change is simply applied directly.
+     */
+    public void queueScore(final int pIncrementBy){
+        if(!mEventQueue.offer(GameEventQueue.TYPE_SCORE, pIncrementBy)){
+            incrementScore(pIncrementBy);
+        }
+    }
+
+    public void queueBirdCountDecrement(){
+        if(!mEventQueue.offer(GameEventQueue.TYPE_BIRD_COUNT, -1)){
+            decrementBirdCount();
+        }
+    }
+
+    public void queueEnemyCountDecrement(){
+        if(!mEventQueue.offer(GameEventQueue.TYPE_ENEMY_COUNT, -1)){
+            decrementEnemyCount();
+        }
+    }
+
+    /* Apply every queued event. This should be called once per tick from the
+     * update thread. Deltas are summed first so each counter is only written
+     * once, no matter how many events were queued.
+     */
+    public int drainEvents(){
+        final EventAccumulator accumulator = mEventAccumulator;
+        final int drained = mEventQueue.drain(accumulator);
+        applyDeltas(accumulator.mScoreDelta, accumulator.mBirdCountDelta, accumulator.mEnemyCountDelta);
+        accumulator.clear();
+        final GameJournal journal = mJournal;
+        if(journal != null){
+            journal.advanceTick();
+        }
+        return drained;
     }
 
-    // Resetting the game simply means we must revert back to initial values.
+    /* Add summed up changes to the counters, writing each counter at most
+     * once. Used to apply batches of events, see ParallelUpdateStage.
+     */
+    public void applyDeltas(final int pScoreDelta, final int pBirdCountDelta, final int pEnemyCountDelta){
+        if(pScoreDelta != 0){
+            add(FIELD_SCORE, GameEventQueue.TYPE_SCORE, pScoreDelta);
+        }
+        if(pBirdCountDelta != 0){
+            add(FIELD_BIRD_COUNT, GameEventQueue.TYPE_BIRD_COUNT, pBirdCountDelta);
+        }
+        if(pEnemyCountDelta != 0){
+            add(FIELD_ENEMY_COUNT, GameEventQueue.TYPE_ENEMY_COUNT, pEnemyCountDelta);
+        }
+    }
+
+    /* Resetting the game simply means we must revert back to initial
+     * values. Events still queued belong to the old game and are dropped,
+     * so call this from the thread draining them (the update thread).
+     */
     public void resetGame(){
-        this.mCurrentScore = GameManager.INITIAL_SCORE;
-        this.mBirdCount = GameManager.INITIAL_BIRD_COUNT;
-        this.mEnemyCount = GameManager.INITIAL_ENEMY_COUNT;
+        mEventQueue.clear();
+        synchronized(mJournalLock){
+            this.mCurrentScore.set(GameManager.INITIAL_SCORE);
+            this.mBirdCount.set(GameManager.INITIAL_BIRD_COUNT);
+            this.mEnemyCount.set(GameManager.INITIAL_ENEMY_COUNT);
+            touchAllFields();
+            journal(GameJournal.TYPE_RESET, 0);
+        }
+    }
+
+    // Restoring a saved game puts back the values that were saved
+    public void restore(final int pScore, final int pBirdCount, final int pEnemyCount){
+        synchronized(mJournalLock){
+            this.mCurrentScore.set(pScore);
+            this.mBirdCount.set(pBirdCount);
+            this.mEnemyCount.set(pEnemyCount);
+            touchAllFields();
+            final GameJournal journal = mJournal;
+            if(journal != null){
+                journalCounters(journal, pScore, pBirdCount, pEnemyCount);
+            }
+        }
+    }
+
+    private void touchAllFields(){
+        for(int i = 0; i < FIELD_COUNT; i++){
+            mFieldVersions.incrementAndGet(i);
+        }
+    }
+
+    @Override
+    public int getFieldCount(){
+        return FIELD_COUNT;
+    }
+
+    @Override
+    public long getFieldVersion(final int pField){
+        return mFieldVersions.get(pField);
+    }
+
+    @Override
+    public int getFieldValue(final int pField){
+        return counterOf(pField).get();
+    }
+
+    // Restoring a single counter is journaled like restoring them all
+    @Override
+    public void restoreField(final int pField, final int pValue){
+        final AtomicInteger counter = counterOf(pField);
+        synchronized(mJournalLock){
+            counter.set(pValue);
+            mFieldVersions.incrementAndGet(pField);
+            switch(pField){
+            case FIELD_SCORE:
+                journal(GameJournal.TYPE_SET_SCORE, pValue);
+                break;
+            case FIELD_BIRD_COUNT:
+                journal(GameJournal.TYPE_SET_BIRD_COUNT, pValue);
+                break;
+            default:
+                journal(GameJournal.TYPE_SET_ENEMY_COUNT, pValue);
+                break;
+            }
+        }
+    }
+
+    private AtomicInteger counterOf(final int pField){
+        switch(pField){
+        case FIELD_SCORE:
+            return mCurrentScore;
+        case FIELD_BIRD_COUNT:
+            return mBirdCount;
+        case FIELD_ENEMY_COUNT:
+            return mEnemyCount;
+        default:
+            throw new IllegalArgumentException("Unknown field: " + pField);
+        }
+    }
+
+    private static void journalCounters(final GameJournal pJournal, final int pScore, final int pBirdCount,
+            final int pEnemyCount){
+        pJournal.append(GameJournal.TYPE_SET_SCORE, pScore);
+        pJournal.append(GameJournal.TYPE_SET_BIRD_COUNT, pBirdCount);
+        pJournal.append(GameJournal.TYPE_SET_ENEMY_COUNT, pEnemyCount);
+    }
+
+    private void journal(final int pType, final int pValue){
+        final GameJournal journal = mJournal;
+        if(journal != null){
+            journal.append(pType, pValue);
+        }
+    }
+
+    // Sums the deltas of drained events, only used by the draining thread
+    private static class EventAccumulator implements GameEventQueue.Consumer {
+        int mScoreDelta;
+        int mBirdCountDelta;
+        int mEnemyCountDelta;
+
+        @Override
+        public void onEvent(final int pType, final int pDelta){
+            switch(pType){
+            case GameEventQueue.TYPE_SCORE:
+                mScoreDelta += pDelta;
+                break;
+            case GameEventQueue.TYPE_BIRD_COUNT:
+                mBirdCountDelta += pDelta;
+                break;
+            case GameEventQueue.TYPE_ENEMY_COUNT:
+                mEnemyCountDelta += pDelta;
+                break;
+            default:
+                throw new IllegalStateException("Unknown game event type: " + pType);
+            }
+        }
+
+        void clear(){
+            mScoreDelta = 0;
+            mBirdCountDelta = 0;
+            mEnemyCountDelta = 0;
+        }
     }
 }
@@ -0,0 +1,307 @@
+package com.example.helloand;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+
+import org.andengine.opengl.font.IFont;
+import org.andengine.opengl.font.Letter;
+import org.andengine.opengl.font.exception.LetterNotFoundException;
+import org.andengine.opengl.texture.ITexture;
+import org.andengine.opengl.texture.TextureManager;
+import org.andengine.opengl.texture.TextureOptions;
+import org.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlas;
+import org.andengine.opengl.texture.atlas.bitmap.source.FileBitmapTextureAtlasSource;
+import org.andengine.opengl.texture.bitmap.BitmapTextureFormat;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * GlyphAtlasFont is a font whose glyphs are all rasterized up front into
+ * one atlas image. Unlike AndEngine's Font, which draws every glyph with
+ * Canvas the first time a Text needs it, the whole character set is
+ * rendered once and then saved, the image as a PNG and the glyph metrics
+ * next to it. Later launches decode the PNG straight into the texture and
+ * read the metrics, so no glyph is ever drawn again.
+ *
+ * The cached files are rebuilt whenever the size, color or character set
+ * they were made for changes. The metrics file looks like this:
+ *
+ * <pre>
+ * magic (int) | version (short) | size (float) | color (int) | characters (UTF)
+ * texture width (short) | texture height (short) | line height (float)
+ * per character: x | y | width | height (short each) | offset x | offset y | advance (float each)
+ * </pre>
+ *
+ * Whitespace and characters without pixels have a width and height of 0.
+ */
+public class GlyphAtlasFont implements IFont {
+
+    // every character the game's texts use
+    public static final String DEFAULT_CHARACTERS = " 0123456789"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz"
+            + ":.,!?-+/%()";
+
+    public static final int MAGIC = 0x48464E54; // "HFNT"
+    public static final short VERSION = 1;
+
+    // transparent pixels between glyphs, so bilinear filtering does not bleed
+    private static final int LETTER_PADDING = 1;
+
+    private static final String IMAGE_SUFFIX = ".png";
+    private static final String METRICS_SUFFIX = ".bin";
+
+    // Letter's constructors are package private, see createLetter
+    private static Constructor<Letter> sLetterConstructor;
+    private static Constructor<Letter> sWhitespaceConstructor;
+
+    private final BitmapTextureAtlas mTexture;
+    private final float mLineHeight;
+
+    // indexed by character; null for characters outside the set
+    private final Letter[] mLetters;
+
+    private GlyphAtlasFont(final BitmapTextureAtlas pTexture, final float pLineHeight, final Letter[] pLetters){
+        this.mTexture = pTexture;
+        this.mLineHeight = pLineHeight;
+        this.mLetters = pLetters;
+    }
+
+    /* Create the font named pName from the files cached in pCacheDir, or
+     * rasterize pCharacters and cache them there first. pName identifies
+     * the typeface, since a Typeface cannot tell its own name. The returned
+     * font still has to be loaded.
+     */
+    public static GlyphAtlasFont create(final TextureManager pTextureManager, final File pCacheDir, final String pName,
+            final Typeface pTypeface, final float pSize, final int pColor, final String pCharacters,
+            final int pTextureWidth, final int pTextureHeight) throws IOException {
+        final File imageFile = new File(pCacheDir, pName + IMAGE_SUFFIX);
+        final File metricsFile = new File(pCacheDir, pName + METRICS_SUFFIX);
+
+        GlyphAtlasFont font = null;
+        if(imageFile.exists() && metricsFile.exists()){
+            font = read(pTextureManager, imageFile, metricsFile, pSize, pColor, pCharacters);
+        }
+        if(font == null){
+            if(!pCacheDir.isDirectory() && !pCacheDir.mkdirs()){
+                throw new IOException("Failed to create " + pCacheDir);
+            }
+            rasterize(imageFile, metricsFile, pTypeface, pSize, pColor, pCharacters, pTextureWidth, pTextureHeight);
+            font = read(pTextureManager, imageFile, metricsFile, pSize, pColor, pCharacters);
+            if(font == null){
+                throw new IOException("Failed to read the glyph atlas just written to " + metricsFile);
+            }
+        }
+        return font;
+    }
+
+    @Override
+    public void load(){
+        mTexture.load();
+    }
+
+    @Override
+    public void unload(){
+        mTexture.unload();
+    }
+
+    @Override
+    public ITexture getTexture(){
+        return mTexture;
+    }
+
+    @Override
+    public float getLineHeight(){
+        return mLineHeight;
+    }
+
+    @Override
+    public Letter getLetter(final char pCharacter) throws LetterNotFoundException {
+        final Letter letter = pCharacter < mLetters.length ? mLetters[pCharacter] : null;
+        if(letter == null){
+            throw new LetterNotFoundException("Letter '" + pCharacter + "' is not in the glyph atlas");
+        }
+        return letter;
+    }
+
+    /* Read the cached metrics and wrap the cached image in a texture.
+     * Returns null if the cache was made for a different size, color or
+     * character set, or by an older version.
+     */
+    private static GlyphAtlasFont read(final TextureManager pTextureManager, final File pImageFile, final File pMetricsFile,
+            final float pSize, final int pColor, final String pCharacters) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pMetricsFile)));
+        try {
+            if(in.readInt() != MAGIC || in.readShort() != VERSION || in.readFloat() != pSize
+                    || in.readInt() != pColor || !in.readUTF().equals(pCharacters)){
+                return null;
+            }
+            final int textureWidth = in.readUnsignedShort();
+            final int textureHeight = in.readUnsignedShort();
+            final float lineHeight = in.readFloat();
+
+            int maxCharacter = 0;
+            for(int i = 0; i < pCharacters.length(); i++){
+                maxCharacter = Math.max(maxCharacter, pCharacters.charAt(i));
+            }
+            final Letter[] letters = new Letter[maxCharacter + 1];
+            for(int i = 0; i < pCharacters.length(); i++){
+                final char character = pCharacters.charAt(i);
+                final int x = in.readUnsignedShort();
+                final int y = in.readUnsignedShort();
+                final int width = in.readUnsignedShort();
+                final int height = in.readUnsignedShort();
+                final float offsetX = in.readFloat();
+                final float offsetY = in.readFloat();
+                final float advance = in.readFloat();
+                if(width == 0 || height == 0){
+                    letters[character] = createWhitespaceLetter(character, advance);
+                } else {
+                    letters[character] = createLetter(character, x, y, width, height, offsetX, offsetY, advance,
+                            (float) x / textureWidth, (float) y / textureHeight,
+                            (float) (x + width) / textureWidth, (float) (y + height) / textureHeight);
+                }
+            }
+
+            final BitmapTextureAtlas texture = new BitmapTextureAtlas(pTextureManager, textureWidth, textureHeight,
+                    BitmapTextureFormat.RGBA_8888, TextureOptions.BILINEAR);
+            // the PNG is decoded when the texture is uploaded, and again should the GL context be lost
+            texture.addTextureAtlasSource(FileBitmapTextureAtlasSource.create(pImageFile), 0, 0);
+            return new GlyphAtlasFont(texture, lineHeight, letters);
+        } finally {
+            in.close();
+        }
+    }
+
+    /* Draw every character into one bitmap, row by row, and write the
+     * bitmap and the glyph metrics to the cache files. The metrics follow
+     * AndEngine's Font, so texts look the same with either.
+     */
+    private static void rasterize(final File pImageFile, final File pMetricsFile, final Typeface pTypeface,
+            final float pSize, final int pColor, final String pCharacters,
+            final int pTextureWidth, final int pTextureHeight) throws IOException {
+        final Paint paint = new Paint();
+        paint.setTypeface(pTypeface);
+        paint.setTextSize(pSize);
+        paint.setColor(pColor);
+        paint.setAntiAlias(true);
+        final Paint.FontMetrics fontMetrics = paint.getFontMetrics();
+
+        final Bitmap bitmap = Bitmap.createBitmap(pTextureWidth, pTextureHeight, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final Rect bounds = new Rect();
+        final float[] advance = new float[1];
+
+        // the metrics are written to a temporary file first, so a partly written cache is never read
+        final File metricsFile = new File(pMetricsFile.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(metricsFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeFloat(pSize);
+            out.writeInt(pColor);
+            out.writeUTF(pCharacters);
+            out.writeShort(pTextureWidth);
+            out.writeShort(pTextureHeight);
+            out.writeFloat(-fontMetrics.ascent + fontMetrics.descent);
+
+            int x = LETTER_PADDING;
+            int y = LETTER_PADDING;
+            int rowHeight = 0;
+            for(int i = 0; i < pCharacters.length(); i++){
+                final char character = pCharacters.charAt(i);
+                final String text = String.valueOf(character);
+                paint.getTextBounds(text, 0, 1, bounds);
+                paint.getTextWidths(text, advance);
+                final int width = bounds.width();
+                final int height = bounds.height();
+                if(Character.isWhitespace(character) || width == 0 || height == 0){
+                    writeLetter(out, 0, 0, 0, 0, 0, 0, advance[0]);
+                    continue;
+                }
+                if(x + width + LETTER_PADDING > pTextureWidth){
+                    x = LETTER_PADDING;
+                    y += rowHeight + LETTER_PADDING;
+                    rowHeight = 0;
+                }
+                if(y + height + LETTER_PADDING > pTextureHeight){
+                    throw new IllegalArgumentException("The glyphs do not fit into " + pTextureWidth + "x" + pTextureHeight);
+                }
+                canvas.drawText(text, x - bounds.left, y - bounds.top, paint);
+                writeLetter(out, x, y, width, height, bounds.left, bounds.top - fontMetrics.ascent, advance[0]);
+                x += width + LETTER_PADDING;
+                rowHeight = Math.max(rowHeight, height);
+            }
+        } finally {
+            out.close();
+        }
+
+        final OutputStream imageOut = new BufferedOutputStream(new FileOutputStream(pImageFile));
+        try {
+            if(!bitmap.compress(Bitmap.CompressFormat.PNG, 100, imageOut)){
+                throw new IOException("Failed to write " + pImageFile);
+            }
+        } finally {
+            imageOut.close();
+            bitmap.recycle();
+        }
+        if(!metricsFile.renameTo(pMetricsFile)){
+            throw new IOException("Failed to rename " + metricsFile + " to " + pMetricsFile);
+        }
+    }
+
+    private static void writeLetter(final DataOutputStream pOut, final int pX, final int pY, final int pWidth, final int pHeight,
+            final float pOffsetX, final float pOffsetY, final float pAdvance) throws IOException {
+        pOut.writeShort(pX);
+        pOut.writeShort(pY);
+        pOut.writeShort(pWidth);
+        pOut.writeShort(pHeight);
+        pOut.writeFloat(pOffsetX);
+        pOut.writeFloat(pOffsetY);
+        pOut.writeFloat(pAdvance);
+    }
+
+    /* Letter can only be created by AndEngine's own fonts, so its package
+     * private constructors are looked up once and called through
+     * reflection. proguard-project.txt keeps them from being renamed.
+     */
+    private static synchronized Letter createLetter(final char pCharacter, final int pTextureX, final int pTextureY,
+            final int pWidth, final int pHeight, final float pOffsetX, final float pOffsetY, final float pAdvance,
+            final float pU, final float pV, final float pU2, final float pV2){
+        try {
+            if(sLetterConstructor == null){
+                sLetterConstructor = Letter.class.getDeclaredConstructor(char.class, int.class, int.class, int.class, int.class,
+                        float.class, float.class, float.class, float.class, float.class, float.class, float.class);
+                sLetterConstructor.setAccessible(true);
+            }
+            return sLetterConstructor.newInstance(pCharacter, pTextureX, pTextureY, pWidth, pHeight,
+                    pOffsetX, pOffsetY, pAdvance, pU, pV, pU2, pV2);
+        } catch(Exception e){
+            throw new IllegalStateException("Failed to create letter '" + pCharacter + "'", e);
+        }
+    }
+
+    private static synchronized Letter createWhitespaceLetter(final char pCharacter, final float pAdvance){
+        try {
+            if(sWhitespaceConstructor == null){
+                sWhitespaceConstructor = Letter.class.getDeclaredConstructor(char.class, float.class);
+                sWhitespaceConstructor.setAccessible(true);
+            }
+            return sWhitespaceConstructor.newInstance(pCharacter, pAdvance);
+        } catch(Exception e){
+            throw new IllegalStateException("Failed to create letter '" + pCharacter + "'", e);
+        }
+    }
+}
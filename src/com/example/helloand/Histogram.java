@@ -0,0 +1,114 @@
+package com.example.helloand;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram records non-negative samples (usually nanoseconds) into a
+ * fixed set of log-linear buckets. Every power of two is split into 16
+ * buckets, so percentiles are accurate to about 6% over the whole range
+ * of a long. Recording is a single atomic increment, needs no locks and
+ * never allocates, so any thread may record at any time.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(final long pValue){
+        final long value = pValue < 0 ? 0 : pValue;
+        mBuckets.incrementAndGet(bucketOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while(value > max && !mMax.compareAndSet(max, value)){
+            max = mMax.get();
+        }
+    }
+
+    public long getCount(){
+        return mCount.get();
+    }
+
+    public long getMax(){
+        return mMax.get();
+    }
+
+    public long getMean(){
+        final long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /* The value below which the given fraction of samples fall, e.g. 0.99
+     * for the 99th percentile. Samples recorded while this runs may or may
+     * not be included.
+     */
+    public long getPercentile(final double pFraction){
+        final long count = mCount.get();
+        if(count == 0){
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(pFraction * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            seen += mBuckets.get(i);
+            if(seen >= rank){
+                return Math.min(valueOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    // Add every sample recorded by another histogram to this one
+    public void add(final Histogram pOther){
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            final long count = pOther.mBuckets.get(i);
+            if(count != 0){
+                mBuckets.addAndGet(i, count);
+            }
+        }
+        mCount.addAndGet(pOther.mCount.get());
+        mSum.addAndGet(pOther.mSum.get());
+        final long otherMax = pOther.mMax.get();
+        long max = mMax.get();
+        while(otherMax > max && !mMax.compareAndSet(max, otherMax)){
+            max = mMax.get();
+        }
+    }
+
+    public void reset(){
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    // Values below 16 get a bucket each, above that 16 buckets per power of two
+    static int bucketOf(final long pValue){
+        if(pValue < SUB_BUCKET_COUNT){
+            return (int) pValue;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(pValue);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (pValue >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    // the upper bound of a bucket, reported for samples falling into it
+    static long valueOf(final int pBucket){
+        if(pBucket < SUB_BUCKET_COUNT){
+            return pBucket;
+        }
+        final int shift = (pBucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        final int subBucket = (pBucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
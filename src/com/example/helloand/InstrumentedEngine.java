@@ -0,0 +1,91 @@
+package com.example.helloand;
+
+import org.andengine.engine.Engine;
+import org.andengine.engine.camera.Camera;
+import org.andengine.engine.options.EngineOptions;
+import org.andengine.opengl.util.GLState;
+
+/**
+ * InstrumentedEngine runs the game in fixed steps like FixedStepEngine,
+ * but leaves how many steps a frame runs to a StepScheduler, which bounds
+ * the catch-up of slow frames and may lower the logic rate on devices
+ * that cannot keep up. It reports the time spent updating and drawing the
+ * scene to the Profiler. Only the work itself is timed, not the time the
+ * update and GL threads spend waiting on each other, so the numbers show
+ * how much of the frame budget is really used.
+ */
+public class InstrumentedEngine extends Engine {
+
+    private final StepScheduler mScheduler;
+
+    private final StepScheduler.Stepper mStepper = new StepScheduler.Stepper() {
+        @Override
+        public void onStep(final long pStepNanos) throws InterruptedException {
+            InstrumentedEngine.super.onUpdate(pStepNanos);
+        }
+    };
+
+    // set when a step starts, only touched by the update thread
+    private long mStepStart;
+
+    // runs once, on the GL thread, after the first frame has been drawn
+    private volatile Runnable mFirstFrameListener;
+
+    public InstrumentedEngine(final EngineOptions pEngineOptions, final StepScheduler pScheduler) {
+        super(pEngineOptions);
+        this.mScheduler = pScheduler;
+    }
+
+    public StepScheduler getScheduler(){
+        return mScheduler;
+    }
+
+    /* How far the frame being drawn is between the last step and the next
+     * one, for drawing positions interpolated between steps.
+     */
+    public float getInterpolationAlpha(){
+        return mScheduler.getAlpha();
+    }
+
+    @Override
+    public void onUpdate(final long pNanosecondsElapsed) throws InterruptedException {
+        mScheduler.advance(mStepper);
+    }
+
+    /* Every fixed step updates the handlers and then the scene, so one
+     * update sample spans both calls.
+     */
+    @Override
+    protected void onUpdateUpdateHandlers(final float pSecondsElapsed) {
+        mStepStart = Profiler.start();
+        super.onUpdateUpdateHandlers(pSecondsElapsed);
+    }
+
+    @Override
+    protected void onUpdateScene(final float pSecondsElapsed) {
+        super.onUpdateScene(pSecondsElapsed);
+        Profiler.end(Profiler.PHASE_UPDATE, mStepStart);
+    }
+
+    @Override
+    protected void onDrawScene(final GLState pGLState, final Camera pCamera) {
+        final long start = Profiler.start();
+        final long drawStart = System.nanoTime();
+        super.onDrawScene(pGLState, pCamera);
+        // the scheduler judges by busy time whether the device can run faster again
+        mScheduler.onFrameDrawn(System.nanoTime() - drawStart);
+        Profiler.end(Profiler.PHASE_RENDER, start);
+        final Runnable firstFrameListener = mFirstFrameListener;
+        if(firstFrameListener != null){
+            mFirstFrameListener = null;
+            firstFrameListener.run();
+        }
+    }
+
+    /* pListener runs on the GL thread right after the next frame has been
+     * drawn, e.g. to start work that must not delay the first frame.
+     */
+    public void setFirstFrameListener(final Runnable pListener){
+        mFirstFrameListener = pListener;
+    }
+}
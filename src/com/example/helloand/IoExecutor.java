@@ -0,0 +1,384 @@
+package com.example.helloand;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IoExecutor runs the game's blocking I/O off the update and GL threads:
+ * preference flushes, journal spills and save games (CATEGORY_SAVE), asset
+ * decoding for the AssetLoader (CATEGORY_ASSET) and profiler and startup
+ * trace dumps (CATEGORY_TELEMETRY).
+ *
+ * Every category has a queue of its own with a bounded capacity and a
+ * limit on how many of its tasks run at once. Saves run one at a time, in
+ * the order they were submitted. submit blocks while the queue is full, so
+ * a producer outpacing the disk slows down instead of piling up work;
+ * trySubmit drops the task instead, which is what telemetry does.
+ * Delayed tasks from schedule never block the timer; one due on a full
+ * queue is tried again shortly after.
+ *
+ * On a JVM with virtual threads (Java 21 and later, looked up by
+ * reflection since the game is built for Android) every task gets a
+ * virtual thread of its own. Elsewhere, i.e. on devices, the tasks share
+ * a pool of platform threads, one per task the categories may run at once.
+ *
+ * When the game pauses, queued telemetry is cancelled and asset tasks are
+ * held until it resumes; saves go on, since pausing is when they matter
+ * most. Queue depths and the time tasks wait and run are reported to the
+ * Profiler per category.
+ */
+public class IoExecutor implements Profiler.MetricsSource {
+
+    public static final int CATEGORY_SAVE = 0;
+    public static final int CATEGORY_ASSET = 1;
+    public static final int CATEGORY_TELEMETRY = 2;
+
+    private static final String[] CATEGORY_NAMES = { "save", "asset", "telemetry" };
+
+    // tasks each category may queue before submit blocks
+    private static final int[] QUEUE_CAPACITIES = { 32, 256, 8 };
+
+    // how long a delayed task due on a full queue waits before it tries again
+    private static final long SCHEDULE_RETRY_MILLIS = 50;
+
+    private final Executor mExecutor;
+    private final boolean mVirtualThreads;
+    private final Lane[] mLanes;
+
+    // hands delayed tasks to their queue once due, created on first use
+    private ScheduledExecutorService mTimer;
+
+    /* The holder class is only loaded the first time getInstance is
+     * called, like UserData's.
+     */
+    private static class InstanceHolder {
+        static final IoExecutor INSTANCE = new IoExecutor(
+                Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), true);
+    }
+
+    public static IoExecutor getInstance(){
+        return InstanceHolder.INSTANCE;
+    }
+
+    /* pAssetThreads is how many asset tasks run at once. Without virtual
+     * threads, or with pVirtualThreads false, the pool has a thread for
+     * each of them and one each for saves and telemetry.
+     */
+    public IoExecutor(final int pAssetThreads, final boolean pVirtualThreads){
+        final ExecutorService virtualThreads = pVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.mVirtualThreads = virtualThreads != null;
+        this.mExecutor = virtualThreads != null ? virtualThreads : newPlatformThreadPool(pAssetThreads + 2);
+        this.mLanes = new Lane[] {
+                new Lane(CATEGORY_SAVE, 1),
+                new Lane(CATEGORY_ASSET, pAssetThreads),
+                new Lane(CATEGORY_TELEMETRY, 1)
+        };
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor, or null before Java 21 and on Android
+    private static ExecutorService newVirtualThreadExecutor(){
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch(Exception e){
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadPool(final int pThreadCount){
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(pThreadCount, pThreadCount, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable pRunnable) {
+                final Thread thread = new Thread(pRunnable, "IoExecutor-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                // I/O and decoding should never compete with the update and GL threads
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        /* allowCoreThreadTimeOut needs API level 9, so the threads stay
+         * around; there are only a few, and they are daemons at the lowest
+         * priority */
+        return pool;
+    }
+
+    public boolean usesVirtualThreads(){
+        return mVirtualThreads;
+    }
+
+    /* Queue pTask, blocking while its category's queue is full. Throws
+     * RejectedExecutionException if interrupted while waiting.
+     */
+    public <T> Future<T> submit(final int pCategory, final Callable<T> pTask){
+        final IoTask<T> task = new IoTask<T>(mLanes[pCategory], pTask);
+        mLanes[pCategory].enqueue(task, true);
+        return task;
+    }
+
+    public Future<?> submit(final int pCategory, final Runnable pTask){
+        return submit(pCategory, Executors.callable(pTask));
+    }
+
+    // Queue pTask unless its category's queue is full, in which case it is dropped and null returned
+    public <T> Future<T> trySubmit(final int pCategory, final Callable<T> pTask){
+        final IoTask<T> task = new IoTask<T>(mLanes[pCategory], pTask);
+        return mLanes[pCategory].enqueue(task, false) ? task : null;
+    }
+
+    public Future<?> trySubmit(final int pCategory, final Runnable pTask){
+        return trySubmit(pCategory, Executors.callable(pTask));
+    }
+
+    /* Queue pTask once pDelayMillis have passed. The timer thread is
+     * shared by every delayed task, so it never blocks on a full queue:
+     * the task tries again SCHEDULE_RETRY_MILLIS later instead.
+     */
+    public void schedule(final int pCategory, final Runnable pTask, final long pDelayMillis){
+        getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if(trySubmit(pCategory, pTask) == null){
+                    mLanes[pCategory].onScheduleDeferred();
+                    getTimer().schedule(this, SCHEDULE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }, pDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService getTimer(){
+        if(mTimer == null){
+            mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable pRunnable) {
+                    final Thread thread = new Thread(pRunnable, "IoExecutor-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mTimer;
+    }
+
+    // Cancel every task of the category which has not started yet, returning how many
+    public int cancelPending(final int pCategory){
+        return mLanes[pCategory].cancelPending();
+    }
+
+    /* Tasks of a held category stay queued, and queued tasks still count
+     * against its capacity, until it is released.
+     */
+    public void hold(final int pCategory){
+        mLanes[pCategory].setHeld(true);
+    }
+
+    public void release(final int pCategory){
+        mLanes[pCategory].setHeld(false);
+    }
+
+    public void onPauseGame(){
+        cancelPending(CATEGORY_TELEMETRY);
+        hold(CATEGORY_ASSET);
+    }
+
+    public void onResumeGame(){
+        release(CATEGORY_ASSET);
+    }
+
+    // tasks queued or running in the category
+    public int getDepth(final int pCategory){
+        return mLanes[pCategory].getDepth();
+    }
+
+    /* Wait until no category has a task queued or running, e.g. before a
+     * tool exits. Returns false if that took longer than pTimeoutMillis.
+     */
+    public boolean awaitIdle(final long pTimeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + pTimeoutMillis;
+        for(Lane lane : mLanes){
+            if(!lane.awaitIdle(deadline)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onReport(final PrintWriter pOut){
+        pOut.println("io: " + (mVirtualThreads ? "virtual threads" : "platform threads"));
+        for(Lane lane : mLanes){
+            lane.report(pOut);
+        }
+    }
+
+    // The queue of one category and the tasks it runs
+    private final class Lane {
+        private final int mCategory;
+        private final int mMaxRunning;
+        private final int mCapacity;
+
+        // guarded by this
+        private final LinkedList<IoTask<?>> mQueue = new LinkedList<IoTask<?>>();
+        private int mRunning;
+        private boolean mHeld;
+
+        // statistics, guarded by this
+        private int mMaxDepth;
+        private long mSubmittedCount;
+        private long mCompletedCount;
+        private long mFailedCount;
+        private long mRejectedCount;
+        private long mCancelledCount;
+        // delayed tasks that found the queue full when due, counted as rejected too
+        private long mDeferredCount;
+        private final Histogram mWaitTimes = new Histogram();
+        private final Histogram mRunTimes = new Histogram();
+
+        Lane(final int pCategory, final int pMaxRunning){
+            this.mCategory = pCategory;
+            this.mMaxRunning = pMaxRunning;
+            this.mCapacity = QUEUE_CAPACITIES[pCategory];
+        }
+
+        synchronized boolean enqueue(final IoTask<?> pTask, final boolean pBlock){
+            while(mQueue.size() >= mCapacity){
+                if(!pBlock){
+                    mRejectedCount++;
+                    return false;
+                }
+                try {
+                    wait();
+                } catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    mRejectedCount++;
+                    throw new RejectedExecutionException("Interrupted while waiting for the "
+                            + CATEGORY_NAMES[mCategory] + " queue");
+                }
+            }
+            pTask.mQueuedAt = System.nanoTime();
+            mQueue.add(pTask);
+            mSubmittedCount++;
+            mMaxDepth = Math.max(mMaxDepth, mQueue.size() + mRunning);
+            dispatch();
+            return true;
+        }
+
+        // hand queued tasks to the threads, as far as the limit allows
+        private void dispatch(){
+            while(!mHeld && mRunning < mMaxRunning && !mQueue.isEmpty()){
+                final IoTask<?> task = mQueue.poll();
+                mRunning++;
+                // there is room in the queue again
+                notifyAll();
+                mExecutor.execute(task);
+            }
+        }
+
+        synchronized void onStarted(final IoTask<?> pTask){
+            mWaitTimes.record(System.nanoTime() - pTask.mQueuedAt);
+        }
+
+        synchronized void onFinished(final long pRunNanos, final boolean pFailed){
+            mRunning--;
+            mCompletedCount++;
+            if(pFailed){
+                mFailedCount++;
+            }
+            mRunTimes.record(pRunNanos);
+            dispatch();
+            if(mRunning == 0 && mQueue.isEmpty()){
+                notifyAll();
+            }
+        }
+
+        synchronized int cancelPending(){
+            final int count = mQueue.size();
+            for(IoTask<?> task : mQueue){
+                task.cancel(false);
+            }
+            mQueue.clear();
+            mCancelledCount += count;
+            notifyAll();
+            return count;
+        }
+
+        synchronized void setHeld(final boolean pHeld){
+            mHeld = pHeld;
+            dispatch();
+        }
+
+        synchronized void onScheduleDeferred(){
+            mDeferredCount++;
+        }
+
+        synchronized int getDepth(){
+            return mQueue.size() + mRunning;
+        }
+
+        synchronized boolean awaitIdle(final long pDeadline) throws InterruptedException {
+            while(mRunning > 0 || (!mQueue.isEmpty() && !mHeld)){
+                final long remaining = pDeadline - System.currentTimeMillis();
+                if(remaining <= 0){
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized void report(final PrintWriter pOut){
+            pOut.println("io " + CATEGORY_NAMES[mCategory] + ": depth " + (mQueue.size() + mRunning) + " (max "
+                    + mMaxDepth + ")" + (mHeld ? " held" : "") + ", " + mSubmittedCount + " submitted, "
+                    + mCompletedCount + " done, " + mFailedCount + " failed, " + mRejectedCount + " rejected, "
+                    + mCancelledCount + " cancelled, " + mDeferredCount + " deferred");
+            pOut.println("io " + CATEGORY_NAMES[mCategory] + " latency: wait p95 "
+                    + mWaitTimes.getPercentile(0.95) / 1000 + " us, run p50 " + mRunTimes.getPercentile(0.50) / 1000
+                    + " us, p95 " + mRunTimes.getPercentile(0.95) / 1000 + " us");
+        }
+    }
+
+    private static final class IoTask<T> extends FutureTask<T> {
+
+        private final Lane mLane;
+        long mQueuedAt;
+
+        IoTask(final Lane pLane, final Callable<T> pTask){
+            super(pTask);
+            this.mLane = pLane;
+        }
+
+        @Override
+        public void run(){
+            mLane.onStarted(this);
+            final long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                super.run();
+                if(isDone() && !isCancelled()){
+                    try {
+                        get();
+                    } catch(Exception e){
+                        failed = true;
+                    }
+                }
+            } finally {
+                mLane.onFinished(System.nanoTime() - start, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.helloand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * LevelChunk holds the entities of one chunk of a level, see
+ * LevelManifest. Positions are stored relative to the chunk's origin, so
+ * they fit in a short each, and are handed out in world coordinates.
+ *
+ * <pre>
+ * magic (int) | version (short) | origin x | origin y (int each) | entity count (int)
+ * entity: type (byte) | x | y (short each, relative to the origin)
+ * </pre>
+ */
+public class LevelChunk {
+
+    public static final int MAGIC = 0x4843484B; // "HCHK"
+    public static final short VERSION = 1;
+
+    private final int mOriginX;
+    private final int mOriginY;
+    private final int[] mTypes;
+    private final int[] mX;
+    private final int[] mY;
+
+    // pX and pY are in world coordinates
+    public LevelChunk(final int pOriginX, final int pOriginY, final int[] pTypes, final int[] pX, final int[] pY){
+        if(pX.length != pTypes.length || pY.length != pTypes.length){
+            throw new IllegalArgumentException("Every entity needs a type, an x and a y");
+        }
+        this.mOriginX = pOriginX;
+        this.mOriginY = pOriginY;
+        this.mTypes = pTypes;
+        this.mX = pX;
+        this.mY = pY;
+    }
+
+    public int getOriginX(){
+        return mOriginX;
+    }
+
+    public int getOriginY(){
+        return mOriginY;
+    }
+
+    public int size(){
+        return mTypes.length;
+    }
+
+    public int getType(final int pIndex){
+        return mTypes[pIndex];
+    }
+
+    public int getX(final int pIndex){
+        return mX[pIndex];
+    }
+
+    public int getY(final int pIndex){
+        return mY[pIndex];
+    }
+
+    // Whether any entity of the chunk has the given type
+    public boolean hasType(final int pType){
+        for(int i = 0; i < mTypes.length; i++){
+            if(mTypes[i] == pType){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static LevelChunk read(final InputStream pInputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(pInputStream);
+        if(in.readInt() != MAGIC){
+            throw new IOException("Not a level chunk");
+        }
+        final short version = in.readShort();
+        if(version > VERSION){
+            throw new IOException("Unsupported level chunk version " + version);
+        }
+        final int originX = in.readInt();
+        final int originY = in.readInt();
+        final int count = in.readInt();
+        if(count < 0){
+            throw new IOException("Invalid entity count " + count);
+        }
+        final int[] types = new int[count];
+        final int[] x = new int[count];
+        final int[] y = new int[count];
+        for(int i = 0; i < count; i++){
+            types[i] = in.readUnsignedByte();
+            x[i] = originX + in.readShort();
+            y[i] = originY + in.readShort();
+        }
+        return new LevelChunk(originX, originY, types, x, y);
+    }
+
+    public void write(final OutputStream pOutputStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(pOutputStream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(mOriginX);
+        out.writeInt(mOriginY);
+        out.writeInt(mTypes.length);
+        for(int i = 0; i < mTypes.length; i++){
+            out.writeByte(mTypes[i]);
+            out.writeShort(mX[i] - mOriginX);
+            out.writeShort(mY[i] - mOriginY);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.helloand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * LevelManifest describes a level made of equally sized chunks, laid out
+ * in a grid starting at the world origin. Each chunk is a LevelChunk file
+ * of its own, so a level can be far larger than what fits in memory and
+ * is streamed in around the camera by LevelStreamer.
+ *
+ * The palette maps every entity type to the packed image it is drawn
+ * with. Levels live under assets/levels/, written by the offline
+ * LevelBuilder:
+ *
+ * <pre>
+ * levels/level1/level.bin
+ * levels/level1/chunk_0_0.bin, chunk_1_0.bin, ...
+ *
+ * magic (int) | version (short) | chunk width | chunk height | columns | rows (short each)
+ * palette count (byte)
+ * palette entry: entity type (byte) | image asset path (UTF)
+ * </pre>
+ */
+public class LevelManifest {
+
+    public static final int MAGIC = 0x484C564C; // "HLVL"
+    public static final short VERSION = 1;
+
+    public static final String LEVELS_DIR = "levels/";
+    public static final String MANIFEST_NAME = "level.bin";
+
+    private final int mChunkWidth;
+    private final int mChunkHeight;
+    private final int mColumns;
+    private final int mRows;
+
+    // image asset path indexed by entity type, null for types the level does not use
+    private String[] mPalette = new String[0];
+
+    public LevelManifest(final int pChunkWidth, final int pChunkHeight, final int pColumns, final int pRows){
+        this.mChunkWidth = pChunkWidth;
+        this.mChunkHeight = pChunkHeight;
+        this.mColumns = pColumns;
+        this.mRows = pRows;
+    }
+
+    public int getChunkWidth(){
+        return mChunkWidth;
+    }
+
+    public int getChunkHeight(){
+        return mChunkHeight;
+    }
+
+    public int getColumns(){
+        return mColumns;
+    }
+
+    public int getRows(){
+        return mRows;
+    }
+
+    public int getWorldWidth(){
+        return mChunkWidth * mColumns;
+    }
+
+    public int getWorldHeight(){
+        return mChunkHeight * mRows;
+    }
+
+    public void setImagePath(final int pType, final String pAssetPath){
+        if(pType >= mPalette.length){
+            final String[] palette = new String[pType + 1];
+            System.arraycopy(mPalette, 0, palette, 0, mPalette.length);
+            mPalette = palette;
+        }
+        mPalette[pType] = pAssetPath;
+    }
+
+    // The image an entity type is drawn with, or null if the level has no such type
+    public String getImagePath(final int pType){
+        return pType >= 0 && pType < mPalette.length ? mPalette[pType] : null;
+    }
+
+    public static String getManifestPath(final int pLevel){
+        return LEVELS_DIR + "level" + pLevel + "/" + MANIFEST_NAME;
+    }
+
+    public static String getChunkPath(final int pLevel, final int pColumn, final int pRow){
+        return LEVELS_DIR + "level" + pLevel + "/chunk_" + pColumn + "_" + pRow + ".bin";
+    }
+
+    public static LevelManifest read(final InputStream pInputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(pInputStream);
+        if(in.readInt() != MAGIC){
+            throw new IOException("Not a level manifest");
+        }
+        final short version = in.readShort();
+        if(version > VERSION){
+            throw new IOException("Unsupported level manifest version " + version);
+        }
+        final LevelManifest manifest = new LevelManifest(in.readUnsignedShort(), in.readUnsignedShort(),
+                in.readUnsignedShort(), in.readUnsignedShort());
+        if(manifest.mChunkWidth == 0 || manifest.mChunkHeight == 0){
+            throw new IOException("Level chunks must not be empty");
+        }
+        final int paletteCount = in.readUnsignedByte();
+        for(int i = 0; i < paletteCount; i++){
+            manifest.setImagePath(in.readUnsignedByte(), in.readUTF());
+        }
+        return manifest;
+    }
+
+    public void write(final OutputStream pOutputStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(pOutputStream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(mChunkWidth);
+        out.writeShort(mChunkHeight);
+        out.writeShort(mColumns);
+        out.writeShort(mRows);
+        int paletteCount = 0;
+        for(int i = 0; i < mPalette.length; i++){
+            if(mPalette[i] != null){
+                paletteCount++;
+            }
+        }
+        out.writeByte(paletteCount);
+        for(int i = 0; i < mPalette.length; i++){
+            if(mPalette[i] != null){
+                out.writeByte(i);
+                out.writeUTF(mPalette[i]);
+            }
+        }
+        out.flush();
+    }
+}
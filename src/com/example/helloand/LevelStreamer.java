@@ -0,0 +1,520 @@
+package com.example.helloand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.andengine.engine.Engine;
+import org.andengine.entity.IEntity;
+import org.andengine.opengl.texture.region.ITextureRegion;
+import org.andengine.util.debug.Debug;
+
+import android.content.res.AssetManager;
+
+/**
+ * LevelStreamer keeps the part of a level around the camera loaded. Each
+ * tick, update() is told what the camera sees:
+ *
+ * - chunks within PREFETCH_MARGIN chunks of the view are requested. An
+ *   AssetLoader worker reads the chunk file and acquires the atlas pages
+ *   it is drawn with, loading them if they are not cached.
+ * - chunks beyond RELEASE_MARGIN are released, and with them their
+ *   textures, which the TextureCache unloads once it needs the room.
+ *
+ * A loaded chunk is drawn from a ChunkSlot: an EntityStore of its own with
+ * the EntityBatches drawing it. Released slots are pooled and refilled by
+ * the next chunk, so streaming does not create batches (and their vertex
+ * buffers) over and over. So however large the level, memory is bounded
+ * by the chunks around the camera and the texture cache's budget.
+ *
+ * prewarm() reads the next level's first chunks and their textures while
+ * the current level is still playing, so startLevel() can show them right
+ * away.
+ *
+ * Everything but the loading itself happens on the update thread.
+ */
+public class LevelStreamer implements Profiler.MetricsSource {
+
+    // chunks this many chunks beyond the view are loaded ahead of time
+    public static final int PREFETCH_MARGIN = 1;
+
+    // chunks farther away than this are released
+    public static final int RELEASE_MARGIN = 2;
+
+    // the most entities a chunk batch draws
+    private static final int CHUNK_BATCH_CAPACITY = 256;
+
+    // released slots kept for reuse, the rest are disposed
+    private static final int MAX_FREE_SLOTS = 8;
+
+    private final Engine mEngine;
+    private final AssetManager mAssets;
+    private final AssetLoader mLoader;
+
+    // chunk batches are attached to this entity
+    private final IEntity mLayer;
+
+    // holds the chunk batches' vertices, may be null
+    private final SlabAllocator mAllocator;
+
+    private int mLevel;
+    private LevelManifest mManifest;
+
+    // bumped whenever the level changes, so loads for an earlier level are dropped
+    private int mGeneration;
+
+    // requested and loaded chunks of the current level by chunk key
+    private final Map<Integer, Chunk> mChunks = new HashMap<Integer, Chunk>();
+    private final List<ChunkSlot> mFreeSlots = new ArrayList<ChunkSlot>();
+
+    // the size of the view last passed to update, which prewarm expects for the next level
+    private float mViewWidth;
+    private float mViewHeight;
+
+    private int mPrewarmLevel;
+    private Prewarm mPrewarm;
+
+    // statistics, read by the profiler's thread
+    private volatile int mLoadedChunkCount;
+    private volatile int mSlotCount;
+    private volatile long mChunkLoadCount;
+    private volatile long mChunkReleaseCount;
+    private volatile long mFailedChunkLoadCount;
+    private volatile long mPrewarmedChunkCount;
+
+    // pAllocator holds the chunk batches' vertices, may be null to keep them on the Java heap
+    public LevelStreamer(final Engine pEngine, final AssetManager pAssets, final AssetLoader pLoader,
+            final IEntity pLayer, final SlabAllocator pAllocator){
+        this.mEngine = pEngine;
+        this.mAssets = pAssets;
+        this.mLoader = pLoader;
+        this.mLayer = pLayer;
+        this.mAllocator = pAllocator;
+    }
+
+    public int getLevel(){
+        return mLevel;
+    }
+
+    // null until the level's manifest has been read
+    public LevelManifest getManifest(){
+        return mManifest;
+    }
+
+    /* Switch to a level, releasing every chunk of the current one. If the
+     * level was prewarmed, its first chunks are shown right away, otherwise
+     * its manifest is read in the background before anything streams in.
+     */
+    public void startLevel(final int pLevel){
+        // take the level's prewarm, if any, before dropping everything else
+        Prewarm prewarm = null;
+        if(mPrewarmLevel == pLevel){
+            prewarm = mPrewarm;
+            mPrewarm = null;
+            mPrewarmLevel = 0;
+        }
+        releaseChunks();
+        discardPrewarm();
+        mGeneration++;
+        mLevel = pLevel;
+        mManifest = null;
+
+        if(prewarm != null){
+            adopt(prewarm);
+            return;
+        }
+
+        final int generation = mGeneration;
+        mLoader.load(new Callable<LevelManifest>() {
+            @Override
+            public LevelManifest call() throws IOException {
+                return readManifest(pLevel);
+            }
+        }, AssetLoader.PRIORITY_GAMEPLAY, new AssetLoader.Callback<LevelManifest>() {
+            @Override
+            public void onLoaded(final LevelManifest pManifest) {
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(generation == mGeneration){
+                            mManifest = pManifest;
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onLoadFailed(Throwable pThrowable) {
+                Debug.e("Failed to load level " + pLevel, pThrowable);
+            }
+        });
+    }
+
+    /* Load the chunks a level starts with, and their textures, in the
+     * background. They are kept until startLevel switches to that level or
+     * another level is prewarmed.
+     */
+    public void prewarm(final int pLevel){
+        if(mPrewarmLevel == pLevel || mLevel == pLevel){
+            return;
+        }
+        discardPrewarm();
+        mPrewarmLevel = pLevel;
+        final float viewWidth = mViewWidth;
+        final float viewHeight = mViewHeight;
+        mLoader.load(new Callable<Prewarm>() {
+            @Override
+            public Prewarm call() throws IOException {
+                final LevelManifest manifest = readManifest(pLevel);
+                final Prewarm prewarm = new Prewarm(manifest);
+                // a level starts with the camera at the origin
+                final int lastColumn = Math.min(getColumn(manifest, viewWidth - 1) + PREFETCH_MARGIN,
+                        manifest.getColumns() - 1);
+                final int lastRow = Math.min(getRow(manifest, viewHeight - 1) + PREFETCH_MARGIN,
+                        manifest.getRows() - 1);
+                for(int row = 0; row <= lastRow; row++){
+                    for(int column = 0; column <= lastColumn; column++){
+                        final Chunk chunk = new Chunk(column, row);
+                        try {
+                            loadChunk(pLevel, manifest, chunk);
+                        } catch(IOException e){
+                            prewarm.release();
+                            throw e;
+                        }
+                        prewarm.mChunks.add(chunk);
+                    }
+                }
+                return prewarm;
+            }
+        }, AssetLoader.PRIORITY_BACKGROUND, new AssetLoader.Callback<Prewarm>() {
+            @Override
+            public void onLoaded(final Prewarm pPrewarm) {
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(mPrewarmLevel == pLevel && mPrewarm == null){
+                            mPrewarm = pPrewarm;
+                            mPrewarmedChunkCount += pPrewarm.mChunks.size();
+                        } else if(mLevel == pLevel && mManifest == null){
+                            // the level started while we were prewarming it
+                            adopt(pPrewarm);
+                        } else {
+                            pPrewarm.release();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onLoadFailed(Throwable pThrowable) {
+                Debug.e("Failed to prewarm level " + pLevel, pThrowable);
+            }
+        });
+    }
+
+    /* Called once per tick on the update thread with what the camera
+     * sees: request the chunks near the view, release the distant ones.
+     */
+    public void update(final float pXMin, final float pYMin, final float pXMax, final float pYMax){
+        mViewWidth = pXMax - pXMin;
+        mViewHeight = pYMax - pYMin;
+        final LevelManifest manifest = mManifest;
+        if(manifest == null){
+            return;
+        }
+        final int firstColumn = getColumn(manifest, pXMin);
+        final int lastColumn = getColumn(manifest, pXMax - 1);
+        final int firstRow = getRow(manifest, pYMin);
+        final int lastRow = getRow(manifest, pYMax - 1);
+
+        final Iterator<Chunk> iterator = mChunks.values().iterator();
+        while(iterator.hasNext()){
+            final Chunk chunk = iterator.next();
+            if(chunk.mColumn < firstColumn - RELEASE_MARGIN || chunk.mColumn > lastColumn + RELEASE_MARGIN
+                    || chunk.mRow < firstRow - RELEASE_MARGIN || chunk.mRow > lastRow + RELEASE_MARGIN){
+                iterator.remove();
+                release(chunk);
+            }
+        }
+
+        final int fromColumn = Math.max(firstColumn - PREFETCH_MARGIN, 0);
+        final int toColumn = Math.min(lastColumn + PREFETCH_MARGIN, manifest.getColumns() - 1);
+        final int fromRow = Math.max(firstRow - PREFETCH_MARGIN, 0);
+        final int toRow = Math.min(lastRow + PREFETCH_MARGIN, manifest.getRows() - 1);
+        for(int row = fromRow; row <= toRow; row++){
+            for(int column = fromColumn; column <= toColumn; column++){
+                if(!mChunks.containsKey(getKey(column, row))){
+                    request(new Chunk(column, row));
+                }
+            }
+        }
+    }
+
+    // Release every chunk and every pooled slot, e.g. when the game scene goes away
+    public void releaseAll(){
+        releaseChunks();
+        for(ChunkSlot slot : mFreeSlots){
+            slot.dispose();
+        }
+        mFreeSlots.clear();
+        discardPrewarm();
+        mManifest = null;
+        mGeneration++;
+    }
+
+    private void releaseChunks(){
+        for(Chunk chunk : mChunks.values()){
+            release(chunk);
+        }
+        mChunks.clear();
+    }
+
+    // Show the chunks of a prewarmed level, which has just become the current one
+    private void adopt(final Prewarm pPrewarm){
+        mManifest = pPrewarm.mManifest;
+        for(Chunk chunk : pPrewarm.mChunks){
+            mChunks.put(chunk.mKey, chunk);
+            attach(chunk);
+        }
+        pPrewarm.mChunks.clear();
+    }
+
+    private void request(final Chunk pChunk){
+        mChunks.put(pChunk.mKey, pChunk);
+        final int level = mLevel;
+        final int generation = mGeneration;
+        final LevelManifest manifest = mManifest;
+        mLoader.load(new Callable<Chunk>() {
+            @Override
+            public Chunk call() throws IOException {
+                loadChunk(level, manifest, pChunk);
+                return pChunk;
+            }
+        }, AssetLoader.PRIORITY_GAMEPLAY, new AssetLoader.Callback<Chunk>() {
+            @Override
+            public void onLoaded(Chunk pLoaded) {
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(generation != mGeneration || pChunk.mReleased){
+                            // released or out of date before it arrived
+                            pChunk.releaseTextures();
+                            return;
+                        }
+                        attach(pChunk);
+                    }
+                });
+            }
+
+            @Override
+            public void onLoadFailed(Throwable pThrowable) {
+                // the chunk stays requested, so it is not retried every tick
+                Debug.e("Failed to load chunk " + pChunk.mColumn + "," + pChunk.mRow + " of level " + level, pThrowable);
+                mFailedChunkLoadCount++;
+            }
+        });
+    }
+
+    // Read a chunk and acquire its textures, on a worker
+    private void loadChunk(final int pLevel, final LevelManifest pManifest, final Chunk pChunk) throws IOException {
+        final InputStream in = mAssets.open(LevelManifest.getChunkPath(pLevel, pChunk.mColumn, pChunk.mRow));
+        final LevelChunk data;
+        try {
+            data = LevelChunk.read(in);
+        } finally {
+            in.close();
+        }
+        // the images of the types this chunk uses, indexed like the regions
+        final List<String> paths = new ArrayList<String>();
+        final List<Integer> types = new ArrayList<Integer>();
+        for(int type = 0; type <= 255; type++){
+            final String path = pManifest.getImagePath(type);
+            if(path != null && data.hasType(type)){
+                paths.add(path);
+                types.add(type);
+            }
+        }
+        final String[] texturePaths = paths.toArray(new String[paths.size()]);
+        final ITextureRegion[] regions = ResourceManager.getInstance().acquirePackedTextures(mEngine, mAssets, texturePaths);
+        if(regions == null){
+            throw new IOException("Failed to load the textures of chunk " + pChunk.mColumn + "," + pChunk.mRow);
+        }
+        final int[] typeArray = new int[types.size()];
+        for(int i = 0; i < typeArray.length; i++){
+            typeArray[i] = types.get(i);
+        }
+        pChunk.mData = data;
+        pChunk.mTypes = typeArray;
+        pChunk.mTexturePaths = texturePaths;
+        pChunk.mRegions = regions;
+    }
+
+    private void attach(final Chunk pChunk){
+        final ChunkSlot slot = mFreeSlots.isEmpty() ? new ChunkSlot() : mFreeSlots.remove(mFreeSlots.size() - 1);
+        slot.fill(pChunk);
+        pChunk.mSlot = slot;
+        mLoadedChunkCount++;
+        mChunkLoadCount++;
+    }
+
+    private void release(final Chunk pChunk){
+        pChunk.mReleased = true;
+        if(pChunk.mSlot == null){
+            // still loading, its textures are released once it arrives
+            return;
+        }
+        pChunk.mSlot.clear();
+        if(mFreeSlots.size() < MAX_FREE_SLOTS){
+            mFreeSlots.add(pChunk.mSlot);
+        } else {
+            pChunk.mSlot.dispose();
+        }
+        pChunk.mSlot = null;
+        pChunk.releaseTextures();
+        mLoadedChunkCount--;
+        mChunkReleaseCount++;
+    }
+
+    private void discardPrewarm(){
+        if(mPrewarm != null){
+            mPrewarm.release();
+            mPrewarm = null;
+        }
+        mPrewarmLevel = 0;
+    }
+
+    private LevelManifest readManifest(final int pLevel) throws IOException {
+        final InputStream in = mAssets.open(LevelManifest.getManifestPath(pLevel));
+        try {
+            return LevelManifest.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int getColumn(final LevelManifest pManifest, final float pX){
+        return (int) Math.floor(pX / pManifest.getChunkWidth());
+    }
+
+    private static int getRow(final LevelManifest pManifest, final float pY){
+        return (int) Math.floor(pY / pManifest.getChunkHeight());
+    }
+
+    private static Integer getKey(final int pColumn, final int pRow){
+        return Integer.valueOf((pColumn << 16) | (pRow & 0xFFFF));
+    }
+
+    @Override
+    public void onReport(final PrintWriter pOut){
+        pOut.println("level " + mLevel + ": " + mLoadedChunkCount + " chunks loaded in " + mSlotCount
+                + " slots, " + mChunkLoadCount + " loads, " + mChunkReleaseCount + " releases, "
+                + mFailedChunkLoadCount + " failed, " + mPrewarmedChunkCount + " prewarmed");
+    }
+
+    // One chunk of the current level, from its request until its release
+    private static class Chunk {
+        final int mColumn;
+        final int mRow;
+        final Integer mKey;
+
+        // set by the worker that loaded it
+        LevelChunk mData;
+        int[] mTypes;
+        String[] mTexturePaths;
+        ITextureRegion[] mRegions;
+
+        // update thread only
+        ChunkSlot mSlot;
+        boolean mReleased;
+
+        Chunk(final int pColumn, final int pRow){
+            mColumn = pColumn;
+            mRow = pRow;
+            mKey = getKey(pColumn, pRow);
+        }
+
+        void releaseTextures(){
+            if(mTexturePaths != null){
+                ResourceManager.getInstance().releasePackedTextures(mTexturePaths);
+                mTexturePaths = null;
+            }
+        }
+    }
+
+    // The chunks and textures of a prewarmed level
+    private static class Prewarm {
+        final LevelManifest mManifest;
+        final List<Chunk> mChunks = new ArrayList<Chunk>();
+
+        Prewarm(final LevelManifest pManifest){
+            mManifest = pManifest;
+        }
+
+        void release(){
+            for(Chunk chunk : mChunks){
+                chunk.releaseTextures();
+            }
+            mChunks.clear();
+        }
+    }
+
+    /* A pooled EntityStore with the batches drawing it. The batches are
+     * only recreated when a chunk needs other regions than the last one.
+     */
+    private class ChunkSlot {
+        final EntityStore mStore = new EntityStore(CHUNK_BATCH_CAPACITY);
+        List<EntityBatch> mBatches;
+        ITextureRegion[] mBatchRegions;
+
+        ChunkSlot(){
+            mSlotCount++;
+        }
+
+        void fill(final Chunk pChunk){
+            final LevelChunk data = pChunk.mData;
+            mStore.clear();
+            for(int i = 0; i < data.size(); i++){
+                mStore.add(data.getType(i), data.getX(i), data.getY(i));
+            }
+            if(mBatches == null || !Arrays.equals(mBatchRegions, pChunk.mRegions)){
+                disposeBatches();
+                mBatches = EntityBatch.create(mStore, pChunk.mTypes, pChunk.mRegions, null, mAllocator,
+                        CHUNK_BATCH_CAPACITY, mEngine.getVertexBufferObjectManager());
+                mBatchRegions = pChunk.mRegions;
+            }
+            for(EntityBatch batch : mBatches){
+                mLayer.attachChild(batch);
+            }
+        }
+
+        void clear(){
+            for(EntityBatch batch : mBatches){
+                batch.detachSelf();
+            }
+            mStore.clear();
+        }
+
+        void dispose(){
+            disposeBatches();
+            mSlotCount--;
+        }
+
+        private void disposeBatches(){
+            if(mBatches != null){
+                for(EntityBatch batch : mBatches){
+                    batch.detachSelf();
+                    batch.dispose();
+                }
+                mBatches = null;
+                mBatchRegions = null;
+            }
+        }
+    }
+}
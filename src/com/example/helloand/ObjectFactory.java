@@ -1,10 +1,44 @@
 package com.example.helloand;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.example.helloand.ObjectFactory.BaseObject.LargeObject;
 import com.example.helloand.ObjectFactory.BaseObject.SmallObject;
 
 public class ObjectFactory {
 
+    // The default maximum number of idle objects each pool will hold on to
+    public static final int DEFAULT_HIGH_WATER_MARK = 64;
+
+    /* Each BaseObject subtype gets its own pool. Objects are never shared
+     * between pools, so an obtained LargeObject is always a LargeObject.
+     */
+    private static final ObjectPool<LargeObject> LARGE_OBJECT_POOL = new ObjectPool<LargeObject>(DEFAULT_HIGH_WATER_MARK) {
+        @Override
+        protected LargeObject onAllocate() {
+            return new LargeObject(0, 0);
+        }
+    };
+
+    private static final ObjectPool<SmallObject> SMALL_OBJECT_POOL = new ObjectPool<SmallObject>(DEFAULT_HIGH_WATER_MARK) {
+        @Override
+        protected SmallObject onAllocate() {
+            return new SmallObject(0, 0);
+        }
+    };
+
+    /* When an EntityStore is set, pooled objects keep their data in the
+     * store's columns instead of their own fields, and only act as views
+     * onto it. Objects obtained before the store was set are unaffected.
+     * Both pools add to and remove from the store under the store's own
+     * lock, and an object whose entity the store removes by itself (with
+     * removeDead or clear) is detached from it.
+     */
+    private static volatile EntityStore sEntityStore;
+
+    // every BaseObject ever constructed, pooled or not
+    private static final AtomicLong ALLOCATION_COUNT = new AtomicLong();
+
     // Return a new LargeObject with the defined 'x' and 'y' member variables.
     public static LargeObject createLargeObject(final int pX, final int pY){
         return new LargeObject(pX, pY);
@@ -15,8 +49,181 @@ public class ObjectFactory {
         return new SmallObject(pX, pY);
     }
 
+    /* The obtain methods are the pooled counterparts of the create methods.
+     * An idle object is reused whenever one is available, so once the pools
+     * have warmed up, spawning objects no longer allocates anything.
+     */
+    public static LargeObject obtainLargeObject(final int pX, final int pY){
+        return LARGE_OBJECT_POOL.obtain(pX, pY);
+    }
+
+    public static SmallObject obtainSmallObject(final int pX, final int pY){
+        return SMALL_OBJECT_POOL.obtain(pX, pY);
+    }
+
+    // Hand an object back to the pool matching its type once it is despawned
+    public static void recycle(final BaseObject pObject){
+        if(pObject instanceof LargeObject){
+            LARGE_OBJECT_POOL.recycle((LargeObject) pObject);
+        } else if(pObject instanceof SmallObject){
+            SMALL_OBJECT_POOL.recycle((SmallObject) pObject);
+        } else {
+            throw new IllegalArgumentException("No pool for " + pObject);
+        }
+    }
+
+    public static void setEntityStore(final EntityStore pEntityStore){
+        sEntityStore = pEntityStore;
+    }
+
+    public static EntityStore getEntityStore(){
+        return sEntityStore;
+    }
+
+    // Access to the pools, used to tune high-water marks and read statistics
+    public static ObjectPool<LargeObject> getLargeObjectPool(){
+        return LARGE_OBJECT_POOL;
+    }
+
+    public static ObjectPool<SmallObject> getSmallObjectPool(){
+        return SMALL_OBJECT_POOL;
+    }
+
+    /* The number of objects allocated so far. A count that keeps climbing
+     * during gameplay means something bypasses the pools.
+     */
+    public static long getAllocationCount(){
+        return ALLOCATION_COUNT.get();
+    }
+
+    /* ObjectPool keeps a bounded free list of idle objects. The free list is
+     * a plain array so that obtaining and recycling never allocates. Once the
+     * number of idle objects reaches the high-water mark, further recycled
+     * objects are dropped and left to the garbage collector (an eviction).
+     */
+    public static abstract class ObjectPool<T extends BaseObject> {
+
+        private Object[] mFreeObjects;
+        private int mFreeCount;
+        private int mHighWaterMark;
+
+        // pool statistics
+        private long mHitCount;
+        private long mMissCount;
+        private long mEvictionCount;
+
+        ObjectPool(final int pHighWaterMark){
+            if(pHighWaterMark < 0){
+                throw new IllegalArgumentException("pHighWaterMark must be >= 0");
+            }
+            this.mHighWaterMark = pHighWaterMark;
+            this.mFreeObjects = new Object[pHighWaterMark];
+        }
+
+        // Subclasses create a brand new object whenever the free list is empty
+        protected abstract T onAllocate();
+
+        // Take an idle object from the free list, or allocate one on a miss
+        @SuppressWarnings("unchecked")
+        public synchronized T obtain(final int pX, final int pY){
+            final T object;
+            if(mFreeCount > 0){
+                mFreeCount--;
+                object = (T) mFreeObjects[mFreeCount];
+                mFreeObjects[mFreeCount] = null;
+                mHitCount++;
+            } else {
+                object = onAllocate();
+                mMissCount++;
+            }
+            object.mRecycled = false;
+            final EntityStore entityStore = sEntityStore;
+            if(entityStore != null){
+                object.bind(entityStore, pX, pY);
+            } else {
+                object.set(pX, pY);
+            }
+            return object;
+        }
+
+        // Reset the object and keep it for later, unless the pool is already full
+        public synchronized void recycle(final T pObject){
+            if(pObject.mRecycled){
+                throw new IllegalStateException("Object has already been recycled: " + pObject);
+            }
+            if(pObject.isBound()){
+                pObject.unbind();
+            }
+            pObject.reset();
+            pObject.mRecycled = true;
+            if(mFreeCount < mHighWaterMark){
+                mFreeObjects[mFreeCount++] = pObject;
+            } else {
+                mEvictionCount++;
+            }
+        }
+
+        /* Allocate objects up front so the first frames of gameplay do not
+         * pay for them. The pool will never grow beyond its high-water mark.
+         */
+        public synchronized void prewarm(final int pCount){
+            final int target = Math.min(pCount, mHighWaterMark);
+            while(mFreeCount < target){
+                final T object = onAllocate();
+                object.mRecycled = true;
+                mFreeObjects[mFreeCount++] = object;
+            }
+        }
+
+        /* Changing the high-water mark resizes the free list. Idle objects
+         * beyond a lowered mark are dropped and counted as evictions.
+         */
+        public synchronized void setHighWaterMark(final int pHighWaterMark){
+            if(pHighWaterMark < 0){
+                throw new IllegalArgumentException("pHighWaterMark must be >= 0");
+            }
+            final Object[] freeObjects = new Object[pHighWaterMark];
+            final int keep = Math.min(mFreeCount, pHighWaterMark);
+            System.arraycopy(mFreeObjects, 0, freeObjects, 0, keep);
+            mEvictionCount += mFreeCount - keep;
+            mFreeObjects = freeObjects;
+            mFreeCount = keep;
+            mHighWaterMark = pHighWaterMark;
+        }
+
+        public synchronized int getHighWaterMark(){
+            return mHighWaterMark;
+        }
+
+        // the number of idle objects currently held by the pool
+        public synchronized int getFreeCount(){
+            return mFreeCount;
+        }
+
+        // obtain calls that were served from the free list
+        public synchronized long getHitCount(){
+            return mHitCount;
+        }
+
+        // obtain calls that had to allocate a new object
+        public synchronized long getMissCount(){
+            return mMissCount;
+        }
+
+        // recycled objects that were dropped because the pool was full
+        public synchronized long getEvictionCount(){
+            return mEvictionCount;
+        }
+
+        public synchronized void resetStatistics(){
+            mHitCount = 0;
+            mMissCount = 0;
+            mEvictionCount = 0;
+        }
+    }
+
     // BaseObject class
-    public static class BaseObject {
+    public static class BaseObject implements EntityStore.View {
 
         /* The mX and mY variables have no real purpose in this recipe, however in
          * a real factory class, member variables might be used to define position,
@@ -24,10 +231,101 @@ public class ObjectFactory {
         private int mX;
         private int mY;
 
+        // true while the object sits in a pool's free list
+        boolean mRecycled;
+
+        // the store backing this object, or null if it uses its own fields
+        private EntityStore mStore;
+        private int mHandle = -1;
+
         // BaseObject constructor, all subtypes should define an mX and mY value on creation
         BaseObject(final int pX, final int pY){
             this.mX = pX;
             this.mY = pY;
+            ALLOCATION_COUNT.incrementAndGet();
+        }
+
+        public int getX(){
+            if(mStore != null){
+                return mStore.getX(mHandle);
+            }
+            return this.mX;
+        }
+
+        public int getY(){
+            if(mStore != null){
+                return mStore.getY(mHandle);
+            }
+            return this.mY;
+        }
+
+        public void set(final int pX, final int pY){
+            if(mStore != null){
+                mStore.set(mHandle, pX, pY);
+            } else {
+                this.mX = pX;
+                this.mY = pY;
+            }
+        }
+
+        // the EntityStore type column value for this object
+        public int getType(){
+            return 0;
+        }
+
+        public boolean isBound(){
+            return mStore != null;
+        }
+
+        // the handle of this object in its EntityStore, or -1 if unbound
+        public int getHandle(){
+            return mHandle;
+        }
+
+        // Add this object to the store and turn it into a view onto it
+        void bind(final EntityStore pStore, final int pX, final int pY){
+            synchronized(pStore){
+                this.mHandle = pStore.add(getType(), pX, pY, this);
+                this.mStore = pStore;
+            }
+        }
+
+        /* Remove this object from its store, keeping its last position
+         * locally. The store detaches us through onRemoved first. Does
+         * nothing if the store has removed the entity already.
+         */
+        void unbind(){
+            final EntityStore store = mStore;
+            if(store == null){
+                return;
+            }
+            synchronized(store){
+                if(mStore != store){
+                    return;
+                }
+                store.remove(mHandle);
+            }
+        }
+
+        // The store removes our entity, keep its last position locally. Only the first call counts
+        @Override
+        public void onRemoved(final EntityStore pStore, final int pHandle){
+            if(mStore != pStore || mHandle != pHandle){
+                return;
+            }
+            this.mX = pStore.getX(pHandle);
+            this.mY = pStore.getY(pHandle);
+            this.mStore = null;
+            this.mHandle = -1;
+        }
+
+        /* Called when the object is recycled. Subtypes holding extra state
+         * should override this and clear it, so a reused object never leaks
+         * state from its previous life.
+         */
+        protected void reset(){
+            this.mX = 0;
+            this.mY = 0;
         }
 
         // LargeObject class
@@ -40,6 +338,10 @@ public class ObjectFactory {
                 super(pX, pY);
             }
 
+            @Override
+            public int getType(){
+                return EntityStore.TYPE_LARGE_OBJECT;
+            }
         }
 
         // SmallObject class
@@ -51,6 +353,11 @@ public class ObjectFactory {
                 // member variables
                 super(pX, pY);
             }
+
+            @Override
+            public int getType(){
+                return EntityStore.TYPE_SMALL_OBJECT;
+            }
         }
     }
 }
@@ -1,19 +1,24 @@
 package com.example.helloand;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
 import org.andengine.engine.Engine;
-import org.andengine.engine.FixedStepEngine;
 import org.andengine.engine.camera.Camera;
+import org.andengine.engine.handler.IUpdateHandler;
 import org.andengine.engine.options.EngineOptions;
 import org.andengine.engine.options.ScreenOrientation;
 import org.andengine.engine.options.WakeLockOptions;
 import org.andengine.engine.options.resolutionpolicy.FillResolutionPolicy;
+import org.andengine.entity.Entity;
 import org.andengine.entity.scene.Scene;
-import org.andengine.entity.sprite.Sprite;
-import org.andengine.opengl.font.Font;
-import org.andengine.opengl.font.FontFactory;
+import org.andengine.entity.sprite.batch.SpriteBatch;
+import org.andengine.opengl.font.IFont;
+import org.andengine.opengl.texture.region.ITextureRegion;
+import org.andengine.opengl.vbo.DrawType;
 import org.andengine.ui.activity.BaseGameActivity;
-
-import android.graphics.Typeface;
+import org.andengine.util.debug.Debug;
 
 public class PacktRecipesActivity extends BaseGameActivity {
 
@@ -28,6 +33,69 @@ public class PacktRecipesActivity extends BaseGameActivity {
     // Declare a Scene object for our activity
     private Scene mScene;
 
+    // Decodes our textures and sounds on worker threads
+    private AssetLoader mAssetLoader;
+
+    // The most entities a single batch draws per frame
+    private static final int ENTITY_BATCH_CAPACITY = 1024;
+
+    /* Our game entities live in this store. Rather than one Sprite each,
+    * they are drawn by one EntityBatch per texture atlas */
+    private final EntityStore mEntityStore = new EntityStore();
+
+    /* Entities outside the camera's view are left out of the entity
+    * batches. The culler sorts them once per tick */
+    private final EntityCuller mEntityCuller = new EntityCuller(mEntityStore);
+
+    /* The entity and level chunk batches write their vertices straight
+    * into native memory carved from these slabs, which streamed chunks
+    * hand back for reuse when they are released */
+    private static final int VERTEX_SLAB_BYTES = 256 * 1024;
+    private final SlabAllocator mVertexSlabs = new SlabAllocator("vertex", VERTEX_SLAB_BYTES);
+
+    /* Levels are streamed in chunk by chunk around the camera, drawn on
+    * their own layer. The game starts at the highest unlocked level, and
+    * the level after it is prewarmed while it plays */
+    private static final int LEVEL_COUNT = 2;
+    private Entity mLevelLayer;
+    private LevelStreamer mLevelStreamer;
+
+    // Debug builds write a profiler report here whenever the game pauses
+    private static final String PROFILE_FILE_NAME = "profile.txt";
+
+    /* Every launch traces its startup phases into this file. The game is
+    * interactive once the background, the entities, the score text and
+    * the user data are all in place */
+    private static final String STARTUP_TRACE_FILE_NAME = "startup_trace.txt";
+    private static final int INTERACTIVE_STEPS = 4;
+    private final StartupTrace mStartupTrace = new StartupTrace(INTERACTIVE_STEPS);
+
+    /* Every change to the GameManager's counters is journaled into this
+    * file, replaced with every launch, so a game can be replayed later */
+    private static final String JOURNAL_FILE_NAME = "journal.bin";
+    private static final int JOURNAL_CAPACITY = 8192;
+
+    /* The GameManager's counters and the user data are snapshotted into a
+    * base image and a log of deltas, every few seconds and whenever the
+    * game pauses. Only changed fields are appended, and the snapshot is
+    * restored right after the user data's preferences are loaded. From
+    * then on the log is where the user data is written, and queued game
+    * events are only applied once it is restored, so the restore never
+    * overwrites them. The source ids are stored in the files and must
+    * never change */
+    private static final String STATE_BASE_FILE_NAME = "state.base";
+    private static final String STATE_LOG_FILE_NAME = "state.log";
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 5000;
+    private static final int SNAPSHOT_SOURCE_GAME_MANAGER = 1;
+    private static final int SNAPSHOT_SOURCE_USER_DATA = 2;
+    private StateSnapshotter mStateSnapshotter;
+    private volatile boolean mStateRestored;
+
+    /* The game logic runs in fixed steps, 60 per second while frames keep
+    * up and down to 30 while they do not. A slow frame runs at most this
+    * many steps to catch up, the rest of its time is dropped */
+    private static final int MAX_STEPS_PER_FRAME = 4;
+
     /*
     * The onCreateEngineOptions method is responsible for creating the options to be
     * applied to the Engine object once it is created. The options include,
@@ -36,6 +104,7 @@ public class PacktRecipesActivity extends BaseGameActivity {
     */
     @Override
     public EngineOptions onCreateEngineOptions() {
+        final long traceStart = mStartupTrace.begin();
         // Define our mCamera object
         mCamera = new Camera(0, 0, WIDTH, HEIGHT);
 
@@ -49,10 +118,12 @@ public class PacktRecipesActivity extends BaseGameActivity {
         // from turning off during gameplay due to inactivity
         engineOptions.setWakeLockOptions(WakeLockOptions.SCREEN_ON);
 
-        // we plan to use Sound and Music objects in our game
+        // we plan to use Music objects in our game. Sound effects play
+        // through ResourceManager's own voice pool, not AndEngine's
         engineOptions.getAudioOptions().setNeedsMusic(true);
-        engineOptions.getAudioOptions().setNeedsSound(true);
+        engineOptions.getAudioOptions().setNeedsSound(false);
 
+        mStartupTrace.end("onCreateEngineOptions", traceStart);
         // Return the engineOptions object, passing it to the engine
         return engineOptions;
     }
@@ -70,7 +141,29 @@ public class PacktRecipesActivity extends BaseGameActivity {
         /* The returned super method above simply calls:
         return new Engine(pEngineOptions);
         */
-        return new FixedStepEngine(pEngineOptions, 60);
+        final long traceStart = mStartupTrace.begin();
+        // Profile debug builds only, release builds skip the timers entirely
+        Profiler.setEnabled(BuildConfig.DEBUG);
+        final StepScheduler scheduler = new StepScheduler(StepScheduler.SYSTEM_CLOCK, 60, MAX_STEPS_PER_FRAME);
+        scheduler.setAdaptive(true);
+        Profiler.addSource(scheduler);
+        Profiler.addSource(IoExecutor.getInstance());
+        mStateSnapshotter = new StateSnapshotter(new File(getFilesDir(), STATE_BASE_FILE_NAME),
+                new File(getFilesDir(), STATE_LOG_FILE_NAME));
+        mStateSnapshotter.addSource(SNAPSHOT_SOURCE_GAME_MANAGER, GameManager.getInstance());
+        mStateSnapshotter.addSource(SNAPSHOT_SOURCE_USER_DATA, UserData.getInstance());
+        Profiler.addSource(mStateSnapshotter);
+        InstrumentedEngine engine = new InstrumentedEngine(pEngineOptions, scheduler);
+        // Whatever the first frame does not need starts once it is on screen
+        engine.setFirstFrameListener(new Runnable() {
+            @Override
+            public void run() {
+                mStartupTrace.markFirstFrame();
+                onFirstFrameDrawn();
+            }
+        });
+        mStartupTrace.end("onCreateEngine", traceStart);
+        return engine;
     }
 
     /*
@@ -80,14 +173,27 @@ public class PacktRecipesActivity extends BaseGameActivity {
     @Override
     public void onCreateResources(
     OnCreateResourcesCallback pOnCreateResourcesCallback) {
-        ResourceManager.getInstance().loadSounds(mEngine, this);
-
-        // FIXME: font doesn't work
-        // Add font
-        Font mFont = FontFactory.create(mEngine.getFontManager(), mEngine.getTextureManager(), 256, 256,
-                Typeface.create(Typeface.DEFAULT, Typeface.NORMAL), 32f, true, org.andengine.util.color.Color.WHITE_ABGR_PACKED_INT);
-        mFont.load();
-        mFont.prepareLetters("AAAABBBBBAAAAAA".toCharArray());
+        final long traceStart = mStartupTrace.begin();
+        mAssetLoader = new AssetLoader();
+
+        /* The font, with every glyph the game uses, loads from the glyph
+        * cache while the scene's textures load, and the score text appears
+        * once it is ready. The user data and the sounds are not needed for
+        * the first frame, see onFirstFrameDrawn */
+        final long fontStart = mStartupTrace.begin();
+        ResourceManager.getInstance().loadFontAsync(mEngine, this, mAssetLoader, new Runnable() {
+            @Override
+            public void run() {
+                mStartupTrace.end("font", fontStart);
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        attachTexts();
+                    }
+                });
+            }
+        });
+        mStartupTrace.end("onCreateResources", traceStart);
         /* We should notify the pOnCreateResourcesCallback that we've finished
         * loading all of the necessary resources in our game AFTER they are loaded.
         * onCreateResourcesFinished() should be the last method called. */
@@ -99,12 +205,19 @@ public class PacktRecipesActivity extends BaseGameActivity {
     */
     @Override
     public synchronized void onResumeGame() {
+        // assets held back while paused may load again
+        IoExecutor.getInstance().onResumeGame();
+        ResourceManager.getInstance().resumeSoundEffects();
+        playMusic();
+        super.onResumeGame();
+    }
+
+    private synchronized void playMusic() {
         if(ResourceManager.getInstance().mMusic != null && !ResourceManager.getInstance().mMusic.isPlaying()){
             UserData.getInstance().setSoundMuted(false);
             if(UserData.getInstance().isSoundMuted() == false)
                 ResourceManager.getInstance().mMusic.play();
         }
-        super.onResumeGame();
     }
 
     /* Music objects which loop continuously should be paused in
@@ -112,8 +225,30 @@ public class PacktRecipesActivity extends BaseGameActivity {
     */
     @Override
     public synchronized void onPauseGame() {
-        if(ResourceManager.getInstance().mMusic != null && ResourceManager.getInstance().mMusic.isPlaying()){
-            ResourceManager.getInstance().mMusic.pause();
+        // pause the music and any playing sound effects, keeping them loaded
+        ResourceManager.getInstance().pauseSounds();
+        // hold back asset loads and drop stale dumps, the saves below go first
+        IoExecutor.getInstance().onPauseGame();
+        // Write any pending user data changes in the background
+        UserData.getInstance().onPauseGame();
+        // snapshot whatever changed since the last snapshot
+        mStateSnapshotter.requestSnapshot();
+        // and the journaled events, in case the game does not come back
+        GameJournal journal = GameManager.getInstance().getJournal();
+        if(journal != null){
+            journal.requestSpill();
+        }
+        if(Profiler.isEnabled()){
+            IoExecutor.getInstance().trySubmit(IoExecutor.CATEGORY_TELEMETRY, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Profiler.dump(new File(getFilesDir(), PROFILE_FILE_NAME));
+                    } catch (IOException e) {
+                        Debug.e(e);
+                    }
+                }
+            });
         }
         super.onPauseGame();
     }
@@ -126,19 +261,269 @@ public class PacktRecipesActivity extends BaseGameActivity {
     */
     @Override
     public void onCreateScene(OnCreateSceneCallback pOnCreateSceneCallback) {
+        final long traceStart = mStartupTrace.begin();
         // Create the Scene object
         mScene = new Scene();
 
-        ResourceManager.getInstance().loadGameTextures(mEngine, this);
-        ResourceManager.getInstance().mSquareTextureRegion.setTextureSize(800, 480);
-        // Create a sprite which stretches across the full screen
-        Sprite sprite = new Sprite(0, 0, 800, 480, ResourceManager.getInstance().mSquareTextureRegion, mEngine.getVertexBufferObjectManager());
-        mScene.attachChild(sprite);
+        // Pooled game objects keep their data in our entity store
+        ObjectFactory.setEntityStore(mEntityStore);
+
+        /* Game events queued by collision callbacks are applied to the
+        * GameManager once per tick, on the update thread. Until the state
+        * snapshot is restored they wait in the queue */
+        mScene.registerUpdateHandler(new IUpdateHandler() {
+            @Override
+            public void onUpdate(float pSecondsElapsed) {
+                if(!mStateRestored) return;
+                final long start = Profiler.start();
+                GameManager.getInstance().drainEvents();
+                Profiler.end(Profiler.PHASE_COLLISION, start);
+            }
+
+            @Override
+            public void reset() {
+            }
+        });
+
+        mLevelLayer = new Entity();
+        mScene.attachChild(mLevelLayer);
+        mLevelStreamer = new LevelStreamer(mEngine, getAssets(), mAssetLoader, mLevelLayer, mVertexSlabs);
+        Profiler.addSource(mLevelStreamer);
+        Profiler.addSource(mVertexSlabs);
+
+        /* Sort the entities against the camera's view before anything is
+        * drawn, and stream the level's chunks around it */
+        mScene.registerUpdateHandler(new IUpdateHandler() {
+            @Override
+            public void onUpdate(float pSecondsElapsed) {
+                final long start = Profiler.start();
+                mEntityCuller.update(mCamera.getXMin(), mCamera.getYMin(), mCamera.getXMax(), mCamera.getYMax());
+                mLevelStreamer.update(mCamera.getXMin(), mCamera.getYMin(), mCamera.getXMax(), mCamera.getYMax());
+                Profiler.end(Profiler.PHASE_UPDATE, start);
+            }
+
+            @Override
+            public void reset() {
+            }
+        });
+        Profiler.addSource(mEntityCuller);
+
+        /* Textures are decoded in the background, so the scene is returned
+        * right away and renders while they load. The background and the
+        * entity batches are attached on the update thread once their
+        * textures are ready */
+        final long texturesStart = mStartupTrace.begin();
+        ResourceManager.getInstance().loadGameTexturesAsync(mEngine, this, mAssetLoader, new Runnable() {
+            @Override
+            public void run() {
+                mStartupTrace.end("background texture", texturesStart);
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        attachBackground();
+                    }
+                });
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                mStartupTrace.end("atlas pages", texturesStart);
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        attachEntityBatches();
+                    }
+                });
+            }
+        });
+
+        mStartupTrace.end("onCreateScene", traceStart);
         // Notify the callback that we're finished creating the scene, returning
         // mScene to the mEngine object (handled automatically)
         pOnCreateSceneCallback.onCreateSceneFinished(mScene);
     }
 
+    /* The background never changes, so it is written into a static
+    * batch once and never uploaded again */
+    private void attachBackground() {
+        ITextureRegion square = ResourceManager.getInstance().mSquareTextureRegion;
+        if(square == null){
+            completeStartupStep("background failed");
+            return;
+        }
+        // Create a batch holding one quad which stretches across the full screen
+        SpriteBatch background = new SpriteBatch(square.getTexture(), 1, mEngine.getVertexBufferObjectManager(), DrawType.STATIC);
+        background.draw(square, 0, 0, WIDTH, HEIGHT, 1, 1, 1, 1);
+        background.submit();
+        // keep the background behind anything attached before it
+        background.setZIndex(-1);
+        mScene.attachChild(background);
+        mScene.sortChildren();
+        completeStartupStep("background attached");
+    }
+
+    // Large objects are drawn with rectangle three, small ones with rectangle one
+    private void attachEntityBatches() {
+        ResourceManager resourceManager = ResourceManager.getInstance();
+        if(resourceManager.mRectangleOneTextureRegion == null || resourceManager.mRectangleThreeTextureRegion == null){
+            completeStartupStep("entities failed");
+            return;
+        }
+        // An entity covers its region, so that is what the culler tests against the camera
+        ITextureRegion large = resourceManager.mRectangleThreeTextureRegion;
+        ITextureRegion small = resourceManager.mRectangleOneTextureRegion;
+        mEntityCuller.setTypeSize(EntityStore.TYPE_LARGE_OBJECT, (int) Math.ceil(large.getWidth()), (int) Math.ceil(large.getHeight()));
+        mEntityCuller.setTypeSize(EntityStore.TYPE_SMALL_OBJECT, (int) Math.ceil(small.getWidth()), (int) Math.ceil(small.getHeight()));
+        for(EntityBatch batch : EntityBatch.create(mEntityStore,
+                new int[] { EntityStore.TYPE_LARGE_OBJECT, EntityStore.TYPE_SMALL_OBJECT },
+                new ITextureRegion[] { large, small },
+                mEntityCuller, mVertexSlabs, ENTITY_BATCH_CAPACITY, mEngine.getVertexBufferObjectManager())) {
+            mScene.attachChild(batch);
+            Profiler.addSource(batch);
+        }
+        completeStartupStep("entities attached");
+    }
+
+    // The score, and the frame timings while profiling, are drawn with our font
+    private void attachTexts() {
+        IFont font = ResourceManager.getInstance().mFont;
+        if(font == null){
+            completeStartupStep("font failed");
+            return;
+        }
+        mScene.attachChild(new ScoreText(10, HEIGHT - 10 - font.getLineHeight(), font, mEngine.getVertexBufferObjectManager()));
+        // Show the frame timings on top of the game while profiling
+        if(Profiler.isEnabled()){
+            mScene.attachChild(new ProfilerOverlay(10, 10, font, mEngine.getVertexBufferObjectManager()));
+        }
+        completeStartupStep("texts attached");
+    }
+
+    /* Runs on the GL thread once the first frame is on screen. The user
+    * data's preferences are parsed on a worker and the sounds start
+    * loading after them, since playing music checks the sound setting.
+    * Music starts as soon as it is ready, if the game is running */
+    private void onFirstFrameDrawn() {
+        startJournal();
+        final long userDataStart = mStartupTrace.begin();
+        mAssetLoader.load(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    UserData.getInstance().init(PacktRecipesActivity.this);
+                    try {
+                        mStateSnapshotter.restore();
+                        UserData.getInstance().setSnapshotter(mStateSnapshotter);
+                    } catch (IOException e) {
+                        // the user data keeps its preferences and goes on writing them
+                        Debug.e("Failed to restore the state snapshot", e);
+                    }
+                } finally {
+                    mStateRestored = true;
+                }
+                mStateSnapshotter.startPeriodic(SNAPSHOT_INTERVAL_MILLIS);
+                return null;
+            }
+        }, AssetLoader.PRIORITY_BACKGROUND, new AssetLoader.Callback<Void>() {
+            @Override
+            public void onLoaded(Void pResult) {
+                mStartupTrace.end("user data", userDataStart);
+                completeStartupStep("user data loaded");
+                loadSounds();
+            }
+
+            @Override
+            public void onLoadFailed(Throwable pThrowable) {
+                Debug.e("Failed to load the user data", pThrowable);
+                completeStartupStep("user data failed");
+                loadSounds();
+            }
+        });
+    }
+
+    // The journal's file is opened by a worker, the game is not held up by it
+    private void startJournal() {
+        mAssetLoader.load(new Callable<GameJournal>() {
+            @Override
+            public GameJournal call() throws IOException {
+                return new GameJournal(JOURNAL_CAPACITY, new File(getFilesDir(), JOURNAL_FILE_NAME));
+            }
+        }, AssetLoader.PRIORITY_BACKGROUND, new AssetLoader.Callback<GameJournal>() {
+            @Override
+            public void onLoaded(final GameJournal pJournal) {
+                // attached on the update thread, which is where the counters change
+                mEngine.runOnUpdateThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        GameManager.getInstance().setJournal(pJournal);
+                    }
+                });
+                Profiler.addSource(pJournal);
+            }
+
+            @Override
+            public void onLoadFailed(Throwable pThrowable) {
+                Debug.e("Failed to open " + JOURNAL_FILE_NAME, pThrowable);
+            }
+        });
+    }
+
+    private void loadSounds() {
+        final long musicStart = mStartupTrace.begin();
+        ResourceManager.getInstance().loadSoundsAsync(mEngine, this, mAssetLoader, new Runnable() {
+            @Override
+            public void run() {
+                mStartupTrace.end("music", musicStart);
+                // music is the last phase, if it ends after the game got interactive the trace is written again
+                if(mStartupTrace.isInteractive()){
+                    dumpStartupTrace();
+                }
+                if(isGameRunning()){
+                    playMusic();
+                }
+            }
+        });
+    }
+
+    /* Count a startup step as done. After the last one the game is
+    * interactive, and the trace is written by a worker. Phases ending
+    * later write it once more, see loadSounds */
+    private void completeStartupStep(String pStep) {
+        if(!mStartupTrace.completeStep(pStep)) return;
+        mEngine.runOnUpdateThread(new Runnable() {
+            @Override
+            public void run() {
+                // without user data the unlocked level reads 0, level 1 is always there
+                startLevel(Math.max(1, Math.min(UserData.getInstance().getMaxUnlockedLevel(), LEVEL_COUNT)));
+            }
+        });
+        dumpStartupTrace();
+    }
+
+    // Writes the whole trace so far, replacing what an earlier dump wrote
+    private void dumpStartupTrace() {
+        IoExecutor.getInstance().trySubmit(IoExecutor.CATEGORY_TELEMETRY, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mStartupTrace.dump(new File(getFilesDir(), STARTUP_TRACE_FILE_NAME));
+                } catch (IOException e) {
+                    Debug.e("Failed to write " + STARTUP_TRACE_FILE_NAME, e);
+                }
+            }
+        });
+    }
+
+    /* Runs on the update thread. Level chunks share the atlas pages with
+    * the entity batches, so levels only start streaming once the game is
+    * interactive and those pages are loaded */
+    private void startLevel(int pLevel) {
+        mLevelStreamer.startLevel(pLevel);
+        if(pLevel < LEVEL_COUNT){
+            mLevelStreamer.prewarm(pLevel + 1);
+        }
+    }
+
     /* The onPopulateScene method was introduced to AndEngine as a way of separating
     * scene-creation from scene population. This method is in place for attaching
     * child entities to the scene once it has already been returned to the engine and
@@ -147,8 +532,10 @@ public class PacktRecipesActivity extends BaseGameActivity {
     @Override
     public void onPopulateScene(Scene pScene,
         OnPopulateSceneCallback pOnPopulateSceneCallback) {
+        final long traceStart = mStartupTrace.begin();
         // onPopulateSceneFinished(), similar to the resource and scene callback
         // methods, should be called once we are finished populating the scene.
+        mStartupTrace.end("onPopulateScene", traceStart);
         pOnPopulateSceneCallback.onPopulateSceneFinished();
     }
 
@@ -0,0 +1,241 @@
+package com.example.helloand;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelUpdateStage runs per-entity logic over an EntityStore on several
+ * threads. The dense entity range is cut into fixed-size chunks which the
+ * calling thread and a pool of workers take in turn. Each chunk collects
+ * its side effects, such as score changes, in a buffer of its own, and at
+ * the end of the tick the buffers are merged into the GameManager in chunk
+ * order.
+ *
+ * Chunks do not depend on the number of threads, and neither does the
+ * merge order, so a tick gives the same result on one thread as on eight.
+ * Per-entity logic must only write to its own entity's columns and draw
+ * its random numbers from random(), never from a shared Random.
+ *
+ * The pool is a fixed thread pool rather than a ForkJoinPool, which is
+ * only available from Android 5.0 on.
+ */
+public class ParallelUpdateStage {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final int mChunkSize;
+    private final int mThreadCount;
+    private final ExecutorService mExecutor;
+
+    // one buffer per chunk, reused from tick to tick
+    private EffectBuffer[] mBuffers = new EffectBuffer[0];
+
+    // the state of the tick in progress
+    private final AtomicInteger mNextChunk = new AtomicInteger();
+    private volatile EntityStore mEntities;
+    private volatile EntityUpdate mUpdate;
+    private volatile int mChunkCount;
+    private volatile CountDownLatch mWorkersDone;
+    private volatile Throwable mFailure;
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                runChunks();
+            } finally {
+                mWorkersDone.countDown();
+            }
+        }
+    };
+
+    // A single thread stage runs everything on the calling thread
+    public ParallelUpdateStage(final int pThreadCount){
+        this(pThreadCount, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelUpdateStage(final int pThreadCount, final int pChunkSize){
+        if(pThreadCount < 1 || pChunkSize < 1){
+            throw new IllegalArgumentException("pThreadCount and pChunkSize must be >= 1");
+        }
+        mThreadCount = pThreadCount;
+        mChunkSize = pChunkSize;
+        // the calling thread does its share, so it needs one worker less
+        mExecutor = pThreadCount == 1 ? null : Executors.newFixedThreadPool(pThreadCount - 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable pRunnable) {
+                final Thread thread = new Thread(pRunnable, "ParallelUpdateStage");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getThreadCount(){
+        return mThreadCount;
+    }
+
+    /* Run pUpdate for every entity in the store, then apply the collected
+     * effects to pGameManager. Returns once the whole tick is done.
+     */
+    public void run(final EntityStore pEntities, final EntityUpdate pUpdate, final GameManager pGameManager){
+        final int size = pEntities.size();
+        final int chunkCount = (size + mChunkSize - 1) / mChunkSize;
+        if(chunkCount > mBuffers.length){
+            final EffectBuffer[] buffers = new EffectBuffer[chunkCount];
+            System.arraycopy(mBuffers, 0, buffers, 0, mBuffers.length);
+            for(int i = mBuffers.length; i < chunkCount; i++){
+                buffers[i] = new EffectBuffer();
+            }
+            mBuffers = buffers;
+        }
+        mEntities = pEntities;
+        mUpdate = pUpdate;
+        mChunkCount = chunkCount;
+        mFailure = null;
+        mNextChunk.set(0);
+
+        // only wake as many workers as there are chunks to share
+        final int workers = mExecutor == null ? 0 : Math.min(mThreadCount - 1, chunkCount - 1);
+        if(workers > 0){
+            mWorkersDone = new CountDownLatch(workers);
+            for(int i = 0; i < workers; i++){
+                mExecutor.execute(mWorker);
+            }
+        }
+        runChunks();
+        if(workers > 0){
+            try {
+                mWorkersDone.await();
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the update workers", e);
+            }
+        }
+        mEntities = null;
+        mUpdate = null;
+        if(mFailure != null){
+            throw new IllegalStateException("Entity update failed", mFailure);
+        }
+        pEntities.markModified();
+        merge(chunkCount, pGameManager);
+    }
+
+    public void shutdown(){
+        if(mExecutor != null){
+            mExecutor.shutdown();
+        }
+    }
+
+    /* A random number for one entity in one tick, the same no matter which
+     * thread asks or in which order. Different salts give independent
+     * numbers for the same entity and tick.
+     */
+    public static long random(final long pSeed, final int pHandle, final long pTick, final int pSalt){
+        long z = pSeed + 0x9E3779B97F4A7C15L * (pHandle + 1)
+                + 0xC2B2AE3D27D4EB4FL * (pTick + 1) + 0x165667B19E3779F9L * pSalt;
+        // the SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Take chunks until none are left; runs on the caller and every worker
+    private void runChunks(){
+        final EntityStore entities = mEntities;
+        final EntityUpdate update = mUpdate;
+        final int chunkCount = mChunkCount;
+        final int size = entities.size();
+        int chunk;
+        while((chunk = mNextChunk.getAndIncrement()) < chunkCount && mFailure == null){
+            final EffectBuffer buffer = mBuffers[chunk];
+            buffer.clear();
+            final int end = Math.min(size, (chunk + 1) * mChunkSize);
+            try {
+                for(int i = chunk * mChunkSize; i < end; i++){
+                    update.onUpdate(entities, i, buffer);
+                }
+            } catch(Throwable t){
+                mFailure = t;
+            }
+        }
+    }
+
+    // Sum the effects of every chunk in chunk order and apply them at once
+    private void merge(final int pChunkCount, final GameManager pGameManager){
+        int score = 0;
+        int birdCount = 0;
+        int enemyCount = 0;
+        for(int i = 0; i < pChunkCount; i++){
+            final EffectBuffer buffer = mBuffers[i];
+            for(int j = 0; j < buffer.mCount; j++){
+                switch(buffer.mTypes[j]){
+                case GameEventQueue.TYPE_SCORE:
+                    score += buffer.mDeltas[j];
+                    break;
+                case GameEventQueue.TYPE_BIRD_COUNT:
+                    birdCount += buffer.mDeltas[j];
+                    break;
+                case GameEventQueue.TYPE_ENEMY_COUNT:
+                    enemyCount += buffer.mDeltas[j];
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown game event type: " + buffer.mTypes[j]);
+                }
+            }
+        }
+        pGameManager.applyDeltas(score, birdCount, enemyCount);
+    }
+
+    public interface EntityUpdate {
+        /* Update the entity at dense index pIndex. Called on any of the
+         * stage's threads; effects on the game go into pEffects.
+         */
+        void onUpdate(EntityStore pEntities, int pIndex, EffectBuffer pEffects);
+    }
+
+    /* The side effects of one chunk, in the order they were made. Mirrors
+     * the queue methods of GameManager.
+     */
+    public static class EffectBuffer {
+        private int[] mTypes = new int[16];
+        private int[] mDeltas = new int[16];
+        private int mCount;
+
+        public void queueScore(final int pIncrementBy){
+            add(GameEventQueue.TYPE_SCORE, pIncrementBy);
+        }
+
+        public void queueBirdCountDecrement(){
+            add(GameEventQueue.TYPE_BIRD_COUNT, -1);
+        }
+
+        public void queueEnemyCountDecrement(){
+            add(GameEventQueue.TYPE_ENEMY_COUNT, -1);
+        }
+
+        public int size(){
+            return mCount;
+        }
+
+        void clear(){
+            mCount = 0;
+        }
+
+        private void add(final int pType, final int pDelta){
+            if(mCount == mTypes.length){
+                final int[] types = new int[mCount * 2];
+                final int[] deltas = new int[mCount * 2];
+                System.arraycopy(mTypes, 0, types, 0, mCount);
+                System.arraycopy(mDeltas, 0, deltas, 0, mCount);
+                mTypes = types;
+                mDeltas = deltas;
+            }
+            mTypes[mCount] = pType;
+            mDeltas[mCount] = pDelta;
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.helloand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * PkmHeader is the 16 byte header of a PKM file, the container the
+ * Android SDK's etc1tool (and our TextureConverter) write ETC1 textures
+ * in. The compressed blocks follow the header directly.
+ *
+ * <pre>
+ * magic "PKM " | version "10" | data type (short, 0 = ETC1 RGB without mipmaps)
+ * encoded width | encoded height | original width | original height (short each)
+ * </pre>
+ *
+ * All values are big-endian. The encoded size is the original size
+ * rounded up to whole 4x4 blocks. This class only depends on java.io, so
+ * the parsing can be tested on a plain JVM.
+ */
+public class PkmHeader {
+
+    public static final int HEADER_SIZE = 16;
+
+    public static final int MAGIC = 0x504B4D20; // "PKM "
+    public static final short VERSION = 0x3130; // "10"
+    public static final short ETC1_RGB_NO_MIPMAPS = 0;
+
+    // an ETC1 block covers 4x4 pixels in 8 bytes
+    public static final int BLOCK_SIZE = 4;
+    public static final int BLOCK_BYTES = 8;
+
+    private final int mEncodedWidth;
+    private final int mEncodedHeight;
+    private final int mWidth;
+    private final int mHeight;
+
+    // A header for an image of the given size, e.g. to write one
+    public PkmHeader(final int pWidth, final int pHeight){
+        this(roundUpToBlock(pWidth), roundUpToBlock(pHeight), pWidth, pHeight);
+    }
+
+    private PkmHeader(final int pEncodedWidth, final int pEncodedHeight, final int pWidth, final int pHeight){
+        this.mEncodedWidth = pEncodedWidth;
+        this.mEncodedHeight = pEncodedHeight;
+        this.mWidth = pWidth;
+        this.mHeight = pHeight;
+    }
+
+    /* Read and check a header. Throws an IOException if the stream is too
+     * short or does not hold an ETC1 texture without mipmaps.
+     */
+    public static PkmHeader read(final InputStream pInputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(pInputStream);
+        try {
+            if(in.readInt() != MAGIC){
+                throw new IOException("Not a PKM file");
+            }
+            final short version = in.readShort();
+            if(version != VERSION){
+                throw new IOException("Unsupported PKM version: 0x" + Integer.toHexString(version & 0xFFFF));
+            }
+            final short type = in.readShort();
+            if(type != ETC1_RGB_NO_MIPMAPS){
+                throw new IOException("Unsupported PKM data type: " + type);
+            }
+            final int encodedWidth = in.readUnsignedShort();
+            final int encodedHeight = in.readUnsignedShort();
+            final int width = in.readUnsignedShort();
+            final int height = in.readUnsignedShort();
+            if(width == 0 || height == 0 || encodedWidth != roundUpToBlock(width)
+                    || encodedHeight != roundUpToBlock(height)){
+                throw new IOException("Invalid PKM size: " + encodedWidth + "x" + encodedHeight
+                        + " encoded, " + width + "x" + height + " original");
+            }
+            return new PkmHeader(encodedWidth, encodedHeight, width, height);
+        } catch(EOFException e){
+            throw new IOException("Truncated PKM header");
+        }
+    }
+
+    public void write(final OutputStream pOutputStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(pOutputStream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(ETC1_RGB_NO_MIPMAPS);
+        out.writeShort(mEncodedWidth);
+        out.writeShort(mEncodedHeight);
+        out.writeShort(mWidth);
+        out.writeShort(mHeight);
+        out.flush();
+    }
+
+    // the size of the texture, in whole blocks
+    public int getEncodedWidth(){
+        return mEncodedWidth;
+    }
+
+    public int getEncodedHeight(){
+        return mEncodedHeight;
+    }
+
+    // the size of the image that was compressed
+    public int getWidth(){
+        return mWidth;
+    }
+
+    public int getHeight(){
+        return mHeight;
+    }
+
+    // the number of bytes of compressed blocks that follow the header
+    public int getDataSize(){
+        return (mEncodedWidth / BLOCK_SIZE) * (mEncodedHeight / BLOCK_SIZE) * BLOCK_BYTES;
+    }
+
+    private static int roundUpToBlock(final int pSize){
+        return (pSize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+}
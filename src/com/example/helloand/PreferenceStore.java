@@ -0,0 +1,22 @@
+package com.example.helloand;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * PreferenceStore is where UserData persists its values until a
+ * StateSnapshotter takes over. On device it is backed by
+ * SharedPreferences, while JVM tooling and tests can plug in a plain file
+ * instead.
+ */
+public interface PreferenceStore {
+
+    int getInt(String pKey, int pDefaultValue);
+
+    boolean getBoolean(String pKey, boolean pDefaultValue);
+
+    /* Persist a batch of values in one go. Values are Integer or Boolean
+     * objects, and keys missing from the batch keep their stored value.
+     */
+    void write(Map<String, Object> pValues) throws IOException;
+}
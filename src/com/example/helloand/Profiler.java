@@ -0,0 +1,139 @@
+package com.example.helloand;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Profiler times the phases of a frame and collects metrics from the rest
+ * of the game into one report. Timing a phase looks like this:
+ *
+ * <pre>
+ * final long start = Profiler.start();
+ * ... work ...
+ * Profiler.end(Profiler.PHASE_UPDATE, start);
+ * </pre>
+ *
+ * While disabled, start() returns 0 without reading the clock and end()
+ * returns right away, so the calls can stay in hot paths for good.
+ */
+public class Profiler {
+
+    public static final int PHASE_UPDATE = 0;
+    public static final int PHASE_COLLISION = 1;
+    public static final int PHASE_RENDER = 2;
+    public static final int PHASE_ASSET_LOAD = 3;
+
+    private static final String[] PHASE_NAMES = { "update", "collision", "render", "asset load" };
+
+    private static volatile boolean sEnabled;
+
+    private static final Histogram[] PHASES = new Histogram[PHASE_NAMES.length];
+    static {
+        for(int i = 0; i < PHASES.length; i++){
+            PHASES[i] = new Histogram();
+        }
+    }
+
+    // other parts of the game add their own metrics to the report
+    private static final CopyOnWriteArrayList<MetricsSource> SOURCES = new CopyOnWriteArrayList<MetricsSource>();
+
+    // Profiler only has static members
+    private Profiler(){
+    }
+
+    public static void setEnabled(final boolean pEnabled){
+        sEnabled = pEnabled;
+    }
+
+    public static boolean isEnabled(){
+        return sEnabled;
+    }
+
+    // The start time of a phase, or 0 when profiling is disabled
+    public static long start(){
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    public static void end(final int pPhase, final long pStart){
+        if(pStart != 0){
+            PHASES[pPhase].record(System.nanoTime() - pStart);
+        }
+    }
+
+    public static Histogram getPhase(final int pPhase){
+        return PHASES[pPhase];
+    }
+
+    public static void addSource(final MetricsSource pSource){
+        SOURCES.addIfAbsent(pSource);
+    }
+
+    public static void removeSource(final MetricsSource pSource){
+        SOURCES.remove(pSource);
+    }
+
+    public static void reset(){
+        for(int i = 0; i < PHASES.length; i++){
+            PHASES[i].reset();
+        }
+    }
+
+    /* Write the full report: percentiles for every phase, the object pool
+     * counters and whatever the registered sources add.
+     */
+    public static void report(final Writer pWriter){
+        final PrintWriter out = new PrintWriter(pWriter);
+        out.printf("%-12s %9s %10s %8s %8s %8s%n", "phase", "count", "p50 us", "p95 us", "p99 us", "max us");
+        for(int i = 0; i < PHASES.length; i++){
+            final Histogram phase = PHASES[i];
+            out.printf("%-12s %9d %10.1f %8.1f %8.1f %8.1f%n", PHASE_NAMES[i], phase.getCount(),
+                    phase.getPercentile(0.50) / 1000f, phase.getPercentile(0.95) / 1000f,
+                    phase.getPercentile(0.99) / 1000f, phase.getMax() / 1000f);
+        }
+        out.println();
+        out.println("objects allocated: " + ObjectFactory.getAllocationCount());
+        reportPool(out, "large object pool", ObjectFactory.getLargeObjectPool());
+        reportPool(out, "small object pool", ObjectFactory.getSmallObjectPool());
+        for(final MetricsSource source : SOURCES){
+            source.onReport(out);
+        }
+        out.flush();
+    }
+
+    // A short report, e.g. for an on-screen overlay
+    public static void reportFrame(final StringBuilder pBuilder){
+        appendPhase(pBuilder, "upd", PHASES[PHASE_UPDATE]);
+        appendPhase(pBuilder, " col", PHASES[PHASE_COLLISION]);
+        appendPhase(pBuilder, " ren", PHASES[PHASE_RENDER]);
+        pBuilder.append("\nalloc ").append(ObjectFactory.getAllocationCount());
+    }
+
+    // Dump the full report into a file for offline analysis
+    public static void dump(final File pFile) throws IOException {
+        final Writer writer = new FileWriter(pFile);
+        try {
+            report(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void appendPhase(final StringBuilder pBuilder, final String pName, final Histogram pPhase){
+        pBuilder.append(pName).append(" p50 ").append(pPhase.getPercentile(0.50) / 1000)
+                .append(" p99 ").append(pPhase.getPercentile(0.99) / 1000).append("us");
+    }
+
+    private static void reportPool(final PrintWriter pOut, final String pName, final ObjectFactory.ObjectPool<?> pPool){
+        pOut.println(pName + ": hits " + pPool.getHitCount() + ", misses " + pPool.getMissCount()
+                + ", evictions " + pPool.getEvictionCount() + ", free " + pPool.getFreeCount());
+    }
+
+    public interface MetricsSource {
+        // Print this source's metrics, one per line
+        void onReport(PrintWriter pOut);
+    }
+}
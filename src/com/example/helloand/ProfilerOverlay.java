@@ -0,0 +1,42 @@
+package com.example.helloand;
+
+import org.andengine.entity.text.Text;
+import org.andengine.opengl.font.IFont;
+import org.andengine.opengl.vbo.VertexBufferObjectManager;
+
+/**
+ * ProfilerOverlay shows the Profiler's frame percentiles on screen. The
+ * text is rebuilt twice a second into the same StringBuilder, so the
+ * overlay itself does not add garbage to the frames it measures.
+ */
+public class ProfilerOverlay extends Text {
+
+    private static final float REFRESH_INTERVAL_SECONDS = 0.5f;
+
+    // enough characters for the three phases and the allocation count
+    private static final int MAX_CHARACTERS = 128;
+
+    private final StringBuilder mBuilder = new StringBuilder(MAX_CHARACTERS);
+    private float mSecondsSinceRefresh = REFRESH_INTERVAL_SECONDS;
+
+    public ProfilerOverlay(final float pX, final float pY, final IFont pFont,
+            final VertexBufferObjectManager pVertexBufferObjectManager) {
+        super(pX, pY, pFont, "", MAX_CHARACTERS, pVertexBufferObjectManager);
+    }
+
+    @Override
+    protected void onManagedUpdate(final float pSecondsElapsed) {
+        super.onManagedUpdate(pSecondsElapsed);
+        mSecondsSinceRefresh += pSecondsElapsed;
+        if(mSecondsSinceRefresh < REFRESH_INTERVAL_SECONDS){
+            return;
+        }
+        mSecondsSinceRefresh = 0;
+        mBuilder.setLength(0);
+        Profiler.reportFrame(mBuilder);
+        if(mBuilder.length() > MAX_CHARACTERS){
+            mBuilder.setLength(MAX_CHARACTERS);
+        }
+        setText(mBuilder);
+    }
+}
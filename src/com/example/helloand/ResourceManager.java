@@ -1,29 +1,36 @@
 package com.example.helloand;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.andengine.audio.music.Music;
 import org.andengine.audio.music.MusicFactory;
-import org.andengine.audio.sound.Sound;
-import org.andengine.audio.sound.SoundFactory;
 import org.andengine.engine.Engine;
-import org.andengine.opengl.font.Font;
+import org.andengine.opengl.font.IFont;
+import org.andengine.opengl.texture.ITexture;
 import org.andengine.opengl.texture.TextureOptions;
 import org.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlas;
 import org.andengine.opengl.texture.atlas.bitmap.BitmapTextureAtlasTextureRegionFactory;
 import org.andengine.opengl.texture.atlas.bitmap.BuildableBitmapTextureAtlas;
+import org.andengine.opengl.texture.atlas.bitmap.source.AssetBitmapTextureAtlasSource;
 import org.andengine.opengl.texture.atlas.bitmap.source.IBitmapTextureAtlasSource;
 import org.andengine.opengl.texture.atlas.buildable.builder.BlackPawnTextureAtlasBuilder;
 import org.andengine.opengl.texture.atlas.buildable.builder.ITextureAtlasBuilder.TextureAtlasBuilderException;
 import org.andengine.opengl.texture.bitmap.BitmapTextureFormat;
 import org.andengine.opengl.texture.region.ITextureRegion;
+import org.andengine.opengl.texture.region.TextureRegionFactory;
 import org.andengine.util.debug.Debug;
 
 import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Typeface;
 
 public class ResourceManager {
- // ResourceManager Singleton instance
-    private static ResourceManager INSTANCE;
 
     /* The variables listed should be kept public, allowing us easy access
        to them when creating new Sprites, Text objects and to play sound files */
@@ -32,20 +39,71 @@ public class ResourceManager {
     public ITextureRegion mRectangleThreeTextureRegion;
     public ITextureRegion mSquareTextureRegion;
 
-    Sound mSound;
-    Music mMusic;
+    /* Sound effects play through our own voice pool, so several copies of
+       an effect can overlap. mSound is the effect id of "sound.mp3" */
+    private static final String SOUND_PATH = "sfx/sound.mp3";
+    private static final int SOUND_MAX_VOICES = 4;
+    private static final long SOUND_DURATION_MILLIS = 700;
+    private SoundEffectPool mSoundEffects;
+    int mSound = -1;
 
-    public Font mFont;
+    // music may be assigned from an asset loader thread, see loadSoundsAsync
+    volatile Music mMusic;
+
+    /* The game font's glyphs are rasterized once and cached in
+       FONT_CACHE_DIR, so later launches only decode one image */
+    private static final String FONT_CACHE_DIR = "fonts";
+    private static final String FONT_NAME = "default-32";
+    private static final float FONT_SIZE = 32f;
+    private static final int FONT_TEXTURE_SIZE = 256;
+    // may be assigned from an asset loader thread, see loadFontAsync
+    public volatile IFont mFont;
+
+    // the asset paths our texture regions are cached under
+    private static final String SQUARE_PATH = "gfx/square.png";
+    private static final String[] RECTANGLE_PATHS = {
+        "gfx/rectangle_one.png", "gfx/rectangle_two.png", "gfx/rectangle_three.png" };
+
+    /* Everything but the repeating background is packed offline into atlas
+       pages (see tools/AtlasPacker). The manifest says where each image
+       went; its regions are cached under the image's original asset path */
+    private static final String ATLAS_MANIFEST_PATH = "gfx/packed/atlas.bin";
+    private static final String PACKED_IMAGE_DIR = "gfx/";
+    private AtlasManifest mAtlasManifest;
+
+    /* The offline TextureConverter lists the format each image loads in,
+       the cheapest one that still looks like the original. Images it does
+       not list, or all of them if it has not been run, keep our defaults */
+    private static final String TEXTURE_FORMATS_PATH = "gfx/formats.bin";
+    private TextureFormatManifest mTextureFormats;
+
+    /* Loaded atlases are shared through the texture cache, so a scene
+       which needs textures that are already loaded simply reuses them */
+    private final TextureCache mTextureCache = new TextureCache(TextureCache.DEFAULT_BUDGET_BYTES);
+
+    // level chunks load the pages they need one at a time, see acquirePackedTextures
+    private final Object mPageLoadLock = new Object();
+
+    /* Bumped by unloadGameTextures. Asynchronous loads requested before
+       acquire nothing when they end, so no reference outlives the scene */
+    private int mTextureGeneration;
 
     ResourceManager(){
-        // The constructor is of no use to us
+        // The texture cache shows up in profiler reports
+        Profiler.addSource(mTextureCache);
     }
 
-    public synchronized static ResourceManager getInstance(){
-        if(INSTANCE == null){
-            INSTANCE = new ResourceManager();
-        }
-        return INSTANCE;
+    /* ResourceManager Singleton instance. The holder class is only
+     * loaded the first time getInstance is called, so the instance is
+     * still created lazily, but getInstance needs no lock on the threads
+     * that load resources in parallel.
+     */
+    private static class InstanceHolder {
+        static final ResourceManager INSTANCE = new ResourceManager();
+    }
+
+    public static ResourceManager getInstance(){
+        return InstanceHolder.INSTANCE;
     }
 
     /* Each scene within a game should have a loadTextures method as well
@@ -59,29 +117,150 @@ public class ResourceManager {
 
         // -----------------my
         BitmapTextureAtlasTextureRegionFactory.setAssetBasePath("gfx/");
-        // Create the texture atlas at a size of 120x120 pixels
-        BitmapTextureAtlas mBitmapTextureAtlas = new BitmapTextureAtlas(pEngine.getTextureManager(), 120, 120,
-                                                        BitmapTextureFormat.RGB_565, TextureOptions.BILINEAR);
-        /* Create rectangle one at position (10, 10) on the
-        mBitmapTextureAtlas */
-        mRectangleOneTextureRegion =
-        BitmapTextureAtlasTextureRegionFactory.createFromAsset(mBitmapTextureAtlas, pContext, "rectangle_one.png", 10, 10);
-        /* Create rectangle two at position (50, 10) on the
-        mBitmapTextureAtlas */
-        mRectangleTwoTextureRegion =
-        BitmapTextureAtlasTextureRegionFactory.createFromAsset(mBitmapTextureAtlas, pContext, "rectangle_two.png", 50, 10);
-        /* Create rectangle three at position (10, 60) on the
-        mBitmapTextureAtlas */
-        mRectangleThreeTextureRegion =
-        BitmapTextureAtlasTextureRegionFactory.createFromAsset(mBitmapTextureAtlas, pContext, "rectangle_three.png", 10, 60);
-
-        // load our ITextureRegion objects into memory. 
-        mBitmapTextureAtlas.load();
+
+        // Reuse the rectangles if they are still cached from an earlier scene
+        if(!acquireRectangleTextureRegions()){
+            loadAtlasPages(pEngine, pContext.getAssets());
+            acquireRectangleTextureRegions();
+        }
+
+        mSquareTextureRegion = mTextureCache.acquire(SQUARE_PATH);
+        if(mSquareTextureRegion == null){
+            loadSquareTexture(pEngine, pContext);
+            mSquareTextureRegion = mTextureCache.acquire(SQUARE_PATH);
+        }
+    }
+
+    // Load every pre-packed atlas page with a single upload each
+    private void loadAtlasPages(Engine pEngine, AssetManager pAssets){
+        final AtlasManifest manifest = getAtlasManifest(pAssets);
+        if(manifest == null){
+            return;
+        }
+        for(AtlasManifest.Page page : manifest.getPages()){
+            final int format = getPageFormat(pAssets, page);
+            if(format == TextureFormatManifest.FORMAT_ETC1){
+                // compressed pages are uploaded as they are, without decoding
+                try {
+                    Etc1Texture pageTexture = Etc1Texture.create(pEngine.getTextureManager(), pAssets,
+                            TextureFormatManifest.getCompressedPath(page.mImagePath), TextureOptions.BILINEAR);
+                    pageTexture.load();
+                    cachePageRegions(manifest, page, pageTexture);
+                } catch (IOException e) {
+                    Debug.e("Failed to load " + page.mImagePath, e);
+                }
+                continue;
+            }
+            BitmapTextureAtlas pageAtlas = createPageAtlas(pEngine, page, format);
+            pageAtlas.addTextureAtlasSource(AssetBitmapTextureAtlasSource.create(pAssets, page.mImagePath), 0, 0);
+            pageAtlas.load();
+            cachePageRegions(manifest, page, pageAtlas);
+        }
+    }
+
+    private synchronized AtlasManifest getAtlasManifest(AssetManager pAssets){
+        if(mAtlasManifest == null){
+            try {
+                final InputStream in = pAssets.open(ATLAS_MANIFEST_PATH);
+                try {
+                    mAtlasManifest = AtlasManifest.read(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Debug.e("Failed to read " + ATLAS_MANIFEST_PATH, e);
+            }
+        }
+        return mAtlasManifest;
+    }
+
+    private synchronized TextureFormatManifest getTextureFormats(AssetManager pAssets){
+        if(mTextureFormats == null){
+            try {
+                final InputStream in = pAssets.open(TEXTURE_FORMATS_PATH);
+                try {
+                    mTextureFormats = TextureFormatManifest.read(in);
+                } finally {
+                    in.close();
+                }
+            } catch (FileNotFoundException e) {
+                // the converter has not been run, every image keeps its default format
+                mTextureFormats = new TextureFormatManifest();
+            } catch (IOException e) {
+                Debug.e("Failed to read " + TEXTURE_FORMATS_PATH, e);
+                mTextureFormats = new TextureFormatManifest();
+            }
+        }
+        return mTextureFormats;
+    }
+
+    // Unless the converter chose a format, opaque pages do without an alpha channel
+    private int getPageFormat(AssetManager pAssets, AtlasManifest.Page pPage){
+        return getTextureFormats(pAssets).getFormat(pPage.mImagePath,
+                pPage.mOpaque ? TextureFormatManifest.FORMAT_RGB_565 : TextureFormatManifest.FORMAT_RGBA_8888);
+    }
+
+    private static BitmapTextureAtlas createPageAtlas(Engine pEngine, AtlasManifest.Page pPage, int pFormat){
+        return new BitmapTextureAtlas(pEngine.getTextureManager(), pPage.mWidth, pPage.mHeight,
+                getBitmapTextureFormat(pFormat), TextureOptions.BILINEAR);
+    }
+
+    // The bitmap format for one of TextureFormatManifest's uncompressed formats
+    private static BitmapTextureFormat getBitmapTextureFormat(int pFormat){
+        switch(pFormat){
+        case TextureFormatManifest.FORMAT_RGB_565:
+            return BitmapTextureFormat.RGB_565;
+        case TextureFormatManifest.FORMAT_RGBA_4444:
+            return BitmapTextureFormat.RGBA_4444;
+        case TextureFormatManifest.FORMAT_RGBA_8888:
+            return BitmapTextureFormat.RGBA_8888;
+        default:
+            throw new IllegalArgumentException("Not a bitmap format: " + TextureFormatManifest.getFormatName(pFormat));
+        }
+    }
+
+    /* Cut the page into the regions the manifest lists for it. Should
+     * another load have cached all of them first, this copy is unloaded */
+    private void cachePageRegions(AtlasManifest pManifest, AtlasManifest.Page pPage, ITexture pPageTexture){
+        boolean cached = false;
+        for(AtlasManifest.Region region : pManifest.getRegions()){
+            if(region.mPage == pPage.mIndex){
+                cached |= mTextureCache.put(PACKED_IMAGE_DIR + region.mName, TextureRegionFactory.extractFromTexture(
+                        pPageTexture, region.mX, region.mY, region.mWidth, region.mHeight));
+            }
+        }
+        if(!cached){
+            pPageTexture.unload();
+        }
+    }
+
+    private boolean acquireRectangleTextureRegions(){
+        final ITextureRegion[] regions = mTextureCache.acquireAll(RECTANGLE_PATHS);
+        if(regions == null){
+            return false;
+        }
+        mRectangleOneTextureRegion = regions[0];
+        mRectangleTwoTextureRegion = regions[1];
+        mRectangleThreeTextureRegion = regions[2];
+        return true;
+    }
+
+    private void loadSquareTexture(Engine pEngine, Context pContext){
+        final int format = getTextureFormats(pContext.getAssets()).getFormat(SQUARE_PATH, TextureFormatManifest.FORMAT_RGB_565);
+        if(format == TextureFormatManifest.FORMAT_ETC1){
+            try {
+                cacheSquareTexture(Etc1Texture.create(pEngine.getTextureManager(), pContext.getAssets(),
+                        TextureFormatManifest.getCompressedPath(SQUARE_PATH), TextureOptions.REPEATING_BILINEAR));
+            } catch (IOException e) {
+                Debug.e("Failed to load " + SQUARE_PATH, e);
+            }
+            return;
+        }
 
         /* Create our repeating texture. Repeating textures require width/
         height which are a power of two */
         BuildableBitmapTextureAtlas terrainTexture = new BuildableBitmapTextureAtlas(pEngine.getTextureManager(), 32, 32,
-                                                            BitmapTextureFormat.RGB_565, TextureOptions.REPEATING_BILINEAR);
+                                                            getBitmapTextureFormat(format), TextureOptions.REPEATING_BILINEAR);
 
         // Create texture region - nothing new here
         mSquareTextureRegion = BitmapTextureAtlasTextureRegionFactory.createFromAsset(terrainTexture, pContext, "square.png");
@@ -96,42 +275,433 @@ public class ResourceManager {
         /* Increase the texture region's size, allowing repeating textures to
         stretch up to 800x480 */
         mSquareTextureRegion.setTextureSize(800, 480);
+
+        cacheSquareTextureRegion(mSquareTextureRegion);
+    }
+
+    // Load a compressed background and cache its region, stretched like the bitmap one
+    private void cacheSquareTexture(Etc1Texture pTexture){
+        pTexture.load();
+        ITextureRegion region = TextureRegionFactory.extractFromTexture(pTexture);
+        region.setTextureSize(800, 480);
+        cacheSquareTextureRegion(region);
+    }
+
+    // A background some other load cached first wins, ours is unloaded
+    private void cacheSquareTextureRegion(ITextureRegion pRegion){
+        if(!mTextureCache.put(SQUARE_PATH, pRegion)){
+            pRegion.getTexture().unload();
+        }
+    }
+
+    /* loadGameTexturesAsync is the asynchronous counterpart of
+     * loadGameTextures. Bitmaps are decoded by the AssetLoader's workers,
+     * the repeating background first since the first frame needs it. Once
+     * every bitmap of an atlas is decoded, the atlas is queued for upload,
+     * which the engine performs on the GL thread as usual. The callbacks
+     * run on a worker thread, once the corresponding regions are set or
+     * have failed to load, in which case they stay null. A request
+     * overlapping one still loading waits for that load instead of
+     * starting another.
+     */
+    public synchronized void loadGameTexturesAsync(Engine pEngine, Context pContext, AssetLoader pLoader,
+            final Runnable pOnBackgroundLoaded, final Runnable pOnRectanglesLoaded){
+        final AssetManager assets = pContext.getAssets();
+        final int generation = mTextureGeneration;
+
+        final Runnable onBackgroundLoaded = new Runnable() {
+            @Override
+            public void run() {
+                acquireSquareTextureRegion(generation);
+                if(pOnBackgroundLoaded != null) pOnBackgroundLoaded.run();
+            }
+        };
+        final Runnable onRectanglesLoaded = new Runnable() {
+            @Override
+            public void run() {
+                acquireRectangleTextureRegions(generation);
+                if(pOnRectanglesLoaded != null) pOnRectanglesLoaded.run();
+            }
+        };
+
+        /* Cached textures are ready right away. The lookup and the claim
+         * are one step, a load ending in between would be missed otherwise */
+        final boolean squareReady;
+        final boolean loadSquare;
+        final boolean rectanglesReady;
+        final boolean loadPages;
+        synchronized(mTextureCache){
+            squareReady = mSquareTextureRegion != null || mTextureCache.contains(SQUARE_PATH);
+            loadSquare = !squareReady && mTextureCache.beginLoad(SQUARE_PATH, onBackgroundLoaded);
+            rectanglesReady = mRectangleOneTextureRegion != null || containsAll(RECTANGLE_PATHS);
+            loadPages = !rectanglesReady && mTextureCache.beginLoad(ATLAS_MANIFEST_PATH, onRectanglesLoaded);
+        }
+        if(squareReady){
+            onBackgroundLoaded.run();
+        } else if(loadSquare){
+            loadSquareTextureAsync(pEngine, assets, pLoader);
+        }
+        if(rectanglesReady){
+            onRectanglesLoaded.run();
+        } else if(loadPages){
+            loadAtlasPagesAsync(pEngine, assets, pLoader);
+        }
+    }
+
+    private boolean containsAll(String[] pPaths){
+        for(String path : pPaths){
+            if(!mTextureCache.contains(path)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Unless the textures were unloaded since pGeneration, or are held already
+    private synchronized void acquireSquareTextureRegion(int pGeneration){
+        if(pGeneration == mTextureGeneration && mSquareTextureRegion == null){
+            mSquareTextureRegion = mTextureCache.acquire(SQUARE_PATH);
+        }
+    }
+
+    private synchronized void acquireRectangleTextureRegions(int pGeneration){
+        if(pGeneration == mTextureGeneration && mRectangleOneTextureRegion == null){
+            acquireRectangleTextureRegions();
+        }
+    }
+
+    // Ends the load of SQUARE_PATH claimed by the caller
+    private void loadSquareTextureAsync(Engine pEngine, AssetManager assets, AssetLoader pLoader){
+        final int format = getTextureFormats(assets).getFormat(SQUARE_PATH, TextureFormatManifest.FORMAT_RGB_565);
+        if(format == TextureFormatManifest.FORMAT_ETC1){
+            new Etc1Load(pEngine, assets, SQUARE_PATH, TextureOptions.REPEATING_BILINEAR) {
+                @Override
+                void onTextureLoaded(Etc1Texture pTexture) {
+                    // on failure the game runs without a background
+                    if(pTexture != null){
+                        cacheSquareTexture(pTexture);
+                    }
+                    mTextureCache.endLoad(SQUARE_PATH);
+                }
+            }.start(pLoader, AssetLoader.PRIORITY_FIRST_FRAME);
+            return;
+        }
+        BitmapTextureAtlas terrainTexture = new BitmapTextureAtlas(pEngine.getTextureManager(), 32, 32,
+                                                            getBitmapTextureFormat(format), TextureOptions.REPEATING_BILINEAR);
+        new AtlasLoad(terrainTexture, assets, new String[] { SQUARE_PATH }, new int[] { 0, 0 }) {
+            @Override
+            void onAtlasLoaded(ITextureRegion[] pRegions) {
+                // the failure has been logged, the game runs without a background
+                if(pRegions[0] != null){
+                    /* Increase the texture region's size, allowing repeating textures to
+                    stretch up to 800x480 */
+                    pRegions[0].setTextureSize(800, 480);
+                    cacheSquareTextureRegion(pRegions[0]);
+                }
+                mTextureCache.endLoad(SQUARE_PATH);
+            }
+        }.start(pLoader, AssetLoader.PRIORITY_FIRST_FRAME);
+    }
+
+    // Ends the load of ATLAS_MANIFEST_PATH claimed by the caller once every page's regions are cached
+    private void loadAtlasPagesAsync(Engine pEngine, AssetManager assets, AssetLoader pLoader){
+        final AtlasManifest manifest = getAtlasManifest(assets);
+        if(manifest == null || manifest.getPages().isEmpty()){
+            mTextureCache.endLoad(ATLAS_MANIFEST_PATH);
+            return;
+        }
+        final AtomicInteger pendingPages = new AtomicInteger(manifest.getPages().size());
+        for(final AtlasManifest.Page page : manifest.getPages()){
+            final int format = getPageFormat(assets, page);
+            if(format == TextureFormatManifest.FORMAT_ETC1){
+                new Etc1Load(pEngine, assets, page.mImagePath, TextureOptions.BILINEAR) {
+                    @Override
+                    void onTextureLoaded(Etc1Texture pTexture) {
+                        if(pTexture != null){
+                            pTexture.load();
+                            cachePageRegions(manifest, page, pTexture);
+                        }
+                        if(pendingPages.decrementAndGet() == 0){
+                            mTextureCache.endLoad(ATLAS_MANIFEST_PATH);
+                        }
+                    }
+                }.start(pLoader, AssetLoader.PRIORITY_GAMEPLAY);
+                continue;
+            }
+            new AtlasLoad(createPageAtlas(pEngine, page, format), assets,
+                    new String[] { page.mImagePath }, new int[] { 0, 0 }) {
+                @Override
+                void onAtlasLoaded(ITextureRegion[] pRegions) {
+                    if(pRegions[0] != null){
+                        cachePageRegions(manifest, page, pRegions[0].getTexture());
+                    }
+                    if(pendingPages.decrementAndGet() == 0){
+                        mTextureCache.endLoad(ATLAS_MANIFEST_PATH);
+                    }
+                }
+            }.start(pLoader, AssetLoader.PRIORITY_GAMEPLAY);
+        }
+    }
+
+    /* AtlasLoad decodes the bitmaps of one atlas in parallel, adds them to
+     * the atlas as they arrive and loads the atlas after the last one.
+     * Assets that fail to decode are logged and leave a null region.
+     */
+    private static abstract class AtlasLoad {
+        private final BitmapTextureAtlas mAtlas;
+        private final AssetManager mAssets;
+        private final String[] mPaths;
+        private final int[] mPositions;
+        private final ITextureRegion[] mRegions;
+        private final AtomicInteger mPending;
+
+        AtlasLoad(BitmapTextureAtlas pAtlas, AssetManager pAssets, String[] pPaths, int[] pPositions) {
+            mAtlas = pAtlas;
+            mAssets = pAssets;
+            mPaths = pPaths;
+            mPositions = pPositions;
+            mRegions = new ITextureRegion[pPaths.length];
+            mPending = new AtomicInteger(pPaths.length);
+        }
+
+        void start(AssetLoader pLoader, int pPriority) {
+            final Bitmap.Config config = mAtlas.getBitmapTextureFormat().getBitmapConfig();
+            for(int i = 0; i < mPaths.length; i++){
+                final int index = i;
+                pLoader.load(new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() throws Exception {
+                        return DecodedBitmapTextureAtlasSource.decode(mAssets, mPaths[index], config);
+                    }
+                }, pPriority, new AssetLoader.Callback<Bitmap>() {
+                    @Override
+                    public void onLoaded(Bitmap pBitmap) {
+                        final int x = mPositions[2 * index];
+                        final int y = mPositions[2 * index + 1];
+                        final DecodedBitmapTextureAtlasSource source =
+                                new DecodedBitmapTextureAtlasSource(mAssets, mPaths[index], pBitmap, x, y);
+                        // several workers may be adding to the same atlas
+                        synchronized(mAtlas){
+                            mRegions[index] = BitmapTextureAtlasTextureRegionFactory.createFromSource(mAtlas, source, x, y);
+                        }
+                        onDecoded();
+                    }
+
+                    @Override
+                    public void onLoadFailed(Throwable pThrowable) {
+                        Debug.e("Failed to load " + mPaths[index], pThrowable);
+                        onDecoded();
+                    }
+                });
+            }
+        }
+
+        private void onDecoded() {
+            if(mPending.decrementAndGet() == 0){
+                mAtlas.load();
+                onAtlasLoaded(mRegions);
+            }
+        }
+
+        abstract void onAtlasLoaded(ITextureRegion[] pRegions);
+    }
+
+    /* Etc1Load reads the compressed version of an image on a worker. The
+     * texture is ready to be loaded, which only queues the upload of the
+     * blocks as they are. A failure is logged and leaves a null texture.
+     */
+    private static abstract class Etc1Load {
+        private final Engine mEngine;
+        private final AssetManager mAssets;
+        private final String mImagePath;
+        private final TextureOptions mTextureOptions;
+
+        Etc1Load(Engine pEngine, AssetManager pAssets, String pImagePath, TextureOptions pTextureOptions) {
+            mEngine = pEngine;
+            mAssets = pAssets;
+            mImagePath = pImagePath;
+            mTextureOptions = pTextureOptions;
+        }
+
+        void start(AssetLoader pLoader, int pPriority) {
+            pLoader.load(new Callable<Etc1Texture>() {
+                @Override
+                public Etc1Texture call() throws IOException {
+                    return Etc1Texture.create(mEngine.getTextureManager(), mAssets,
+                            TextureFormatManifest.getCompressedPath(mImagePath), mTextureOptions);
+                }
+            }, pPriority, new AssetLoader.Callback<Etc1Texture>() {
+                @Override
+                public void onLoaded(Etc1Texture pTexture) {
+                    onTextureLoaded(pTexture);
+                }
+
+                @Override
+                public void onLoadFailed(Throwable pThrowable) {
+                    Debug.e("Failed to load " + mImagePath, pThrowable);
+                    onTextureLoaded(null);
+                }
+            });
+        }
+
+        abstract void onTextureLoaded(Etc1Texture pTexture);
     }
 
     /* All textures should have a method call for unloading once
      * they're no longer needed; ie. a level transition. */
     public synchronized void unloadGameTextures(){
-        // call unload to remove the corresponding texture atlas from memory
-        BitmapTextureAtlas mBitmapTextureAtlas = (BitmapTextureAtlas) mRectangleOneTextureRegion.getTexture();
-        mBitmapTextureAtlas.unload();
-        mBitmapTextureAtlas = (BitmapTextureAtlas) mRectangleTwoTextureRegion.getTexture();
-        mBitmapTextureAtlas.unload();
-        mBitmapTextureAtlas = (BitmapTextureAtlas) mRectangleThreeTextureRegion.getTexture();
-        mBitmapTextureAtlas.unload();
+        // loads still in flight keep their regions to the cache
+        mTextureGeneration++;
+        /* release our regions back to the texture cache. An atlas is
+         * unloaded once none of its regions are in use and the cache needs
+         * the room, so atlases shared with the next scene stay loaded */
+        if(mRectangleOneTextureRegion != null){
+            for(String path : RECTANGLE_PATHS){
+                mTextureCache.release(path);
+            }
+            mRectangleOneTextureRegion = null;
+            mRectangleTwoTextureRegion = null;
+            mRectangleThreeTextureRegion = null;
+        }
+        if(mSquareTextureRegion != null){
+            mTextureCache.release(SQUARE_PATH);
+            mSquareTextureRegion = null;
+        }
+
+        // ... Continue to release all textures related to the 'Game' scene
+    }
+
+    /* Acquire the regions of packed images, e.g. those a level chunk is
+     * drawn with. Atlas pages which are not cached are decoded and queued
+     * for upload on the calling thread, so this is meant for AssetLoader
+     * workers. Returns null if any of the images cannot be loaded; nothing
+     * stays acquired then. Every region must be given back with
+     * releasePackedTextures, after which its page may be evicted.
+     */
+    public ITextureRegion[] acquirePackedTextures(Engine pEngine, AssetManager pAssets, String[] pPaths){
+        synchronized(mPageLoadLock){
+            final AtlasManifest manifest = getAtlasManifest(pAssets);
+            for(String path : pPaths){
+                if(mTextureCache.contains(path)){
+                    continue;
+                }
+                final AtlasManifest.Region region = manifest == null || !path.startsWith(PACKED_IMAGE_DIR)
+                        ? null : manifest.getRegion(path.substring(PACKED_IMAGE_DIR.length()));
+                if(region == null){
+                    Debug.e("Not a packed image: " + path);
+                    return null;
+                }
+                try {
+                    loadAtlasPage(pEngine, pAssets, manifest, manifest.getPages().get(region.mPage));
+                } catch (IOException e) {
+                    Debug.e("Failed to load " + path, e);
+                    return null;
+                }
+            }
+            return mTextureCache.acquireAll(pPaths);
+        }
+    }
+
+    public void releasePackedTextures(String[] pPaths){
+        for(String path : pPaths){
+            mTextureCache.release(path);
+        }
+    }
+
+    // Decode one atlas page on the calling thread and queue it for upload
+    private void loadAtlasPage(Engine pEngine, AssetManager pAssets, AtlasManifest pManifest,
+            AtlasManifest.Page pPage) throws IOException {
+        final int format = getPageFormat(pAssets, pPage);
+        if(format == TextureFormatManifest.FORMAT_ETC1){
+            Etc1Texture pageTexture = Etc1Texture.create(pEngine.getTextureManager(), pAssets,
+                    TextureFormatManifest.getCompressedPath(pPage.mImagePath), TextureOptions.BILINEAR);
+            pageTexture.load();
+            cachePageRegions(pManifest, pPage, pageTexture);
+            return;
+        }
+        BitmapTextureAtlas pageAtlas = createPageAtlas(pEngine, pPage, format);
+        Bitmap bitmap = DecodedBitmapTextureAtlasSource.decode(pAssets, pPage.mImagePath,
+                pageAtlas.getBitmapTextureFormat().getBitmapConfig());
+        pageAtlas.addTextureAtlasSource(new DecodedBitmapTextureAtlasSource(pAssets, pPage.mImagePath, bitmap, 0, 0), 0, 0);
+        pageAtlas.load();
+        cachePageRegions(pManifest, pPage, pageAtlas);
+    }
+
+    // the texture cache exposes its hit, miss and eviction statistics
+    public TextureCache getTextureCache(){
+        return mTextureCache;
+    }
+
+    /* Fonts are used by every scene, so they are loaded once and kept.
+     * The first launch draws the glyphs and writes them to the cache
+     * directory; every later launch reads them back from there.
+     */
+    public synchronized void loadFont(Engine pEngine, Context pContext){
+        if(mFont != null) return;
+        try {
+            mFont = createFont(pEngine, pContext);
+        } catch (IOException e) {
+            Debug.e("Failed to load the font", e);
+        }
+    }
+
+    /* The asynchronous counterpart of loadFont: the font is read from the
+     * glyph cache, or rasterized on the first launch, by an AssetLoader
+     * worker. pOnFontLoaded runs on that worker once mFont is set, or
+     * after the failure was logged.
+     */
+    public synchronized void loadFontAsync(final Engine pEngine, final Context pContext, AssetLoader pLoader,
+            final Runnable pOnFontLoaded){
+        if(mFont != null){
+            if(pOnFontLoaded != null) pOnFontLoaded.run();
+            return;
+        }
+        pLoader.load(new Callable<IFont>() {
+            @Override
+            public IFont call() throws IOException {
+                return createFont(pEngine, pContext);
+            }
+        }, AssetLoader.PRIORITY_GAMEPLAY, new AssetLoader.Callback<IFont>() {
+            @Override
+            public void onLoaded(IFont pFont) {
+                mFont = pFont;
+                if(pOnFontLoaded != null) pOnFontLoaded.run();
+            }
 
-        BuildableBitmapTextureAtlas mBitmapBuildableTextureAtlas = (BuildableBitmapTextureAtlas) mSquareTextureRegion.getTexture();
-        mBitmapBuildableTextureAtlas.unload();
-        
-        // ... Continue to unload all textures related to the 'Game' scene
+            @Override
+            public void onLoadFailed(Throwable pThrowable) {
+                Debug.e("Failed to load the font", pThrowable);
+                if(pOnFontLoaded != null) pOnFontLoaded.run();
+            }
+        });
+    }
 
-        // Once all textures have been unloaded, attempt to invoke the Garbage Collector
-        System.gc();
+    private static IFont createFont(Engine pEngine, Context pContext) throws IOException {
+        final GlyphAtlasFont font = GlyphAtlasFont.create(pEngine.getTextureManager(),
+                new File(pContext.getCacheDir(), FONT_CACHE_DIR), FONT_NAME,
+                Typeface.create(Typeface.DEFAULT, Typeface.NORMAL), FONT_SIZE,
+                org.andengine.util.color.Color.WHITE_ARGB_PACKED_INT, GlyphAtlasFont.DEFAULT_CHARACTERS,
+                FONT_TEXTURE_SIZE, FONT_TEXTURE_SIZE);
+        font.load();
+        return font;
+    }
+
+    public synchronized void unloadFont(){
+        if(mFont != null){
+            mFont.unload();
+            mFont = null;
+        }
     }
 
     /* As with textures, we can create methods to load sound/music objects
      * for different scene's within our games.
      */
     public synchronized void loadSounds(Engine pEngine, Context pContext){
-        // Set the SoundFactory's base path
-        SoundFactory.setAssetBasePath("sfx/");
+        // Set the MusicFactory's base path
         MusicFactory.setAssetBasePath("sfx/");
 
-        // Load our "sound.mp3" file into a Sound object
-        try {
-            mSound = SoundFactory.createSoundFromAsset(pEngine.getSoundManager(), pContext, "sound.mp3");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // Decode our "sound.mp3" file into the sound effect pool
+        loadSoundEffects(pContext);
         // Load our "music.mp3" file into a music object
         try {
             mMusic = MusicFactory.createMusicFromAsset(pEngine.getMusicManager(), pContext, "music.mp3");
@@ -140,6 +710,38 @@ public class ResourceManager {
         }
     }
 
+    /* The asynchronous counterpart of loadSounds. Sound effects already
+     * decode on SoundPool's own thread. Music is not needed for the first
+     * frame, so it is loaded with background priority. pOnMusicLoaded runs
+     * on a worker thread once mMusic is set.
+     */
+    public synchronized void loadSoundsAsync(final Engine pEngine, final Context pContext, AssetLoader pLoader,
+            final Runnable pOnMusicLoaded){
+        MusicFactory.setAssetBasePath("sfx/");
+
+        loadSoundEffects(pContext);
+
+        /* Music is not decoded up front: the MediaPlayer behind Music
+         * streams the file in small buffers while it plays */
+        pLoader.load(new Callable<Music>() {
+            @Override
+            public Music call() throws IOException {
+                return MusicFactory.createMusicFromAsset(pEngine.getMusicManager(), pContext, "music.mp3");
+            }
+        }, AssetLoader.PRIORITY_BACKGROUND, new AssetLoader.Callback<Music>() {
+            @Override
+            public void onLoaded(Music pMusic) {
+                mMusic = pMusic;
+                if(pOnMusicLoaded != null) pOnMusicLoaded.run();
+            }
+
+            @Override
+            public void onLoadFailed(Throwable pThrowable) {
+                Debug.e("Failed to load music.mp3", pThrowable);
+            }
+        });
+    }
+
     /* In some cases, we may only load one set of sounds throughout
      * our entire game's life-cycle. If that's the case, we may not
      * need to include an unloadSounds() method. Of course, this all
@@ -147,7 +749,45 @@ public class ResourceManager {
      */
     public synchronized void unloadSounds(){
         // we call the release() method on sounds to remove them from memory
-        if(!mSound.isReleased())mSound.release();
-        if(!mMusic.isReleased())mMusic.release();
+        if(mSoundEffects != null){
+            mSoundEffects.release();
+            mSoundEffects = null;
+            mSound = -1;
+        }
+        if(mMusic != null && !mMusic.isReleased())mMusic.release();
+    }
+
+    private void loadSoundEffects(Context pContext){
+        if(mSoundEffects != null) return;
+        mSoundEffects = new SoundEffectPool(SoundEffectPool.DEFAULT_MAX_STREAMS);
+        try {
+            mSound = mSoundEffects.load(pContext.getAssets(), SOUND_PATH, SOUND_MAX_VOICES, SOUND_DURATION_MILLIS);
+        } catch (IOException e) {
+            Debug.e("Failed to load " + SOUND_PATH, e);
+        }
+    }
+
+    /* Play "sound.mp3". Overlapping plays each get a voice, up to
+     * SOUND_MAX_VOICES, after which the oldest voice is cut off.
+     */
+    public synchronized void playSound(){
+        if(mSoundEffects != null && mSound >= 0 && !UserData.getInstance().isSoundMuted()){
+            mSoundEffects.play(mSound, 0, 1f);
+        }
+    }
+
+    /* Pausing only pauses the playing voices; the decoded effects and the
+     * music player stay around, so resuming is cheap */
+    public synchronized void pauseSounds(){
+        if(mSoundEffects != null) mSoundEffects.pause();
+        if(mMusic != null && mMusic.isPlaying()) mMusic.pause();
+    }
+
+    public synchronized void resumeSoundEffects(){
+        if(mSoundEffects != null) mSoundEffects.resume();
+    }
+
+    public synchronized SoundEffectPool getSoundEffects(){
+        return mSoundEffects;
     }
 }
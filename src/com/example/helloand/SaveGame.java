@@ -0,0 +1,316 @@
+package com.example.helloand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * SaveGame reads and writes the binary save-game file. The file starts
+ * with a fixed header, followed by length-prefixed sections:
+ *
+ * <pre>
+ * header:  magic (int) | version (short) | reserved (short) | section count (int) | header crc (int)
+ * section: id (int) | payload length (int) | payload crc (int) | payload
+ * </pre>
+ *
+ * Files are written and read through a memory mapping, so section data
+ * goes straight between the game's arrays and the file. Opening a save
+ * only walks the section headers; each section is checked and decoded
+ * the first time it is read.
+ *
+ * A save is written to a temporary file, forced to disk and then renamed
+ * over the old one, so a crash while saving leaves the previous save as
+ * it was. Version 2 added the alive column to the entity section; the
+ * entities of version 1 files are all alive.
+ */
+public class SaveGame {
+
+    public static final int MAGIC = 0x48534156; // "HSAV"
+    public static final short VERSION = 2;
+
+    public static final int SECTION_GAME_MANAGER = 1;
+    public static final int SECTION_LEVEL_SCORES = 2;
+    public static final int SECTION_ENTITIES = 3;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int SECTION_HEADER_SIZE = 12;
+
+    // CRCs are computed through a small scratch array, mapped buffers have none
+    private static final int CRC_CHUNK_SIZE = 4096;
+
+    private final ByteBuffer mBuffer;
+    private final short mVersion;
+    private final int[] mSectionIds;
+    private final int[] mSectionOffsets;
+    private final int[] mSectionLengths;
+    private final int[] mSectionCrcs;
+    private final boolean[] mSectionVerified;
+
+    private SaveGame(final ByteBuffer pBuffer, final short pVersion, final int pSectionCount){
+        mBuffer = pBuffer;
+        mVersion = pVersion;
+        mSectionIds = new int[pSectionCount];
+        mSectionOffsets = new int[pSectionCount];
+        mSectionLengths = new int[pSectionCount];
+        mSectionCrcs = new int[pSectionCount];
+        mSectionVerified = new boolean[pSectionCount];
+    }
+
+    /* Write a complete snapshot. The file is sized up front and mapped, and
+     * every section is written in place.
+     */
+    public static void write(final File pFile, final GameManager pGameManager, final EntityStore pEntities,
+            final int[] pLevelScores) throws IOException {
+        final int entityCount = pEntities.size();
+        write(pFile, pGameManager.getCurrentScore(), pGameManager.getBirdCount(), pGameManager.getEnemyCount(),
+                pLevelScores, pEntities.getTypeColumn(), pEntities.getXColumn(), pEntities.getYColumn(),
+                pEntities.getAliveColumn(), entityCount);
+    }
+
+    /* Snapshot the state on the calling thread, then write it as an
+     * IoExecutor save task. The game may go on changing its state while
+     * the file is written; the Future fails with the write's IOException.
+     */
+    public static Future<Void> writeAsync(final IoExecutor pExecutor, final File pFile,
+            final GameManager pGameManager, final EntityStore pEntities, final int[] pLevelScores){
+        final int score = pGameManager.getCurrentScore();
+        final int birdCount = pGameManager.getBirdCount();
+        final int enemyCount = pGameManager.getEnemyCount();
+        final int entityCount = pEntities.size();
+        final int[] levelScores = pLevelScores.clone();
+        final int[] types = copyOf(pEntities.getTypeColumn(), entityCount);
+        final int[] x = copyOf(pEntities.getXColumn(), entityCount);
+        final int[] y = copyOf(pEntities.getYColumn(), entityCount);
+        final boolean[] alive = new boolean[entityCount];
+        System.arraycopy(pEntities.getAliveColumn(), 0, alive, 0, entityCount);
+        return pExecutor.submit(IoExecutor.CATEGORY_SAVE, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                write(pFile, score, birdCount, enemyCount, levelScores, types, x, y, alive, entityCount);
+                return null;
+            }
+        });
+    }
+
+    // Arrays.copyOf needs API level 9
+    private static int[] copyOf(final int[] pArray, final int pLength){
+        final int[] copy = new int[pLength];
+        System.arraycopy(pArray, 0, copy, 0, pLength);
+        return copy;
+    }
+
+    private static void write(final File pFile, final int pScore, final int pBirdCount, final int pEnemyCount,
+            final int[] pLevelScores, final int[] pTypes, final int[] pX, final int[] pY, final boolean[] pAlive,
+            final int pEntityCount) throws IOException {
+        final int gameManagerLength = 12;
+        final int levelScoresLength = 4 + 4 * pLevelScores.length;
+        // three int columns and one byte column
+        final int entitiesLength = 4 + 13 * pEntityCount;
+        final int size = HEADER_SIZE
+                + SECTION_HEADER_SIZE + gameManagerLength
+                + SECTION_HEADER_SIZE + levelScoresLength
+                + SECTION_HEADER_SIZE + entitiesLength;
+
+        final File temp = new File(pFile.getPath() + ".tmp");
+        final RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            file.setLength(size);
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            final byte[] scratch = new byte[CRC_CHUNK_SIZE];
+
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) 0);
+            buffer.putInt(3);
+            buffer.putInt(crc(buffer, 0, 12, scratch));
+
+            int start = beginSection(buffer, SECTION_GAME_MANAGER, gameManagerLength);
+            buffer.putInt(pScore);
+            buffer.putInt(pBirdCount);
+            buffer.putInt(pEnemyCount);
+            endSection(buffer, start, gameManagerLength, scratch);
+
+            start = beginSection(buffer, SECTION_LEVEL_SCORES, levelScoresLength);
+            buffer.putInt(pLevelScores.length);
+            putInts(buffer, pLevelScores, pLevelScores.length);
+            endSection(buffer, start, levelScoresLength, scratch);
+
+            // entities are stored column by column, just like the EntityStore
+            start = beginSection(buffer, SECTION_ENTITIES, entitiesLength);
+            buffer.putInt(pEntityCount);
+            putInts(buffer, pTypes, pEntityCount);
+            putInts(buffer, pX, pEntityCount);
+            putInts(buffer, pY, pEntityCount);
+            for(int i = 0; i < pEntityCount; i++){
+                buffer.put(pAlive[i] ? (byte) 1 : (byte) 0);
+            }
+            endSection(buffer, start, entitiesLength, scratch);
+
+            // the save must be on disk before it replaces the old one
+            buffer.force();
+        } finally {
+            file.close();
+        }
+        if(!temp.renameTo(pFile)){
+            throw new IOException("Failed to replace " + pFile);
+        }
+    }
+
+    /* Map a save file and index its sections. No section payload is looked
+     * at until it is read.
+     */
+    public static SaveGame open(final File pFile) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(pFile, "r");
+        final MappedByteBuffer buffer;
+        try {
+            final long length = file.length();
+            if(length < HEADER_SIZE || length > Integer.MAX_VALUE){
+                throw new IOException("Not a save game: " + pFile);
+            }
+            // the mapping stays valid after the file is closed
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            file.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if(buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a save game: " + pFile);
+        }
+        final short version = buffer.getShort(4);
+        if(version > VERSION){
+            throw new IOException("Unsupported save game version " + version);
+        }
+        if(buffer.getInt(12) != crc(buffer, 0, 12, new byte[CRC_CHUNK_SIZE])){
+            throw new IOException("Corrupt save game header: " + pFile);
+        }
+        final int sectionCount = buffer.getInt(8);
+        if(sectionCount < 0){
+            throw new IOException("Corrupt save game header: " + pFile);
+        }
+
+        final SaveGame saveGame = new SaveGame(buffer, version, sectionCount);
+        int offset = HEADER_SIZE;
+        for(int i = 0; i < sectionCount; i++){
+            if(offset + SECTION_HEADER_SIZE > buffer.limit()){
+                throw new IOException("Truncated save game: " + pFile);
+            }
+            final int sectionLength = buffer.getInt(offset + 4);
+            if(sectionLength < 0 || offset + SECTION_HEADER_SIZE + sectionLength > buffer.limit()){
+                throw new IOException("Truncated save game: " + pFile);
+            }
+            saveGame.mSectionIds[i] = buffer.getInt(offset);
+            saveGame.mSectionLengths[i] = sectionLength;
+            saveGame.mSectionCrcs[i] = buffer.getInt(offset + 8);
+            saveGame.mSectionOffsets[i] = offset + SECTION_HEADER_SIZE;
+            offset += SECTION_HEADER_SIZE + sectionLength;
+        }
+        return saveGame;
+    }
+
+    public boolean hasSection(final int pSectionId){
+        return findSection(pSectionId) >= 0;
+    }
+
+    // Restore the score, bird and enemy counters
+    public void readGameManager(final GameManager pGameManager) throws IOException {
+        final ByteBuffer section = section(SECTION_GAME_MANAGER);
+        pGameManager.restore(section.getInt(), section.getInt(), section.getInt());
+    }
+
+    public int[] readLevelScores() throws IOException {
+        final ByteBuffer section = section(SECTION_LEVEL_SCORES);
+        final int[] scores = new int[section.getInt()];
+        section.asIntBuffer().get(scores);
+        return scores;
+    }
+
+    /* Replace the contents of the store with the saved entities. Handles are
+     * issued anew, so handles from before the save are not preserved.
+     */
+    public void readEntities(final EntityStore pEntities) throws IOException {
+        final ByteBuffer section = section(SECTION_ENTITIES);
+        final int count = section.getInt();
+        final IntBuffer types = section.asIntBuffer();
+        // the alive column follows the int columns, version 1 has none
+        final int aliveOffset = 4 + 12 * count;
+        final boolean hasAlive = mVersion >= 2;
+        if(hasAlive && aliveOffset + count > section.limit()){
+            throw new IOException("Truncated save game section " + SECTION_ENTITIES);
+        }
+        pEntities.clear();
+        for(int i = 0; i < count; i++){
+            final int handle = pEntities.add(types.get(i), types.get(count + i), types.get(2 * count + i));
+            if(hasAlive && section.get(aliveOffset + i) == 0){
+                pEntities.setAlive(handle, false);
+            }
+        }
+    }
+
+    // A view of one section's payload, verified against its CRC on first use
+    private ByteBuffer section(final int pSectionId) throws IOException {
+        final int index = findSection(pSectionId);
+        if(index < 0){
+            throw new IOException("Save game has no section " + pSectionId);
+        }
+        final int offset = mSectionOffsets[index];
+        final int length = mSectionLengths[index];
+        if(!mSectionVerified[index]){
+            if(crc(mBuffer, offset, length, new byte[CRC_CHUNK_SIZE]) != mSectionCrcs[index]){
+                throw new IOException("Corrupt save game section " + pSectionId);
+            }
+            mSectionVerified[index] = true;
+        }
+        final ByteBuffer section = mBuffer.duplicate();
+        section.limit(offset + length).position(offset);
+        return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int findSection(final int pSectionId){
+        for(int i = 0; i < mSectionIds.length; i++){
+            if(mSectionIds[i] == pSectionId){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Write a section header with a placeholder CRC, returning the payload offset
+    private static int beginSection(final ByteBuffer pBuffer, final int pSectionId, final int pLength){
+        pBuffer.putInt(pSectionId);
+        pBuffer.putInt(pLength);
+        pBuffer.putInt(0);
+        return pBuffer.position();
+    }
+
+    private static void endSection(final ByteBuffer pBuffer, final int pStart, final int pLength, final byte[] pScratch){
+        pBuffer.putInt(pStart - 4, crc(pBuffer, pStart, pLength, pScratch));
+    }
+
+    // Bulk copy an int column into the mapping through an int view
+    private static void putInts(final ByteBuffer pBuffer, final int[] pValues, final int pCount){
+        pBuffer.asIntBuffer().put(pValues, 0, pCount);
+        pBuffer.position(pBuffer.position() + 4 * pCount);
+    }
+
+    private static int crc(final ByteBuffer pBuffer, final int pOffset, final int pLength, final byte[] pScratch){
+        final CRC32 crc = new CRC32();
+        final ByteBuffer view = pBuffer.duplicate();
+        view.limit(pOffset + pLength).position(pOffset);
+        while(view.hasRemaining()){
+            final int chunk = Math.min(view.remaining(), pScratch.length);
+            view.get(pScratch, 0, chunk);
+            crc.update(pScratch, 0, chunk);
+        }
+        return (int) crc.getValue();
+    }
+}
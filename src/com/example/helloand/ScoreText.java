@@ -0,0 +1,60 @@
+package com.example.helloand;
+
+import org.andengine.entity.text.Text;
+import org.andengine.opengl.font.IFont;
+import org.andengine.opengl.vbo.DrawType;
+import org.andengine.opengl.vbo.VertexBufferObjectManager;
+
+/**
+ * ScoreText shows GameManager's current score. Its vertex buffer is sized
+ * once for the longest possible score, and the text is only rebuilt on
+ * the frames where the score actually changed, writing the digits into
+ * the same StringBuilder every time.
+ */
+public class ScoreText extends Text {
+
+    private static final String PREFIX = "Score: ";
+
+    // the prefix and any int, sign included
+    private static final int MAX_CHARACTERS = PREFIX.length() + 11;
+
+    private final StringBuilder mBuilder = new StringBuilder(MAX_CHARACTERS);
+    private final char[] mDigits = new char[10];
+    private int mShownScore;
+
+    public ScoreText(final float pX, final float pY, final IFont pFont,
+            final VertexBufferObjectManager pVertexBufferObjectManager) {
+        super(pX, pY, pFont, "", MAX_CHARACTERS, pVertexBufferObjectManager, DrawType.DYNAMIC);
+        showScore(GameManager.getInstance().getCurrentScore());
+    }
+
+    @Override
+    protected void onManagedUpdate(final float pSecondsElapsed) {
+        super.onManagedUpdate(pSecondsElapsed);
+        final int score = GameManager.getInstance().getCurrentScore();
+        if(score != mShownScore){
+            showScore(score);
+        }
+    }
+
+    // Write "Score: <pScore>" without going through Integer.toString
+    private void showScore(final int pScore){
+        mShownScore = pScore;
+        mBuilder.setLength(0);
+        mBuilder.append(PREFIX);
+        if(pScore < 0){
+            mBuilder.append('-');
+        }
+        // counting in negatives covers Integer.MIN_VALUE as well
+        int remaining = pScore < 0 ? pScore : -pScore;
+        int count = 0;
+        do {
+            mDigits[count++] = (char) ('0' - remaining % 10);
+            remaining /= 10;
+        } while(remaining != 0);
+        while(count > 0){
+            mBuilder.append(mDigits[--count]);
+        }
+        setText(mBuilder);
+    }
+}
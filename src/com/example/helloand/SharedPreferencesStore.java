@@ -0,0 +1,49 @@
+package com.example.helloand;
+
+import java.io.IOException;
+import java.util.Map;
+
+import android.content.SharedPreferences;
+
+/**
+ * The on-device PreferenceStore, writing through a SharedPreferences
+ * editor. write() commits synchronously, so it should only be called from
+ * a background thread.
+ */
+public class SharedPreferencesStore implements PreferenceStore {
+
+    private final SharedPreferences mSettings;
+
+    public SharedPreferencesStore(final SharedPreferences pSettings){
+        this.mSettings = pSettings;
+    }
+
+    @Override
+    public int getInt(final String pKey, final int pDefaultValue){
+        return mSettings.getInt(pKey, pDefaultValue);
+    }
+
+    @Override
+    public boolean getBoolean(final String pKey, final boolean pDefaultValue){
+        return mSettings.getBoolean(pKey, pDefaultValue);
+    }
+
+    @Override
+    public void write(final Map<String, Object> pValues) throws IOException {
+        final SharedPreferences.Editor editor = mSettings.edit();
+        for(final Map.Entry<String, Object> entry : pValues.entrySet()){
+            final Object value = entry.getValue();
+            if(value instanceof Integer){
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if(value instanceof Boolean){
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported value for " + entry.getKey() + ": " + value);
+            }
+        }
+        // all values of a batch are committed with a single disk write
+        if(!editor.commit()){
+            throw new IOException("Failed to commit preferences");
+        }
+    }
+}
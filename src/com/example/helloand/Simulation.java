@@ -0,0 +1,309 @@
+package com.example.helloand;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Simulation runs the game logic without an activity, GL or audio: a
+ * GameManager of its own and an EntityStore full of moving objects,
+ * advanced one fixed step at a time. Every random decision comes from a
+ * seeded Random, so two simulations created with the same seed and
+ * population produce the same game, step for step.
+ *
+ * Simulations share no state, so several of them may run in parallel on
+ * different threads, e.g. for soak tests (see tools/SimulationRunner).
+ *
+ * Given a viewport, a simulation culls like the game does: entities far
+ * from the viewport are moved less often or not at all, depending on the
+ * policies of its EntityCuller.
+ */
+public class Simulation {
+
+    // the same world and step length PacktRecipesActivity runs with
+    public static final int WORLD_WIDTH = 800;
+    public static final int WORLD_HEIGHT = 480;
+    public static final int STEPS_PER_SECOND = 60;
+
+    // points for destroying an entity
+    private static final int HIT_SCORE = 10;
+
+    // a bird this close to an enemy hits it
+    private static final int HIT_RADIUS = 4;
+
+    // the fastest an entity moves per step, in pixels
+    private static final int MAX_SPEED = 4;
+
+    // per step, one entity in TURN_CHANCE picks a new direction; a power of two
+    private static final int TURN_CHANCE = 64;
+
+    // points lost for every enemy that escapes the world
+    private static final int ESCAPE_PENALTY = 1;
+
+    private final long mSeed;
+    private final Random mRandom;
+    private final GameManager mGameManager = new GameManager();
+    private final EntityStore mEntities;
+    private final int mPopulation;
+
+    // broad phase for the bird/enemy hit tests
+    private final SpatialHashGrid mGrid = new SpatialHashGrid(WORLD_WIDTH, WORLD_HEIGHT, 2 * HIT_RADIUS);
+    private final HitDetector mHitDetector = new HitDetector();
+
+    // moves the entities, on as many threads as the stage has
+    private final ParallelUpdateStage mUpdateStage;
+    private final Mover mMover = new Mover();
+
+    // decides which entities are moved, null to move all of them
+    private EntityCuller mCuller;
+    private int mViewportXMin;
+    private int mViewportYMin;
+    private int mViewportXMax;
+    private int mViewportYMax;
+
+    // velocities indexed by entity handle
+    private int[] mVelocityX;
+    private int[] mVelocityY;
+
+    private long mStepCount;
+    private int mRoundCount;
+
+    // the scores of the rounds played to the end
+    private long mTotalScore;
+
+    public Simulation(final long pSeed, final int pPopulation){
+        this(pSeed, pPopulation, new ParallelUpdateStage(1));
+    }
+
+    /* A simulation moving its entities with the given stage. The stage's
+     * thread count does not change the outcome, only how fast it comes.
+     */
+    public Simulation(final long pSeed, final int pPopulation, final ParallelUpdateStage pUpdateStage){
+        mSeed = pSeed;
+        mUpdateStage = pUpdateStage;
+        mRandom = new Random(pSeed);
+        mPopulation = pPopulation;
+        mEntities = new EntityStore(pPopulation);
+        mVelocityX = new int[pPopulation];
+        mVelocityY = new int[pPopulation];
+        startRound();
+        spawn();
+    }
+
+    /* GameManager's initial counts are made for the game's handful of
+     * birds and enemies, which a population of hundreds uses up within a
+     * step. Each side starts a round with as many as there are entities
+     * instead, so a round lasts a while whatever the population.
+     */
+    private void startRound(){
+        mGameManager.restore(GameManager.INITIAL_SCORE, mPopulation, mPopulation);
+    }
+
+    /* Advance the game by one fixed step: move every entity, let birds
+     * that come close enough to an enemy hit it, apply the resulting game
+     * events, then replace whatever died so the population stays the same.
+     */
+    public void step(){
+        final EntityStore entities = mEntities;
+        final GameManager gameManager = mGameManager;
+
+        if(mCuller != null){
+            mCuller.update(mViewportXMin, mViewportYMin, mViewportXMax, mViewportYMax);
+        }
+        mUpdateStage.run(entities, mMover, gameManager);
+        mGrid.update(entities);
+        mGrid.queryPairs(HIT_RADIUS, mHitDetector);
+        entities.removeDead();
+
+        gameManager.drainEvents();
+        // a round ends once either side runs out, and the next one starts
+        if(gameManager.getEnemyCount() <= 0 || gameManager.getBirdCount() <= 0){
+            mTotalScore += gameManager.getCurrentScore();
+            startRound();
+            mRoundCount++;
+        }
+        spawn();
+        mStepCount++;
+    }
+
+    public void step(final int pSteps){
+        for(int i = 0; i < pSteps; i++){
+            step();
+        }
+    }
+
+    /* Cull against the given viewport from the next step on. The returned
+     * culler only culls drawing until its throttle and sleep policies are
+     * set. Entities count as points, as they do for hit tests.
+     */
+    public EntityCuller setViewport(final int pXMin, final int pYMin, final int pXMax, final int pYMax){
+        if(mCuller == null){
+            mCuller = new EntityCuller(mEntities);
+        }
+        mViewportXMin = pXMin;
+        mViewportYMin = pYMin;
+        mViewportXMax = pXMax;
+        mViewportYMax = pYMax;
+        return mCuller;
+    }
+
+    // null unless setViewport was called
+    public EntityCuller getCuller(){
+        return mCuller;
+    }
+
+    /* Replay the game manager's journal, if it has one, up to the last
+     * step and check that it arrives at the current counters.
+     */
+    public boolean isJournalConsistent() throws IOException {
+        final GameJournal journal = mGameManager.getJournal();
+        if(journal == null){
+            return true;
+        }
+        final GameManager replayed = new GameManager();
+        journal.replay(journal.getTick(), replayed);
+        return replayed.getCurrentScore() == mGameManager.getCurrentScore()
+                && replayed.getBirdCount() == mGameManager.getBirdCount()
+                && replayed.getEnemyCount() == mGameManager.getEnemyCount();
+    }
+
+    /* Restore a fresh game manager from the snapshot files pRestorer
+     * reads, as source pSourceId, and check that it arrives at the current
+     * counters. pRestorer is closed afterwards.
+     */
+    public boolean isSnapshotConsistent(final StateSnapshotter pRestorer, final int pSourceId) throws IOException {
+        final GameManager restored = new GameManager();
+        pRestorer.addSource(pSourceId, restored);
+        try {
+            pRestorer.restore();
+        } finally {
+            pRestorer.close();
+        }
+        return restored.getCurrentScore() == mGameManager.getCurrentScore()
+                && restored.getBirdCount() == mGameManager.getBirdCount()
+                && restored.getEnemyCount() == mGameManager.getEnemyCount();
+    }
+
+    public GameManager getGameManager(){
+        return mGameManager;
+    }
+
+    public EntityStore getEntities(){
+        return mEntities;
+    }
+
+    public long getStepCount(){
+        return mStepCount;
+    }
+
+    // rounds played to the end so far
+    public int getRoundCount(){
+        return mRoundCount;
+    }
+
+    // the score of every round so far, the current one included
+    public long getTotalScore(){
+        return mTotalScore + mGameManager.getCurrentScore();
+    }
+
+    /* A hash of the whole game state. Two runs with the same seed and
+     * population must report the same checksum after the same number of
+     * steps, otherwise something made the game nondeterministic.
+     */
+    public long getChecksum(){
+        final EntityStore entities = mEntities;
+        long checksum = mStepCount;
+        checksum = checksum * 31 + mRoundCount;
+        checksum = checksum * 31 + mGameManager.getCurrentScore();
+        checksum = checksum * 31 + mGameManager.getBirdCount();
+        checksum = checksum * 31 + mGameManager.getEnemyCount();
+        final int[] x = entities.getXColumn();
+        final int[] y = entities.getYColumn();
+        final int[] type = entities.getTypeColumn();
+        for(int i = 0, size = entities.size(); i < size; i++){
+            checksum = checksum * 31 + x[i];
+            checksum = checksum * 31 + y[i];
+            checksum = checksum * 31 + type[i];
+        }
+        return checksum;
+    }
+
+    // Top the population back up with new entities at random positions
+    private void spawn(){
+        final EntityStore entities = mEntities;
+        final Random random = mRandom;
+        while(entities.size() < mPopulation){
+            final int type = random.nextBoolean() ? EntityStore.TYPE_LARGE_OBJECT : EntityStore.TYPE_SMALL_OBJECT;
+            final int handle = entities.add(type, random.nextInt(WORLD_WIDTH), random.nextInt(WORLD_HEIGHT));
+            if(handle >= mVelocityX.length){
+                mVelocityX = copyOf(mVelocityX, handle * 2 + 1);
+                mVelocityY = copyOf(mVelocityY, handle * 2 + 1);
+            }
+            mVelocityX[handle] = random.nextInt(2 * MAX_SPEED + 1) - MAX_SPEED;
+            mVelocityY[handle] = random.nextInt(2 * MAX_SPEED + 1) - MAX_SPEED;
+        }
+    }
+
+    /* Moves one entity, now and then in a new direction. Runs on the update
+     * stage's threads, so it only touches its own entity and draws its
+     * random numbers per entity and step.
+     */
+    private class Mover implements ParallelUpdateStage.EntityUpdate {
+        @Override
+        public void onUpdate(final EntityStore pEntities, final int pIndex, final ParallelUpdateStage.EffectBuffer pEffects){
+            final EntityCuller culler = mCuller;
+            if(culler != null && !culler.shouldUpdate(pIndex)){
+                return;
+            }
+            // a throttled entity makes up for the steps it skipped
+            final int steps = culler != null && culler.getState(pIndex) == EntityCuller.STATE_THROTTLED
+                    ? culler.getThrottleInterval() : 1;
+            final int handle = pEntities.getHandleAt(pIndex);
+            final int[] velocityX = mVelocityX;
+            final int[] velocityY = mVelocityY;
+            final long random = ParallelUpdateStage.random(mSeed, handle, mStepCount, 0);
+            if((random & (TURN_CHANCE - 1)) == 0){
+                velocityX[handle] = (int) ((random >>> 8) % (2 * MAX_SPEED + 1)) - MAX_SPEED;
+                velocityY[handle] = (int) ((random >>> 24) % (2 * MAX_SPEED + 1)) - MAX_SPEED;
+            }
+            final int[] x = pEntities.getXColumn();
+            final int[] y = pEntities.getYColumn();
+            x[pIndex] += velocityX[handle] * steps;
+            y[pIndex] += velocityY[handle] * steps;
+            if(x[pIndex] < 0 || x[pIndex] >= WORLD_WIDTH || y[pIndex] < 0 || y[pIndex] >= WORLD_HEIGHT){
+                // left the world without hitting anything
+                pEntities.getAliveColumn()[pIndex] = false;
+                if(pEntities.getTypeColumn()[pIndex] == EntityStore.TYPE_LARGE_OBJECT){
+                    pEffects.queueScore(-ESCAPE_PENALTY);
+                }
+            }
+        }
+    }
+
+    /* Called for every pair of entities within HIT_RADIUS. A bird and an
+     * enemy which are both still alive destroy each other.
+     */
+    private class HitDetector implements SpatialHashGrid.PairVisitor {
+        @Override
+        public void onPair(final int pHandleA, final int pHandleB){
+            final EntityStore entities = mEntities;
+            final int a = entities.indexOf(pHandleA);
+            final int b = entities.indexOf(pHandleB);
+            final int[] type = entities.getTypeColumn();
+            final boolean[] alive = entities.getAliveColumn();
+            if(type[a] == type[b] || !alive[a] || !alive[b]){
+                return;
+            }
+            alive[a] = false;
+            alive[b] = false;
+            mGameManager.queueScore(HIT_SCORE);
+            mGameManager.queueEnemyCountDecrement();
+            mGameManager.queueBirdCountDecrement();
+        }
+    }
+
+    private static int[] copyOf(final int[] pArray, final int pLength){
+        final int[] copy = new int[pLength];
+        System.arraycopy(pArray, 0, copy, 0, pArray.length);
+        return copy;
+    }
+}
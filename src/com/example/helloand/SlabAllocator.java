@@ -0,0 +1,221 @@
+package com.example.helloand;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SlabAllocator hands out blocks of native memory carved from a few large
+ * direct ByteBuffers, the slabs. Direct buffers are expensive to allocate
+ * and are only freed once the garbage collector gets around to them, so
+ * vertex data that comes and goes, like the batches of streamed level
+ * chunks, should not allocate one each.
+ *
+ * Block sizes are rounded up to a power of two, from MIN_BLOCK_BYTES up to
+ * the slab size. A freed block goes onto the free list of its size and is
+ * handed out again before any new memory is carved; blocks larger than a
+ * slab get a slab of their own, which is dropped again once freed. The
+ * blocks are in native byte order, ready to be uploaded with GLES20.
+ *
+ * Utilization is the share of the slabs holding requested bytes. What is
+ * lost goes to internal fragmentation (rounding up to a power of two) or
+ * to external fragmentation (freed blocks waiting on a free list).
+ */
+public class SlabAllocator implements Profiler.MetricsSource {
+
+    public static final int MIN_BLOCK_BYTES = 1024;
+
+    // A block of a slab. getBuffer() covers exactly the requested bytes
+    public static final class Block {
+        private final ByteBuffer mSlab;
+        private final int mOffset;
+        private final int mSizeClass;
+        private ByteBuffer mBuffer;
+        private int mRequestedBytes;
+        private boolean mFree;
+
+        Block(final ByteBuffer pSlab, final int pOffset, final int pSizeClass){
+            this.mSlab = pSlab;
+            this.mOffset = pOffset;
+            this.mSizeClass = pSizeClass;
+        }
+
+        public ByteBuffer getBuffer(){
+            return mBuffer;
+        }
+
+        public int getRequestedBytes(){
+            return mRequestedBytes;
+        }
+    }
+
+    private final String mName;
+    private final int mSlabBytes;
+
+    // the slab blocks are carved from, and how much of it is used up
+    private ByteBuffer mCurrentSlab;
+    private int mCurrentSlabOffset;
+
+    // freed blocks by size class, log2 of their size
+    private final List<List<Block>> mFreeLists = new ArrayList<List<Block>>();
+
+    private int mSlabCount;
+    private long mReservedBytes;
+    private long mBlockBytes;
+    private long mRequestedBytes;
+    private long mFreeListBytes;
+    private long mAllocationCount;
+    private long mReuseCount;
+
+    // pSlabBytes is rounded up to a power of two
+    public SlabAllocator(final String pName, final int pSlabBytes){
+        this.mName = pName;
+        this.mSlabBytes = 1 << sizeClassOf(Math.max(pSlabBytes, MIN_BLOCK_BYTES));
+        for(int i = 0; i <= sizeClassOf(this.mSlabBytes); i++){
+            mFreeLists.add(new ArrayList<Block>());
+        }
+    }
+
+    public synchronized Block allocate(final int pBytes){
+        if(pBytes <= 0){
+            throw new IllegalArgumentException("Invalid block size " + pBytes);
+        }
+        mAllocationCount++;
+        final Block block;
+        if(pBytes > mSlabBytes){
+            block = new Block(newSlab(pBytes), 0, -1);
+        } else {
+            final int sizeClass = sizeClassOf(Math.max(pBytes, MIN_BLOCK_BYTES));
+            final List<Block> freeList = mFreeLists.get(sizeClass);
+            if(!freeList.isEmpty()){
+                block = freeList.remove(freeList.size() - 1);
+                mFreeListBytes -= 1 << sizeClass;
+                mReuseCount++;
+            } else {
+                block = carve(sizeClass);
+            }
+        }
+        block.mFree = false;
+        block.mRequestedBytes = pBytes;
+        block.mBuffer = slice(block.mSlab, block.mOffset, pBytes);
+        mBlockBytes += getBlockBytes(block);
+        mRequestedBytes += pBytes;
+        return block;
+    }
+
+    /* The block goes back onto its free list, and its buffer must not be
+     * used anymore: the next allocation of that size gets its memory.
+     */
+    public synchronized void free(final Block pBlock){
+        if(pBlock.mFree){
+            throw new IllegalStateException("Block already freed");
+        }
+        pBlock.mFree = true;
+        pBlock.mBuffer = null;
+        mBlockBytes -= getBlockBytes(pBlock);
+        mRequestedBytes -= pBlock.mRequestedBytes;
+        if(pBlock.mSizeClass < 0){
+            mSlabCount--;
+            mReservedBytes -= pBlock.mSlab.capacity();
+        } else {
+            mFreeLists.get(pBlock.mSizeClass).add(pBlock);
+            mFreeListBytes += 1 << pBlock.mSizeClass;
+        }
+    }
+
+    private Block carve(final int pSizeClass){
+        final int bytes = 1 << pSizeClass;
+        if(mCurrentSlab == null || mCurrentSlabOffset + bytes > mSlabBytes){
+            // what is left of the current slab is too small, hand it out as smaller free blocks
+            if(mCurrentSlab != null){
+                retireRemainder();
+            }
+            mCurrentSlab = newSlab(mSlabBytes);
+            mCurrentSlabOffset = 0;
+        }
+        final Block block = new Block(mCurrentSlab, mCurrentSlabOffset, pSizeClass);
+        mCurrentSlabOffset += bytes;
+        return block;
+    }
+
+    /* Splits the unused end of the current slab into free blocks, largest
+     * first. Every block is a multiple of MIN_BLOCK_BYTES, so nothing is
+     * left over.
+     */
+    private void retireRemainder(){
+        int remaining = mSlabBytes - mCurrentSlabOffset;
+        for(int sizeClass = sizeClassOf(mSlabBytes); remaining >= MIN_BLOCK_BYTES; sizeClass--){
+            final int bytes = 1 << sizeClass;
+            if(bytes <= remaining){
+                final Block block = new Block(mCurrentSlab, mCurrentSlabOffset, sizeClass);
+                block.mFree = true;
+                mFreeLists.get(sizeClass).add(block);
+                mFreeListBytes += bytes;
+                mCurrentSlabOffset += bytes;
+                remaining -= bytes;
+            }
+        }
+    }
+
+    private ByteBuffer newSlab(final int pBytes){
+        mSlabCount++;
+        mReservedBytes += pBytes;
+        return ByteBuffer.allocateDirect(pBytes).order(ByteOrder.nativeOrder());
+    }
+
+    private static ByteBuffer slice(final ByteBuffer pSlab, final int pOffset, final int pBytes){
+        final ByteBuffer view = pSlab.duplicate();
+        view.limit(pOffset + pBytes);
+        view.position(pOffset);
+        // slices are big-endian whatever the slab is
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static int getBlockBytes(final Block pBlock){
+        return pBlock.mSizeClass < 0 ? pBlock.mSlab.capacity() : 1 << pBlock.mSizeClass;
+    }
+
+    // log2 of the smallest power of two holding pBytes
+    private static int sizeClassOf(final int pBytes){
+        return 32 - Integer.numberOfLeadingZeros(pBytes - 1);
+    }
+
+    public synchronized int getSlabCount(){
+        return mSlabCount;
+    }
+
+    public synchronized long getReservedBytes(){
+        return mReservedBytes;
+    }
+
+    public synchronized long getRequestedBytes(){
+        return mRequestedBytes;
+    }
+
+    // the share of the reserved memory holding requested bytes
+    public synchronized float getUtilization(){
+        return mReservedBytes == 0 ? 0 : (float) mRequestedBytes / mReservedBytes;
+    }
+
+    // the share of the blocks in use lost to rounding up their size
+    public synchronized float getInternalFragmentation(){
+        return mBlockBytes == 0 ? 0 : (float) (mBlockBytes - mRequestedBytes) / mBlockBytes;
+    }
+
+    // the share of the reserved memory sitting on free lists
+    public synchronized float getExternalFragmentation(){
+        return mReservedBytes == 0 ? 0 : (float) mFreeListBytes / mReservedBytes;
+    }
+
+    @Override
+    public synchronized void onReport(final PrintWriter pOut){
+        pOut.println(mName + " slabs: " + mSlabCount + ", " + mReservedBytes / 1024 + " KB reserved, "
+                + mRequestedBytes / 1024 + " KB in use (" + Math.round(getUtilization() * 100) + "%), "
+                + mFreeListBytes / 1024 + " KB free listed");
+        pOut.println(mName + " fragmentation: internal " + Math.round(getInternalFragmentation() * 100)
+                + "%, external " + Math.round(getExternalFragmentation() * 100) + "%; " + mAllocationCount
+                + " allocations, " + mReuseCount + " reused");
+    }
+}
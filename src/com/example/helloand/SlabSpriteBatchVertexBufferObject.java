@@ -0,0 +1,161 @@
+package com.example.helloand;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.andengine.entity.sprite.batch.SpriteBatch;
+import org.andengine.entity.sprite.batch.vbo.ISpriteBatchVertexBufferObject;
+import org.andengine.opengl.texture.region.ITextureRegion;
+import org.andengine.opengl.vbo.DrawType;
+import org.andengine.opengl.vbo.VertexBufferObjectManager;
+import org.andengine.opengl.vbo.ZeroMemoryVertexBufferObject;
+
+/**
+ * SlabSpriteBatchVertexBufferObject keeps a sprite batch's vertices in a
+ * block of a SlabAllocator. The default HighPerformance buffer writes
+ * quads into a float[] and copies all of it into a native buffer before
+ * every upload; here quads are written straight into native memory, and
+ * an upload hands GL only the part of the block the last batch filled.
+ *
+ * The quads are laid out like LowMemorySpriteBatchVertexBufferObject lays
+ * them out, two triangles of VERTEX_SIZE floats per vertex. The block goes
+ * back to the allocator when the buffer is disposed.
+ */
+public class SlabSpriteBatchVertexBufferObject extends ZeroMemoryVertexBufferObject
+        implements ISpriteBatchVertexBufferObject {
+
+    private static final int VERTEX_SIZE = SpriteBatch.VERTEX_SIZE;
+    private static final int X = SpriteBatch.VERTEX_INDEX_X;
+    private static final int Y = SpriteBatch.VERTEX_INDEX_Y;
+    private static final int COLOR = SpriteBatch.COLOR_INDEX;
+    private static final int U = SpriteBatch.TEXTURECOORDINATES_INDEX_U;
+    private static final int V = SpriteBatch.TEXTURECOORDINATES_INDEX_V;
+
+    private final SlabAllocator mAllocator;
+    private final SlabAllocator.Block mBlock;
+    private final FloatBuffer mFloatBuffer;
+
+    private int mBufferDataOffset;
+
+    // the floats written by the last batch, which is what gets uploaded
+    private int mSubmittedFloats;
+
+    // pCapacity is in floats, like for the other sprite batch buffers
+    public SlabSpriteBatchVertexBufferObject(final SlabAllocator pAllocator,
+            final VertexBufferObjectManager pVertexBufferObjectManager, final int pCapacity, final DrawType pDrawType) {
+        super(pVertexBufferObjectManager, pCapacity, pDrawType, true, SpriteBatch.VERTEXBUFFEROBJECTATTRIBUTES_DEFAULT);
+        this.mAllocator = pAllocator;
+        this.mBlock = pAllocator.allocate(getByteCapacity());
+        this.mFloatBuffer = mBlock.getBuffer().asFloatBuffer();
+    }
+
+    @Override
+    public int getBufferDataOffset() {
+        return mBufferDataOffset;
+    }
+
+    /* SpriteBatch rewinds the offset to 0 once a batch is submitted, so
+     * the offset it had then is how much the batch wrote.
+     */
+    @Override
+    public void setBufferDataOffset(final int pBufferDataOffset) {
+        if(pBufferDataOffset == 0 && mBufferDataOffset > 0){
+            mSubmittedFloats = mBufferDataOffset;
+        }
+        mBufferDataOffset = pBufferDataOffset;
+    }
+
+    @Override
+    public int getNativeHeapMemoryByteSize() {
+        return getByteCapacity();
+    }
+
+    // The vertices are already in place, nothing to copy
+    @Override
+    protected void onPopulateBufferData(final ByteBuffer pByteBuffer) {
+    }
+
+    @Override
+    protected ByteBuffer aquireByteBuffer() {
+        final ByteBuffer buffer = mBlock.getBuffer().duplicate();
+        buffer.position(0);
+        buffer.limit(mSubmittedFloats * 4);
+        return buffer;
+    }
+
+    // The block is ours until disposed, so there is nothing to release
+    @Override
+    protected void releaseByteBuffer(final ByteBuffer pByteBuffer) {
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        mAllocator.free(mBlock);
+    }
+
+    @Override
+    public void addWithPackedColor(final ITextureRegion pTextureRegion, final float pX1, final float pY1,
+            final float pX2, final float pY2, final float pColorABGRPackedInt) {
+        final FloatBuffer buffer = mFloatBuffer;
+        final int offset = mBufferDataOffset;
+        final float u = pTextureRegion.getU();
+        final float v = pTextureRegion.getV();
+        final float u2 = pTextureRegion.getU2();
+        final float v2 = pTextureRegion.getV2();
+        if(pTextureRegion.isRotated()){
+            putVertex(buffer, offset, 0, pX1, pY1, pColorABGRPackedInt, u2, v);
+            putVertex(buffer, offset, 1, pX1, pY2, pColorABGRPackedInt, u, v);
+            putVertex(buffer, offset, 2, pX2, pY1, pColorABGRPackedInt, u2, v2);
+            putVertex(buffer, offset, 3, pX2, pY1, pColorABGRPackedInt, u2, v2);
+            putVertex(buffer, offset, 4, pX1, pY2, pColorABGRPackedInt, u, v);
+            putVertex(buffer, offset, 5, pX2, pY2, pColorABGRPackedInt, u, v2);
+        } else {
+            putVertex(buffer, offset, 0, pX1, pY1, pColorABGRPackedInt, u, v);
+            putVertex(buffer, offset, 1, pX1, pY2, pColorABGRPackedInt, u, v2);
+            putVertex(buffer, offset, 2, pX2, pY1, pColorABGRPackedInt, u2, v);
+            putVertex(buffer, offset, 3, pX2, pY1, pColorABGRPackedInt, u2, v);
+            putVertex(buffer, offset, 4, pX1, pY2, pColorABGRPackedInt, u, v2);
+            putVertex(buffer, offset, 5, pX2, pY2, pColorABGRPackedInt, u2, v2);
+        }
+        mBufferDataOffset += SpriteBatch.SPRITE_SIZE;
+    }
+
+    @Override
+    public void addWithPackedColor(final ITextureRegion pTextureRegion, final float pX1, final float pY1,
+            final float pX2, final float pY2, final float pX3, final float pY3, final float pX4, final float pY4,
+            final float pColorABGRPackedInt) {
+        final FloatBuffer buffer = mFloatBuffer;
+        final int offset = mBufferDataOffset;
+        final float u = pTextureRegion.getU();
+        final float v = pTextureRegion.getV();
+        final float u2 = pTextureRegion.getU2();
+        final float v2 = pTextureRegion.getV2();
+        if(pTextureRegion.isRotated()){
+            putVertex(buffer, offset, 0, pX1, pY1, pColorABGRPackedInt, u2, v);
+            putVertex(buffer, offset, 1, pX2, pY2, pColorABGRPackedInt, u, v);
+            putVertex(buffer, offset, 2, pX3, pY3, pColorABGRPackedInt, u2, v2);
+            putVertex(buffer, offset, 3, pX3, pY3, pColorABGRPackedInt, u2, v2);
+            putVertex(buffer, offset, 4, pX2, pY2, pColorABGRPackedInt, u, v);
+            putVertex(buffer, offset, 5, pX4, pY4, pColorABGRPackedInt, u, v2);
+        } else {
+            putVertex(buffer, offset, 0, pX1, pY1, pColorABGRPackedInt, u, v);
+            putVertex(buffer, offset, 1, pX2, pY2, pColorABGRPackedInt, u, v2);
+            putVertex(buffer, offset, 2, pX3, pY3, pColorABGRPackedInt, u2, v);
+            putVertex(buffer, offset, 3, pX3, pY3, pColorABGRPackedInt, u2, v);
+            putVertex(buffer, offset, 4, pX2, pY2, pColorABGRPackedInt, u, v2);
+            putVertex(buffer, offset, 5, pX4, pY4, pColorABGRPackedInt, u2, v2);
+        }
+        mBufferDataOffset += SpriteBatch.SPRITE_SIZE;
+    }
+
+    private static void putVertex(final FloatBuffer pBuffer, final int pOffset, final int pVertex, final float pX,
+            final float pY, final float pColor, final float pU, final float pV) {
+        final int index = pOffset + pVertex * VERTEX_SIZE;
+        pBuffer.put(index + X, pX);
+        pBuffer.put(index + Y, pY);
+        pBuffer.put(index + COLOR, pColor);
+        pBuffer.put(index + U, pU);
+        pBuffer.put(index + V, pV);
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.helloand;
+
+import java.io.IOException;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.media.AudioManager;
+import android.media.SoundPool;
+
+/**
+ * SoundEffectPool plays short sound effects with a bounded number of
+ * voices per effect. Effects are decoded to PCM once when they are loaded
+ * (SoundPool does this on its own thread), so playing one never touches
+ * the disk or the decoder.
+ *
+ * Every effect may play at most its own number of voices at once. When a
+ * new play request finds all of an effect's voices busy, the voice with
+ * the lowest priority is stolen, the oldest one among equals, unless every
+ * voice has a higher priority than the request, in which case the request
+ * is dropped. A voice counts as busy until the effect's duration has
+ * passed or it is stolen.
+ *
+ * Pausing and resuming the game only pauses and resumes the streams, so
+ * nothing has to be decoded or created again.
+ */
+public class SoundEffectPool {
+
+    // the number of voices the whole pool may play at once
+    public static final int DEFAULT_MAX_STREAMS = 16;
+
+    // returned by play when no voice was started
+    public static final int NO_STREAM = 0;
+
+    private final SoundPool mSoundPool;
+    private Effect[] mEffects = new Effect[0];
+    private int mEffectCount;
+
+    // statistics, guarded by this
+    private long mPlayCount;
+    private long mStolenCount;
+    private long mDroppedCount;
+
+    public SoundEffectPool(final int pMaxStreams){
+        mSoundPool = new SoundPool(pMaxStreams, AudioManager.STREAM_MUSIC, 0);
+        mSoundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(final SoundPool pSoundPool, final int pSoundId, final int pStatus) {
+                onLoaded(pSoundId, pStatus == 0);
+            }
+        });
+    }
+
+    /* Start decoding an effect and return its id for play(). Playing it
+     * before decoding has finished does nothing. pDurationMillis is how long
+     * the effect plays, after which its voice is free again.
+     */
+    public synchronized int load(final AssetManager pAssetManager, final String pAssetPath, final int pMaxVoices,
+            final long pDurationMillis) throws IOException {
+        if(pMaxVoices < 1){
+            throw new IllegalArgumentException("pMaxVoices must be >= 1");
+        }
+        final AssetFileDescriptor descriptor = pAssetManager.openFd(pAssetPath);
+        final int soundId;
+        try {
+            soundId = mSoundPool.load(descriptor, 1);
+        } finally {
+            descriptor.close();
+        }
+        if(mEffectCount == mEffects.length){
+            final Effect[] effects = new Effect[mEffectCount * 2 + 1];
+            System.arraycopy(mEffects, 0, effects, 0, mEffectCount);
+            mEffects = effects;
+        }
+        mEffects[mEffectCount] = new Effect(soundId, pMaxVoices, pDurationMillis * 1000000L);
+        return mEffectCount++;
+    }
+
+    public synchronized boolean isLoaded(final int pEffect){
+        return mEffects[pEffect].mLoaded;
+    }
+
+    /* Play an effect, stealing one of its voices if they are all busy.
+     * Returns the SoundPool stream id, or NO_STREAM if the effect is not
+     * loaded yet or every voice is playing something more important.
+     */
+    public synchronized int play(final int pEffect, final int pPriority, final float pVolume){
+        final Effect effect = mEffects[pEffect];
+        if(!effect.mLoaded){
+            return NO_STREAM;
+        }
+        final long now = System.nanoTime();
+        int voice = -1;
+        for(int i = 0; i < effect.mStreams.length; i++){
+            if(effect.mStreams[i] == NO_STREAM || now - effect.mStartTimes[i] >= effect.mDurationNanos){
+                // a free voice, or one which has finished playing
+                voice = i;
+                break;
+            }
+            if(voice < 0 || effect.mPriorities[i] < effect.mPriorities[voice]
+                    || (effect.mPriorities[i] == effect.mPriorities[voice] && effect.mStartTimes[i] < effect.mStartTimes[voice])){
+                voice = i;
+            }
+        }
+        if(effect.mStreams[voice] != NO_STREAM && now - effect.mStartTimes[voice] < effect.mDurationNanos){
+            if(effect.mPriorities[voice] > pPriority){
+                mDroppedCount++;
+                return NO_STREAM;
+            }
+            mSoundPool.stop(effect.mStreams[voice]);
+            mStolenCount++;
+        }
+        final int stream = mSoundPool.play(effect.mSoundId, pVolume, pVolume, pPriority, 0, 1f);
+        effect.mStreams[voice] = stream;
+        effect.mPriorities[voice] = pPriority;
+        effect.mStartTimes[voice] = now;
+        if(stream != NO_STREAM){
+            mPlayCount++;
+        }
+        return stream;
+    }
+
+    // Stop every voice of an effect
+    public synchronized void stop(final int pEffect){
+        final Effect effect = mEffects[pEffect];
+        for(int i = 0; i < effect.mStreams.length; i++){
+            if(effect.mStreams[i] != NO_STREAM){
+                mSoundPool.stop(effect.mStreams[i]);
+                effect.mStreams[i] = NO_STREAM;
+            }
+        }
+    }
+
+    // Pause every playing voice, e.g. in onPauseGame
+    public void pause(){
+        mSoundPool.autoPause();
+    }
+
+    // Resume the voices paused by pause()
+    public void resume(){
+        mSoundPool.autoResume();
+    }
+
+    // Free the decoded effects; the pool cannot be used afterwards
+    public synchronized void release(){
+        mSoundPool.release();
+        mEffectCount = 0;
+        mEffects = new Effect[0];
+    }
+
+    public synchronized long getPlayCount(){
+        return mPlayCount;
+    }
+
+    // plays that stopped a busy voice to make room
+    public synchronized long getStolenCount(){
+        return mStolenCount;
+    }
+
+    // plays skipped because every voice was more important
+    public synchronized long getDroppedCount(){
+        return mDroppedCount;
+    }
+
+    // Called on SoundPool's thread once an effect has been decoded
+    private synchronized void onLoaded(final int pSoundId, final boolean pSucceeded){
+        for(int i = 0; i < mEffectCount; i++){
+            if(mEffects[i].mSoundId == pSoundId){
+                mEffects[i].mLoaded = pSucceeded;
+            }
+        }
+    }
+
+    private static class Effect {
+        final int mSoundId;
+        final long mDurationNanos;
+        boolean mLoaded;
+
+        // one entry per voice
+        final int[] mStreams;
+        final int[] mPriorities;
+        final long[] mStartTimes;
+
+        Effect(final int pSoundId, final int pMaxVoices, final long pDurationNanos){
+            this.mSoundId = pSoundId;
+            this.mDurationNanos = pDurationNanos;
+            this.mStreams = new int[pMaxVoices];
+            this.mPriorities = new int[pMaxVoices];
+            this.mStartTimes = new long[pMaxVoices];
+        }
+    }
+}
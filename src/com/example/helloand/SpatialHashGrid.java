@@ -0,0 +1,374 @@
+package com.example.helloand;
+
+/**
+ * SpatialHashGrid is the broad phase of our collision detection. The world
+ * is divided into a uniform grid of square cells and every object is
+ * filed under the cell its x/y position falls into, so a query only looks
+ * at the objects in the few cells it overlaps instead of at every object.
+ *
+ * Objects are identified by their EntityStore handle. Each cell is an
+ * intrusive doubly linked list threaded through int arrays indexed by
+ * handle, so inserting, moving and removing an object is O(1) and nothing
+ * is boxed or allocated once the arrays are large enough. Moving an object
+ * only relinks it when it actually changes cells.
+ *
+ * Positions outside the world are filed under the nearest edge cell, so
+ * they are still found, just less efficiently. The grid is not thread
+ * safe; it belongs to the update thread like the EntityStore it mirrors.
+ */
+public class SpatialHashGrid {
+
+    /* A cell size suiting the sprites of our 800x480 camera. Queries are
+     * fastest with cells about one to two times the query radius: larger
+     * cells make every query test objects that are too far away.
+     */
+    public static final int DEFAULT_CELL_SIZE = 32;
+
+    // value of mCell and list links for handles not in the grid
+    private static final int NONE = -1;
+
+    private final int mCellSize;
+    private final int mColumns;
+    private final int mRows;
+
+    // first handle of every cell's list
+    private final int[] mCellHeads;
+
+    // per handle: position, cell and the list links
+    private int[] mX;
+    private int[] mY;
+    private int[] mCell;
+    private int[] mNext;
+    private int[] mPrevious;
+
+    // per handle: the update() pass that last saw it
+    private int[] mSeen;
+    private int mPass;
+
+    private int mSize;
+
+    public SpatialHashGrid(final int pWorldWidth, final int pWorldHeight){
+        this(pWorldWidth, pWorldHeight, DEFAULT_CELL_SIZE);
+    }
+
+    public SpatialHashGrid(final int pWorldWidth, final int pWorldHeight, final int pCellSize){
+        if(pCellSize <= 0){
+            throw new IllegalArgumentException("pCellSize must be > 0");
+        }
+        mCellSize = pCellSize;
+        mColumns = Math.max(1, (pWorldWidth + pCellSize - 1) / pCellSize);
+        mRows = Math.max(1, (pWorldHeight + pCellSize - 1) / pCellSize);
+        mCellHeads = new int[mColumns * mRows];
+        for(int i = 0; i < mCellHeads.length; i++){
+            mCellHeads[i] = NONE;
+        }
+        mX = new int[0];
+        mY = new int[0];
+        mCell = new int[0];
+        mNext = new int[0];
+        mPrevious = new int[0];
+        mSeen = new int[0];
+    }
+
+    public int getCellSize(){
+        return mCellSize;
+    }
+
+    // the number of objects in the grid
+    public int size(){
+        return mSize;
+    }
+
+    public boolean contains(final int pHandle){
+        return pHandle >= 0 && pHandle < mCell.length && mCell[pHandle] != NONE;
+    }
+
+    public int getX(final int pHandle){
+        return mX[pHandle];
+    }
+
+    public int getY(final int pHandle){
+        return mY[pHandle];
+    }
+
+    public void insert(final int pHandle, final int pX, final int pY){
+        if(contains(pHandle)){
+            throw new IllegalArgumentException("Handle already in the grid: " + pHandle);
+        }
+        if(pHandle >= mCell.length){
+            grow(pHandle + 1);
+        }
+        mX[pHandle] = pX;
+        mY[pHandle] = pY;
+        link(pHandle, cellOf(pX, pY));
+        mSize++;
+    }
+
+    // Update an object's position, relinking it only if it changed cells
+    public void move(final int pHandle, final int pX, final int pY){
+        if(!contains(pHandle)){
+            throw new IllegalArgumentException("Unknown handle: " + pHandle);
+        }
+        mX[pHandle] = pX;
+        mY[pHandle] = pY;
+        final int cell = cellOf(pX, pY);
+        if(cell != mCell[pHandle]){
+            unlink(pHandle);
+            link(pHandle, cell);
+        }
+    }
+
+    public void remove(final int pHandle){
+        if(!contains(pHandle)){
+            throw new IllegalArgumentException("Unknown handle: " + pHandle);
+        }
+        unlink(pHandle);
+        mCell[pHandle] = NONE;
+        mSize--;
+    }
+
+    public void clear(){
+        for(int i = 0; i < mCellHeads.length; i++){
+            mCellHeads[i] = NONE;
+        }
+        for(int i = 0; i < mCell.length; i++){
+            mCell[i] = NONE;
+        }
+        mSize = 0;
+    }
+
+    /* Bring the grid in line with the live entities of a store: new
+     * entities are inserted, moved ones relinked if needed, and handles
+     * that are gone or dead are removed. Call once per step after the
+     * entities have moved.
+     */
+    public void update(final EntityStore pEntities){
+        final int pass = ++mPass;
+        final int[] x = pEntities.getXColumn();
+        final int[] y = pEntities.getYColumn();
+        final boolean[] alive = pEntities.getAliveColumn();
+        for(int i = 0, size = pEntities.size(); i < size; i++){
+            if(!alive[i]){
+                continue;
+            }
+            final int handle = pEntities.getHandleAt(i);
+            if(contains(handle)){
+                move(handle, x[i], y[i]);
+            } else {
+                insert(handle, x[i], y[i]);
+            }
+            mSeen[handle] = pass;
+        }
+        final int[] cells = mCell;
+        final int[] seen = mSeen;
+        for(int handle = 0; handle < cells.length; handle++){
+            if(cells[handle] != NONE && seen[handle] != pass){
+                remove(handle);
+            }
+        }
+    }
+
+    // Visit every object inside the rectangle, edges included
+    public void queryRange(final int pLeft, final int pTop, final int pRight, final int pBottom, final Visitor pVisitor){
+        final int firstColumn = columnOf(pLeft);
+        final int lastColumn = columnOf(pRight);
+        final int firstRow = rowOf(pTop);
+        final int lastRow = rowOf(pBottom);
+        final int[] x = mX;
+        final int[] y = mY;
+        final int[] next = mNext;
+        for(int row = firstRow; row <= lastRow; row++){
+            for(int column = firstColumn; column <= lastColumn; column++){
+                for(int handle = mCellHeads[row * mColumns + column]; handle != NONE; handle = next[handle]){
+                    if(x[handle] >= pLeft && x[handle] <= pRight && y[handle] >= pTop && y[handle] <= pBottom){
+                        pVisitor.onVisit(handle);
+                    }
+                }
+            }
+        }
+    }
+
+    // Visit every object within pRadius of the point
+    public void queryRadius(final int pX, final int pY, final int pRadius, final Visitor pVisitor){
+        final long radiusSquared = (long) pRadius * pRadius;
+        final int firstColumn = columnOf(pX - pRadius);
+        final int lastColumn = columnOf(pX + pRadius);
+        final int firstRow = rowOf(pY - pRadius);
+        final int lastRow = rowOf(pY + pRadius);
+        final int[] next = mNext;
+        for(int row = firstRow; row <= lastRow; row++){
+            for(int column = firstColumn; column <= lastColumn; column++){
+                for(int handle = mCellHeads[row * mColumns + column]; handle != NONE; handle = next[handle]){
+                    if(distanceSquared(handle, pX, pY) <= radiusSquared){
+                        pVisitor.onVisit(handle);
+                    }
+                }
+            }
+        }
+    }
+
+    /* The handle of the object nearest to the point, or -1 if there is none
+     * within pMaxDistance. Cells are searched in growing rings around the
+     * point until no unsearched cell can hold anything closer.
+     */
+    public int queryNearest(final int pX, final int pY, final int pMaxDistance){
+        final int column = columnOf(pX);
+        final int row = rowOf(pY);
+        final int maxRing = Math.max(mColumns, mRows);
+        final int[] next = mNext;
+        int nearest = NONE;
+        long nearestDistanceSquared = (long) pMaxDistance * pMaxDistance;
+        for(int ring = 0; ring <= maxRing; ring++){
+            // everything in this ring and beyond is at least this far away
+            final long ringDistance = Math.max(0, (long) (ring - 1) * mCellSize);
+            if(ringDistance * ringDistance > nearestDistanceSquared){
+                break;
+            }
+            for(int r = row - ring; r <= row + ring; r++){
+                if(r < 0 || r >= mRows){
+                    continue;
+                }
+                // inner rows only have the two cells at the ring's edges
+                final int step = (r == row - ring || r == row + ring) ? 1 : Math.max(1, 2 * ring);
+                for(int c = column - ring; c <= column + ring; c += step){
+                    if(c < 0 || c >= mColumns){
+                        continue;
+                    }
+                    for(int handle = mCellHeads[r * mColumns + c]; handle != NONE; handle = next[handle]){
+                        final long distanceSquared = distanceSquared(handle, pX, pY);
+                        if(distanceSquared <= nearestDistanceSquared
+                                && (nearest == NONE || distanceSquared < nearestDistanceSquared || handle < nearest)){
+                            nearest = handle;
+                            nearestDistanceSquared = distanceSquared;
+                        }
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /* Visit every pair of objects within pRadius of each other, each pair
+     * exactly once. Every cell is paired with itself and with the cells
+     * ahead of it, so the work grows with the number of objects times their
+     * local density rather than with the square of the number of objects.
+     */
+    public void queryPairs(final int pRadius, final PairVisitor pVisitor){
+        final long radiusSquared = (long) pRadius * pRadius;
+        final int reach = (pRadius + mCellSize - 1) / mCellSize;
+        final int[] heads = mCellHeads;
+        final int[] next = mNext;
+        final int[] x = mX;
+        final int[] y = mY;
+        for(int row = 0; row < mRows; row++){
+            for(int column = 0; column < mColumns; column++){
+                final int head = heads[row * mColumns + column];
+                if(head == NONE){
+                    continue;
+                }
+                // pairs within the cell
+                for(int a = head; a != NONE; a = next[a]){
+                    for(int b = next[a]; b != NONE; b = next[b]){
+                        if(distanceSquared(b, x[a], y[a]) <= radiusSquared){
+                            pVisitor.onPair(a, b);
+                        }
+                    }
+                }
+                // pairs with the neighbouring cells ahead: rest of this row, then the rows below
+                for(int dy = 0; dy <= reach; dy++){
+                    final int otherRow = row + dy;
+                    if(otherRow >= mRows){
+                        break;
+                    }
+                    for(int dx = dy == 0 ? 1 : -reach; dx <= reach; dx++){
+                        final int otherColumn = column + dx;
+                        if(otherColumn < 0 || otherColumn >= mColumns){
+                            continue;
+                        }
+                        final int otherHead = heads[otherRow * mColumns + otherColumn];
+                        for(int a = head; otherHead != NONE && a != NONE; a = next[a]){
+                            for(int b = otherHead; b != NONE; b = next[b]){
+                                if(distanceSquared(b, x[a], y[a]) <= radiusSquared){
+                                    pVisitor.onPair(a, b);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private long distanceSquared(final int pHandle, final int pX, final int pY){
+        final long dx = mX[pHandle] - pX;
+        final long dy = mY[pHandle] - pY;
+        return dx * dx + dy * dy;
+    }
+
+    private int columnOf(final int pX){
+        final int column = pX < 0 ? 0 : pX / mCellSize;
+        return column < mColumns ? column : mColumns - 1;
+    }
+
+    private int rowOf(final int pY){
+        final int row = pY < 0 ? 0 : pY / mCellSize;
+        return row < mRows ? row : mRows - 1;
+    }
+
+    private int cellOf(final int pX, final int pY){
+        return rowOf(pY) * mColumns + columnOf(pX);
+    }
+
+    private void link(final int pHandle, final int pCell){
+        final int head = mCellHeads[pCell];
+        mCell[pHandle] = pCell;
+        mPrevious[pHandle] = NONE;
+        mNext[pHandle] = head;
+        if(head != NONE){
+            mPrevious[head] = pHandle;
+        }
+        mCellHeads[pCell] = pHandle;
+    }
+
+    private void unlink(final int pHandle){
+        final int previous = mPrevious[pHandle];
+        final int next = mNext[pHandle];
+        if(previous != NONE){
+            mNext[previous] = next;
+        } else {
+            mCellHeads[mCell[pHandle]] = next;
+        }
+        if(next != NONE){
+            mPrevious[next] = previous;
+        }
+    }
+
+    // Make room for handles below pCapacity, at least doubling the arrays
+    private void grow(final int pCapacity){
+        final int capacity = Math.max(pCapacity, mCell.length * 2);
+        final int oldLength = mCell.length;
+        mX = copyOf(mX, capacity);
+        mY = copyOf(mY, capacity);
+        mCell = copyOf(mCell, capacity);
+        mNext = copyOf(mNext, capacity);
+        mPrevious = copyOf(mPrevious, capacity);
+        mSeen = copyOf(mSeen, capacity);
+        for(int i = oldLength; i < capacity; i++){
+            mCell[i] = NONE;
+        }
+    }
+
+    private static int[] copyOf(final int[] pArray, final int pLength){
+        final int[] copy = new int[pLength];
+        System.arraycopy(pArray, 0, copy, 0, pArray.length);
+        return copy;
+    }
+
+    public interface Visitor {
+        void onVisit(int pHandle);
+    }
+
+    public interface PairVisitor {
+        void onPair(int pHandleA, int pHandleB);
+    }
+}
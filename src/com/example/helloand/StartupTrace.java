@@ -0,0 +1,118 @@
+package com.example.helloand;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StartupTrace records how long each phase of starting the game takes,
+ * measured from the moment the trace was created. A phase may run on any
+ * thread, and asynchronous loads are traced from the request to the
+ * callback:
+ *
+ * <pre>
+ * final long start = trace.begin();
+ * ... work ...
+ * trace.end("onCreateResources", start);
+ * </pre>
+ *
+ * Two milestones end the trace: the first frame drawn, and the moment the
+ * game becomes interactive, which is once the given number of startup
+ * steps have completed.
+ */
+public class StartupTrace {
+
+    private final long mCreated = System.nanoTime();
+    private final List<Phase> mPhases = new ArrayList<Phase>();
+    private int mPendingSteps;
+
+    // milestones in nanoseconds since mCreated, -1 until reached
+    private long mFirstFrame = -1;
+    private long mInteractive = -1;
+
+    /* pInteractiveSteps is how many calls to completeStep it takes until
+     * the game counts as interactive.
+     */
+    public StartupTrace(final int pInteractiveSteps){
+        this.mPendingSteps = pInteractiveSteps;
+    }
+
+    public long begin(){
+        return System.nanoTime();
+    }
+
+    public synchronized void end(final String pPhase, final long pStart){
+        mPhases.add(new Phase(pPhase, Thread.currentThread().getName(), pStart - mCreated, System.nanoTime() - pStart));
+    }
+
+    // Returns true the first time it is called
+    public synchronized boolean markFirstFrame(){
+        if(mFirstFrame >= 0){
+            return false;
+        }
+        mFirstFrame = System.nanoTime() - mCreated;
+        return true;
+    }
+
+    /* Record that one of the startup steps is done. Returns true for the
+     * step that made the game interactive.
+     */
+    public synchronized boolean completeStep(final String pStep){
+        // a milestone, so it takes no time of its own
+        final long now = System.nanoTime();
+        mPhases.add(new Phase(pStep, Thread.currentThread().getName(), now - mCreated, 0));
+        if(mPendingSteps <= 0 || --mPendingSteps > 0){
+            return false;
+        }
+        mInteractive = now - mCreated;
+        return true;
+    }
+
+    public synchronized boolean isInteractive(){
+        return mInteractive >= 0;
+    }
+
+    public synchronized void report(final Writer pWriter){
+        final PrintWriter out = new PrintWriter(pWriter);
+        out.printf("%-28s %10s %10s  %s%n", "phase", "start ms", "took ms", "thread");
+        for(final Phase phase : mPhases){
+            out.printf("%-28s %10.1f %10.1f  %s%n", phase.mName,
+                    phase.mStartNanos / 1000000f, phase.mDurationNanos / 1000000f, phase.mThread);
+        }
+        out.println();
+        out.println("time to first frame: " + formatMillis(mFirstFrame));
+        out.println("time to interactive: " + formatMillis(mInteractive));
+        out.flush();
+    }
+
+    public void dump(final File pFile) throws IOException {
+        final Writer writer = new FileWriter(pFile);
+        try {
+            report(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String formatMillis(final long pNanos){
+        return pNanos < 0 ? "not reached" : String.format("%.1f ms", pNanos / 1000000f);
+    }
+
+    private static class Phase {
+        final String mName;
+        final String mThread;
+        final long mStartNanos;
+        final long mDurationNanos;
+
+        Phase(final String pName, final String pThread, final long pStartNanos, final long pDurationNanos){
+            this.mName = pName;
+            this.mThread = pThread;
+            this.mStartNanos = pStartNanos;
+            this.mDurationNanos = pDurationNanos;
+        }
+    }
+}
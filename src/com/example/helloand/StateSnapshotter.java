@@ -0,0 +1,652 @@
+package com.example.helloand;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * StateSnapshotter persists the fields of its sources, like GameManager
+ * and UserData, incrementally. Every field carries a version stamp which
+ * its source bumps on every change; a snapshot writes only the fields
+ * whose version moved since the last one, as one small delta record
+ * appended to a log. A snapshot of a game in which only the score
+ * changed writes 6 bytes of field data, however much other state there is.
+ *
+ * Once the log holds the maximum number of records, or MAX_LOG_BYTES, it
+ * is compacted: the last written value of every field goes into a new
+ * base image, written to a temporary file, synced and renamed over the
+ * old one, and the log starts over. Restoring reads the base and applies the
+ * deltas on top, so the record limit bounds how long a restore takes.
+ * Every restore is timed against a budget; one over it halves the record
+ * limit and compacts right away.
+ *
+ * The base image:
+ *
+ * <pre>
+ * BASE_MAGIC | VERSION | generation (8) | count (4) | entries | CRC32 (4)
+ * </pre>
+ *
+ * The log, whose generation must match the base's to be applied:
+ *
+ * <pre>
+ * LOG_MAGIC | VERSION | generation (8) | records...
+ * record: count (2) | entries | CRC32 (4) of count and entries
+ * entry:  source (1) | field (1) | value (4, signed)
+ * </pre>
+ *
+ * A compaction interrupted between writing the base and starting the new
+ * log leaves a log of the old generation, which is already part of the
+ * base and is ignored. A record torn by a crash fails its CRC; restoring
+ * stops there and cuts it off the log.
+ *
+ * Sources are added before restore, which opens the log. Snapshots run on
+ * the IoExecutor's save lane, on request or periodically, or on the
+ * calling thread with snapshot().
+ */
+public class StateSnapshotter implements Profiler.MetricsSource {
+
+    // The fields of a source are numbered from 0 and hold ints
+    public interface Source {
+        int getFieldCount();
+
+        // bumped on every change of the field
+        long getFieldVersion(int pField);
+
+        int getFieldValue(int pField);
+
+        // puts back a value read from the snapshot
+        void restoreField(int pField, int pValue);
+    }
+
+    public static final int BASE_MAGIC = 0x48534E42; // "HSNB"
+    public static final int LOG_MAGIC = 0x48534E4C; // "HSNL"
+    public static final int VERSION = 1;
+
+    public static final int DEFAULT_MAX_LOG_RECORDS = 256;
+    public static final int MAX_LOG_BYTES = 64 * 1024;
+    public static final long DEFAULT_RESTORE_BUDGET_NANOS = 20 * 1000 * 1000L;
+
+    // the record limit never drops below this, however slow restores are
+    private static final int MIN_LOG_RECORDS = 16;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 6;
+    private static final int RECORD_OVERHEAD_BYTES = 6;
+
+    private final File mBaseFile;
+    private final File mLogFile;
+    private final IoExecutor mExecutor;
+    private final long mRestoreBudgetNanos;
+
+    private final List<Registration> mRegistrations = new ArrayList<Registration>();
+
+    // snapshots, compactions and restores run one at a time under this lock
+    private final Object mIoLock = new Object();
+    private RandomAccessFile mLog;
+    private long mGeneration;
+    private ByteBuffer mRecord;
+    private final CRC32 mCrc = new CRC32();
+
+    // guarded by this
+    private int mMaxLogRecords;
+    private int mLogRecords;
+    private long mLogBytes;
+    private boolean mSnapshotQueued;
+    private long mIntervalMillis;
+    private boolean mClosed;
+
+    // statistics, guarded by this
+    private final Histogram mSnapshotLatency = new Histogram();
+    private long mSnapshotCount;
+    private long mDeltaFieldCount;
+    private long mDeltaBytes;
+    private long mCompactionCount;
+    private long mFailedSnapshotCount;
+    private long mFailedCompactionCount;
+    private long mPartialRecordCount;
+    private long mLastRestoreNanos;
+    private int mLastRestoreRecords;
+    private int mLastRestoreFields;
+    private long mOverBudgetRestoreCount;
+    private long mDiscardedBytes;
+
+    public StateSnapshotter(final File pBaseFile, final File pLogFile){
+        this(pBaseFile, pLogFile, DEFAULT_MAX_LOG_RECORDS, DEFAULT_RESTORE_BUDGET_NANOS, IoExecutor.getInstance());
+    }
+
+    public StateSnapshotter(final File pBaseFile, final File pLogFile, final int pMaxLogRecords,
+            final long pRestoreBudgetNanos, final IoExecutor pExecutor){
+        if(pMaxLogRecords < MIN_LOG_RECORDS){
+            throw new IllegalArgumentException("At least " + MIN_LOG_RECORDS + " log records needed");
+        }
+        this.mBaseFile = pBaseFile;
+        this.mLogFile = pLogFile;
+        this.mMaxLogRecords = pMaxLogRecords;
+        this.mRestoreBudgetNanos = pRestoreBudgetNanos;
+        this.mExecutor = pExecutor;
+    }
+
+    /* Add a source under an id of its own, which is what the files know it
+     * by. Sources must be added before restore.
+     */
+    public void addSource(final int pSourceId, final Source pSource){
+        if(pSourceId < 0 || pSourceId > 0xFF || pSource.getFieldCount() > 0x100){
+            throw new IllegalArgumentException("Source ids and field numbers must fit into a byte");
+        }
+        synchronized(mIoLock){
+            if(mLog != null){
+                throw new IllegalStateException("Sources must be added before restore");
+            }
+            if(findRegistration(pSourceId) != null){
+                throw new IllegalArgumentException("Source " + pSourceId + " added twice");
+            }
+            mRegistrations.add(new Registration(pSourceId, pSource));
+            int fieldCount = 0;
+            for(final Registration registration : mRegistrations){
+                fieldCount += registration.mImage.length;
+            }
+            mRecord = ByteBuffer.allocate(RECORD_OVERHEAD_BYTES + fieldCount * ENTRY_BYTES);
+        }
+    }
+
+    /* Read the base and the deltas after it, hand the values to the
+     * sources and open the log for the snapshots to come. Values of
+     * sources or fields which are not registered are skipped. Returns the
+     * number of fields restored.
+     */
+    public int restore() throws IOException {
+        synchronized(mIoLock){
+            if(mLog != null){
+                throw new IllegalStateException("Already restored");
+            }
+            final long start = System.nanoTime();
+            int fields = readBase();
+            long validLogBytes = 0;
+            int records = 0;
+            final byte[] log = readFile(mLogFile);
+            if(log != null && log.length >= HEADER_BYTES){
+                final ByteBuffer buffer = ByteBuffer.wrap(log);
+                if(buffer.getInt() == LOG_MAGIC && buffer.getInt() == VERSION && buffer.getLong() == mGeneration){
+                    validLogBytes = HEADER_BYTES;
+                    while(buffer.remaining() >= RECORD_OVERHEAD_BYTES){
+                        final int recordStart = buffer.position();
+                        final int count = buffer.getShort() & 0xFFFF;
+                        if(buffer.remaining() < count * ENTRY_BYTES + 4 || !checkCrc(log, recordStart, count)){
+                            break;
+                        }
+                        fields += readEntries(buffer, count);
+                        buffer.getInt();
+                        validLogBytes = buffer.position();
+                        records++;
+                    }
+                }
+            }
+            // the sources now hold what was written, nothing is dirty yet
+            for(final Registration registration : mRegistrations){
+                for(int i = 0; i < registration.mImage.length; i++){
+                    if(registration.mInImage[i]){
+                        registration.mSource.restoreField(i, registration.mImage[i]);
+                        registration.mWrittenVersions[i] = registration.mSource.getFieldVersion(i);
+                    }
+                }
+            }
+            openLog(log == null ? 0 : log.length, validLogBytes);
+            final long nanos = System.nanoTime() - start;
+            final boolean overBudget;
+            synchronized(this){
+                mLogRecords = records;
+                mLogBytes = Math.max(validLogBytes, HEADER_BYTES);
+                mLastRestoreNanos = nanos;
+                mLastRestoreRecords = records;
+                mLastRestoreFields = fields;
+                overBudget = nanos > mRestoreBudgetNanos && records > 0;
+                if(overBudget){
+                    mOverBudgetRestoreCount++;
+                    mMaxLogRecords = Math.max(MIN_LOG_RECORDS, Math.min(mMaxLogRecords, records) / 2);
+                }
+            }
+            if(overBudget){
+                compact();
+            }
+            return fields;
+        }
+    }
+
+    // Returns the number of base fields, or 0 without a usable base
+    private int readBase() throws IOException {
+        mGeneration = 0;
+        final byte[] base = readFile(mBaseFile);
+        if(base == null){
+            return 0;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(base);
+        if(base.length < HEADER_BYTES + 8 || buffer.getInt() != BASE_MAGIC || buffer.getInt() != VERSION){
+            synchronized(this){
+                mDiscardedBytes += base.length;
+            }
+            return 0;
+        }
+        final long generation = buffer.getLong();
+        final int count = buffer.getInt();
+        final int crcOffset = HEADER_BYTES + 4 + count * ENTRY_BYTES;
+        if(count < 0 || crcOffset + 4 != base.length){
+            synchronized(this){
+                mDiscardedBytes += base.length;
+            }
+            return 0;
+        }
+        mCrc.reset();
+        mCrc.update(base, 0, crcOffset);
+        if((int) mCrc.getValue() != buffer.getInt(crcOffset)){
+            synchronized(this){
+                mDiscardedBytes += base.length;
+            }
+            return 0;
+        }
+        mGeneration = generation;
+        return readEntries(buffer, count);
+    }
+
+    private int readEntries(final ByteBuffer pBuffer, final int pCount){
+        int fields = 0;
+        for(int i = 0; i < pCount; i++){
+            final Registration registration = findRegistration(pBuffer.get() & 0xFF);
+            final int field = pBuffer.get() & 0xFF;
+            final int value = pBuffer.getInt();
+            if(registration != null && field < registration.mImage.length){
+                registration.mImage[field] = value;
+                registration.mInImage[field] = true;
+                fields++;
+            }
+        }
+        return fields;
+    }
+
+    private boolean checkCrc(final byte[] pLog, final int pRecordStart, final int pCount){
+        final int length = 2 + pCount * ENTRY_BYTES;
+        mCrc.reset();
+        mCrc.update(pLog, pRecordStart, length);
+        return (int) mCrc.getValue() == ByteBuffer.wrap(pLog, pRecordStart + length, 4).getInt();
+    }
+
+    // Opens the log for appending, cutting off whatever follows its valid part
+    private void openLog(final long pLogBytes, final long pValidLogBytes) throws IOException {
+        if(pValidLogBytes == 0){
+            resetLog();
+            return;
+        }
+        mLog = new RandomAccessFile(mLogFile, "rw");
+        if(pValidLogBytes < pLogBytes){
+            mLog.setLength(pValidLogBytes);
+            synchronized(this){
+                mDiscardedBytes += pLogBytes - pValidLogBytes;
+            }
+        }
+        mLog.seek(pValidLogBytes);
+    }
+
+    // Starts an empty log of the current generation
+    private void resetLog() throws IOException {
+        if(mLog == null){
+            mLog = new RandomAccessFile(mLogFile, "rw");
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(mGeneration);
+        mLog.setLength(0);
+        mLog.seek(0);
+        mLog.write(header.array());
+        // the header is on disk before any record goes behind it
+        mLog.getFD().sync();
+        synchronized(this){
+            mLogRecords = 0;
+            mLogBytes = HEADER_BYTES;
+        }
+    }
+
+    /* Append one delta record holding every field changed since the last
+     * snapshot, compacting the log if it is full. Blocks on file I/O, so it
+     * is meant for the save lane, shutdown and tests. Returns the number of
+     * fields written; nothing is written before restore or after close.
+     */
+    public int snapshot() throws IOException {
+        synchronized(mIoLock){
+            if(mLog == null){
+                return 0;
+            }
+            final long start = System.nanoTime();
+            final ByteBuffer record = mRecord;
+            record.clear();
+            record.putShort((short) 0);
+            int count = 0;
+            for(final Registration registration : mRegistrations){
+                final Source source = registration.mSource;
+                for(int i = 0; i < registration.mImage.length; i++){
+                    // the version is read before the value, so a change in between is caught next time
+                    final long version = source.getFieldVersion(i);
+                    if(registration.mInImage[i] && version == registration.mWrittenVersions[i]){
+                        continue;
+                    }
+                    final int value = source.getFieldValue(i);
+                    registration.mPendingVersions[i] = version;
+                    registration.mPendingValues[i] = value;
+                    registration.mPending[i] = true;
+                    record.put((byte) registration.mId).put((byte) i).putInt(value);
+                    count++;
+                }
+            }
+            if(count == 0){
+                return 0;
+            }
+            record.putShort(0, (short) count);
+            mCrc.reset();
+            mCrc.update(record.array(), 0, record.position());
+            record.putInt((int) mCrc.getValue());
+            try {
+                mLog.write(record.array(), 0, record.position());
+            } catch(IOException e){
+                synchronized(this){
+                    mFailedSnapshotCount++;
+                }
+                // the fields stay dirty, but a partial record must not stay in front of later ones
+                clearPending();
+                cutLog();
+                throw e;
+            }
+            for(final Registration registration : mRegistrations){
+                for(int i = 0; i < registration.mImage.length; i++){
+                    if(registration.mPending[i]){
+                        registration.mPending[i] = false;
+                        registration.mWrittenVersions[i] = registration.mPendingVersions[i];
+                        registration.mImage[i] = registration.mPendingValues[i];
+                        registration.mInImage[i] = true;
+                    }
+                }
+            }
+            final boolean full;
+            synchronized(this){
+                mSnapshotCount++;
+                mDeltaFieldCount += count;
+                mDeltaBytes += record.position();
+                mLogRecords++;
+                mLogBytes += record.position();
+                full = mLogRecords >= mMaxLogRecords || mLogBytes >= MAX_LOG_BYTES;
+            }
+            if(full){
+                compact();
+            }
+            synchronized(this){
+                mSnapshotLatency.record(System.nanoTime() - start);
+            }
+            return count;
+        }
+    }
+
+    private void clearPending(){
+        for(final Registration registration : mRegistrations){
+            for(int i = 0; i < registration.mPending.length; i++){
+                registration.mPending[i] = false;
+            }
+        }
+    }
+
+    private void cutLog(){
+        try {
+            final long logBytes;
+            synchronized(this){
+                logBytes = mLogBytes;
+            }
+            mLog.setLength(logBytes);
+            mLog.seek(logBytes);
+        } catch(IOException e){
+            // the CRC of the partial record will not match, restore stops there
+            synchronized(this){
+                mPartialRecordCount++;
+            }
+        }
+    }
+
+    /* Fold the log into a new base image of the next generation and start
+     * an empty log for it. Called when the log is full; may also be called
+     * directly, e.g. before a backup.
+     */
+    public void compact() throws IOException {
+        synchronized(mIoLock){
+            if(mLog == null){
+                return;
+            }
+            int count = 0;
+            for(final Registration registration : mRegistrations){
+                for(int i = 0; i < registration.mImage.length; i++){
+                    if(registration.mInImage[i]){
+                        count++;
+                    }
+                }
+            }
+            final long generation = mGeneration + 1;
+            final ByteBuffer base = ByteBuffer.allocate(HEADER_BYTES + 4 + count * ENTRY_BYTES + 4);
+            base.putInt(BASE_MAGIC).putInt(VERSION).putLong(generation).putInt(count);
+            for(final Registration registration : mRegistrations){
+                for(int i = 0; i < registration.mImage.length; i++){
+                    if(registration.mInImage[i]){
+                        base.put((byte) registration.mId).put((byte) i).putInt(registration.mImage[i]);
+                    }
+                }
+            }
+            mCrc.reset();
+            mCrc.update(base.array(), 0, base.position());
+            base.putInt((int) mCrc.getValue());
+
+            final File temp = new File(mBaseFile.getPath() + ".tmp");
+            try {
+                final FileOutputStream out = new FileOutputStream(temp);
+                try {
+                    out.write(base.array());
+                    // the base must be on disk before it replaces the old one and the log is emptied
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+                if(!temp.renameTo(mBaseFile)){
+                    throw new IOException("Failed to replace " + mBaseFile);
+                }
+                // from here on the old log is stale, whether or not the reset below happens
+                mGeneration = generation;
+                resetLog();
+            } catch(IOException e){
+                synchronized(this){
+                    mFailedCompactionCount++;
+                }
+                throw e;
+            }
+            synchronized(this){
+                mCompactionCount++;
+            }
+        }
+    }
+
+    // Ask for a snapshot on the save lane now, without waiting
+    public void requestSnapshot(){
+        synchronized(this){
+            if(mSnapshotQueued || mClosed){
+                return;
+            }
+            mSnapshotQueued = true;
+        }
+        if(mExecutor.trySubmit(IoExecutor.CATEGORY_SAVE, mSnapshotTask) == null){
+            // the save queue is full, the periodic snapshot picks the changes up
+            synchronized(this){
+                mSnapshotQueued = false;
+            }
+        }
+    }
+
+    // Snapshot on the save lane every pIntervalMillis until closed
+    public void startPeriodic(final long pIntervalMillis){
+        synchronized(this){
+            if(mIntervalMillis > 0 || mClosed){
+                return;
+            }
+            mIntervalMillis = pIntervalMillis;
+        }
+        mExecutor.schedule(IoExecutor.CATEGORY_SAVE, mPeriodicTask, pIntervalMillis);
+    }
+
+    // Take a last snapshot and close the log. Later snapshots write nothing
+    public void close() throws IOException {
+        synchronized(this){
+            mClosed = true;
+        }
+        synchronized(mIoLock){
+            if(mLog == null){
+                return;
+            }
+            try {
+                snapshot();
+            } finally {
+                mLog.close();
+                mLog = null;
+            }
+        }
+    }
+
+    private final Runnable mSnapshotTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized(StateSnapshotter.this){
+                mSnapshotQueued = false;
+            }
+            runSnapshot();
+        }
+    };
+
+    private final Runnable mPeriodicTask = new Runnable() {
+        @Override
+        public void run() {
+            runSnapshot();
+            final long interval;
+            synchronized(StateSnapshotter.this){
+                if(mClosed){
+                    return;
+                }
+                interval = mIntervalMillis;
+            }
+            mExecutor.schedule(IoExecutor.CATEGORY_SAVE, this, interval);
+        }
+    };
+
+    private void runSnapshot(){
+        try {
+            snapshot();
+        } catch(IOException e){
+            // counted where it failed, see onReport; the fields stay dirty and go with the next snapshot
+        }
+    }
+
+    private Registration findRegistration(final int pSourceId){
+        for(int i = 0; i < mRegistrations.size(); i++){
+            final Registration registration = mRegistrations.get(i);
+            if(registration.mId == pSourceId){
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    // The whole file, or null if there is none
+    private static byte[] readFile(final File pFile) throws IOException {
+        if(!pFile.exists()){
+            return null;
+        }
+        final RandomAccessFile file = new RandomAccessFile(pFile, "r");
+        try {
+            final byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            return bytes;
+        } finally {
+            file.close();
+        }
+    }
+
+    public synchronized long getSnapshotCount(){
+        return mSnapshotCount;
+    }
+
+    // fields written by snapshots, each one ENTRY_BYTES in the log
+    public synchronized long getDeltaFieldCount(){
+        return mDeltaFieldCount;
+    }
+
+    public synchronized long getDeltaBytes(){
+        return mDeltaBytes;
+    }
+
+    public synchronized long getCompactionCount(){
+        return mCompactionCount;
+    }
+
+    public synchronized int getLogRecords(){
+        return mLogRecords;
+    }
+
+    public synchronized int getMaxLogRecords(){
+        return mMaxLogRecords;
+    }
+
+    public synchronized long getLastRestoreNanos(){
+        return mLastRestoreNanos;
+    }
+
+    public synchronized int getLastRestoreRecords(){
+        return mLastRestoreRecords;
+    }
+
+    public synchronized boolean isLastRestoreWithinBudget(){
+        return mLastRestoreNanos <= mRestoreBudgetNanos || mLastRestoreRecords == 0;
+    }
+
+    @Override
+    public synchronized void onReport(final PrintWriter pOut){
+        pOut.println("snapshots: " + mSnapshotCount + ", failed " + mFailedSnapshotCount + ", " + mDeltaFieldCount
+                + " fields in " + mDeltaBytes + " bytes, p95 " + mSnapshotLatency.getPercentile(0.95) / 1000
+                + " us; log " + mLogRecords + "/" + mMaxLogRecords + " records, " + mLogBytes + " bytes, "
+                + mCompactionCount + " compactions, failed " + mFailedCompactionCount + ", "
+                + mPartialRecordCount + " partial records left");
+        pOut.println("snapshot restore: " + mLastRestoreFields + " fields from " + mLastRestoreRecords
+                + " records in " + mLastRestoreNanos / 1000 + " us (budget " + mRestoreBudgetNanos / 1000
+                + " us, " + mOverBudgetRestoreCount + " over), " + mDiscardedBytes + " bytes discarded");
+    }
+
+    // What is known about one source's fields
+    private static class Registration {
+        final int mId;
+        final Source mSource;
+
+        // the values as the base and the log hold them, and the versions they were read at
+        final int[] mImage;
+        final boolean[] mInImage;
+        final long[] mWrittenVersions;
+
+        // read by the snapshot in progress, committed once its record is written
+        final boolean[] mPending;
+        final int[] mPendingValues;
+        final long[] mPendingVersions;
+
+        Registration(final int pId, final Source pSource){
+            this.mId = pId;
+            this.mSource = pSource;
+            final int fieldCount = pSource.getFieldCount();
+            this.mImage = new int[fieldCount];
+            this.mInImage = new boolean[fieldCount];
+            this.mWrittenVersions = new long[fieldCount];
+            this.mPending = new boolean[fieldCount];
+            this.mPendingValues = new int[fieldCount];
+            this.mPendingVersions = new long[fieldCount];
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.helloand;
+
+import java.io.PrintWriter;
+
+/**
+ * StepScheduler decides how many fixed logic steps each frame runs. The
+ * time since the last frame goes into an accumulator and whole steps are
+ * taken out of it, like AndEngine's FixedStepEngine does, with two
+ * differences:
+ *
+ * - No frame runs more than the maximum number of steps. Whatever a slow
+ *   frame owes beyond that is dropped instead of carried over, so a
+ *   device which cannot keep up slows the game down rather than falling
+ *   into a spiral of ever longer catch-up frames.
+ * - What is left in the accumulator after the steps, as a fraction of a
+ *   step, is the interpolation alpha: how far rendering is between the
+ *   last step and the next one.
+ *
+ * In adaptive mode the logic rate follows the measured frame time. Once
+ * most frames of a window take longer than DROP_FACTOR steps, the rate
+ * drops to the next one in RATES (60, then 45, then 30 steps per second).
+ * It goes back up once nearly all frames would fit into RESTORE_FACTOR
+ * steps of the faster rate again. That is judged by the busy time, one
+ * step plus drawing the frame (see onFrameDrawn), not by the frame
+ * interval: a vsync-paced display delivers frames every 16.7 ms however
+ * little work they take. Counting frames rather than averaging them keeps
+ * a single long hitch, like a garbage collection, from changing the rate.
+ *
+ * Time comes from a Clock, so the policy can be driven with a fake one on
+ * a desktop JVM (see tools/StepSchedulerRunner). A scheduler belongs to
+ * the update thread; only the metrics may be read from others.
+ */
+public class StepScheduler implements Profiler.MetricsSource {
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    // Runs one fixed step of the game
+    public interface Stepper {
+        void onStep(long pStepNanos) throws InterruptedException;
+    }
+
+    // the logic rates adaptive mode picks from, fastest first
+    public static final int[] RATES = { 60, 45, 30 };
+
+    // frames averaged before the rate may change
+    public static final int WINDOW_FRAMES = 60;
+
+    // drop the rate once more than half the frames take longer than this many steps
+    private static final float DROP_FACTOR = 1.2f;
+
+    // and restore it once this many frames are busy for less than RESTORE_FACTOR steps of the faster rate
+    private static final float RESTORE_FACTOR = 0.9f;
+    private static final int RESTORE_FRAMES = WINDOW_FRAMES * 9 / 10;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final Clock mClock;
+    private final int mMaxStepsPerFrame;
+    private boolean mAdaptive;
+
+    // index into RATES, or -1 while running at a fixed rate of one's own
+    private int mRateIndex;
+    private int mStepsPerSecond;
+    private long mStepNanos;
+
+    private long mLastFrameTime = -1;
+    private long mAccumulator;
+    private float mAlpha;
+
+    // the work of one step, as measured by the last frame that ran any
+    private long mLastStepNanos;
+
+    // the time the last frame took to draw, reported by the GL thread
+    private volatile long mLastDrawNanos;
+
+    // the current window
+    private int mWindowFrameCount;
+    private int mWindowSlowFrames;
+    private int mWindowFastFrames;
+
+    // metrics
+    private final Histogram mFrameTimes = new Histogram();
+    private final Histogram mStepsPerFrame = new Histogram();
+    private final Histogram mStepTimes = new Histogram();
+    private volatile long mStepCount;
+    private volatile long mDroppedStepCount;
+    private volatile long mRateDropCount;
+    private volatile long mRateRestoreCount;
+
+    public StepScheduler(final Clock pClock, final int pStepsPerSecond, final int pMaxStepsPerFrame){
+        if(pStepsPerSecond <= 0 || pMaxStepsPerFrame <= 0){
+            throw new IllegalArgumentException("Steps per second and per frame must be positive");
+        }
+        this.mClock = pClock;
+        this.mMaxStepsPerFrame = pMaxStepsPerFrame;
+        this.mRateIndex = indexOfRate(pStepsPerSecond);
+        setStepsPerSecond(pStepsPerSecond);
+    }
+
+    /* Let the rate follow the frame time. Only possible when the scheduler
+     * was created with one of RATES.
+     */
+    public void setAdaptive(final boolean pAdaptive){
+        if(pAdaptive && mRateIndex < 0){
+            throw new IllegalStateException(mStepsPerSecond + " steps per second is not one of the adaptive rates");
+        }
+        mAdaptive = pAdaptive;
+        resetWindow();
+    }
+
+    public boolean isAdaptive(){
+        return mAdaptive;
+    }
+
+    public int getStepsPerSecond(){
+        return mStepsPerSecond;
+    }
+
+    public long getStepNanos(){
+        return mStepNanos;
+    }
+
+    // How far rendering is between the last step (0) and the next one (1)
+    public float getAlpha(){
+        return mAlpha;
+    }
+
+    /* Called once per frame: run as many steps as the time since the last
+     * frame pays for, at most the maximum per frame. Returns the number of
+     * steps run. The very first frame only starts the clock.
+     */
+    public int advance(final Stepper pStepper) throws InterruptedException {
+        final long now = mClock.nanoTime();
+        if(mLastFrameTime < 0){
+            mLastFrameTime = now;
+            return 0;
+        }
+        final long frameNanos = now - mLastFrameTime;
+        mLastFrameTime = now;
+        mFrameTimes.record(frameNanos);
+        if(mAdaptive){
+            adapt(frameNanos);
+        }
+
+        final long stepNanos = mStepNanos;
+        mAccumulator += frameNanos;
+        int steps = 0;
+        long stepWorkNanos = 0;
+        while(mAccumulator >= stepNanos && steps < mMaxStepsPerFrame){
+            final long stepStart = mClock.nanoTime();
+            pStepper.onStep(stepNanos);
+            final long stepTime = mClock.nanoTime() - stepStart;
+            mStepTimes.record(stepTime);
+            stepWorkNanos += stepTime;
+            mAccumulator -= stepNanos;
+            steps++;
+        }
+        if(steps > 0){
+            mLastStepNanos = stepWorkNanos / steps;
+        }
+        if(mAccumulator >= stepNanos){
+            // too far behind to catch up, drop the rest but keep the fraction of a step
+            mDroppedStepCount += mAccumulator / stepNanos;
+            mAccumulator %= stepNanos;
+        }
+        mStepCount += steps;
+        mStepsPerFrame.record(steps);
+        mAlpha = (float) mAccumulator / stepNanos;
+        return steps;
+    }
+
+    private void adapt(final long pFrameNanos){
+        if(pFrameNanos > mStepNanos * DROP_FACTOR){
+            mWindowSlowFrames++;
+        }
+        // a frame at the faster rate would run one step and draw once
+        if(mRateIndex > 0
+                && mLastStepNanos + mLastDrawNanos < NANOS_PER_SECOND / RATES[mRateIndex - 1] * RESTORE_FACTOR){
+            mWindowFastFrames++;
+        }
+        if(++mWindowFrameCount < WINDOW_FRAMES){
+            return;
+        }
+        if(mWindowSlowFrames > WINDOW_FRAMES / 2 && mRateIndex < RATES.length - 1){
+            mRateIndex++;
+            mRateDropCount++;
+            setStepsPerSecond(RATES[mRateIndex]);
+        } else if(mWindowFastFrames >= RESTORE_FRAMES){
+            mRateIndex--;
+            mRateRestoreCount++;
+            setStepsPerSecond(RATES[mRateIndex]);
+        }
+        resetWindow();
+    }
+
+    /* Called by the GL thread with the time the last frame took to draw,
+     * which counts towards the busy time deciding whether to restore the
+     * rate. Without it, only the steps count.
+     */
+    public void onFrameDrawn(final long pDrawNanos){
+        mLastDrawNanos = pDrawNanos;
+    }
+
+    private void resetWindow(){
+        mWindowFrameCount = 0;
+        mWindowSlowFrames = 0;
+        mWindowFastFrames = 0;
+    }
+
+    private void setStepsPerSecond(final int pStepsPerSecond){
+        mStepsPerSecond = pStepsPerSecond;
+        mStepNanos = NANOS_PER_SECOND / pStepsPerSecond;
+    }
+
+    private static int indexOfRate(final int pStepsPerSecond){
+        for(int i = 0; i < RATES.length; i++){
+            if(RATES[i] == pStepsPerSecond){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getStepCount(){
+        return mStepCount;
+    }
+
+    // steps owed by frames too slow to catch up, which were never run
+    public long getDroppedStepCount(){
+        return mDroppedStepCount;
+    }
+
+    public long getRateDropCount(){
+        return mRateDropCount;
+    }
+
+    public long getRateRestoreCount(){
+        return mRateRestoreCount;
+    }
+
+    public Histogram getFrameTimes(){
+        return mFrameTimes;
+    }
+
+    public Histogram getStepsPerFrame(){
+        return mStepsPerFrame;
+    }
+
+    @Override
+    public void onReport(final PrintWriter pOut){
+        pOut.println("steps: " + mStepsPerSecond + "/s" + (mAdaptive ? " adaptive" : "") + ", " + mStepCount
+                + " run, " + mDroppedStepCount + " dropped, rate dropped " + mRateDropCount + "x, restored "
+                + mRateRestoreCount + "x");
+        pOut.println("frame time: p50 " + mFrameTimes.getPercentile(0.50) / 1000 + " us, p95 "
+                + mFrameTimes.getPercentile(0.95) / 1000 + " us; steps per frame: max " + mStepsPerFrame.getMax()
+                + "; step time: p95 " + mStepTimes.getPercentile(0.95) / 1000 + " us");
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.helloand;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.andengine.opengl.texture.ITexture;
+import org.andengine.opengl.texture.region.ITextureRegion;
+
+/**
+ * TextureCache hands out texture regions by asset path and keeps track of
+ * how many users each atlas has. Several regions usually share one atlas,
+ * so the reference count lives on the atlas: it goes up with every
+ * acquired region and the atlas becomes unused once all of them have been
+ * released.
+ *
+ * Unused atlases are not unloaded right away. They stay loaded, so a
+ * scene transition that needs them again gets them for free, until the
+ * loaded atlases exceed the memory budget. The least recently used unused
+ * atlases are then unloaded until the cache fits its budget again.
+ *
+ * Asynchronous loads are claimed with beginLoad, so overlapping requests
+ * for the same asset load it once and wait for that load to end.
+ */
+public class TextureCache implements Profiler.MetricsSource {
+
+    public static final long DEFAULT_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    // asset path -> region
+    private final Map<String, RegionEntry> mRegions = new HashMap<String, RegionEntry>();
+
+    // atlases in least recently used order
+    private final LinkedHashMap<ITexture, AtlasEntry> mAtlases = new LinkedHashMap<ITexture, AtlasEntry>(16, 0.75f, true);
+
+    // loads in flight -> what runs once they end, see beginLoad
+    private final Map<String, List<Runnable>> mPendingLoads = new HashMap<String, List<Runnable>>();
+
+    private long mBudgetBytes;
+    private long mLoadedBytes;
+
+    // statistics
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    public TextureCache(final long pBudgetBytes){
+        this.mBudgetBytes = pBudgetBytes;
+    }
+
+    /* Acquire the region for an asset path, or return null if it is not
+     * cached and has to be loaded (and then put into the cache).
+     */
+    public synchronized ITextureRegion acquire(final String pAssetPath){
+        final RegionEntry region = mRegions.get(pAssetPath);
+        if(region == null){
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        // cached atlases are always loaded, evicted ones leave the cache
+        mAtlases.get(region.mAtlas.mTexture).mReferenceCount++;
+        return region.mTextureRegion;
+    }
+
+    // Acquire several paths at once, returning null unless all of them are cached
+    public synchronized ITextureRegion[] acquireAll(final String[] pAssetPaths){
+        for(int i = 0; i < pAssetPaths.length; i++){
+            if(!mRegions.containsKey(pAssetPaths[i])){
+                mMissCount++;
+                return null;
+            }
+        }
+        final ITextureRegion[] regions = new ITextureRegion[pAssetPaths.length];
+        for(int i = 0; i < pAssetPaths.length; i++){
+            regions[i] = acquire(pAssetPaths[i]);
+        }
+        return regions;
+    }
+
+    // Whether a region is cached, without acquiring it
+    public synchronized boolean contains(final String pAssetPath){
+        return mRegions.containsKey(pAssetPath);
+    }
+
+    /* Add a freshly loaded region. Nothing references it until it is
+     * acquired, so it is evictable right away, but only a later release
+     * or budget change will evict anything. Returns false, leaving the
+     * region to the caller, if another load cached the path first.
+     */
+    public synchronized boolean put(final String pAssetPath, final ITextureRegion pTextureRegion){
+        if(mRegions.containsKey(pAssetPath)){
+            return false;
+        }
+        final ITexture texture = pTextureRegion.getTexture();
+        AtlasEntry atlas = mAtlases.get(texture);
+        if(atlas == null){
+            atlas = new AtlasEntry(texture);
+            mAtlases.put(texture, atlas);
+            mLoadedBytes += atlas.mSizeBytes;
+        }
+        mRegions.put(pAssetPath, new RegionEntry(atlas, pTextureRegion));
+        return true;
+    }
+
+    /* Claim the load of pLoadKey, usually an asset path. Returns true if
+     * the caller is to load it and call endLoad once done; false if a load
+     * is already in flight. pOnLoaded, which may be null, runs from endLoad
+     * either way.
+     */
+    public synchronized boolean beginLoad(final String pLoadKey, final Runnable pOnLoaded){
+        List<Runnable> waiting = mPendingLoads.get(pLoadKey);
+        final boolean first = waiting == null;
+        if(first){
+            waiting = new ArrayList<Runnable>();
+            mPendingLoads.put(pLoadKey, waiting);
+        }
+        if(pOnLoaded != null){
+            waiting.add(pOnLoaded);
+        }
+        return first;
+    }
+
+    // End a load begun with beginLoad, failed or not, and run what waited for it
+    public void endLoad(final String pLoadKey){
+        final List<Runnable> waiting;
+        synchronized(this){
+            waiting = mPendingLoads.remove(pLoadKey);
+        }
+        if(waiting != null){
+            for(final Runnable onLoaded : waiting){
+                onLoaded.run();
+            }
+        }
+    }
+
+    // Release a region acquired earlier
+    public synchronized void release(final String pAssetPath){
+        final RegionEntry region = mRegions.get(pAssetPath);
+        if(region == null){
+            return;
+        }
+        final AtlasEntry atlas = region.mAtlas;
+        if(atlas.mReferenceCount == 0){
+            throw new IllegalStateException("Texture released more often than acquired: " + pAssetPath);
+        }
+        atlas.mReferenceCount--;
+        trimToBudget();
+    }
+
+    // Unload every atlas that is no longer referenced, e.g. on low memory
+    public synchronized void trim(){
+        evictUnused(0);
+    }
+
+    public synchronized void setBudgetBytes(final long pBudgetBytes){
+        this.mBudgetBytes = pBudgetBytes;
+        trimToBudget();
+    }
+
+    private void trimToBudget(){
+        if(mLoadedBytes > mBudgetBytes){
+            evictUnused(mBudgetBytes);
+        }
+    }
+
+    // Unload unused atlases, least recently used first, until we fit pTargetBytes
+    private void evictUnused(final long pTargetBytes){
+        final Iterator<AtlasEntry> iterator = mAtlases.values().iterator();
+        while(mLoadedBytes > pTargetBytes && iterator.hasNext()){
+            final AtlasEntry atlas = iterator.next();
+            if(atlas.mReferenceCount > 0){
+                continue;
+            }
+            iterator.remove();
+            final Iterator<RegionEntry> regions = mRegions.values().iterator();
+            while(regions.hasNext()){
+                if(regions.next().mAtlas == atlas){
+                    regions.remove();
+                }
+            }
+            // an atlas is unloaded exactly once, however many regions it holds
+            atlas.mTexture.unload();
+            mLoadedBytes -= atlas.mSizeBytes;
+            mEvictionCount++;
+        }
+    }
+
+    public synchronized long getLoadedBytes(){
+        return mLoadedBytes;
+    }
+
+    public synchronized long getBudgetBytes(){
+        return mBudgetBytes;
+    }
+
+    public synchronized int getAtlasCount(){
+        return mAtlases.size();
+    }
+
+    public synchronized long getHitCount(){
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount(){
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount(){
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized void onReport(final PrintWriter pOut){
+        pOut.println("texture cache: " + mAtlases.size() + " atlases, " + mLoadedBytes / 1024 + " of "
+                + mBudgetBytes / 1024 + " KB, hits " + mHitCount + ", misses " + mMissCount
+                + ", evictions " + mEvictionCount);
+    }
+
+    private static class AtlasEntry {
+        final ITexture mTexture;
+        final long mSizeBytes;
+        int mReferenceCount;
+
+        AtlasEntry(final ITexture pTexture){
+            this.mTexture = pTexture;
+            // compressed textures take less than their pixel format suggests
+            this.mSizeBytes = pTexture instanceof Etc1Texture ? ((Etc1Texture) pTexture).getDataSize()
+                    : (long) pTexture.getWidth() * pTexture.getHeight() * pTexture.getPixelFormat().getBitsPerPixel() / 8;
+        }
+    }
+
+    private static class RegionEntry {
+        final AtlasEntry mAtlas;
+        final ITextureRegion mTextureRegion;
+
+        RegionEntry(final AtlasEntry pAtlas, final ITextureRegion pTextureRegion){
+            this.mAtlas = pAtlas;
+            this.mTextureRegion = pTextureRegion;
+        }
+    }
+}
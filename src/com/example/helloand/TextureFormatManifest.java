@@ -0,0 +1,105 @@
+package com.example.helloand;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TextureFormatManifest says which texture format each image asset should
+ * be loaded in. It is written by the offline TextureConverter, which picks
+ * the cheapest format that still looks close enough to the original, and
+ * read by ResourceManager. Images it does not list keep the format the
+ * code asks for.
+ *
+ * ETC1 images are not decoded at all: the converter writes them as a PKM
+ * file next to the PNG, see getCompressedPath.
+ *
+ * <pre>
+ * magic (int) | version (short) | entry count (short)
+ * entry: asset path (UTF) | format (byte)
+ * </pre>
+ */
+public class TextureFormatManifest {
+
+    public static final int MAGIC = 0x4854464D; // "HTFM"
+    public static final short VERSION = 1;
+
+    // the formats, from the most to the least expensive per pixel
+    public static final int FORMAT_RGBA_8888 = 0;
+    public static final int FORMAT_RGBA_4444 = 1;
+    public static final int FORMAT_RGB_565 = 2;
+    public static final int FORMAT_ETC1 = 3;
+
+    private static final String[] FORMAT_NAMES = { "RGBA_8888", "RGBA_4444", "RGB_565", "ETC1" };
+
+    private static final String COMPRESSED_SUFFIX = ".pkm";
+
+    // asset path -> format, in the order they were added
+    private final Map<String, Integer> mFormats = new LinkedHashMap<String, Integer>();
+
+    public Map<String, Integer> getFormats(){
+        return mFormats;
+    }
+
+    public void setFormat(final String pAssetPath, final int pFormat){
+        if(pFormat < FORMAT_RGBA_8888 || pFormat > FORMAT_ETC1){
+            throw new IllegalArgumentException("Unknown texture format: " + pFormat);
+        }
+        mFormats.put(pAssetPath, pFormat);
+    }
+
+    // The format listed for an asset, or pDefaultFormat if it is not listed
+    public int getFormat(final String pAssetPath, final int pDefaultFormat){
+        final Integer format = mFormats.get(pAssetPath);
+        return format == null ? pDefaultFormat : format;
+    }
+
+    // Where the ETC1 version of an image asset is stored
+    public static String getCompressedPath(final String pAssetPath){
+        final int extension = pAssetPath.lastIndexOf('.');
+        return (extension > pAssetPath.lastIndexOf('/') ? pAssetPath.substring(0, extension) : pAssetPath)
+                + COMPRESSED_SUFFIX;
+    }
+
+    public static String getFormatName(final int pFormat){
+        return FORMAT_NAMES[pFormat];
+    }
+
+    public static TextureFormatManifest read(final InputStream pInputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(pInputStream);
+        if(in.readInt() != MAGIC){
+            throw new IOException("Not a texture format manifest");
+        }
+        final short version = in.readShort();
+        if(version != VERSION){
+            throw new IOException("Unsupported texture format manifest version: " + version);
+        }
+        final TextureFormatManifest manifest = new TextureFormatManifest();
+        final int count = in.readUnsignedShort();
+        for(int i = 0; i < count; i++){
+            final String path = in.readUTF();
+            final int format = in.readUnsignedByte();
+            if(format > FORMAT_ETC1){
+                throw new IOException("Unknown texture format " + format + " for " + path);
+            }
+            manifest.setFormat(path, format);
+        }
+        return manifest;
+    }
+
+    public void write(final OutputStream pOutputStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(pOutputStream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(mFormats.size());
+        for(final Map.Entry<String, Integer> entry : mFormats.entrySet()){
+            out.writeUTF(entry.getKey());
+            out.writeByte(entry.getValue());
+        }
+        out.flush();
+    }
+}
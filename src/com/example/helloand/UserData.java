@@ -1,16 +1,13 @@
 package com.example.helloand;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 /**
- * 
+ *
  * @author v-andrashko
  * UserData saves and loads data from file
  */
-public class UserData {
-    private static UserData INSTANCE;
-
+public class UserData implements StateSnapshotter.Source {
     // Include a 'filename' for our shared preferences
     private static final String PREFS_NAME = "GAME_USERDATA";
 
@@ -20,10 +17,18 @@ public class UserData {
     private static final String UNLOCKED_LEVEL_KEY = "unlockedLevels";
     private static final String SOUND_KEY = "soundKey";
 
-    /* Create our shared preferences object & editor which will
-       be used to save and load data */
-    private SharedPreferences mSettings;
-    private SharedPreferences.Editor mEditor;
+    // the settings as StateSnapshotter fields
+    public static final int FIELD_UNLOCKED_LEVELS = 0;
+    public static final int FIELD_SOUND_ENABLED = 1;
+    private static final int FIELD_COUNT = 2;
+
+    /* Changes are kept in memory and written to the preference store
+       on a background thread by the write-behind writer */
+    private WriteBehindWriter mWriter;
+
+    /* Once a restored snapshotter takes over, changes are only written to
+       its delta log and the preferences are no longer rewritten */
+    private StateSnapshotter mSnapshotter;
 
     // keep track of our max unlocked level
     private int mUnlockedLevels;
@@ -31,38 +36,53 @@ public class UserData {
     // keep track of whether or not sound is enabled
     private boolean mSoundEnabled;
 
+    // bumped with every change of a setting, so snapshots only write what changed
+    private final long[] mFieldVersions = new long[FIELD_COUNT];
+
     UserData() {
         // The constructor is of no use to us
     }
 
-    public synchronized static UserData getInstance() {
-        if(INSTANCE == null){
-            INSTANCE = new UserData();
-        }
-        return INSTANCE;
+    /* The holder class is only loaded the first time getInstance is
+     * called, so the instance is created lazily without getInstance
+     * taking a lock. init may run on a worker thread after startup.
+     */
+    private static class InstanceHolder {
+        static final UserData INSTANCE = new UserData();
+    }
+
+    public static UserData getInstance() {
+        return InstanceHolder.INSTANCE;
     }
 
     public synchronized void init(Context pContext) {
-        if (mSettings == null) {
+        if (mWriter == null) {
             /* Retrieve our shared preference file, or if it's not yet
              * created (first application execution) then create it now
              */
-            mSettings = pContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            init(new SharedPreferencesStore(pContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)),
+                    WriteBehindWriter.DEFAULT_FLUSH_INTERVAL_MILLIS);
+        }
+    }
 
-            /* Define the editor, used to store data to our preference file
-             */
-            mEditor = mSettings.edit();
+    /* init may also be handed any PreferenceStore, for example a
+     * FilePreferenceStore when running outside of Android
+     */
+    public synchronized void init(PreferenceStore pStore, long pFlushIntervalMillis) {
+        if (mWriter == null) {
+            mWriter = new WriteBehindWriter(pStore, pFlushIntervalMillis);
+            Profiler.addSource(mWriter);
 
             /* Retrieve our current unlocked levels. if the UNLOCKED_LEVEL_KEY
              * does not currently exist in our shared preferences, we'll create
              * the data to unlock level 1 by default
              */
-            mUnlockedLevels = mSettings.getInt(UNLOCKED_LEVEL_KEY, 1);
+            mUnlockedLevels = pStore.getInt(UNLOCKED_LEVEL_KEY, 1);
 
             /* Same idea as above, except we'll set the sound boolean to true
              * if the setting does not currently exist
              */
-            mSoundEnabled = mSettings.getBoolean(SOUND_KEY, true);
+            mSoundEnabled = pStore.getBoolean(SOUND_KEY, true);
         }
     }
 
@@ -83,27 +103,98 @@ public class UserData {
     public synchronized void unlockNextLevel() {
         // Increase the max level by 1
         mUnlockedLevels++;
+        mFieldVersions[FIELD_UNLOCKED_LEVELS]++;
 
-        /* Edit our shared preferences unlockedLevels key, setting its
-         * value our new mUnlockedLevels value
+        /* Mark our unlockedLevels key dirty with the new mUnlockedLevels
+         * value. The writer will store it on its background thread
          */
-        mEditor.putInt(UNLOCKED_LEVEL_KEY, mUnlockedLevels);
-
-        /* commit() must be called by the editor in order to save
-         * changes made to the shared preference data
-         */
-        mEditor.commit();
+        if (mSnapshotter != null) {
+            mSnapshotter.requestSnapshot();
+        } else {
+            mWriter.putInt(UNLOCKED_LEVEL_KEY, mUnlockedLevels);
+        }
     }
 
-    /* The setSoundMuted method uses the same idea for storing new data
-     * into the shared preferences. First, we overwrite the mSoundEnabled
-     * boolean, use the putBoolean method to store the data, and finally
-     * commit the data to the shared preferences
+    /* The setSoundMuted method uses the same idea for storing new data.
+     * First, we overwrite the mSoundEnabled boolean, then hand it to the
+     * writer. Setting the value it already has writes nothing at all
      */
     public synchronized void setSoundMuted(final boolean pEnableSound) {
+        if (mSoundEnabled == pEnableSound) {
+            return;
+        }
         mSoundEnabled = pEnableSound;
-        mEditor.putBoolean(SOUND_KEY, mSoundEnabled);
-        mEditor.commit();
+        mFieldVersions[FIELD_SOUND_ENABLED]++;
+        if (mSnapshotter != null) {
+            mSnapshotter.requestSnapshot();
+        } else {
+            mWriter.putBoolean(SOUND_KEY, mSoundEnabled);
+        }
+    }
+
+    /* Persist every later change through the snapshotter's delta log
+     * instead of the preferences. Only hand over a snapshotter which was
+     * restored, since one that was not writes nothing. The preferences
+     * keep the values they had, and are only read for fields a snapshot
+     * has never written
+     */
+    public synchronized void setSnapshotter(final StateSnapshotter pSnapshotter) {
+        mSnapshotter = pSnapshotter;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return FIELD_COUNT;
+    }
+
+    @Override
+    public synchronized long getFieldVersion(final int pField) {
+        return mFieldVersions[pField];
+    }
+
+    @Override
+    public synchronized int getFieldValue(final int pField) {
+        switch (pField) {
+        case FIELD_UNLOCKED_LEVELS:
+            return mUnlockedLevels;
+        case FIELD_SOUND_ENABLED:
+            return mSoundEnabled ? 1 : 0;
+        default:
+            throw new IllegalArgumentException("Unknown field: " + pField);
+        }
+    }
+
+    /* A snapshot is restored after init, so its values win over the
+     * preferences. They are not written back, the snapshot is where the
+     * settings live from then on
+     */
+    @Override
+    public synchronized void restoreField(final int pField, final int pValue) {
+        switch (pField) {
+        case FIELD_UNLOCKED_LEVELS:
+            mUnlockedLevels = pValue;
+            break;
+        case FIELD_SOUND_ENABLED:
+            mSoundEnabled = pValue != 0;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown field: " + pField);
+        }
+        mFieldVersions[pField]++;
+    }
+
+    /* Called when the game pauses, so pending changes reach the disk
+     * without waiting for the flush interval
+     */
+    public synchronized void onPauseGame() {
+        if (mWriter != null) {
+            mWriter.requestFlush();
+        }
+    }
+
+    // the writer exposes flush latency and coalescing statistics
+    public synchronized WriteBehindWriter getWriter() {
+        return mWriter;
     }
 
 }
@@ -0,0 +1,216 @@
+package com.example.helloand;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * WriteBehindWriter takes the disk I/O out of preference updates. Values
+ * are put into a dirty set right away and written to the PreferenceStore
+ * later as an IoExecutor save task, either once the flush interval has
+ * passed or when a flush is requested (e.g. when the game pauses).
+ *
+ * Writing the same key several times before a flush only writes its last
+ * value; these coalesced writes are counted along with flush latencies.
+ * A background flush that fails keeps its values dirty and is retried,
+ * waiting twice as long after every failure, from at least
+ * MIN_RETRY_DELAY_MILLIS up to MAX_RETRY_DELAY_MILLIS.
+ */
+public class WriteBehindWriter implements Profiler.MetricsSource {
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 2000;
+    public static final long MIN_RETRY_DELAY_MILLIS = 500;
+    public static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+
+    private final PreferenceStore mStore;
+    private final long mFlushIntervalMillis;
+    private final IoExecutor mExecutor;
+
+    // values waiting to be written, guarded by this
+    private Map<String, Object> mDirty = new LinkedHashMap<String, Object>();
+    private boolean mFlushScheduled;
+    private boolean mShutdown;
+    // how long the next retry waits, 0 while flushes succeed
+    private long mRetryDelayMillis;
+
+    // only one batch is written at a time, in the order they were taken
+    private final Object mFlushLock = new Object();
+
+    // statistics, guarded by this
+    private long mWriteCount;
+    private long mCoalescedWriteCount;
+    private long mFlushCount;
+    private long mFailedFlushCount;
+    private long mLastFlushLatencyNanos;
+    private long mMaxFlushLatencyNanos;
+    private long mTotalFlushLatencyNanos;
+
+    public WriteBehindWriter(final PreferenceStore pStore, final long pFlushIntervalMillis){
+        this(pStore, pFlushIntervalMillis, IoExecutor.getInstance());
+    }
+
+    public WriteBehindWriter(final PreferenceStore pStore, final long pFlushIntervalMillis,
+            final IoExecutor pExecutor){
+        this.mStore = pStore;
+        this.mFlushIntervalMillis = pFlushIntervalMillis;
+        this.mExecutor = pExecutor;
+    }
+
+    public PreferenceStore getStore(){
+        return mStore;
+    }
+
+    public void putInt(final String pKey, final int pValue){
+        put(pKey, Integer.valueOf(pValue));
+    }
+
+    public void putBoolean(final String pKey, final boolean pValue){
+        put(pKey, Boolean.valueOf(pValue));
+    }
+
+    private synchronized void put(final String pKey, final Object pValue){
+        mWriteCount++;
+        if(mDirty.put(pKey, pValue) != null){
+            mCoalescedWriteCount++;
+        }
+        // the first dirty value opens a window in which later writes coalesce
+        scheduleFlush();
+    }
+
+    private synchronized void scheduleFlush(){
+        if(!mFlushScheduled && !mShutdown && !mDirty.isEmpty()){
+            mFlushScheduled = true;
+            mExecutor.schedule(IoExecutor.CATEGORY_SAVE, mFlushTask, mFlushIntervalMillis);
+        }
+    }
+
+    /* Ask for the dirty set to be written in the background now, without
+     * waiting. Should the save queue be full, the values go with the
+     * scheduled flush instead.
+     */
+    public void requestFlush(){
+        if(mExecutor.trySubmit(IoExecutor.CATEGORY_SAVE, mFlushTask) == null){
+            scheduleFlush();
+        }
+    }
+
+    /* Write the dirty set on the calling thread and return once it is stored.
+     * This blocks, so it is meant for shutdown and tests rather than the
+     * game or UI thread.
+     */
+    public void flush() throws IOException {
+        synchronized(mFlushLock){
+            final Map<String, Object> batch;
+            synchronized(this){
+                mFlushScheduled = false;
+                if(mDirty.isEmpty()){
+                    return;
+                }
+                batch = mDirty;
+                mDirty = new LinkedHashMap<String, Object>();
+            }
+            final long start = System.nanoTime();
+            try {
+                mStore.write(batch);
+            } catch(IOException e){
+                synchronized(this){
+                    mFailedFlushCount++;
+                    // keep the failed values unless they have been overwritten meanwhile
+                    for(final Map.Entry<String, Object> entry : batch.entrySet()){
+                        if(!mDirty.containsKey(entry.getKey())){
+                            mDirty.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                throw e;
+            }
+            final long latency = System.nanoTime() - start;
+            synchronized(this){
+                mRetryDelayMillis = 0;
+                mFlushCount++;
+                mLastFlushLatencyNanos = latency;
+                mTotalFlushLatencyNanos += latency;
+                if(latency > mMaxFlushLatencyNanos){
+                    mMaxFlushLatencyNanos = latency;
+                }
+            }
+        }
+    }
+
+    /* Flush whatever is left. Later writes are no longer flushed in the
+     * background, only by flush.
+     */
+    public void shutdown() throws IOException {
+        synchronized(this){
+            mShutdown = true;
+        }
+        flush();
+    }
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch(IOException e){
+                // counted by flush, see onReport; the values stay dirty until the retry
+                scheduleRetry();
+            }
+        }
+    };
+
+    private synchronized void scheduleRetry(){
+        if(mFlushScheduled || mShutdown || mDirty.isEmpty()){
+            return;
+        }
+        mRetryDelayMillis = mRetryDelayMillis == 0 ? Math.max(mFlushIntervalMillis, MIN_RETRY_DELAY_MILLIS)
+                : Math.min(mRetryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+        mFlushScheduled = true;
+        mExecutor.schedule(IoExecutor.CATEGORY_SAVE, mFlushTask, mRetryDelayMillis);
+    }
+
+    public synchronized int getDirtyCount(){
+        return mDirty.size();
+    }
+
+    // every put call
+    public synchronized long getWriteCount(){
+        return mWriteCount;
+    }
+
+    // put calls that replaced a value which had not been flushed yet
+    public synchronized long getCoalescedWriteCount(){
+        return mCoalescedWriteCount;
+    }
+
+    public synchronized long getFlushCount(){
+        return mFlushCount;
+    }
+
+    public synchronized long getFailedFlushCount(){
+        return mFailedFlushCount;
+    }
+
+    public synchronized long getLastFlushLatencyNanos(){
+        return mLastFlushLatencyNanos;
+    }
+
+    public synchronized long getMaxFlushLatencyNanos(){
+        return mMaxFlushLatencyNanos;
+    }
+
+    public synchronized long getAverageFlushLatencyNanos(){
+        return mFlushCount == 0 ? 0 : mTotalFlushLatencyNanos / mFlushCount;
+    }
+
+    @Override
+    public synchronized void onReport(final PrintWriter pOut){
+        pOut.println("preference writes: " + mWriteCount + ", coalesced " + mCoalescedWriteCount
+                + ", dirty " + mDirty.size());
+        pOut.println("preference flushes: " + mFlushCount + ", failed " + mFailedFlushCount
+                + ", avg " + getAverageFlushLatencyNanos() / 1000 + " us, max "
+                + mMaxFlushLatencyNanos / 1000 + " us"
+                + (mRetryDelayMillis > 0 ? ", retrying in " + mRetryDelayMillis + " ms" : ""));
+    }
+}
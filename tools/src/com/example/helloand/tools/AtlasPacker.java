@@ -0,0 +1,216 @@
+package com.example.helloand.tools;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import com.example.helloand.AtlasManifest;
+
+/**
+ * AtlasPacker is the offline step that packs the loose images in
+ * assets/gfx/ into power-of-two atlas pages. It writes one PNG per page
+ * plus an AtlasManifest describing where every image went, which is all
+ * ResourceManager needs at runtime.
+ *
+ * Usage: AtlasPacker [-x excluded.png ...] inputDir outputDir
+ *
+ * Images that have to stay on their own texture, like repeating textures,
+ * are excluded with -x. Page images are named page0.png, page1.png, ...
+ * and the manifest is written as atlas.bin.
+ */
+public class AtlasPacker {
+
+    public static final String MANIFEST_NAME = "atlas.bin";
+
+    // pages never grow beyond what every GLES2 device supports
+    private static final int MAX_PAGE_SIZE = 2048;
+
+    // empty pixels kept around every image so filtering does not bleed
+    private static final int PADDING = 2;
+
+    public static void main(String[] pArgs) throws IOException {
+        final Set<String> excluded = new HashSet<String>();
+        final List<String> paths = new ArrayList<String>();
+        for(int i = 0; i < pArgs.length; i++){
+            if("-x".equals(pArgs[i]) && i + 1 < pArgs.length){
+                excluded.add(pArgs[++i]);
+            } else {
+                paths.add(pArgs[i]);
+            }
+        }
+        if(paths.size() != 2){
+            System.err.println("Usage: AtlasPacker [-x excluded.png ...] inputDir outputDir");
+            System.exit(1);
+        }
+        pack(new File(paths.get(0)), new File(paths.get(1)), excluded);
+    }
+
+    public static AtlasManifest pack(final File pInputDir, final File pOutputDir, final Set<String> pExcluded) throws IOException {
+        final File[] files = pInputDir.listFiles();
+        if(files == null){
+            throw new IOException("Not a directory: " + pInputDir);
+        }
+        // sorted input makes the output reproducible
+        Arrays.sort(files);
+
+        final List<Sprite> sprites = new ArrayList<Sprite>();
+        for(final File file : files){
+            if(file.isFile() && file.getName().endsWith(".png") && !pExcluded.contains(file.getName())){
+                final BufferedImage image = ImageIO.read(file);
+                if(image == null){
+                    throw new IOException("Failed to read " + file);
+                }
+                sprites.add(new Sprite(file.getName(), image));
+            }
+        }
+
+        // tall images first packs shelves with little wasted height
+        Collections.sort(sprites, new Comparator<Sprite>() {
+            @Override
+            public int compare(final Sprite pA, final Sprite pB) {
+                final int byHeight = pB.mImage.getHeight() - pA.mImage.getHeight();
+                return byHeight != 0 ? byHeight : pA.mName.compareTo(pB.mName);
+            }
+        });
+
+        if(!pOutputDir.isDirectory() && !pOutputDir.mkdirs()){
+            throw new IOException("Failed to create " + pOutputDir);
+        }
+        final String assetDir = assetPath(pOutputDir);
+        final AtlasManifest manifest = new AtlasManifest();
+        List<Sprite> remaining = sprites;
+        while(!remaining.isEmpty()){
+            final int pageIndex = manifest.getPages().size();
+            final int[] size = choosePageSize(remaining);
+            final List<Sprite> placed = new ArrayList<Sprite>();
+            final List<Sprite> left = new ArrayList<Sprite>();
+            shelfPack(remaining, size[0], size[1], placed, left);
+            if(placed.isEmpty()){
+                throw new IOException("Image too large for an atlas page: " + remaining.get(0).mName);
+            }
+
+            final BufferedImage page = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_ARGB);
+            boolean opaque = true;
+            // one context draws the whole page, and is given back once it is done
+            final Graphics2D graphics = page.createGraphics();
+            try {
+                for(final Sprite sprite : placed){
+                    graphics.drawImage(sprite.mImage, sprite.mX, sprite.mY, null);
+                    opaque &= sprite.mImage.getColorModel().getTransparency() == java.awt.Transparency.OPAQUE;
+                    manifest.addRegion(sprite.mName, pageIndex, sprite.mX, sprite.mY,
+                            sprite.mImage.getWidth(), sprite.mImage.getHeight());
+                }
+            } finally {
+                graphics.dispose();
+            }
+            final String pageName = "page" + pageIndex + ".png";
+            ImageIO.write(page, "png", new File(pOutputDir, pageName));
+            manifest.addPage(assetDir + pageName, size[0], size[1], opaque);
+            remaining = left;
+        }
+
+        final OutputStream out = new FileOutputStream(new File(pOutputDir, MANIFEST_NAME));
+        try {
+            manifest.write(out);
+        } finally {
+            out.close();
+        }
+        return manifest;
+    }
+
+    /* Start with the smallest power-of-two square that could hold all
+     * images and grow one side at a time until they fit or we hit the
+     * maximum page size.
+     */
+    private static int[] choosePageSize(final List<Sprite> pSprites){
+        long area = 0;
+        int maxWidth = 1;
+        int maxHeight = 1;
+        for(final Sprite sprite : pSprites){
+            final int width = sprite.mImage.getWidth() + PADDING;
+            final int height = sprite.mImage.getHeight() + PADDING;
+            area += (long) width * height;
+            maxWidth = Math.max(maxWidth, width + PADDING);
+            maxHeight = Math.max(maxHeight, height + PADDING);
+        }
+        int width = nextPowerOfTwo(Math.max(maxWidth, (int) Math.sqrt(area)));
+        int height = nextPowerOfTwo(Math.max(maxHeight, (int) Math.sqrt(area)));
+        while(true){
+            final List<Sprite> left = new ArrayList<Sprite>();
+            shelfPack(pSprites, width, height, new ArrayList<Sprite>(), left);
+            if(left.isEmpty() || (width >= MAX_PAGE_SIZE && height >= MAX_PAGE_SIZE)){
+                return new int[] { Math.min(width, MAX_PAGE_SIZE), Math.min(height, MAX_PAGE_SIZE) };
+            }
+            if(width <= height){
+                width *= 2;
+            } else {
+                height *= 2;
+            }
+        }
+    }
+
+    // Place images left to right on shelves, starting a new shelf when a row is full
+    private static void shelfPack(final List<Sprite> pSprites, final int pWidth, final int pHeight,
+            final List<Sprite> pPlaced, final List<Sprite> pLeft){
+        int x = PADDING;
+        int y = PADDING;
+        int shelfHeight = 0;
+        for(final Sprite sprite : pSprites){
+            final int width = sprite.mImage.getWidth();
+            final int height = sprite.mImage.getHeight();
+            if(x + width + PADDING > pWidth){
+                x = PADDING;
+                y += shelfHeight + PADDING;
+                shelfHeight = 0;
+            }
+            if(x + width + PADDING > pWidth || y + height + PADDING > pHeight){
+                pLeft.add(sprite);
+                continue;
+            }
+            sprite.mX = x;
+            sprite.mY = y;
+            pPlaced.add(sprite);
+            x += width + PADDING;
+            shelfHeight = Math.max(shelfHeight, height);
+        }
+    }
+
+    private static int nextPowerOfTwo(final int pValue){
+        int result = 1;
+        while(result < pValue){
+            result <<= 1;
+        }
+        return result;
+    }
+
+    // the output directory relative to assets/, which is what AssetManager expects
+    private static String assetPath(final File pOutputDir){
+        final String path = pOutputDir.getPath().replace(File.separatorChar, '/') + "/";
+        final int assets = path.lastIndexOf("assets/");
+        return assets < 0 ? "" : path.substring(assets + "assets/".length());
+    }
+
+    private static class Sprite {
+        final String mName;
+        final BufferedImage mImage;
+        int mX;
+        int mY;
+
+        Sprite(final String pName, final BufferedImage pImage){
+            this.mName = pName;
+            this.mImage = pImage;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.helloand.tools;
+
+import com.example.helloand.PkmHeader;
+
+/**
+ * Etc1Codec compresses ARGB pixels into ETC1 blocks and decompresses them
+ * again, so TextureConverter can measure what ETC1 does to an image.
+ *
+ * Every 4x4 block is split into two halves, side by side or on top of
+ * each other. Each half gets a base color and one of eight intensity
+ * tables, and every pixel picks one of the table's four modifiers. The
+ * encoder tries both splits, and for each both the individual (4 bit
+ * colors) and the differential (5 bit color plus 3 bit delta) mode,
+ * with the halves' average colors as base colors, and keeps the block
+ * with the smallest error. That is far from the best an encoder can do,
+ * but good enough to decide whether ETC1 suits an image.
+ *
+ * Blocks are stored as in a PKM file: row by row, 8 big-endian bytes each.
+ */
+public class Etc1Codec {
+
+    // the intensity modifier tables, the negative halves are implied
+    private static final int[][] MODIFIERS = {
+        { 2, 8 }, { 5, 17 }, { 9, 29 }, { 13, 42 },
+        { 18, 60 }, { 24, 80 }, { 33, 106 }, { 47, 183 } };
+
+    private static final int BLOCK_SIZE = PkmHeader.BLOCK_SIZE;
+
+    // Etc1Codec only has static members
+    private Etc1Codec(){
+    }
+
+    /* Compress pWidth x pHeight ARGB pixels. Alpha is ignored. Edge
+     * blocks of images whose size is not a multiple of 4 repeat the last
+     * row and column.
+     */
+    public static byte[] encode(final int[] pPixels, final int pWidth, final int pHeight){
+        final PkmHeader header = new PkmHeader(pWidth, pHeight);
+        final byte[] data = new byte[header.getDataSize()];
+        final int[] block = new int[BLOCK_SIZE * BLOCK_SIZE];
+        int offset = 0;
+        for(int blockY = 0; blockY < header.getEncodedHeight(); blockY += BLOCK_SIZE){
+            for(int blockX = 0; blockX < header.getEncodedWidth(); blockX += BLOCK_SIZE){
+                for(int y = 0; y < BLOCK_SIZE; y++){
+                    for(int x = 0; x < BLOCK_SIZE; x++){
+                        final int sourceX = Math.min(blockX + x, pWidth - 1);
+                        final int sourceY = Math.min(blockY + y, pHeight - 1);
+                        block[y * BLOCK_SIZE + x] = pPixels[sourceY * pWidth + sourceX];
+                    }
+                }
+                final long encoded = encodeBlock(block);
+                for(int i = 0; i < PkmHeader.BLOCK_BYTES; i++){
+                    data[offset++] = (byte) (encoded >>> (56 - 8 * i));
+                }
+            }
+        }
+        return data;
+    }
+
+    // Decompress blocks back into opaque ARGB pixels
+    public static int[] decode(final byte[] pData, final int pWidth, final int pHeight){
+        final PkmHeader header = new PkmHeader(pWidth, pHeight);
+        final int[] pixels = new int[pWidth * pHeight];
+        final int[] block = new int[BLOCK_SIZE * BLOCK_SIZE];
+        int offset = 0;
+        for(int blockY = 0; blockY < header.getEncodedHeight(); blockY += BLOCK_SIZE){
+            for(int blockX = 0; blockX < header.getEncodedWidth(); blockX += BLOCK_SIZE){
+                long encoded = 0;
+                for(int i = 0; i < PkmHeader.BLOCK_BYTES; i++){
+                    encoded = (encoded << 8) | (pData[offset++] & 0xFF);
+                }
+                decodeBlock(encoded, block);
+                for(int y = 0; y < BLOCK_SIZE && blockY + y < pHeight; y++){
+                    for(int x = 0; x < BLOCK_SIZE && blockX + x < pWidth; x++){
+                        pixels[(blockY + y) * pWidth + blockX + x] = block[y * BLOCK_SIZE + x];
+                    }
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static long encodeBlock(final int[] pBlock){
+        long best = 0;
+        long bestError = Long.MAX_VALUE;
+        final long[] error = new long[1];
+        for(int flip = 0; flip < 2; flip++){
+            final int[] first = average(pBlock, flip, 0);
+            final int[] second = average(pBlock, flip, 1);
+            for(int differential = 0; differential < 2; differential++){
+                final long block = encodeBlock(pBlock, flip == 1, differential == 1, first, second, error);
+                if(block != -1 && error[0] < bestError){
+                    best = block;
+                    bestError = error[0];
+                }
+            }
+        }
+        return best;
+    }
+
+    /* Encode a block with the given split and mode, returning -1 if the
+     * two base colors are too far apart for the differential mode.
+     */
+    private static long encodeBlock(final int[] pBlock, final boolean pFlip, final boolean pDifferential,
+            final int[] pFirst, final int[] pSecond, final long[] pError){
+        final int[] base1 = new int[3];
+        final int[] base2 = new int[3];
+        long high = 0;
+        for(int channel = 0; channel < 3; channel++){
+            final int value1;
+            final int value2;
+            if(pDifferential){
+                value1 = quantize(pFirst[channel], 5);
+                final int delta = quantize(pSecond[channel], 5) - value1;
+                if(delta < -4 || delta > 3){
+                    return -1;
+                }
+                value2 = value1 + delta;
+                base1[channel] = expand5(value1);
+                base2[channel] = expand5(value2);
+                high |= (long) ((value1 << 3) | (delta & 7)) << (56 - 8 * channel);
+            } else {
+                value1 = quantize(pFirst[channel], 4);
+                value2 = quantize(pSecond[channel], 4);
+                base1[channel] = (value1 << 4) | value1;
+                base2[channel] = (value2 << 4) | value2;
+                high |= (long) ((value1 << 4) | value2) << (56 - 8 * channel);
+            }
+        }
+        long indices = 0;
+        long error = 0;
+        for(int half = 0; half < 2; half++){
+            final int[] base = half == 0 ? base1 : base2;
+            int bestTable = 0;
+            long bestError = Long.MAX_VALUE;
+            for(int table = 0; table < MODIFIERS.length; table++){
+                long tableError = 0;
+                for(int i = 0; i < pBlock.length; i++){
+                    if(halfOf(i, pFlip) == half){
+                        tableError += bestModifierError(pBlock[i], base, table, null);
+                    }
+                }
+                if(tableError < bestError){
+                    bestError = tableError;
+                    bestTable = table;
+                }
+            }
+            error += bestError;
+            high |= (long) bestTable << (37 - 3 * half);
+            final int[] modifier = new int[1];
+            for(int i = 0; i < pBlock.length; i++){
+                if(halfOf(i, pFlip) == half){
+                    bestModifierError(pBlock[i], base, bestTable, modifier);
+                    // pixel indices are stored column by column, most significant bits first
+                    final int bit = (i % BLOCK_SIZE) * BLOCK_SIZE + i / BLOCK_SIZE;
+                    indices |= (long) (modifier[0] >> 1) << (16 + bit);
+                    indices |= (long) (modifier[0] & 1) << bit;
+                }
+            }
+        }
+        if(pDifferential){
+            high |= 1L << 33;
+        }
+        if(pFlip){
+            high |= 1L << 32;
+        }
+        pError[0] = error;
+        return high | indices;
+    }
+
+    private static void decodeBlock(final long pBlock, final int[] pPixels){
+        final boolean differential = (pBlock & (1L << 33)) != 0;
+        final boolean flip = (pBlock & (1L << 32)) != 0;
+        final int[] base1 = new int[3];
+        final int[] base2 = new int[3];
+        for(int channel = 0; channel < 3; channel++){
+            final int value = (int) (pBlock >>> (56 - 8 * channel)) & 0xFF;
+            if(differential){
+                final int value1 = value >> 3;
+                final int delta = ((value & 7) ^ 4) - 4;
+                base1[channel] = expand5(value1);
+                base2[channel] = expand5(value1 + delta);
+            } else {
+                base1[channel] = (value >> 4) * 0x11;
+                base2[channel] = (value & 15) * 0x11;
+            }
+        }
+        final int table1 = (int) (pBlock >>> 37) & 7;
+        final int table2 = (int) (pBlock >>> 34) & 7;
+        for(int i = 0; i < pPixels.length; i++){
+            final int bit = (i % BLOCK_SIZE) * BLOCK_SIZE + i / BLOCK_SIZE;
+            final int index = (int) ((pBlock >>> (16 + bit)) & 1) << 1 | (int) ((pBlock >>> bit) & 1);
+            final boolean first = halfOf(i, flip) == 0;
+            final int modifier = modifier(first ? table1 : table2, index);
+            final int[] base = first ? base1 : base2;
+            pPixels[i] = 0xFF000000 | clamp(base[0] + modifier) << 16 | clamp(base[1] + modifier) << 8
+                    | clamp(base[2] + modifier);
+        }
+    }
+
+    /* The squared error of the best modifier of a table for one pixel. The
+     * index of that modifier goes into pModifier unless it is null.
+     */
+    private static long bestModifierError(final int pPixel, final int[] pBase, final int pTable, final int[] pModifier){
+        long best = Long.MAX_VALUE;
+        for(int index = 0; index < 4; index++){
+            final int modifier = modifier(pTable, index);
+            final int red = clamp(pBase[0] + modifier) - ((pPixel >> 16) & 0xFF);
+            final int green = clamp(pBase[1] + modifier) - ((pPixel >> 8) & 0xFF);
+            final int blue = clamp(pBase[2] + modifier) - (pPixel & 0xFF);
+            final long error = red * red + green * green + blue * blue;
+            if(error < best){
+                best = error;
+                if(pModifier != null){
+                    pModifier[0] = index;
+                }
+            }
+        }
+        return best;
+    }
+
+    // index 0 and 1 are the table's positive modifiers, 2 and 3 their negatives
+    private static int modifier(final int pTable, final int pIndex){
+        final int magnitude = MODIFIERS[pTable][pIndex & 1];
+        return pIndex < 2 ? magnitude : -magnitude;
+    }
+
+    // 0 for the first half of a block, 1 for the second
+    private static int halfOf(final int pIndex, final boolean pFlip){
+        return pFlip ? (pIndex / BLOCK_SIZE) / 2 : (pIndex % BLOCK_SIZE) / 2;
+    }
+
+    private static int[] average(final int[] pBlock, final int pFlip, final int pHalf){
+        final int[] sum = new int[3];
+        for(int i = 0; i < pBlock.length; i++){
+            if(halfOf(i, pFlip == 1) == pHalf){
+                sum[0] += (pBlock[i] >> 16) & 0xFF;
+                sum[1] += (pBlock[i] >> 8) & 0xFF;
+                sum[2] += pBlock[i] & 0xFF;
+            }
+        }
+        final int count = pBlock.length / 2;
+        return new int[] { sum[0] / count, sum[1] / count, sum[2] / count };
+    }
+
+    private static int quantize(final int pValue, final int pBits){
+        final int max = (1 << pBits) - 1;
+        return (pValue * max + 127) / 255;
+    }
+
+    private static int expand5(final int pValue){
+        return (pValue << 3) | (pValue >> 2);
+    }
+
+    private static int clamp(final int pValue){
+        return pValue < 0 ? 0 : (pValue > 255 ? 255 : pValue);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.helloand.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.example.helloand.EntityStore;
+import com.example.helloand.LevelChunk;
+import com.example.helloand.LevelManifest;
+
+/**
+ * LevelBuilder generates a level for LevelStreamer: a grid of chunks with
+ * large and small objects scattered over them, drawn with the same packed
+ * images as the game's own entities. The same seed always builds the same
+ * level.
+ *
+ * Usage: LevelBuilder [-seed n] [-entities n] assetsDir level columns rows chunkWidth chunkHeight
+ *
+ * -entities is the number of entities per chunk, at most 256 since that
+ * is what a chunk batch draws.
+ */
+public class LevelBuilder {
+
+    private static final int MAX_ENTITIES_PER_CHUNK = 256;
+
+    // the images the entity types are drawn with, as in PacktRecipesActivity
+    private static final String LARGE_OBJECT_IMAGE = "gfx/rectangle_three.png";
+    private static final String SMALL_OBJECT_IMAGE = "gfx/rectangle_one.png";
+
+    public static void main(String[] pArgs) throws IOException {
+        long seed = 1;
+        int entities = 16;
+        final List<String> args = new ArrayList<String>();
+        for(int i = 0; i < pArgs.length; i++){
+            if("-seed".equals(pArgs[i]) && i + 1 < pArgs.length){
+                seed = Long.parseLong(pArgs[++i]);
+            } else if("-entities".equals(pArgs[i]) && i + 1 < pArgs.length){
+                entities = Integer.parseInt(pArgs[++i]);
+            } else {
+                args.add(pArgs[i]);
+            }
+        }
+        if(args.size() != 6 || entities < 0 || entities > MAX_ENTITIES_PER_CHUNK){
+            System.err.println("Usage: LevelBuilder [-seed n] [-entities n] assetsDir level columns rows chunkWidth chunkHeight");
+            System.exit(1);
+        }
+        final LevelManifest manifest = new LevelManifest(Integer.parseInt(args.get(4)), Integer.parseInt(args.get(5)),
+                Integer.parseInt(args.get(2)), Integer.parseInt(args.get(3)));
+        build(new File(args.get(0)), Integer.parseInt(args.get(1)), manifest, entities, seed);
+    }
+
+    public static void build(final File pAssetsDir, final int pLevel, final LevelManifest pManifest,
+            final int pEntitiesPerChunk, final long pSeed) throws IOException {
+        pManifest.setImagePath(EntityStore.TYPE_LARGE_OBJECT, LARGE_OBJECT_IMAGE);
+        pManifest.setImagePath(EntityStore.TYPE_SMALL_OBJECT, SMALL_OBJECT_IMAGE);
+        final File manifestFile = new File(pAssetsDir, LevelManifest.getManifestPath(pLevel));
+        manifestFile.getParentFile().mkdirs();
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(manifestFile));
+        try {
+            pManifest.write(out);
+        } finally {
+            out.close();
+        }
+
+        final Random random = new Random(pSeed);
+        final int chunkWidth = pManifest.getChunkWidth();
+        final int chunkHeight = pManifest.getChunkHeight();
+        for(int row = 0; row < pManifest.getRows(); row++){
+            for(int column = 0; column < pManifest.getColumns(); column++){
+                final int originX = column * chunkWidth;
+                final int originY = row * chunkHeight;
+                final int[] types = new int[pEntitiesPerChunk];
+                final int[] x = new int[pEntitiesPerChunk];
+                final int[] y = new int[pEntitiesPerChunk];
+                for(int i = 0; i < pEntitiesPerChunk; i++){
+                    types[i] = random.nextBoolean() ? EntityStore.TYPE_LARGE_OBJECT : EntityStore.TYPE_SMALL_OBJECT;
+                    x[i] = originX + random.nextInt(chunkWidth);
+                    y[i] = originY + random.nextInt(chunkHeight);
+                }
+                writeChunk(new File(pAssetsDir, LevelManifest.getChunkPath(pLevel, column, row)),
+                        new LevelChunk(originX, originY, types, x, y));
+            }
+        }
+        System.out.printf("level %d: %d x %d chunks of %d x %d, %d entities each%n", pLevel,
+                pManifest.getColumns(), pManifest.getRows(), chunkWidth, chunkHeight, pEntitiesPerChunk);
+    }
+
+    private static void writeChunk(final File pFile, final LevelChunk pChunk) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(pFile));
+        try {
+            pChunk.write(out);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.helloand.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.example.helloand.EntityCuller;
+import com.example.helloand.GameJournal;
+import com.example.helloand.Histogram;
+import com.example.helloand.ParallelUpdateStage;
+import com.example.helloand.Simulation;
+import com.example.helloand.StateSnapshotter;
+
+/**
+ * SimulationRunner load-tests the game logic on a desktop JVM. It drives
+ * one or more headless Simulations through a number of fixed steps as fast
+ * as the CPU allows, then reports steps per second and the per-step
+ * latency percentiles.
+ *
+ * Usage: SimulationRunner [-steps n] [-entities n] [-seed n] [-simulations n] [-threads n] [-workers n] [-cull on|off] [-journal dir] [-snapshot dir]
+ *
+ * Simulation i is seeded with seed + i, so every run with the same
+ * arguments plays the same games; the checksums printed for each
+ * simulation must match from run to run. -workers sets the threads each
+ * simulation's update stage uses, which must not change the checksums
+ * either. Each simulation's total score sums the scores its rounds ended
+ * with; the runner fails if any simulation scored nothing.
+ *
+ * -cull on gives every simulation a viewport, the middle quarter of the
+ * world, and moves entities beyond THROTTLE_DISTANCE from it only every
+ * THROTTLE_INTERVAL steps and those beyond SLEEP_DISTANCE not at all. That
+ * changes the game, so the checksums differ from those of a run without.
+ *
+ * -journal dir journals every simulation's GameManager into
+ * dir/journal-seed.bin, creating dir if need be, and once the run is over
+ * checks that replaying the journal arrives at the same counters as the
+ * game did; the runner fails if any replay differs.
+ *
+ * -snapshot dir snapshots every simulation's GameManager into
+ * dir/state-seed.base and dir/state-seed.log every SNAPSHOT_INTERVAL_STEPS
+ * steps, creating dir if need be, then reports the bytes the deltas took
+ * and how long restoring them into a fresh GameManager took, and checks
+ * that it arrives at the same counters; the runner fails if any restore
+ * differs.
+ */
+public class SimulationRunner {
+
+    // the culling policies of -cull on, in pixels from the viewport
+    private static final int THROTTLE_DISTANCE = 100;
+    private static final int THROTTLE_INTERVAL = 4;
+    private static final int SLEEP_DISTANCE = 200;
+
+    // events each journal holds in memory before they must be spilled
+    private static final int JOURNAL_CAPACITY = 65536;
+
+    // once a second at the game's rate
+    private static final int SNAPSHOT_INTERVAL_STEPS = 60;
+    private static final int SNAPSHOT_SOURCE_ID = 1;
+
+    public static void main(String[] pArgs) throws InterruptedException, ExecutionException {
+        long steps = 100000;
+        int entities = 1000;
+        long seed = 1;
+        int simulations = 1;
+        int threads = 0;
+        int workers = 1;
+        boolean cull = false;
+        File journalDir = null;
+        File snapshotDir = null;
+        for(int i = 0; i + 1 < pArgs.length; i += 2){
+            final String value = pArgs[i + 1];
+            if("-steps".equals(pArgs[i])){
+                steps = Long.parseLong(value);
+            } else if("-entities".equals(pArgs[i])){
+                entities = Integer.parseInt(value);
+            } else if("-seed".equals(pArgs[i])){
+                seed = Long.parseLong(value);
+            } else if("-simulations".equals(pArgs[i])){
+                simulations = Integer.parseInt(value);
+            } else if("-threads".equals(pArgs[i])){
+                threads = Integer.parseInt(value);
+            } else if("-workers".equals(pArgs[i])){
+                workers = Integer.parseInt(value);
+            } else if("-cull".equals(pArgs[i])){
+                cull = "on".equals(value);
+            } else if("-journal".equals(pArgs[i])){
+                journalDir = new File(value);
+            } else if("-snapshot".equals(pArgs[i])){
+                snapshotDir = new File(value);
+            } else {
+                System.err.println("Usage: SimulationRunner [-steps n] [-entities n] [-seed n] [-simulations n] [-threads n] [-workers n] [-cull on|off] [-journal dir] [-snapshot dir]");
+                System.exit(1);
+            }
+        }
+        if(threads <= 0){
+            // one thread per core, but no more than there are simulations
+            threads = Math.min(simulations, Runtime.getRuntime().availableProcessors());
+        }
+        if(journalDir != null){
+            requireDirectory("-journal", journalDir);
+        }
+        if(snapshotDir != null){
+            requireDirectory("-snapshot", snapshotDir);
+        }
+        run(steps, entities, seed, simulations, threads, workers, cull, journalDir, snapshotDir);
+    }
+
+    // Creates pDir unless it exists, or exits with an error
+    private static void requireDirectory(final String pOption, final File pDir){
+        if(!pDir.isDirectory() && !pDir.mkdirs()){
+            System.err.println(pOption + ": cannot create directory " + pDir);
+            System.exit(1);
+        }
+    }
+
+    public static void run(final long pSteps, final int pEntities, final long pSeed, final int pSimulations,
+            final int pThreads, final int pWorkers, final boolean pCull, final File pJournalDir,
+            final File pSnapshotDir) throws InterruptedException, ExecutionException {
+        // every step of every simulation ends up in this histogram
+        final Histogram stepLatency = new Histogram();
+        final Histogram culledPerStep = new Histogram();
+        final ExecutorService executor = Executors.newFixedThreadPool(pThreads);
+        final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        final long start = System.nanoTime();
+        int scoreless = 0;
+        int journalMismatches = 0;
+        int snapshotMismatches = 0;
+        try {
+            for(int i = 0; i < pSimulations; i++){
+                final long seed = pSeed + i;
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws IOException {
+                        return simulate(seed, pEntities, pSteps, pWorkers, pCull, pJournalDir, pSnapshotDir);
+                    }
+                }));
+            }
+            for(final Future<Result> future : futures){
+                final Result result = future.get();
+                stepLatency.add(result.mStepLatency);
+                if(result.mCulledPerStep != null){
+                    culledPerStep.add(result.mCulledPerStep);
+                }
+                System.out.printf("seed %d: %d steps in %.2f s, %.0f steps/s, %d rounds, total score %d, checksum %016x%n",
+                        result.mSeed, pSteps, result.mNanos / 1e9, pSteps * 1e9 / result.mNanos,
+                        result.mRoundCount, result.mScore, result.mChecksum);
+                if(result.mScore <= 0){
+                    scoreless++;
+                }
+                if(result.mJournalEvents > 0){
+                    System.out.printf("seed %d: journaled %d events, replay %s%n", result.mSeed, result.mJournalEvents,
+                            result.mJournalConsistent ? "matches" : "DIFFERS");
+                    if(!result.mJournalConsistent){
+                        journalMismatches++;
+                    }
+                }
+                if(result.mSnapshotCount > 0){
+                    System.out.printf("seed %d: %d snapshots, %d fields in %d bytes, %d compactions; restore %.1f us"
+                            + " from %d records, %s%n", result.mSeed, result.mSnapshotCount, result.mSnapshotFields,
+                            result.mSnapshotBytes, result.mCompactionCount, result.mRestoreNanos / 1e3,
+                            result.mRestoreRecords, result.mSnapshotConsistent ? "matches" : "DIFFERS");
+                    if(!result.mSnapshotConsistent){
+                        snapshotMismatches++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        final long nanos = System.nanoTime() - start;
+
+        System.out.printf("%d simulations of %d entities on %d threads, %d workers each: %.0f steps/s in total%n",
+                pSimulations, pEntities, pThreads, pWorkers, pSimulations * pSteps * 1e9 / nanos);
+        System.out.printf("step latency: p50 %.1f us, p95 %.1f us, p99 %.1f us, max %.1f us (budget %.1f us)%n",
+                stepLatency.getPercentile(0.50) / 1e3, stepLatency.getPercentile(0.95) / 1e3,
+                stepLatency.getPercentile(0.99) / 1e3, stepLatency.getMax() / 1e3,
+                1e6 / Simulation.STEPS_PER_SECOND);
+        if(pCull){
+            System.out.printf("entities outside the viewport per step: avg %d, p50 %d, max %d%n",
+                    culledPerStep.getMean(), culledPerStep.getPercentile(0.50), culledPerStep.getMax());
+        }
+        boolean failed = false;
+        if(scoreless > 0){
+            // birds hit enemies in every round, so a simulation without points never got played
+            System.out.printf("FAIL: %d of %d simulations scored nothing%n", scoreless, pSimulations);
+            failed = true;
+        }
+        if(journalMismatches > 0){
+            System.out.printf("FAIL: %d of %d journal replays differ from the game%n", journalMismatches, pSimulations);
+            failed = true;
+        }
+        if(snapshotMismatches > 0){
+            System.out.printf("FAIL: %d of %d snapshot restores differ from the game%n", snapshotMismatches,
+                    pSimulations);
+            failed = true;
+        }
+        if(failed){
+            System.exit(1);
+        }
+    }
+
+    // Each simulation records into a histogram of its own, so threads never contend
+    private static Result simulate(final long pSeed, final int pEntities, final long pSteps, final int pWorkers,
+            final boolean pCull, final File pJournalDir, final File pSnapshotDir) throws IOException {
+        final ParallelUpdateStage updateStage = new ParallelUpdateStage(pWorkers);
+        final Simulation simulation = new Simulation(pSeed, pEntities, updateStage);
+        GameJournal journal = null;
+        if(pJournalDir != null){
+            journal = new GameJournal(JOURNAL_CAPACITY, new File(pJournalDir, "journal-" + pSeed + ".bin"));
+            simulation.getGameManager().setJournal(journal);
+        }
+        StateSnapshotter snapshotter = null;
+        File snapshotBase = null;
+        File snapshotLog = null;
+        if(pSnapshotDir != null){
+            snapshotBase = new File(pSnapshotDir, "state-" + pSeed + ".base");
+            snapshotLog = new File(pSnapshotDir, "state-" + pSeed + ".log");
+            // every run starts from scratch
+            snapshotBase.delete();
+            snapshotLog.delete();
+            snapshotter = new StateSnapshotter(snapshotBase, snapshotLog);
+            snapshotter.addSource(SNAPSHOT_SOURCE_ID, simulation.getGameManager());
+            snapshotter.restore();
+        }
+        if(pCull){
+            final EntityCuller culler = simulation.setViewport(Simulation.WORLD_WIDTH / 4, Simulation.WORLD_HEIGHT / 4,
+                    Simulation.WORLD_WIDTH * 3 / 4, Simulation.WORLD_HEIGHT * 3 / 4);
+            culler.setThrottle(THROTTLE_DISTANCE, THROTTLE_INTERVAL);
+            culler.setSleepDistance(SLEEP_DISTANCE);
+        }
+        final Histogram stepLatency = new Histogram();
+        final long start = System.nanoTime();
+        long stepStart = start;
+        try {
+            for(long i = 0; i < pSteps; i++){
+                simulation.step();
+                if(snapshotter != null && i % SNAPSHOT_INTERVAL_STEPS == 0){
+                    snapshotter.snapshot();
+                }
+                final long stepEnd = System.nanoTime();
+                stepLatency.record(stepEnd - stepStart);
+                stepStart = stepEnd;
+            }
+        } finally {
+            updateStage.shutdown();
+        }
+        final long nanos = System.nanoTime() - start;
+        final Result result = new Result();
+        if(journal != null){
+            result.mJournalEvents = journal.getEventCount();
+            result.mJournalConsistent = simulation.isJournalConsistent();
+            journal.close();
+        }
+        if(snapshotter != null){
+            snapshotter.close();
+            result.mSnapshotCount = snapshotter.getSnapshotCount();
+            result.mSnapshotFields = snapshotter.getDeltaFieldCount();
+            result.mSnapshotBytes = snapshotter.getDeltaBytes();
+            result.mCompactionCount = snapshotter.getCompactionCount();
+            final StateSnapshotter restorer = new StateSnapshotter(snapshotBase, snapshotLog);
+            result.mSnapshotConsistent = simulation.isSnapshotConsistent(restorer, SNAPSHOT_SOURCE_ID);
+            result.mRestoreNanos = restorer.getLastRestoreNanos();
+            result.mRestoreRecords = restorer.getLastRestoreRecords();
+        }
+        result.mSeed = pSeed;
+        result.mNanos = nanos;
+        result.mRoundCount = simulation.getRoundCount();
+        result.mScore = simulation.getTotalScore();
+        result.mChecksum = simulation.getChecksum();
+        result.mStepLatency = stepLatency;
+        if(pCull){
+            result.mCulledPerStep = simulation.getCuller().getCulledPerTick();
+        }
+        return result;
+    }
+
+    private static class Result {
+        long mSeed;
+        long mNanos;
+        int mRoundCount;
+        long mScore;
+        long mChecksum;
+        Histogram mStepLatency;
+        Histogram mCulledPerStep;
+        long mJournalEvents;
+        boolean mJournalConsistent;
+        long mSnapshotCount;
+        long mSnapshotFields;
+        long mSnapshotBytes;
+        long mCompactionCount;
+        long mRestoreNanos;
+        int mRestoreRecords;
+        boolean mSnapshotConsistent;
+    }
+}
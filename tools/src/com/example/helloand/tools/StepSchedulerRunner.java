@@ -0,0 +1,144 @@
+package com.example.helloand.tools;
+
+import java.io.PrintWriter;
+
+import com.example.helloand.StepScheduler;
+
+/**
+ * StepSchedulerRunner plays frame time scenarios through a StepScheduler
+ * on a desktop JVM. A fake clock stands in for the device: every frame
+ * takes a scripted time, and every step and draw a scripted share of it,
+ * so the scheduler's decisions are the same on every run and can be
+ * checked against what the policy promises.
+ *
+ * Usage: StepSchedulerRunner [-maxSteps n]
+ *
+ * Each scenario prints the frames at which the logic rate changes or
+ * catch-up hits the maximum steps per frame, then the scheduler's report and the checks that failed.
+ * The exit code is the number of failed checks.
+ */
+public class StepSchedulerRunner {
+
+    private static final long MILLIS = 1000000L;
+
+    // the frame interval of a vsync-paced 60 Hz display
+    private static final long VSYNC_NANOS = 16667 * 1000;
+
+    // a clock only the runner moves
+    private static class FakeClock implements StepScheduler.Clock {
+        long mNow;
+
+        @Override
+        public long nanoTime(){
+            return mNow;
+        }
+    }
+
+    private static int sFailures;
+
+    public static void main(String[] pArgs) throws InterruptedException {
+        int maxSteps = 4;
+        for(int i = 0; i + 1 < pArgs.length; i += 2){
+            if("-maxSteps".equals(pArgs[i])){
+                maxSteps = Integer.parseInt(pArgs[i + 1]);
+            } else {
+                System.err.println("Usage: StepSchedulerRunner [-maxSteps n]");
+                System.exit(1);
+            }
+        }
+
+        // a device that keeps up: 60 steps per second, one per frame
+        StepScheduler scheduler = run("steady 60 fps", maxSteps, new long[] { 600 }, new long[] { VSYNC_NANOS },
+                new long[] { 2 * MILLIS }, new long[] { 6 * MILLIS });
+        check(scheduler.getStepsPerSecond() == 60, "stays at 60 steps per second");
+        check(scheduler.getDroppedStepCount() == 0, "drops no steps");
+        check(scheduler.getStepsPerFrame().getMax() <= 2, "runs at most two steps per frame");
+
+        // a device that draws at 40 fps: the rate drops to 45 and stays there
+        scheduler = run("slow 40 fps", maxSteps, new long[] { 600 }, new long[] { 25 * MILLIS },
+                new long[] { 8 * MILLIS }, new long[] { 17 * MILLIS });
+        check(scheduler.getStepsPerSecond() == 45, "settles at 45 steps per second");
+        check(scheduler.getRateRestoreCount() == 0, "never restores the rate");
+
+        // a device that draws at 20 fps: the rate drops all the way to 30
+        scheduler = run("slow 20 fps", maxSteps, new long[] { 600 }, new long[] { 50 * MILLIS },
+                new long[] { 15 * MILLIS }, new long[] { 35 * MILLIS });
+        check(scheduler.getStepsPerSecond() == 30, "settles at 30 steps per second");
+        check(scheduler.getDroppedStepCount() == 0, "drops no steps");
+
+        // a hitch of half a second: catch-up is bounded, the rest is dropped
+        scheduler = run("hitch", maxSteps, new long[] { 30, 1, 90 }, new long[] { 16 * MILLIS, 500 * MILLIS, 16 * MILLIS },
+                new long[] { 2 * MILLIS, 2 * MILLIS, 2 * MILLIS }, new long[] { 6 * MILLIS, 6 * MILLIS, 6 * MILLIS });
+        check(scheduler.getStepsPerFrame().getMax() == maxSteps, "runs at most " + maxSteps + " steps in one frame");
+        check(scheduler.getDroppedStepCount() > 0, "drops the steps it cannot catch up");
+        check(scheduler.getStepsPerSecond() == 60, "keeps the rate over a single hitch");
+
+        /* a device that is slow for a while and then recovers. The display
+         * is vsync-paced, so frames never come faster than 16.7 ms; only
+         * the busy time tells the scheduler there is room again
+         */
+        scheduler = run("slow, then recovering", maxSteps, new long[] { 300, 600 }, new long[] { 40 * MILLIS, VSYNC_NANOS },
+                new long[] { 12 * MILLIS, 2 * MILLIS }, new long[] { 25 * MILLIS, 6 * MILLIS });
+        check(scheduler.getRateDropCount() == 2, "drops the rate twice");
+        check(scheduler.getRateRestoreCount() == 2, "restores it twice");
+        check(scheduler.getStepsPerSecond() == 60, "ends at 60 steps per second");
+
+        System.out.println(sFailures == 0 ? "all checks passed" : sFailures + " checks failed");
+        System.exit(sFailures);
+    }
+
+    /* Runs pFrames[i] frames of pFrameNanos[i] each, for every i, through
+     * an adaptive scheduler starting at 60 steps per second. Each step of
+     * those frames takes pStepWorkNanos[i] and drawing them pDrawNanos[i].
+     */
+    private static StepScheduler run(final String pName, final int pMaxSteps, final long[] pFrames,
+            final long[] pFrameNanos, final long[] pStepWorkNanos, final long[] pDrawNanos)
+            throws InterruptedException {
+        System.out.println("== " + pName);
+        final FakeClock clock = new FakeClock();
+        final StepScheduler scheduler = new StepScheduler(clock, 60, pMaxSteps);
+        scheduler.setAdaptive(true);
+        final long[] simulatedNanos = new long[1];
+        final long[] stepWorkNanos = new long[1];
+        final StepScheduler.Stepper stepper = new StepScheduler.Stepper() {
+            @Override
+            public void onStep(final long pStepNanos){
+                simulatedNanos[0] += pStepNanos;
+                clock.mNow += stepWorkNanos[0];
+            }
+        };
+        scheduler.advance(stepper);
+        long frameStart = clock.mNow;
+        int frame = 0;
+        int rate = scheduler.getStepsPerSecond();
+        for(int i = 0; i < pFrames.length; i++){
+            stepWorkNanos[0] = pStepWorkNanos[i];
+            for(long f = 0; f < pFrames[i]; f++){
+                // the steps run within the frame, they do not move when the next one starts
+                frameStart += pFrameNanos[i];
+                clock.mNow = frameStart;
+                final int steps = scheduler.advance(stepper);
+                scheduler.onFrameDrawn(pDrawNanos[i]);
+                if(scheduler.getStepsPerSecond() != rate || steps == pMaxSteps){
+                    rate = scheduler.getStepsPerSecond();
+                    System.out.printf("frame %4d: %2d ms, %d steps, %d steps/s, alpha %.2f%n", frame,
+                            pFrameNanos[i] / MILLIS, steps, rate, scheduler.getAlpha());
+                }
+                frame++;
+            }
+        }
+        System.out.printf("%d frames, %.2f s on the clock, %.2f s simulated%n", frame,
+                frameStart / 1e9, simulatedNanos[0] / 1e9);
+        final PrintWriter out = new PrintWriter(System.out);
+        scheduler.onReport(out);
+        out.flush();
+        return scheduler;
+    }
+
+    private static void check(final boolean pPassed, final String pWhat){
+        if(!pPassed){
+            sFailures++;
+        }
+        System.out.println((pPassed ? "  ok   " : "  FAIL ") + pWhat);
+    }
+}
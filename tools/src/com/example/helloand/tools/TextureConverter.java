@@ -0,0 +1,184 @@
+package com.example.helloand.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import com.example.helloand.PkmHeader;
+import com.example.helloand.TextureFormatManifest;
+
+/**
+ * TextureConverter is the offline step that picks the texture format for
+ * each image. Every format an image can be stored in is tried, from the
+ * cheapest to the most expensive, and the first one whose PSNR against
+ * the original reaches the threshold wins:
+ *
+ * <pre>
+ * opaque images:      ETC1 (4 bits per pixel), RGB_565 (16), RGBA_8888 (32)
+ * transparent images: RGBA_4444 (16), RGBA_8888 (32)
+ * </pre>
+ *
+ * ETC1 images are written as a PKM file next to the PNG, which the game
+ * uploads without decoding. The choices go into gfx/formats.bin, the
+ * TextureFormatManifest ResourceManager reads at runtime.
+ *
+ * Usage: TextureConverter [-psnr dB] assetsDir image ...
+ *
+ * Images are given relative to assetsDir, the way the game loads them,
+ * e.g. gfx/packed/page0.png. Run it after AtlasPacker.
+ */
+public class TextureConverter {
+
+    public static final String MANIFEST_PATH = "gfx/formats.bin";
+
+    // below this, the difference starts to show on gradients and edges
+    private static final double DEFAULT_MIN_PSNR = 35.0;
+
+    public static void main(String[] pArgs) throws IOException {
+        double minPsnr = DEFAULT_MIN_PSNR;
+        final List<String> paths = new ArrayList<String>();
+        for(int i = 0; i < pArgs.length; i++){
+            if("-psnr".equals(pArgs[i]) && i + 1 < pArgs.length){
+                minPsnr = Double.parseDouble(pArgs[++i]);
+            } else {
+                paths.add(pArgs[i]);
+            }
+        }
+        if(paths.size() < 2){
+            System.err.println("Usage: TextureConverter [-psnr dB] assetsDir image ...");
+            System.exit(1);
+        }
+        final File assetsDir = new File(paths.remove(0));
+        convert(assetsDir, paths, minPsnr);
+    }
+
+    public static TextureFormatManifest convert(final File pAssetsDir, final List<String> pImagePaths,
+            final double pMinPsnr) throws IOException {
+        final TextureFormatManifest manifest = new TextureFormatManifest();
+        System.out.printf("%-28s %9s %9s %9s %9s  %s%n", "image", "ETC1", "RGB_565", "RGBA_4444", "RGBA_8888", "format");
+        for(final String path : pImagePaths){
+            final File file = new File(pAssetsDir, path);
+            final BufferedImage image = ImageIO.read(file);
+            if(image == null){
+                throw new IOException("Failed to read " + file);
+            }
+            final int width = image.getWidth();
+            final int height = image.getHeight();
+            final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            final boolean opaque = isOpaque(pixels);
+
+            // the PSNR of every candidate, NaN where a format cannot hold the image
+            final double[] psnr = new double[4];
+            Arrays.fill(psnr, Double.NaN);
+            byte[] etc1 = null;
+            if(opaque){
+                etc1 = Etc1Codec.encode(pixels, width, height);
+                psnr[TextureFormatManifest.FORMAT_ETC1] = psnr(pixels, Etc1Codec.decode(etc1, width, height), false);
+                psnr[TextureFormatManifest.FORMAT_RGB_565] = psnr(pixels, quantize(pixels, 5, 6, 5, 8), false);
+            } else {
+                psnr[TextureFormatManifest.FORMAT_RGBA_4444] = psnr(pixels, quantize(pixels, 4, 4, 4, 4), true);
+            }
+            psnr[TextureFormatManifest.FORMAT_RGBA_8888] = Double.POSITIVE_INFINITY;
+
+            // the cheapest format per pixel comes first
+            final int[] candidates = { TextureFormatManifest.FORMAT_ETC1, TextureFormatManifest.FORMAT_RGB_565,
+                    TextureFormatManifest.FORMAT_RGBA_4444, TextureFormatManifest.FORMAT_RGBA_8888 };
+            int format = TextureFormatManifest.FORMAT_RGBA_8888;
+            for(final int candidate : candidates){
+                if(psnr[candidate] >= pMinPsnr){
+                    format = candidate;
+                    break;
+                }
+            }
+            if(format == TextureFormatManifest.FORMAT_ETC1){
+                writePkm(new File(pAssetsDir, TextureFormatManifest.getCompressedPath(path)), width, height, etc1);
+            }
+            manifest.setFormat(path, format);
+            System.out.printf("%-28s %9s %9s %9s %9s  %s%n", path, formatPsnr(psnr[TextureFormatManifest.FORMAT_ETC1]),
+                    formatPsnr(psnr[TextureFormatManifest.FORMAT_RGB_565]), formatPsnr(psnr[TextureFormatManifest.FORMAT_RGBA_4444]),
+                    formatPsnr(psnr[TextureFormatManifest.FORMAT_RGBA_8888]), TextureFormatManifest.getFormatName(format));
+        }
+
+        final OutputStream out = new FileOutputStream(new File(pAssetsDir, MANIFEST_PATH));
+        try {
+            manifest.write(out);
+        } finally {
+            out.close();
+        }
+        return manifest;
+    }
+
+    private static boolean isOpaque(final int[] pPixels){
+        for(int i = 0; i < pPixels.length; i++){
+            if((pPixels[i] >>> 24) != 0xFF){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // What the pixels look like with the given number of bits per channel
+    private static int[] quantize(final int[] pPixels, final int pRedBits, final int pGreenBits, final int pBlueBits,
+            final int pAlphaBits){
+        final int[] result = new int[pPixels.length];
+        for(int i = 0; i < pPixels.length; i++){
+            final int pixel = pPixels[i];
+            result[i] = quantize(pixel >>> 24, pAlphaBits) << 24 | quantize((pixel >> 16) & 0xFF, pRedBits) << 16
+                    | quantize((pixel >> 8) & 0xFF, pGreenBits) << 8 | quantize(pixel & 0xFF, pBlueBits);
+        }
+        return result;
+    }
+
+    private static int quantize(final int pValue, final int pBits){
+        final int max = (1 << pBits) - 1;
+        return Math.round(Math.round(pValue * max / 255f) * 255f / max);
+    }
+
+    /* The peak signal-to-noise ratio of pResult against pOriginal in dB.
+     * With pAlpha, the alpha channel counts too, and color errors only
+     * count as much as the pixel is visible.
+     */
+    private static double psnr(final int[] pOriginal, final int[] pResult, final boolean pAlpha){
+        double sum = 0;
+        for(int i = 0; i < pOriginal.length; i++){
+            final int original = pOriginal[i];
+            final int result = pResult[i];
+            final double weight = pAlpha ? (original >>> 24) / 255.0 : 1.0;
+            for(int shift = 0; shift < 24; shift += 8){
+                final int error = ((original >> shift) & 0xFF) - ((result >> shift) & 0xFF);
+                sum += weight * error * error;
+            }
+            if(pAlpha){
+                final int error = (original >>> 24) - (result >>> 24);
+                sum += error * error;
+            }
+        }
+        final double mse = sum / (pOriginal.length * (pAlpha ? 4 : 3));
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    private static String formatPsnr(final double pPsnr){
+        if(Double.isNaN(pPsnr)){
+            return "-";
+        }
+        return Double.isInfinite(pPsnr) ? "lossless" : String.format("%.1f dB", pPsnr);
+    }
+
+    private static void writePkm(final File pFile, final int pWidth, final int pHeight, final byte[] pData) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(pFile));
+        try {
+            new PkmHeader(pWidth, pHeight).write(out);
+            out.write(pData);
+        } finally {
+            out.close();
+        }
+    }
+}